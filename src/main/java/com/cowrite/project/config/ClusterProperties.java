@@ -0,0 +1,47 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+@Component
+public class ClusterProperties {
+
+    /**
+     * 是否开启集群模式（多个 Netty 节点协作编辑同一文档）
+     */
+    @Value("${cowrite.cluster.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 节点 ID，默认取 k8s 注入的 HOSTNAME（Pod 名），都没有时随机生成
+     */
+    @Value("${cowrite.cluster.node-id:${HOSTNAME:}}")
+    private String nodeId;
+
+    /**
+     * 文档归属租约时长，owner 以 1/3 租约的间隔续期，宕机后最迟一个租约后由其他节点接管
+     */
+    @Value("${cowrite.cluster.lease-millis:15000}")
+    private long leaseMillis;
+
+    /**
+     * 文档在本节点上没有本地或转发来的操作超过该时长后，写入最终状态、丢弃引擎并释放归属租约
+     */
+    @Value("${cowrite.cluster.idle-release-millis:300000}")
+    private long idleReleaseMillis;
+
+    public boolean isEnabled() { return enabled; }
+
+    public synchronized String getNodeId() {
+        if (nodeId == null || nodeId.isEmpty()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        return nodeId;
+    }
+
+    public long getLeaseMillis() { return leaseMillis; }
+
+    public long getIdleReleaseMillis() { return idleReleaseMillis; }
+}
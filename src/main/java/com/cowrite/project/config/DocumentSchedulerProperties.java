@@ -0,0 +1,39 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class DocumentSchedulerProperties {
+
+    /**
+     * 共享工作线程数，<= 0 时取 CPU 核数
+     */
+    @Value("${cowrite.netty.scheduler.worker-threads:0}")
+    private int workerThreads;
+
+    /**
+     * 单个文档邮箱允许堆积的最大任务数，超过后拒绝（背压）
+     */
+    @Value("${cowrite.netty.scheduler.max-mailbox-depth:1000}")
+    private int maxMailboxDepth;
+
+    /**
+     * 一次调度最多连续处理的任务数，之后让出线程保证文档间公平
+     */
+    @Value("${cowrite.netty.scheduler.drain-batch:64}")
+    private int drainBatch;
+
+    /**
+     * 邮箱空闲多久后被回收
+     */
+    @Value("${cowrite.netty.scheduler.idle-evict-millis:60000}")
+    private long idleEvictMillis;
+
+    public int getWorkerThreads() {
+        return workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+    }
+    public int getMaxMailboxDepth() { return maxMailboxDepth; }
+    public int getDrainBatch() { return drainBatch; }
+    public long getIdleEvictMillis() { return idleEvictMillis; }
+}
@@ -0,0 +1,23 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class DocumentStateProperties {
+
+    /**
+     * 启动后是否清理旧布局遗留的 doc:{id}:content / title / editor / version 键，整个集群只执行一次
+     */
+    @Value("${cowrite.document.state.legacy-cleanup.enabled:true}")
+    private boolean legacyCleanupEnabled;
+
+    /**
+     * 清理时每批 UNLINK 的键数
+     */
+    @Value("${cowrite.document.state.legacy-cleanup.batch-size:500}")
+    private int legacyCleanupBatchSize;
+
+    public boolean isLegacyCleanupEnabled() { return legacyCleanupEnabled; }
+    public int getLegacyCleanupBatchSize() { return Math.max(1, legacyCleanupBatchSize); }
+}
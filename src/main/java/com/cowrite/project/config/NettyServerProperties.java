@@ -0,0 +1,108 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Netty WebSocket 服务端的传输层配置
+ */
+@Component
+public class NettyServerProperties {
+
+    @Value("${netty.server.port:8090}")
+    private int port;
+
+    /**
+     * 传输实现：auto（Linux 上可用时用 epoll，否则 NIO）、epoll、nio
+     */
+    @Value("${netty.server.transport:auto}")
+    private String transport;
+
+    /**
+     * I/O 线程数，0 表示 Netty 默认值（CPU 核数 * 2）
+     */
+    @Value("${netty.server.worker-threads:0}")
+    private int workerThreads;
+
+    /**
+     * 等待 accept 的连接队列长度，实际值还受内核 somaxconn 限制
+     */
+    @Value("${netty.server.backlog:1024}")
+    private int backlog;
+
+    @Value("${netty.server.tcp-nodelay:true}")
+    private boolean tcpNoDelay;
+
+    /**
+     * 连接待发送字节数超过高水位时 Channel 变为不可写，降到低水位以下恢复
+     */
+    @Value("${netty.server.write-buffer-low-water-mark:32768}")
+    private int writeBufferLowWaterMark;
+
+    @Value("${netty.server.write-buffer-high-water-mark:65536}")
+    private int writeBufferHighWaterMark;
+
+    /**
+     * 聚合后的 HTTP 消息（握手请求）最大字节数
+     */
+    @Value("${netty.server.max-content-length:65536}")
+    private int maxContentLength;
+
+    /**
+     * 是否协商 permessage-deflate，客户端未请求时不压缩
+     */
+    @Value("${netty.server.compression.enabled:false}")
+    private boolean compressionEnabled;
+
+    /**
+     * 载荷小于该字节数的下行帧不压缩
+     */
+    @Value("${netty.server.compression.threshold:1024}")
+    private int compressionThreshold;
+
+    /**
+     * deflate 压缩级别 0-9
+     */
+    @Value("${netty.server.compression.level:6}")
+    private int compressionLevel;
+
+    /**
+     * 服务端压缩是否跨消息保留上下文，关闭后压缩率下降但不再每个连接常驻 deflate 窗口
+     */
+    @Value("${netty.server.compression.server-context-takeover:true}")
+    private boolean serverContextTakeover;
+
+    /**
+     * 是否允许客户端跨消息保留压缩上下文，关闭时服务端解压同样不需要常驻窗口
+     */
+    @Value("${netty.server.compression.client-context-takeover:true}")
+    private boolean clientContextTakeover;
+
+    /**
+     * 是否在 WebSocket 升级时校验 JWT 并绑定用户与文档权限；关闭时沿用消息中的 userId（仅用于本地调试）
+     */
+    @Value("${netty.server.auth.enabled:true}")
+    private boolean authEnabled;
+
+    /**
+     * 握手认证（JWT 黑名单与权限查询）线程数
+     */
+    @Value("${netty.server.auth.threads:4}")
+    private int authThreads;
+
+    public int getPort() { return port; }
+    public String getTransport() { return transport; }
+    public int getWorkerThreads() { return Math.max(0, workerThreads); }
+    public int getBacklog() { return backlog; }
+    public boolean isTcpNoDelay() { return tcpNoDelay; }
+    public int getWriteBufferLowWaterMark() { return Math.min(writeBufferLowWaterMark, writeBufferHighWaterMark); }
+    public int getWriteBufferHighWaterMark() { return writeBufferHighWaterMark; }
+    public int getMaxContentLength() { return maxContentLength; }
+    public boolean isCompressionEnabled() { return compressionEnabled; }
+    public int getCompressionThreshold() { return Math.max(0, compressionThreshold); }
+    public int getCompressionLevel() { return Math.max(0, Math.min(9, compressionLevel)); }
+    public boolean isServerContextTakeover() { return serverContextTakeover; }
+    public boolean isClientContextTakeover() { return clientContextTakeover; }
+    public boolean isAuthEnabled() { return authEnabled; }
+    public int getAuthThreads() { return Math.max(1, authThreads); }
+}
@@ -0,0 +1,30 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class OperationCoalescerProperties {
+
+    /**
+     * 是否合并同一连接上连续的键盘级插入 / 删除；前端 OtClient 在本地缓冲区合并，服务端默认不再等待
+     */
+    @Value("${cowrite.netty.coalesce.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 合并窗口：一个批次中第一个操作最多被延迟的时间，即合并带来的延迟上限
+     */
+    @Value("${cowrite.netty.coalesce.window-millis:100}")
+    private long windowMillis;
+
+    /**
+     * 合并后插入内容 / 删除长度的上限，达到后立即下发
+     */
+    @Value("${cowrite.netty.coalesce.max-length:512}")
+    private int maxLength;
+
+    public boolean isEnabled() { return enabled && windowMillis > 0; }
+    public long getWindowMillis() { return windowMillis; }
+    public int getMaxLength() { return maxLength; }
+}
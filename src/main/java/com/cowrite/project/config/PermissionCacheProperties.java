@@ -0,0 +1,41 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 文档权限缓存配置：本地 Caffeine（L1）+ Redis hash（L2），权限写入时失效并广播到其他节点
+ */
+@Component
+public class PermissionCacheProperties {
+
+    /**
+     * 关闭时每次权限判断都直接查库
+     */
+    @Value("${cowrite.permission.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cowrite.permission.cache.l1-max-size:100000}")
+    private long l1MaxSize;
+
+    /**
+     * L1 过期时长，失效广播丢失时最多过期这么久
+     */
+    @Value("${cowrite.permission.cache.l1-ttl-seconds:60}")
+    private long l1TtlSeconds;
+
+    @Value("${cowrite.permission.cache.l2-ttl-seconds:600}")
+    private long l2TtlSeconds;
+
+    /**
+     * 权限写入后延迟再失效一次（延迟双删），覆盖失效与并发回填旧值交错的情况，0 表示不做
+     */
+    @Value("${cowrite.permission.cache.redelete-delay-millis:1000}")
+    private long redeleteDelayMillis;
+
+    public boolean isEnabled() { return enabled; }
+    public long getL1MaxSize() { return Math.max(1, l1MaxSize); }
+    public long getL1TtlSeconds() { return Math.max(1, l1TtlSeconds); }
+    public long getL2TtlSeconds() { return Math.max(1, l2TtlSeconds); }
+    public long getRedeleteDelayMillis() { return Math.max(0, redeleteDelayMillis); }
+}
@@ -0,0 +1,26 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 在线状态配置
+ */
+@Component
+public class PresenceProperties {
+
+    /**
+     * 最后一次编辑后多久视为停止输入
+     */
+    @Value("${cowrite.netty.presence.typing-timeout-millis:3000}")
+    private long typingTimeoutMillis;
+
+    /**
+     * PRESENCE 帧的下发周期，默认约 15Hz
+     */
+    @Value("${cowrite.netty.presence.tick-millis:66}")
+    private long tickMillis;
+
+    public long getTypingTimeoutMillis() { return typingTimeoutMillis; }
+    public long getTickMillis() { return tickMillis; }
+}
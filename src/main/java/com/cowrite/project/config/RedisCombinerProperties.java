@@ -12,20 +12,15 @@ public class RedisCombinerProperties {
     @Value("${cowrite.redis.combiner.max-flush-millis:50}")
     private long maxFlushMillis;
 
-    @Value("${cowrite.redis.combiner.scan-pattern:doc:*:buf}")
-    private String scanPattern;
-
-    @Value("${cowrite.redis.combiner.scheduler.enabled:true}")
-    private boolean schedulerEnabled;
-
-    @Value("${cowrite.redis.combiner.scheduler.fixed-delay-ms:1000}")
-    private long schedulerFixedDelayMs;
+    /**
+     * 每个文档 JVM 侧环形缓冲区的容量，写满时提交线程等待刷写（event loop 上直接拒绝），形成回压
+     */
+    @Value("${cowrite.redis.combiner.ring-capacity:1024}")
+    private int ringCapacity;
 
     public int getMaxBatch() { return maxBatch; }
     public long getMaxFlushMillis() { return maxFlushMillis; }
-    public String getScanPattern() { return scanPattern; }
-    public boolean isSchedulerEnabled() { return schedulerEnabled; }
-    public long getSchedulerFixedDelayMs() { return schedulerFixedDelayMs; }
+    public int getRingCapacity() { return ringCapacity; }
 }
 
 
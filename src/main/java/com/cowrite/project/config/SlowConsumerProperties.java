@@ -0,0 +1,26 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 慢连接处理配置，写水位见 netty.server.write-buffer-*-water-mark（{@link NettyServerProperties}）
+ */
+@Component
+public class SlowConsumerProperties {
+
+    /**
+     * 是否在连接越过写高水位后停止逐条推送、待其排空后下发一次快照
+     */
+    @Value("${cowrite.netty.slow-consumer.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 连接持续不可写超过该时长即断开，客户端重连后重新加载文档
+     */
+    @Value("${cowrite.netty.slow-consumer.deadline-millis:30000}")
+    private long deadlineMillis;
+
+    public boolean isEnabled() { return enabled; }
+    public long getDeadlineMillis() { return deadlineMillis; }
+}
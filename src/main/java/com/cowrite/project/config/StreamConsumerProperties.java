@@ -0,0 +1,95 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class StreamConsumerProperties {
+
+    /**
+     * 是否消费文档操作 Stream。开启后内容操作先写入 Stream 再由消费者应用，每个操作多出刷新等待与一次
+     * XREADGROUP 往返，新文档要等下一次重新分配（rebalance-interval-ms）才开始消费，因此默认关闭，
+     * 内容操作直接进入文档邮箱
+     */
+    @Value("${cowrite.stream.consumer.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 本节点的消费线程数，每个线程负责一部分文档 Stream
+     */
+    @Value("${cowrite.stream.consumer.threads:4}")
+    private int threads;
+
+    /**
+     * 一次 XREADGROUP 最多读取的 Stream 数，线程负责的 Stream 更多时轮转读取
+     */
+    @Value("${cowrite.stream.consumer.max-streams-per-read:256}")
+    private int maxStreamsPerRead;
+
+    /**
+     * 一次 XREADGROUP 每个 Stream 最多返回的条目数
+     */
+    @Value("${cowrite.stream.consumer.poll-count:100}")
+    private int pollCount;
+
+    /**
+     * XREADGROUP 阻塞等待时长
+     */
+    @Value("${cowrite.stream.consumer.block-millis:300}")
+    private long blockMillis;
+
+    /**
+     * 节点心跳与重新分配文档的间隔，节点超过 3 个间隔未心跳视为离开
+     */
+    @Value("${cowrite.stream.consumer.rebalance-interval-ms:5000}")
+    private long rebalanceIntervalMillis;
+
+    /**
+     * 最近一次写入在该时间窗口内的 Stream 视为活跃
+     */
+    @Value("${cowrite.stream.consumer.active-window-ms:600000}")
+    private long activeWindowMillis;
+
+    /**
+     * 待确认条目回收（XPENDING + XCLAIM）的间隔
+     */
+    @Value("${cowrite.stream.consumer.claim-interval-ms:30000}")
+    private long claimIntervalMillis;
+
+    /**
+     * 待确认条目空闲超过该时长才被回收，需明显大于单个操作的处理耗时
+     */
+    @Value("${cowrite.stream.consumer.claim-min-idle-ms:60000}")
+    private long claimMinIdleMillis;
+
+    /**
+     * 最大投递次数，达到后条目转入死信 Stream
+     */
+    @Value("${cowrite.stream.consumer.max-deliveries:5}")
+    private int maxDeliveries;
+
+    /**
+     * 消费积压指标（XINFO / XPENDING）的采样间隔，0 表示不采样
+     */
+    @Value("${cowrite.stream.consumer.lag-interval-ms:10000}")
+    private long lagIntervalMillis;
+
+    /**
+     * 是否输出带 doc 标签的单 Stream 积压指标；每个文档一组时间序列，默认关闭只保留汇总指标，排查单个文档时再开启
+     */
+    @Value("${cowrite.stream.consumer.per-stream-metrics:false}")
+    private boolean perStreamMetrics;
+
+    public boolean isEnabled() { return enabled; }
+    public int getThreads() { return Math.max(1, threads); }
+    public int getMaxStreamsPerRead() { return Math.max(1, maxStreamsPerRead); }
+    public int getPollCount() { return pollCount; }
+    public long getBlockMillis() { return blockMillis; }
+    public long getRebalanceIntervalMillis() { return rebalanceIntervalMillis; }
+    public long getActiveWindowMillis() { return activeWindowMillis; }
+    public long getClaimIntervalMillis() { return claimIntervalMillis; }
+    public long getClaimMinIdleMillis() { return claimMinIdleMillis; }
+    public int getMaxDeliveries() { return Math.max(1, maxDeliveries); }
+    public long getLagIntervalMillis() { return lagIntervalMillis; }
+    public boolean isPerStreamMetrics() { return perStreamMetrics; }
+}
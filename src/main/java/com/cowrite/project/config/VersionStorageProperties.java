@@ -0,0 +1,30 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class VersionStorageProperties {
+
+    /**
+     * 每条增量链最多包含的增量版本数，即重建任意版本最多应用的差量次数
+     */
+    @Value("${cowrite.version.keyframe-interval:20}")
+    private int keyframeInterval;
+
+    /**
+     * 差量超过完整内容的该比例时直接保存关键帧
+     */
+    @Value("${cowrite.version.max-delta-ratio:0.5}")
+    private double maxDeltaRatio;
+
+    /**
+     * 启动后是否把旧的完整内容版本迁移为关键帧 + 增量
+     */
+    @Value("${cowrite.version.migration.enabled:false}")
+    private boolean migrationEnabled;
+
+    public int getKeyframeInterval() { return Math.max(1, keyframeInterval); }
+    public double getMaxDeltaRatio() { return maxDeltaRatio; }
+    public boolean isMigrationEnabled() { return migrationEnabled; }
+}
@@ -0,0 +1,44 @@
+package com.cowrite.project.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class WriteBehindProperties {
+
+    /**
+     * 是否把内存中的文档状态异步写入 Mongo
+     */
+    @Value("${cowrite.persist.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 检查文档是否需要写入的间隔
+     */
+    @Value("${cowrite.persist.tick-ms:1000}")
+    private long tickMillis;
+
+    /**
+     * 防抖：文档在该时长内没有新修改才写入
+     */
+    @Value("${cowrite.persist.debounce-ms:2000}")
+    private long debounceMillis;
+
+    /**
+     * 修改最多等待该时长就必须写入，即宕机时最多丢失的编辑时长（另加一个检查间隔）
+     */
+    @Value("${cowrite.persist.max-delay-ms:10000}")
+    private long maxDelayMillis;
+
+    /**
+     * 一次批量写入最多包含的文档数
+     */
+    @Value("${cowrite.persist.batch-size:200}")
+    private int batchSize;
+
+    public boolean isEnabled() { return enabled; }
+    public long getTickMillis() { return Math.max(100, tickMillis); }
+    public long getDebounceMillis() { return debounceMillis; }
+    public long getMaxDelayMillis() { return Math.max(debounceMillis, maxDelayMillis); }
+    public int getBatchSize() { return Math.max(1, batchSize); }
+}
@@ -0,0 +1,10 @@
+package com.cowrite.project.mapper;
+
+import com.cowrite.project.model.entity.DocumentSnapshot;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DocumentSnapshotRepository extends MongoRepository<DocumentSnapshot, String> {
+
+}
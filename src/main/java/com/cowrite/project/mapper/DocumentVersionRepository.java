@@ -2,6 +2,7 @@ package com.cowrite.project.mapper;
 
 import com.cowrite.project.model.entity.DocumentVersion;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -13,4 +14,16 @@ public interface DocumentVersionRepository extends MongoRepository<DocumentVersi
 
     DocumentVersion findTopByDocumentIdOrderByVersionDesc(Long documentId);
 
-}
\ No newline at end of file
+    /**
+     * 版本列表，只返回元数据，不含 content / delta
+     */
+    @Query(value = "{ 'documentId': ?0 }", fields = "{ 'content': 0, 'delta': 0 }", sort = "{ 'version': -1 }")
+    List<DocumentVersion> findMetadataByDocumentId(Long documentId);
+
+    /**
+     * 重建版本所需的增量链：[from, to] 内的所有版本，按版本号升序
+     */
+    @Query(value = "{ 'documentId': ?0, 'version': { $gte: ?1, $lte: ?2 } }", sort = "{ 'version': 1 }")
+    List<DocumentVersion> findChain(Long documentId, Integer from, Integer to);
+
+}
@@ -0,0 +1,185 @@
+package com.cowrite.project.model.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档状态快照 Mongo Entity，每个文档保留最新一份
+ * <p>
+ * streamId 为快照已覆盖的最后一条操作流（doc:{id}:stream）条目，加载时只需重放其后的条目；
+ * applied 为快照时引擎已应用的操作编号，恢复后重新投递的操作仍能被去重；
+ * history 为快照时引擎保留的历史（服务端应用的变换后的操作），重放基线早于快照的条目时据此变换
+ */
+@Document(collection = "document_snapshots")
+public class DocumentSnapshot {
+
+    /**
+     * 文档 ID
+     */
+    @Id
+    private String id;
+
+    private String content;
+
+    /**
+     * 快照对应的 OT 服务端版本号
+     */
+    private Long revision;
+
+    private String streamId;
+
+    /**
+     * 连接 ID -> [最大序号, 未应用的更小序号...]
+     */
+    private Map<String, List<Long>> applied;
+
+    private List<HistoryOp> history;
+
+    private Instant createdAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public Long getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Long revision) {
+        this.revision = revision;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public void setStreamId(String streamId) {
+        this.streamId = streamId;
+    }
+
+    public Map<String, List<Long>> getApplied() {
+        return applied;
+    }
+
+    public void setApplied(Map<String, List<Long>> applied) {
+        this.applied = applied;
+    }
+
+    public List<HistoryOp> getHistory() {
+        return history;
+    }
+
+    public void setHistory(List<HistoryOp> history) {
+        this.history = history;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentSnapshot{" +
+                "id='" + id + '\'' +
+                ", revision=" + revision +
+                ", streamId='" + streamId + '\'' +
+                ", createdAt=" + createdAt +
+                '}';
+    }
+
+    /**
+     * 历史中的一个操作（单段），revision 为服务端应用它时分配的版本号
+     */
+    public static class HistoryOp {
+
+        private String userId;
+
+        private String clientId;
+
+        private String type;
+
+        private String content;
+
+        private int length;
+
+        private int pos;
+
+        private long revision;
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public void setUserId(String userId) {
+            this.userId = userId;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public void setClientId(String clientId) {
+            this.clientId = clientId;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public void setContent(String content) {
+            this.content = content;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public void setLength(int length) {
+            this.length = length;
+        }
+
+        public int getPos() {
+            return pos;
+        }
+
+        public void setPos(int pos) {
+            this.pos = pos;
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+
+        public void setRevision(long revision) {
+            this.revision = revision;
+        }
+    }
+}
@@ -6,6 +6,10 @@ import java.time.Instant;
 
 /**
  * DocumentVersion Mongo Entity
+ * <p>
+ * 版本按关键帧 + 增量存储：关键帧保存完整 content，其余版本只保存相对上一版本的 delta（{@link com.cowrite.project.utils.TextDelta}），
+ * 每条增量链不超过 K 个版本。迁移前的旧数据只有 content，视为关键帧。
+ * (documentId, version) 唯一（索引由 {@link com.cowrite.project.service.impl.DocumentVersionStore} 创建），并发追加同一版本号时后写入的一方重试。
  *
  * @author heathcetide
  */
@@ -21,10 +25,39 @@ public class DocumentVersion {
 
     private String title;
 
+    /**
+     * 完整内容，仅关键帧保存
+     */
     private String content;
 
+    /**
+     * 相对 version - 1 的差量，关键帧为 null
+     */
+    private String delta;
+
+    /**
+     * 所在增量链的关键帧版本号，关键帧等于自身版本号
+     */
+    private Integer keyframeVersion;
+
+    /**
+     * 完整内容的字符数
+     */
+    private Integer size;
+
     private Long editorId;
 
+    /**
+     * 保存时文档的 OT 服务端版本号，与快照的版本号比较以选出较新的内容；旧数据为 null，视为 0
+     */
+    private Long revision;
+
+    /**
+     * 保存的内容已覆盖的最后一条文档 Stream 条目，引擎以该内容为初始状态时从它之后重放；
+     * "0-0" 表示不包含任何条目，旧数据为 null，视为已包含保存时已投递的全部条目
+     */
+    private String streamId;
+
     private Instant createdAt;
 
     public String getId() {
@@ -59,6 +92,30 @@ public class DocumentVersion {
         this.content = content;
     }
 
+    public String getDelta() {
+        return delta;
+    }
+
+    public void setDelta(String delta) {
+        this.delta = delta;
+    }
+
+    public Integer getKeyframeVersion() {
+        return keyframeVersion;
+    }
+
+    public void setKeyframeVersion(Integer keyframeVersion) {
+        this.keyframeVersion = keyframeVersion;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+
     public Long getEditorId() {
         return editorId;
     }
@@ -67,6 +124,22 @@ public class DocumentVersion {
         this.editorId = editorId;
     }
 
+    public Long getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Long revision) {
+        this.revision = revision;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public void setStreamId(String streamId) {
+        this.streamId = streamId;
+    }
+
     public Instant getCreatedAt() {
         return createdAt;
     }
@@ -91,6 +164,8 @@ public class DocumentVersion {
                 ", version=" + version +
                 ", title='" + title + '\'' +
                 ", content='" + content + '\'' +
+                ", keyframeVersion=" + keyframeVersion +
+                ", size=" + size +
                 ", editorId=" + editorId +
                 ", createdAt=" + createdAt +
                 '}';
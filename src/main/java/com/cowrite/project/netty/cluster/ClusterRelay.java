@@ -0,0 +1,481 @@
+package com.cowrite.project.netty.cluster;
+
+import com.cowrite.project.config.ClusterProperties;
+import com.cowrite.project.netty.handler.MessageHandler;
+import com.cowrite.project.netty.handler.MessageHandlerFactory;
+import com.cowrite.project.netty.handler.OperationReplies;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.session.ClusterBridge;
+import com.cowrite.project.netty.session.PresenceTracker;
+import com.cowrite.project.netty.session.SessionManager;
+import com.cowrite.project.netty.stream.DocumentExecutorManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 集群中继：多个 Netty 节点协作编辑同一文档时，保证每个文档只有一个节点（owner）持有 OT 引擎。
+ * <p>
+ * - 归属：owner 通过 Redis 租约（SET NX PX）确定，第一个处理该文档操作的节点获得租约，
+ *   由独立的续期线程按 1/3 租约周期续期；宕机或续期失败后租约过期，由下一个收到操作的节点接管。
+ *   抢占失败又读不到 owner（租约恰好过期）时重试，仍无法确定则视为归属未知，操作不在本地处理
+ * - 释放：文档超过 idleReleaseMillis 没有本地或转发来的操作时，先同步写入最终状态（{@link #setFinalFlush}），
+ *   再在文档邮箱中丢弃引擎、释放租约；期间有新操作则放弃本次释放
+ * - 转发：非 owner 节点把合并后的内容操作发布到 owner 的节点频道，owner 在文档邮箱中串行处理，
+ *   与本地连接的操作走同一条路径
+ * - 广播：{@link SessionManager} 的广播 / 单播经文档频道到达其他节点，各节点只下发给本地连接；
+ *   节点只订阅本地有连接的文档
+ * - 频道消息为二进制（{@link RelayCodec}），监听容器同步分发，保证同一频道上的消息按发布顺序处理
+ * <p>
+ * 未开启集群模式（cowrite.cluster.enabled=false）时不订阅任何频道，所有方法退化为单机行为。
+ */
+@Component
+public class ClusterRelay implements ClusterBridge, MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterRelay.class);
+
+    static final String OWNER_KEY_PREFIX = "cowrite:doc:owner:";
+
+    static final String NODE_CHANNEL_PREFIX = "cowrite:relay:node:";
+
+    static final String DOC_CHANNEL_PREFIX = "cowrite:relay:doc:";
+
+    /**
+     * 确定 owner 的最多尝试次数（SET NX 失败且 GET 为空时重试）
+     */
+    private static final int OWNER_ATTEMPTS = 3;
+
+    private static final String RENEW_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end";
+
+    private static final String RELEASE_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('del', KEYS[1]) else return 0 end";
+
+    private final ClusterProperties props;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final SessionManager sessionManager;
+
+    private final MessageHandlerFactory handlerFactory;
+
+    private final DocumentExecutorManager documentExecutorManager;
+
+    private final OTEngineRegistry engines;
+
+    private final PresenceTracker presenceTracker;
+
+    /**
+     * 文档归属缓存，避免每个操作都访问 Redis；远端 owner 的缓存在 1/3 租约后失效
+     */
+    private final Map<String, Owner> owners = new ConcurrentHashMap<>();
+
+    private final DefaultRedisScript<Long> renewScript = new DefaultRedisScript<>(RENEW_SCRIPT, Long.class);
+
+    private final DefaultRedisScript<Long> releaseScript = new DefaultRedisScript<>(RELEASE_SCRIPT, Long.class);
+
+    /**
+     * 释放归属前写入文档的最终状态，返回已写入的文档；未注册时不释放
+     */
+    private volatile Function<Collection<String>, Set<String>> finalFlush = docIds -> Collections.emptySet();
+
+    private final Counter forwardedCounter;
+
+    private final Counter publishedCounter;
+
+    private final Counter receivedCounter;
+
+    private RedisMessageListenerContainer container;
+
+    /**
+     * 租约续期线程，不与其他 @Scheduled 任务共用线程，避免续期被拖延导致租约过期
+     */
+    private ScheduledExecutorService leaseRenewer;
+
+    /**
+     * {@link #route} 的结果
+     */
+    public enum Route {
+        /**
+         * 本节点是 owner（或未开启集群模式），在本地处理
+         */
+        LOCAL,
+        /**
+         * 已转发给 owner
+         */
+        FORWARDED,
+        /**
+         * 暂时无法确定 owner，调用方稍后重试或拒绝
+         */
+        UNKNOWN
+    }
+
+    public ClusterRelay(ClusterProperties props,
+                        RedisTemplate<String, Object> redisTemplate,
+                        SessionManager sessionManager,
+                        MessageHandlerFactory handlerFactory,
+                        DocumentExecutorManager documentExecutorManager,
+                        OTEngineRegistry engines,
+                        PresenceTracker presenceTracker,
+                        MeterRegistry meterRegistry) {
+        this.props = props;
+        this.redisTemplate = redisTemplate;
+        this.sessionManager = sessionManager;
+        this.handlerFactory = handlerFactory;
+        this.documentExecutorManager = documentExecutorManager;
+        this.engines = engines;
+        this.presenceTracker = presenceTracker;
+        this.forwardedCounter = Counter.builder("cowrite.cluster.forwarded")
+                .description("转发给 owner 节点的内容操作数")
+                .register(meterRegistry);
+        this.publishedCounter = Counter.builder("cowrite.cluster.published")
+                .description("发布到其他节点的广播 / 单播数")
+                .register(meterRegistry);
+        this.receivedCounter = Counter.builder("cowrite.cluster.received")
+                .description("从其他节点收到的中继消息数")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!props.isEnabled()) {
+            return;
+        }
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisTemplate.getConnectionFactory());
+        // 同步分发：同一频道上的操作必须按发布顺序进入文档邮箱
+        container.setTaskExecutor(new SyncTaskExecutor());
+        container.afterPropertiesSet();
+        container.addMessageListener(this, new ChannelTopic(NODE_CHANNEL_PREFIX + props.getNodeId()));
+        container.start();
+        long renewEvery = Math.max(1, props.getLeaseMillis() / 3);
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-lease-renewer");
+            t.setDaemon(true);
+            return t;
+        });
+        leaseRenewer.scheduleWithFixedDelay(this::renewLeases, renewEvery, renewEvery, TimeUnit.MILLISECONDS);
+        sessionManager.setClusterBridge(this);
+        log.info("cluster relay started, nodeId={}", props.getNodeId());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (container == null) {
+            return;
+        }
+        leaseRenewer.shutdownNow();
+        // 主动释放租约，其他节点无需等待过期即可接管
+        for (String docId : new ArrayList<>(engines.docIds())) {
+            redisTemplate.execute(releaseScript, Collections.singletonList(OWNER_KEY_PREFIX + docId), props.getNodeId());
+        }
+        try {
+            container.destroy();
+        } catch (Exception e) {
+            log.warn("stop relay listener failed", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return container != null;
+    }
+
+    /**
+     * 由 write-behind 注册释放归属前的最终写入
+     */
+    public void setFinalFlush(Function<Collection<String>, Set<String>> finalFlush) {
+        this.finalFlush = finalFlush;
+    }
+
+    /**
+     * 文档不归本节点所有时把操作转发给 owner
+     */
+    public Route route(NettyMessage message) {
+        if (container == null) {
+            return Route.LOCAL;
+        }
+        String owner = ownerOf(message.getDocId());
+        if (owner == null) {
+            return Route.UNKNOWN;
+        }
+        if (props.getNodeId().equals(owner)) {
+            touch(message.getDocId());
+            return Route.LOCAL;
+        }
+        send(NODE_CHANNEL_PREFIX + owner, RelayCodec.encodeForward(props.getNodeId(), message));
+        forwardedCounter.increment();
+        // 输入状态由连接所在节点下发
+        presenceTracker.markTyping(message.getDocId(), message.getUserId());
+        return Route.FORWARDED;
+    }
+
+    /**
+     * 查询（必要时抢占）文档 owner
+     *
+     * @return null 表示多次尝试后仍无法确定 owner，结果不缓存
+     */
+    String ownerOf(String docId) {
+        long now = System.currentTimeMillis();
+        Owner cached = owners.get(docId);
+        if (cached != null && cached.expiresAt > now) {
+            return cached.nodeId;
+        }
+        String key = OWNER_KEY_PREFIX + docId;
+        String nodeId = props.getNodeId();
+        long lease = props.getLeaseMillis();
+        for (int attempt = 0; attempt < OWNER_ATTEMPTS; attempt++) {
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(key, nodeId, lease, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                log.info("acquired ownership of doc {}", docId);
+                owners.put(docId, new Owner(nodeId, Long.MAX_VALUE));
+                return nodeId;
+            }
+            Object current = redisTemplate.opsForValue().get(key);
+            if (current != null) {
+                String owner = current.toString();
+                // 自己持有的租约由 renewLeases 维护，缓存到下一次续期失败为止
+                owners.put(docId, new Owner(owner, nodeId.equals(owner) ? Long.MAX_VALUE : now + lease / 3));
+                return owner;
+            }
+            // SET NX 与 GET 之间租约恰好过期，重新抢占
+        }
+        log.warn("ownership of doc {} unknown after {} attempts", docId, OWNER_ATTEMPTS);
+        return null;
+    }
+
+    /**
+     * 文档的引擎是否由其他节点持有（只读租约，不抢占）；未开启集群模式时总是 false
+     */
+    public boolean isOwnedElsewhere(String docId) {
+        if (container == null) {
+            return false;
+        }
+        Object owner = redisTemplate.opsForValue().get(OWNER_KEY_PREFIX + docId);
+        return owner != null && !props.getNodeId().equals(owner.toString());
+    }
+
+    /**
+     * 续期本节点持有的文档租约；续期失败说明归属已转移，丢弃本地引擎。之后释放空闲的文档
+     */
+    void renewLeases() {
+        String nodeId = props.getNodeId();
+        String lease = String.valueOf(props.getLeaseMillis());
+        long idleBefore = System.currentTimeMillis() - props.getIdleReleaseMillis();
+        Map<String, Owner> idle = new HashMap<>();
+        for (Map.Entry<String, Owner> entry : owners.entrySet()) {
+            Owner owner = entry.getValue();
+            if (!nodeId.equals(owner.nodeId)) {
+                continue;
+            }
+            String docId = entry.getKey();
+            try {
+                Long renewed = redisTemplate.execute(renewScript,
+                        Collections.singletonList(OWNER_KEY_PREFIX + docId), nodeId, lease);
+                if (!Long.valueOf(1L).equals(renewed)) {
+                    log.warn("lost ownership of doc {}", docId);
+                    owners.remove(docId);
+                    engines.remove(docId);
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                // Redis 暂时不可用：保留缓存，下一个周期重试；期间租约可能过期，由续期结果兜底
+                log.warn("renew lease of doc {} failed", docId, e);
+                continue;
+            }
+            if (owner.lastActive <= idleBefore) {
+                idle.put(docId, owner);
+            }
+        }
+        if (!idle.isEmpty()) {
+            releaseIdle(idle);
+        }
+    }
+
+    /**
+     * 写入空闲文档的最终状态后在文档邮箱中丢弃引擎、释放租约；写入失败的文档保留，下一个周期重试
+     */
+    private void releaseIdle(Map<String, Owner> idle) {
+        Map<String, Long> revisions = new HashMap<>();
+        for (String docId : idle.keySet()) {
+            OTEngine engine = engines.get(docId);
+            revisions.put(docId, engine != null ? engine.getRevision() : -1L);
+        }
+        Set<String> flushed;
+        try {
+            flushed = finalFlush.apply(revisions.keySet());
+        } catch (RuntimeException e) {
+            log.warn("final flush of {} idle docs failed", idle.size(), e);
+            return;
+        }
+        for (Map.Entry<String, Owner> entry : idle.entrySet()) {
+            String docId = entry.getKey();
+            Owner owner = entry.getValue();
+            long lastActive = owner.lastActive;
+            long revision = revisions.get(docId);
+            if (revision >= 0 && !flushed.contains(docId)) {
+                continue;
+            }
+            documentExecutorManager.execute(docId, () -> {
+                OTEngine engine = engines.get(docId);
+                long current = engine != null ? engine.getRevision() : -1L;
+                // 写入之后又有操作：文档仍在使用，保留归属
+                if (owner.lastActive != lastActive || current != revision || !owners.remove(docId, owner)) {
+                    return;
+                }
+                engines.remove(docId);
+                redisTemplate.execute(releaseScript, Collections.singletonList(OWNER_KEY_PREFIX + docId),
+                        props.getNodeId());
+                log.info("released idle doc {}", docId);
+            });
+        }
+    }
+
+    private void touch(String docId) {
+        Owner owner = owners.get(docId);
+        if (owner != null) {
+            owner.lastActive = System.currentTimeMillis();
+        }
+    }
+
+    // ========================================================================
+    // ClusterBridge
+    // ========================================================================
+
+    @Override
+    public void publish(String docId, String excludeUserId, MessageResponse response) {
+        send(DOC_CHANNEL_PREFIX + docId,
+                RelayCodec.encodeResponse(RelayCodec.BROADCAST, props.getNodeId(), docId, excludeUserId, response));
+        publishedCounter.increment();
+    }
+
+    @Override
+    public void publishToUser(String docId, String userId, MessageResponse response) {
+        send(DOC_CHANNEL_PREFIX + docId,
+                RelayCodec.encodeResponse(RelayCodec.DIRECT, props.getNodeId(), docId, userId, response));
+        publishedCounter.increment();
+    }
+
+    @Override
+    public void publishExcept(String docId, String excludeConnectionId, MessageResponse response) {
+        send(DOC_CHANNEL_PREFIX + docId, RelayCodec.encodeResponse(RelayCodec.BROADCAST_EXCEPT,
+                props.getNodeId(), docId, excludeConnectionId, response));
+        publishedCounter.increment();
+    }
+
+    @Override
+    public void publishToConnection(String docId, String connectionId, MessageResponse response) {
+        send(DOC_CHANNEL_PREFIX + docId,
+                RelayCodec.encodeResponse(RelayCodec.CONNECTION, props.getNodeId(), docId, connectionId, response));
+        publishedCounter.increment();
+    }
+
+    @Override
+    public void localDocumentOpened(String docId) {
+        container.addMessageListener(this, new ChannelTopic(DOC_CHANNEL_PREFIX + docId));
+    }
+
+    @Override
+    public void localDocumentClosed(String docId) {
+        container.removeMessageListener(this, new ChannelTopic(DOC_CHANNEL_PREFIX + docId));
+    }
+
+    // ========================================================================
+    // 接收
+    // ========================================================================
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        RelayCodec.Envelope envelope;
+        try {
+            envelope = RelayCodec.decode(message.getBody());
+        } catch (RuntimeException e) {
+            log.warn("drop malformed relay message", e);
+            return;
+        }
+        if (props.getNodeId().equals(envelope.origin)) {
+            return;
+        }
+        receivedCounter.increment();
+        switch (envelope.kind) {
+            case RelayCodec.FORWARD:
+                dispatch(envelope.message);
+                break;
+            case RelayCodec.BROADCAST:
+                sessionManager.deliverLocal(envelope.docId, envelope.userId, envelope.response);
+                break;
+            case RelayCodec.DIRECT:
+                sessionManager.deliverToUser(envelope.docId, envelope.userId, envelope.response);
+                break;
+            case RelayCodec.BROADCAST_EXCEPT:
+                sessionManager.deliverLocalExcept(envelope.docId, envelope.userId, envelope.response);
+                break;
+            case RelayCodec.CONNECTION:
+                sessionManager.deliverToConnection(envelope.docId, envelope.userId, envelope.response);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void dispatch(NettyMessage message) {
+        MessageHandler handler = handlerFactory.getHandler(message.getOperationType());
+        if (handler == null) {
+            return;
+        }
+        touch(message.getDocId());
+        // 转发来的操作没有本地连接，处理器只通过 SessionManager 回写
+        if (!documentExecutorManager.execute(message.getDocId(), () -> handler.handle(null, message))) {
+            log.warn("document {} busy, reject forwarded op from {}", message.getDocId(), message.getUserId());
+            // 与本地连接被拒绝时一样，由发送方稍后重发
+            sessionManager.sendMessageToConnection(message.getDocId(), message.getUserId(), message.getClientId(),
+                    OperationReplies.rejected(message, "document busy, retry later"));
+        }
+    }
+
+    private void send(String channel, byte[] body) {
+        redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.publish(channel.getBytes(StandardCharsets.UTF_8), body));
+    }
+
+    private static final class Owner {
+        final String nodeId;
+        final long expiresAt;
+        /**
+         * 本节点是 owner 时最近一次本地或转发来的操作的时间
+         */
+        volatile long lastActive = System.currentTimeMillis();
+
+        Owner(String nodeId, long expiresAt) {
+            this.nodeId = nodeId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.cowrite.project.netty.cluster;
+
+import com.cowrite.project.netty.protocol.BinaryCodec;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * 节点间中继消息的编码：kind(1) origin docId userId body，body 复用 {@link BinaryCodec}（不使用连接级字符串表）
+ */
+final class RelayCodec {
+
+    /**
+     * 非 owner 节点转发给 owner 的客户端操作，userId 为空，body 是 NettyMessage，其后是操作编号（clientId、seq），
+     * owner 据此去重，最后是入口处校验过的权限（可为空，旧节点的帧没有这一项）
+     */
+    static final int FORWARD = 1;
+
+    /**
+     * owner（或任意节点）的广播，userId 为不接收的用户，body 是 MessageResponse
+     */
+    static final int BROADCAST = 2;
+
+    /**
+     * 发给某个用户的消息，userId 为接收者，body 是 MessageResponse
+     */
+    static final int DIRECT = 3;
+
+    /**
+     * 内容操作的广播，userId 位置为不接收的连接 ID，body 是 MessageResponse
+     */
+    static final int BROADCAST_EXCEPT = 4;
+
+    /**
+     * 发给某个连接的消息（确认、重新同步），userId 位置为接收连接的 ID，body 是 MessageResponse
+     */
+    static final int CONNECTION = 5;
+
+    private RelayCodec() {
+    }
+
+    static byte[] encodeForward(String origin, NettyMessage message) {
+        ByteBuf buf = Unpooled.buffer();
+        header(buf, FORWARD, origin, message.getDocId(), null);
+        BinaryCodec.encodeMessage(message, new BinaryCodec.StringTable(), buf);
+        BinaryCodec.writeNullableString(buf, message.getClientId());
+        buf.writeLong(message.getSeq() != null ? message.getSeq() : 0L);
+        BinaryCodec.writeNullableString(buf, message.getPermission() != null ? message.getPermission().name() : null);
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    static byte[] encodeResponse(int kind, String origin, String docId, String userId, MessageResponse response) {
+        ByteBuf buf = Unpooled.buffer();
+        header(buf, kind, origin, docId, userId);
+        BinaryCodec.encodeResponse(response, buf);
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    static Envelope decode(byte[] bytes) {
+        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+        Envelope envelope = new Envelope();
+        envelope.kind = buf.readUnsignedByte();
+        envelope.origin = BinaryCodec.readNullableString(buf);
+        envelope.docId = BinaryCodec.readNullableString(buf);
+        envelope.userId = BinaryCodec.readNullableString(buf);
+        switch (envelope.kind) {
+            case FORWARD:
+                envelope.message = BinaryCodec.decodeMessage(buf, new BinaryCodec.StringTable());
+                envelope.message.setClientId(BinaryCodec.readNullableString(buf));
+                long seq = buf.readLong();
+                envelope.message.setSeq(seq > 0 ? seq : null);
+                String permission = buf.isReadable() ? BinaryCodec.readNullableString(buf) : null;
+                envelope.message.setPermission(permission != null ? PermissionLevel.valueOf(permission) : null);
+                break;
+            case BROADCAST:
+            case DIRECT:
+            case BROADCAST_EXCEPT:
+            case CONNECTION:
+                envelope.response = BinaryCodec.decodeResponse(buf);
+                break;
+            default:
+                throw new CorruptedFrameException("unknown relay kind " + envelope.kind);
+        }
+        return envelope;
+    }
+
+    private static void header(ByteBuf buf, int kind, String origin, String docId, String userId) {
+        buf.writeByte(kind);
+        BinaryCodec.writeNullableString(buf, origin);
+        BinaryCodec.writeNullableString(buf, docId);
+        BinaryCodec.writeNullableString(buf, userId);
+    }
+
+    static final class Envelope {
+        int kind;
+        String origin;
+        String docId;
+        String userId;
+        NettyMessage message;
+        MessageResponse response;
+    }
+}
@@ -1,42 +1,47 @@
 package com.cowrite.project.netty.handler;
 
 import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
 import com.cowrite.project.netty.ot.Operation;
 import com.cowrite.project.netty.ot.VectorClock;
 import com.cowrite.project.netty.protocol.MessageResponse;
 import com.cowrite.project.netty.protocol.MessageType;
 import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.session.DocumentAccess;
+import com.cowrite.project.netty.session.PresenceTracker;
 import com.cowrite.project.netty.session.SessionManager;
 import io.netty.channel.ChannelHandlerContext;
 import com.cowrite.project.service.PermissionEvaluatorService;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
 import com.cowrite.project.service.DocumentAuditLogService;
 import com.cowrite.project.model.entity.DocumentAuditLog;
 import java.time.LocalDateTime;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class ContentDeleteHandler implements MessageHandler {
 
     private final SessionManager sessionManager;
     private final ContentHandler contentHandler;
-    private final Map<String, OTEngine> engines = new ConcurrentHashMap<>();
-    private final Map<String, VectorClock> clientClocks= new ConcurrentHashMap<>();
+    private final OTEngineRegistry engines;
     private final PermissionEvaluatorService permissionEvaluator;
     private final DocumentAuditLogService auditLogService;
+    private final PresenceTracker presenceTracker;
 
     // 构造函数注入依赖
     public ContentDeleteHandler(SessionManager sessionManager,
                             ContentHandler contentHandler,
                             PermissionEvaluatorService permissionEvaluator,
-                            DocumentAuditLogService auditLogService) {
+                            DocumentAuditLogService auditLogService,
+                            PresenceTracker presenceTracker,
+                            OTEngineRegistry engines) {
         this.sessionManager = sessionManager;
         this.contentHandler = contentHandler;
         this.permissionEvaluator = permissionEvaluator;
         this.auditLogService = auditLogService;
+        this.presenceTracker = presenceTracker;
+        this.engines = engines;
     }
     @Override
     public MessageType getType() {
@@ -47,25 +52,29 @@ public class ContentDeleteHandler implements MessageHandler {
     @Override
     public void handle(ChannelHandlerContext ctx, NettyMessage message) {
         // 原handleContentChange中的业务逻辑
-        // nettyStreamProducer.publishToStream(message);
         String docId  = message.getDocId();
         String userId = message.getUserId();
 
         // 权限：仅 EDIT/ADMIN 可编辑
-        if (!permissionEvaluator.canEdit(userId, docId)) {
+        // 握手时绑定的权限不查库，从 Stream 或其他节点到达时使用入口处随操作携带的权限；未开启握手认证时查询
+        PermissionLevel level = DocumentAccess.levelOf(ctx, message);
+        if (level != null ? !DocumentAccess.canEdit(level) : !permissionEvaluator.canEdit(userId, docId)) {
             return; // 可回发错误
         }
 
         // 1. 拿或建引擎
-        OTEngine engine = engines.computeIfAbsent(docId, id -> new OTEngine());
-
-        // 2. 拿或建时钟
-        VectorClock vc = clientClocks.computeIfAbsent(userId, VectorClock::new);
+        OTEngine engine = engines.engineFor(docId);
+        // Stream 重新投递的操作已经应用并确认过，直接丢弃
+        String clientId = message.getClientId();
+        long seq = message.getSeq() != null ? message.getSeq() : 0L;
+        if (engine.isApplied(clientId, seq)) {
+            return;
+        }
 
-        // 3. 本地打点
-        vc.tick();
+        // 2. 客户端时钟打点（时钟与 slot 都归属该文档的引擎）
+        VectorClock vc = engine.tick(userId);
 
-        // 4. 构造 OT Operation
+        // 3. 构造 OT Operation
         MessageType type = MessageType.valueOf(message.getOperationType().name());
         Operation op = new Operation(
                 docId,
@@ -75,11 +84,21 @@ public class ContentDeleteHandler implements MessageHandler {
                 message.getLength() != null ? message.getLength() : 0,
                 message.getPos()    != null ? message.getPos()    : 0,
                 message.getTimestamp() != null ? message.getTimestamp() : System.currentTimeMillis(),
-                vc
+                vc,
+                message.getRevision() != null ? message.getRevision() : -1L
         );
+        op.clientId = clientId;
+        op.seq = seq;
 
-        // 5. 送入 OT
-        engine.receive(op);
+        // 4. 送入 OT；基线版本已被回收时让客户端按最新快照重新同步
+        if (!engine.receive(op)) {
+            sessionManager.sendMessageToConnection(docId, userId, clientId, OperationReplies.resync(op, engine));
+            return;
+        }
+        // 确认分配的版本号，发送方（提交操作的连接）据此推进 baseRevision 并发送下一个操作
+        sessionManager.sendMessageToConnection(docId, userId, clientId, OperationReplies.ack(op));
+        // 输入状态随下一个在线状态周期下发
+        presenceTracker.markTyping(docId, userId);
 
         // 审计：记录删除片段
         DocumentAuditLog log = new DocumentAuditLog();
@@ -95,16 +114,9 @@ public class ContentDeleteHandler implements MessageHandler {
         log.setCreatedAt(LocalDateTime.now());
         auditLogService.save(log);
 
-        HashMap<String, Object> userPayload = new HashMap<>();
-        userPayload.put("content", op.content);
-        userPayload.put("pos", op.pos);
-        userPayload.put("length", op.length);
-        sessionManager.sendMessageToOthers(docId, userId, new MessageResponse.Builder()
-                .docId(message.getDocId())
-                .userId(message.getUserId())
-                .type(message.getOperationType())
-                .timestamp(op.timestamp)
-                .payload(userPayload)
-                .build());
+        for (MessageResponse part : OperationReplies.broadcast(op)) {
+            // 同一用户的其他标签页也要收到
+            sessionManager.sendMessageToOtherConnections(docId, userId, clientId, part);
+        }
     }
 }
@@ -1,5 +1,6 @@
 package com.cowrite.project.netty.handler;
 
+import com.cowrite.project.netty.ot.DocumentBuffer;
 import com.cowrite.project.netty.protocol.MessageType;
 import com.cowrite.project.netty.protocol.NettyMessage;
 import com.cowrite.project.netty.session.SessionManager;
@@ -24,14 +25,14 @@ public class ContentHandler {
     private MongoTemplate mongoTemplate;
 
     //记录文档的历史版本
-    private HashMap<String, Map<String, StringBuilder>> docVersion = new HashMap<>();
+    private HashMap<String, Map<String, DocumentBuffer>> docVersion = new HashMap<>();
     //储存文档缓存内容
-    private HashMap<String, StringBuilder> cacheContent = new HashMap<>();
+    private HashMap<String, DocumentBuffer> cacheContent = new HashMap<>();
     //文档的操作次数
     private HashMap<String, Integer> operationNum = new HashMap<>();
 
     public void applyOperation(String docId, NettyMessage nettyMessage) {
-        StringBuilder docContent = cacheContent.computeIfAbsent(docId, k -> new StringBuilder());
+        DocumentBuffer docContent = cacheContent.computeIfAbsent(docId, k -> DocumentBuffer.create());
 
 
         if (MessageType.CONTENT_INSERT.equals(nettyMessage.getOperationType())) {
@@ -48,21 +49,14 @@ public class ContentHandler {
                 docContent.delete(pos, end);
             }
         }
-        System.out.println("到这了");
-        System.out.println(docContent);
 
-        // 更新操作次数
-        int newCount = operationNum.compute(docId, (k, v) -> v == null ? 1 : v + 1);
-
-        // 每100次持久化
-        if (newCount % 100 == 0) {
-            contentCache(docId, docContent);
-        }
+        // 更新操作次数；持久化由 DocumentWriteBehind 从 OT 引擎写入
+        operationNum.compute(docId, (k, v) -> v == null ? 1 : v + 1);
     }
 
     //撤回
     public void undoContent(String docId, NettyMessage nettyMessage) {
-        StringBuilder docContent = cacheContent.get(docId);
+        DocumentBuffer docContent = cacheContent.get(docId);
         // 文档内容不存在，无法撤回
         if (docContent == null) {
             return;
@@ -95,14 +89,6 @@ public class ContentHandler {
         }
     }
 
-    //放入redis用于定时任务
-    public void contentCache(String docId, Object content) {
-        if (!sessionManager.getAllCacheDocIds().contains(docId)) {
-            sessionManager.putCacheDocId(docId);
-        }
-        redisUtils.set("docCache" + docId, content);
-    }
-
     //拿到最新的缓存内容
     public String getCacheContent(String docID) {
         return cacheContent.get(docID).toString();
@@ -116,12 +102,12 @@ public class ContentHandler {
         版本调整
          */
         docVersion.computeIfAbsent(docId, k -> new HashMap<>())
-                .put("新的版本号", cacheContent.get(docId));
+                .put("新的版本号", cacheContent.get(docId).snapshot());
     }
 
     //获取指定版本的内容
     public String getVersionContent(String docId, String version) {
-        StringBuilder content = docVersion.get(docId).get(version);
+        DocumentBuffer content = docVersion.get(docId).get(version);
         return content.toString();
     }
 
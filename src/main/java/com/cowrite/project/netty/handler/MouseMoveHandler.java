@@ -2,14 +2,13 @@ package com.cowrite.project.netty.handler;
 
 import com.cowrite.project.netty.ot.OTEngine;
 import com.cowrite.project.netty.ot.VectorClock;
-import com.cowrite.project.netty.protocol.MessageResponse;
 import com.cowrite.project.netty.protocol.MessageType;
 import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.session.PresenceTracker;
 import com.cowrite.project.netty.session.SessionManager;
 import io.netty.channel.ChannelHandlerContext;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -20,12 +19,15 @@ public class MouseMoveHandler implements MessageHandler{
     private final ContentHandler contentHandler;
     private final Map<String, OTEngine> engines = new ConcurrentHashMap<>();
     private final Map<String, VectorClock> clientClocks= new ConcurrentHashMap<>();
+    private final PresenceTracker presenceTracker;
 
     // 构造函数注入依赖
     public MouseMoveHandler(SessionManager sessionManager,
-                             ContentHandler contentHandler) {
+                             ContentHandler contentHandler,
+                             PresenceTracker presenceTracker) {
         this.sessionManager = sessionManager;
         this.contentHandler = contentHandler;
+        this.presenceTracker = presenceTracker;
     }
     @Override
     public MessageType getType() {
@@ -35,24 +37,8 @@ public class MouseMoveHandler implements MessageHandler{
 
     @Override
     public void handle(ChannelHandlerContext ctx, NettyMessage message) {
-        // 原handleContentChange中的业务逻辑
-        //检查用户是否在线
-        if (!sessionManager.isUserOnline(message.getDocId(), message.getUserId())) {
-            return;
-        }
-        HashMap<String, Object> userPayload = new HashMap<>();
-        userPayload.put("x", message.getX());
-        userPayload.put("y", message.getY());
-
-        MessageResponse userMessageResponse = new MessageResponse.Builder()
-                .docId(message.getDocId())
-                .userId(message.getUserId())
-                .type(message.getOperationType())
-                .timestamp(message.getTimestamp())
-                .payload(userPayload)
-                .build();
-
-        sessionManager.sendMessageToOthers(message.getDocId(), message.getUserId(), userMessageResponse);
+        // 只记录最新位置，由 PresenceTracker 按固定周期批量下发
+        presenceTracker.updateCursor(message.getDocId(), message.getUserId(), message.getX(), message.getY());
     }
 
 }
@@ -0,0 +1,231 @@
+package com.cowrite.project.netty.handler;
+
+import com.cowrite.project.config.OperationCoalescerProperties;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 键盘级操作合并器：在进入文档邮箱（OT、权限校验、审计、广播）之前，
+ * 把同一连接上连续的插入 / 删除合并成一个操作。
+ * <p>
+ * - 连续插入：下一个插入恰好接在已合并内容之后
+ * - 连续删除：退格（下一个删除的区间紧贴在前）或向前删除（起点相同）
+ * - 只合并基线版本相同的操作，合并结果在服务端的变换结果与逐个提交一致
+ * - 批次中第一个操作最多等待 windowMillis（延迟上限）；合并长度达到 maxLength 时立即下发。
+ *   遇到不可合并的操作、其他类型的消息或连接断开时先下发已合并的部分，保证顺序
+ * - 指标：收到 / 下发的操作数、合并比、批次大小分布、合并带来的等待耗时
+ * <p>
+ * 前端的 OtClient 同一时刻只有一个未确认的操作，确认后才以新的版本号发送下一个，相邻操作的基线不同，
+ * 在这里不会被合并，只会多等一个窗口；它在本地缓冲区里合并（缓冲区中的操作基线相同）。
+ * 因此默认关闭，只对不等待确认、连续发送同一基线操作的客户端开启。
+ */
+@Component
+public class OperationCoalescer {
+
+    private final boolean enabled;
+
+    private final long windowMillis;
+
+    private final int maxLength;
+
+    private final Counter receivedCounter;
+
+    private final Counter emittedCounter;
+
+    private final DistributionSummary batchSize;
+
+    private final Timer holdTimer;
+
+    public OperationCoalescer(OperationCoalescerProperties props, MeterRegistry meterRegistry) {
+        this.enabled = props.isEnabled();
+        this.windowMillis = props.getWindowMillis();
+        this.maxLength = props.getMaxLength();
+
+        this.receivedCounter = Counter.builder("cowrite.ot.coalesce.received")
+                .description("进入合并器的内容操作数")
+                .register(meterRegistry);
+        this.emittedCounter = Counter.builder("cowrite.ot.coalesce.emitted")
+                .description("合并后下发到文档邮箱的操作数")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("cowrite.ot.coalesce.batch.size")
+                .description("每个下发操作合并的原始操作数")
+                .register(meterRegistry);
+        this.holdTimer = Timer.builder("cowrite.ot.coalesce.hold")
+                .description("批次中第一个操作在合并器中的等待耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("cowrite.ot.coalesce.ratio", this, OperationCoalescer::mergeRatio)
+                .description("收到的操作数 / 下发的操作数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 为一个连接创建合并缓冲区。缓冲区的所有方法都必须在 executor（连接所属的 event loop）上调用
+     *
+     * @param sink 接收合并后的操作
+     */
+    public Buffer open(EventExecutor executor, Consumer<NettyMessage> sink) {
+        return new Buffer(executor, sink);
+    }
+
+    public static boolean isContent(NettyMessage message) {
+        MessageType type = message.getOperationType();
+        return type == MessageType.CONTENT_INSERT || type == MessageType.CONTENT_DELETE;
+    }
+
+    /**
+     * 尝试把 next 合并进 pending（原地修改 pending）
+     *
+     * @return false 表示不可合并，pending 保持不变
+     */
+    static boolean merge(NettyMessage pending, NettyMessage next, int maxLength) {
+        if (pending.getOperationType() != next.getOperationType()
+                || !Objects.equals(pending.getDocId(), next.getDocId())
+                || !Objects.equals(pending.getUserId(), next.getUserId())
+                || !Objects.equals(pending.getRevision(), next.getRevision())
+                || pending.getPos() == null || next.getPos() == null) {
+            return false;
+        }
+        int pos = pending.getPos();
+        int nextPos = next.getPos();
+        if (pending.getOperationType() == MessageType.CONTENT_INSERT) {
+            String content = pending.getContent();
+            String nextContent = next.getContent();
+            if (content == null || nextContent == null
+                    || nextPos != pos + content.length()
+                    || content.length() + nextContent.length() > maxLength) {
+                return false;
+            }
+            String merged = content + nextContent;
+            pending.setContent(merged);
+            if (pending.getLength() != null) {
+                pending.setLength(merged.length());
+            }
+            return true;
+        }
+
+        if (pending.getLength() == null || next.getLength() == null) {
+            return false;
+        }
+        int length = pending.getLength();
+        int nextLength = next.getLength();
+        if (length <= 0 || nextLength <= 0 || length + nextLength > maxLength) {
+            return false;
+        }
+        String content = pending.getContent();
+        String nextContent = next.getContent();
+        if (nextPos + nextLength == pos) {
+            // 退格：删除区间向前延伸
+            pending.setPos(nextPos);
+            pending.setContent(content == null || nextContent == null ? null : nextContent + content);
+        } else if (nextPos == pos) {
+            // 向前删除：后面的字符依次移到同一位置
+            pending.setContent(content == null || nextContent == null ? null : content + nextContent);
+        } else {
+            return false;
+        }
+        pending.setLength(length + nextLength);
+        return true;
+    }
+
+    /**
+     * 插入按内容长度、删除按删除长度计算，与 maxLength 比较
+     */
+    private static int mergedLength(NettyMessage message) {
+        if (message.getOperationType() == MessageType.CONTENT_INSERT) {
+            return message.getContent() == null ? 0 : message.getContent().length();
+        }
+        return message.getLength() == null ? 0 : message.getLength();
+    }
+
+    private double mergeRatio() {
+        double emitted = emittedCounter.count();
+        return emitted == 0 ? 1.0 : receivedCounter.count() / emitted;
+    }
+
+    /**
+     * 单个连接的合并缓冲区，最多持有一个待下发的合并操作
+     */
+    public final class Buffer {
+
+        private final EventExecutor executor;
+
+        private final Consumer<NettyMessage> sink;
+
+        private NettyMessage pending;
+
+        private int pendingCount;
+
+        private long pendingSince;
+
+        private ScheduledFuture<?> deadline;
+
+        private Buffer(EventExecutor executor, Consumer<NettyMessage> sink) {
+            this.executor = executor;
+            this.sink = sink;
+        }
+
+        /**
+         * 提交一个内容操作；不可合并时先下发已有批次
+         */
+        public void offer(NettyMessage message) {
+            receivedCounter.increment();
+            if (!enabled) {
+                emit(message, 1, System.nanoTime());
+                return;
+            }
+            if (pending != null && merge(pending, message, maxLength)) {
+                pendingCount++;
+                if (mergedLength(pending) >= maxLength) {
+                    flush();
+                }
+                return;
+            }
+            flush();
+            // 复制一份，合并时不修改调用方持有的消息
+            pending = new NettyMessage(message);
+            pendingCount = 1;
+            pendingSince = System.nanoTime();
+            if (mergedLength(pending) >= maxLength) {
+                flush();
+                return;
+            }
+            deadline = executor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 立即下发已合并的操作
+         */
+        public void flush() {
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+            NettyMessage message = pending;
+            if (message == null) {
+                return;
+            }
+            pending = null;
+            emit(message, pendingCount, pendingSince);
+        }
+
+        private void emit(NettyMessage message, int count, long since) {
+            emittedCounter.increment();
+            batchSize.record(count);
+            holdTimer.record(System.nanoTime() - since, TimeUnit.NANOSECONDS);
+            sink.accept(message);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cowrite.project.netty.handler;
+
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.Operation;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 内容操作经 OT 引擎处理后下发的消息：
+ * <ul>
+ *     <li>发送方收到 {@link MessageType#OPERATION_ACK}，带上分配的版本号（操作被拆开时为最后一段的版本号），客户端以它作为下一个操作的 baseRevision，
+ *     引擎也因此能回收该客户端已确认的历史</li>
+ *     <li>其他协作者收到变换后的操作及其版本号</li>
+ *     <li>基线版本已被回收时发送方收到带最新内容和版本号的 ERROR，需要整体重新同步</li>
+ *     <li>操作没有被处理（文档繁忙等）时发送方收到不带版本号的 ERROR，稍后重发</li>
+ * </ul>
+ */
+public final class OperationReplies {
+
+    private OperationReplies() {
+    }
+
+    public static MessageResponse ack(Operation op) {
+        return new MessageResponse.Builder()
+                .docId(op.docId)
+                .userId(op.userId)
+                .type(MessageType.OPERATION_ACK)
+                .timestamp(op.timestamp)
+                .putPayload("revision", op.last().revision)
+                .build();
+    }
+
+    /**
+     * 被拆开的删除每段一条消息，各自带该段的版本号，按顺序应用
+     */
+    public static List<MessageResponse> broadcast(Operation op) {
+        List<MessageResponse> messages = new ArrayList<>(1);
+        for (Operation part = op; part != null; part = part.next) {
+            HashMap<String, Object> payload = new HashMap<>();
+            payload.put("content", part.content);
+            payload.put("pos", part.pos);
+            payload.put("length", part.length);
+            payload.put("revision", part.revision);
+            messages.add(new MessageResponse.Builder()
+                    .docId(part.docId)
+                    .userId(part.userId)
+                    .type(part.type)
+                    .timestamp(part.timestamp)
+                    .payload(payload)
+                    .build());
+        }
+        return messages;
+    }
+
+    public static MessageResponse resync(Operation op, OTEngine engine) {
+        OTEngine.VersionedSnapshot snapshot = engine.versionedSnapshot();
+        HashMap<String, Object> payload = new HashMap<>();
+        payload.put("message", "revision expired, resync required");
+        payload.put("revision", snapshot.revision);
+        payload.put("content", snapshot.doc.toString());
+        return new MessageResponse.Builder()
+                .docId(op.docId)
+                .userId(op.userId)
+                .type(MessageType.ERROR)
+                .payload(payload)
+                .build();
+    }
+
+    public static MessageResponse rejected(NettyMessage message, String reason) {
+        return new MessageResponse.Builder()
+                .docId(message.getDocId())
+                .userId(message.getUserId())
+                .type(MessageType.ERROR)
+                .putPayload("message", reason)
+                .build();
+    }
+}
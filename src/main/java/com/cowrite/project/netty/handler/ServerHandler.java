@@ -1,17 +1,25 @@
 package com.cowrite.project.netty.handler;
 
+import com.cowrite.project.netty.cluster.ClusterRelay;
 import com.cowrite.project.netty.ot.*;
+import com.cowrite.project.netty.protocol.BinaryCodec;
+import com.cowrite.project.netty.protocol.MessageResponse;
 import com.cowrite.project.netty.protocol.MessageType;
 import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.protocol.WireFormat;
+import com.cowrite.project.netty.session.DocumentAccess;
 import com.cowrite.project.netty.session.SessionManager;
+import com.cowrite.project.netty.stream.DocumentExecutorManager;
 import com.cowrite.project.netty.stream.NettyStreamProducer;
 import com.cowrite.project.utils.RedisUtils;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Component;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -19,8 +27,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import static com.cowrite.project.netty.protocol.MessageType.USER_OFFLINE;
 import static com.cowrite.project.netty.protocol.MessageType.USER_ONLINE;
 
-@Component
-public class ServerHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+/**
+ * 每个连接一个实例，由 {@link com.cowrite.project.netty.server.ServerInitializer} 创建；持有连接内的状态，因此不注册为 Spring Bean
+ */
+public class ServerHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
 
     /**
      * Logger
@@ -44,29 +54,200 @@ public class ServerHandler extends SimpleChannelInboundHandler<TextWebSocketFram
      * */
     private final MessageHandlerFactory handlerFactory;
 
+    /**
+     * 按文档串行的调度器，内容操作不在 netty event loop 上执行
+     */
+    private final DocumentExecutorManager documentExecutorManager;
+
+    /**
+     * 键盘级操作合并器
+     */
+    private final OperationCoalescer operationCoalescer;
+
+    /**
+     * 集群中继，文档不归本节点所有时把内容操作转发给 owner
+     */
+    private final ClusterRelay clusterRelay;
+
+    /**
+     * 本节点持有的 OT 引擎，连接断开时释放该客户端对历史回收的约束
+     */
+    private final OTEngineRegistry engines;
+
+    /**
+     * 开启 Stream 消费时内容操作先写入文档 Stream，由消费者在 owner 节点的文档邮箱中应用
+     */
+    private final NettyStreamProducer streamProducer;
+
+    private final boolean streamIngress;
+
+    /**
+     * 本连接下一个内容操作的序号，只在连接所属的 event loop 上访问
+     */
+    private long nextSeq = 1;
+
+    /**
+     * 本连接的合并缓冲区，只在连接所属的 event loop 上访问
+     */
+    private OperationCoalescer.Buffer pendingOps;
+
+    /**
+     * 二进制协议上行的 docId / userId 字符串表
+     */
+    private final BinaryCodec.StringTable inboundIds = new BinaryCodec.StringTable();
+
 
     // 心跳超时时间（单位：秒）
     private static final int READ_IDLE_TIMEOUT = 300;
 
     public ServerHandler(SessionManager sessionManager, RedisUtils redisUtils,
-                         ContentHandler contentHandler, MessageHandlerFactory handlerFactory) {
+                         ContentHandler contentHandler, MessageHandlerFactory handlerFactory,
+                         DocumentExecutorManager documentExecutorManager, OperationCoalescer operationCoalescer,
+                         ClusterRelay clusterRelay, OTEngineRegistry engines,
+                         NettyStreamProducer streamProducer, boolean streamIngress) {
         this.sessionManager = sessionManager;
         this.redisUtils = redisUtils;
         this.contentHandler = contentHandler;
         this.handlerFactory = handlerFactory;
+        this.documentExecutorManager = documentExecutorManager;
+        this.operationCoalescer = operationCoalescer;
+        this.clusterRelay = clusterRelay;
+        this.engines = engines;
+        this.streamProducer = streamProducer;
+        this.streamIngress = streamIngress;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        pendingOps = operationCoalescer.open(ctx.executor(), message -> dispatchContent(ctx, message));
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // 断开前把已合并但未下发的操作交给文档邮箱，避免丢字
+        pendingOps.flush();
+        releaseClient(ctx);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 慢连接排空后补发快照
+        sessionManager.channelWritabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext channelHandlerContext, TextWebSocketFrame msg) {
-        NettyMessage message = NettyMessage.fromJson(msg.text());
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            // 按握手协商的子协议确定下行编码，未协商的旧客户端保持 JSON
+            String subprotocol = ((WebSocketServerProtocolHandler.HandshakeComplete) evt).selectedSubprotocol();
+            ctx.channel().attr(WireFormat.KEY).set(WireFormat.fromSubprotocol(subprotocol));
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext channelHandlerContext, WebSocketFrame msg) {
+        NettyMessage message;
+        if (msg instanceof BinaryWebSocketFrame) {
+            message = BinaryCodec.decodeMessage(msg.content(), inboundIds);
+        } else if (msg instanceof TextWebSocketFrame) {
+            message = NettyMessage.fromJson(((TextWebSocketFrame) msg).text());
+        } else {
+            return;
+        }
         log.info("receive message {}", message);
-        channelHandlerContext.channel().attr(SessionManager.USER_ID).set(message.getUserId());
+        DocumentAccess access = DocumentAccess.of(channelHandlerContext);
+        if (access != null) {
+            // 身份与文档在握手时已经确定，不信任消息中的 userId，也不处理其他文档的消息
+            if (!access.getDocId().equals(message.getDocId())) {
+                reject(channelHandlerContext, message, "document not bound to this connection");
+                return;
+            }
+            message.setUserId(access.getUserId());
+        } else {
+            channelHandlerContext.channel().attr(SessionManager.USER_ID).set(message.getUserId());
+            channelHandlerContext.channel().attr(SessionManager.DOC_ID).set(message.getDocId());
+        }
         handleMessage(channelHandlerContext, message);
     }
 
     private void handleMessage(ChannelHandlerContext ctx, NettyMessage message) {
         String currentUserId = ctx.channel().attr(SessionManager.USER_ID).get();
         MessageType type = message.getOperationType();
-        handlerFactory.getHandler(message.getOperationType()).handle(ctx, message);
+        MessageHandler handler = handlerFactory.getHandler(type);
+        if (handler == null) {
+            log.warn("未找到处理器: {}", type);
+            return;
+        }
+        if (OperationCoalescer.isContent(message)) {
+            pendingOps.offer(message);
+            return;
+        }
+        // 其他消息（光标、上下线等）不能越过尚未下发的内容操作
+        pendingOps.flush();
+        handler.handle(ctx, message);
+    }
+
+    private void dispatchContent(ChannelHandlerContext ctx, NettyMessage message) {
+        // 写入 Stream 或转发给 owner 后没有连接可查，在入口处按握手时绑定的权限拒绝，并把权限随操作带给处理器
+        DocumentAccess access = DocumentAccess.of(ctx);
+        if (access != null && !access.canEdit()) {
+            reject(ctx, message, "no edit permission");
+            return;
+        }
+        message.setPermission(access != null ? access.getLevel() : null);
+        // 操作编号由服务端分配，文档引擎据此丢弃 Stream 重新投递的重复操作
+        message.setClientId(SessionManager.connectionId(ctx.channel()));
+        message.setSeq(nextSeq++);
+        if (streamIngress) {
+            // 不在 event loop 上等待刷写，缓冲区满时直接拒绝
+            if (!streamProducer.offerToStream(message)) {
+                reject(ctx, message, "document busy, retry later");
+            }
+            return;
+        }
+        ClusterRelay.Route route = clusterRelay.route(message);
+        if (route == ClusterRelay.Route.FORWARDED) {
+            return;
+        }
+        if (route == ClusterRelay.Route.UNKNOWN) {
+            reject(ctx, message, "document owner unavailable, retry later");
+            return;
+        }
+        MessageHandler handler = handlerFactory.getHandler(message.getOperationType());
+        // 权限校验、OT、审计与广播都在文档邮箱中串行执行
+        boolean accepted = documentExecutorManager.execute(message.getDocId(), () -> handler.handle(ctx, message));
+        if (!accepted) {
+            reject(ctx, message, "document busy, retry later");
+        }
+    }
+
+    /**
+     * 排在刚下发的操作之后执行，否则这些操作会重新登记该客户端的确认版本
+     */
+    private void releaseClient(ChannelHandlerContext ctx) {
+        String docId = ctx.channel().attr(SessionManager.DOC_ID).get();
+        if (docId == null) {
+            return;
+        }
+        // 引擎按连接登记确认版本（与内容操作的 clientId 一致）
+        String clientId = SessionManager.connectionId(ctx.channel());
+        Runnable release = () -> {
+            OTEngine engine = engines.get(docId);
+            if (engine != null) {
+                engine.removeClient(clientId);
+            }
+        };
+        if (!documentExecutorManager.execute(docId, release)) {
+            // 邮箱已满时直接释放，removeClient 本身是线程安全的
+            release.run();
+        }
+    }
+
+    private static void reject(ChannelHandlerContext ctx, NettyMessage message, String reason) {
+        MessageResponse error = OperationReplies.rejected(message, reason);
+        ctx.writeAndFlush(WireFormat.of(ctx.channel()).encode(error, ctx.alloc()));
     }
 }
\ No newline at end of file
@@ -34,7 +34,12 @@ public class UserOfflineHandler implements MessageHandler {
     @Override
     public void handle(ChannelHandlerContext ctx, NettyMessage message) {
         // 原handleContentChange中的业务逻辑
-        sessionManager.deleteSessions(message.getDocId(), message.getUserId());
+        // 只移除发出下线消息的连接，同一用户在其他标签页的连接保持在线
+        if (ctx != null) {
+            sessionManager.deleteSession(message.getDocId(), ctx.channel());
+        } else {
+            sessionManager.deleteSessions(message.getDocId(), message.getUserId());
+        }
         HashMap<String, Object> userPayload = new HashMap<>();
         userPayload.put("onlineusers", sessionManager.getOnlineUsers(message.getDocId()));
         userPayload.put("message", message.getUserId() + "已下线");
@@ -0,0 +1,87 @@
+package com.cowrite.project.netty.ot;
+
+/**
+ * 按文档大小切换底层实现的缓冲区，{@link DocumentBuffer#create()} / {@link DocumentBuffer#of(String)} 的默认实现。
+ * <p>
+ * - 小文档使用 {@link StringBuilderDocumentBuffer}：数组搬移的常数远小于 rope 的 split + concat
+ * - 长度超过 {@link #ROPE_THRESHOLD} 时换成 {@link RopeDocumentBuffer}，编辑和快照代价不再随文档线性增长
+ * - 长度回落到 {@link #FLAT_THRESHOLD} 以下时换回 StringBuilder，两个阈值之间留出间隔，避免在边界附近反复转换
+ * <p>
+ * 阈值取自 DocumentBufferBenchmark 的交叉点，转换只复制一次全文。与两种实现一样不是线程安全的。
+ */
+public class AdaptiveDocumentBuffer implements DocumentBuffer {
+
+    /**
+     * 超过该长度（char）换成 rope
+     */
+    static final int ROPE_THRESHOLD = 96 * 1024;
+
+    /**
+     * 低于该长度（char）换回 StringBuilder
+     */
+    static final int FLAT_THRESHOLD = 48 * 1024;
+
+    private DocumentBuffer delegate;
+
+    public AdaptiveDocumentBuffer() {
+        this.delegate = new StringBuilderDocumentBuffer();
+    }
+
+    public AdaptiveDocumentBuffer(String text) {
+        this.delegate = text != null && text.length() > ROPE_THRESHOLD
+                ? new RopeDocumentBuffer(text)
+                : new StringBuilderDocumentBuffer(text);
+    }
+
+    private AdaptiveDocumentBuffer(DocumentBuffer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void insert(int pos, String text) {
+        delegate.insert(pos, text);
+        if (!isRope() && delegate.length() > ROPE_THRESHOLD) {
+            delegate = new RopeDocumentBuffer(delegate.toString());
+        }
+    }
+
+    @Override
+    public void delete(int start, int end) {
+        delegate.delete(start, end);
+        if (isRope() && delegate.length() < FLAT_THRESHOLD) {
+            delegate = new StringBuilderDocumentBuffer(delegate.toString());
+        }
+    }
+
+    @Override
+    public DocumentBuffer snapshot() {
+        return new AdaptiveDocumentBuffer(delegate.snapshot());
+    }
+
+    /**
+     * 当前是否由 rope 承载
+     */
+    boolean isRope() {
+        return delegate instanceof RopeDocumentBuffer;
+    }
+
+    @Override
+    public int length() {
+        return delegate.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return delegate.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return delegate.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
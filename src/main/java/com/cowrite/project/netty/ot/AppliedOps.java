@@ -0,0 +1,114 @@
+package com.cowrite.project.netty.ot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 引擎已应用的操作编号（连接 ID + 连接内递增的序号），用于丢弃 Stream 重新投递的重复操作。
+ * <p>
+ * 同一连接的操作按序号顺序进入 Stream，通常只需记住最大序号；
+ * 条目处理失败后被回收重新投递时会乱序，此时小于最大序号但尚未应用的序号记为空洞。
+ * 空洞数量有上限，超出时最早的空洞视为已应用；长时间没有新操作的连接被清除。
+ * 不是线程安全的，由 {@link OTEngine} 在自身监视器上访问。
+ */
+final class AppliedOps {
+
+    /**
+     * 每个连接最多记录的空洞数
+     */
+    static final int MAX_GAPS = 1024;
+
+    /**
+     * 连接超过该时长没有新操作即清除，需大于条目被回收并达到最大投递次数的时长
+     */
+    static final long IDLE_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * 每记录这么多次检查一次空闲连接
+     */
+    private static final int PRUNE_EVERY = 256;
+
+    private final Map<String, Client> clients = new HashMap<>();
+
+    private int recorded;
+
+    boolean contains(String clientId, long seq) {
+        Client client = clients.get(clientId);
+        return client != null && seq <= client.last && !client.gaps.contains(seq);
+    }
+
+    void record(String clientId, long seq, long now) {
+        Client client = clients.computeIfAbsent(clientId, id -> new Client());
+        if (seq > client.last) {
+            for (long missing = Math.max(client.last + 1, seq - MAX_GAPS); missing < seq; missing++) {
+                client.gaps.add(missing);
+            }
+            client.last = seq;
+        } else {
+            client.gaps.remove(seq);
+        }
+        while (client.gaps.size() > MAX_GAPS) {
+            client.gaps.pollFirst();
+        }
+        client.seenAt = now;
+        if (++recorded % PRUNE_EVERY == 0) {
+            prune(now);
+        }
+    }
+
+    private void prune(long now) {
+        Iterator<Client> it = clients.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().seenAt > IDLE_MILLIS) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 导出为 连接 ID -> [最大序号, 空洞...]，随快照持久化
+     */
+    Map<String, List<Long>> export() {
+        Map<String, List<Long>> out = new HashMap<>();
+        for (Map.Entry<String, Client> entry : clients.entrySet()) {
+            List<Long> seqs = new ArrayList<>(1 + entry.getValue().gaps.size());
+            seqs.add(entry.getValue().last);
+            seqs.addAll(entry.getValue().gaps);
+            out.put(entry.getKey(), seqs);
+        }
+        return out;
+    }
+
+    static AppliedOps restore(Map<String, List<Long>> exported, long now) {
+        AppliedOps applied = new AppliedOps();
+        if (exported == null) {
+            return applied;
+        }
+        for (Map.Entry<String, List<Long>> entry : exported.entrySet()) {
+            List<Long> seqs = entry.getValue();
+            if (seqs == null || seqs.isEmpty()) {
+                continue;
+            }
+            Client client = new Client();
+            client.last = seqs.get(0);
+            client.gaps.addAll(seqs.subList(1, seqs.size()));
+            client.seenAt = now;
+            applied.clients.put(entry.getKey(), client);
+        }
+        return applied;
+    }
+
+    int size() {
+        return clients.size();
+    }
+
+    private static final class Client {
+        long last;
+        final TreeSet<Long> gaps = new TreeSet<>();
+        long seenAt;
+    }
+}
@@ -0,0 +1,55 @@
+package com.cowrite.project.netty.ot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端 ID 到稠密下标（slot）的映射，每个文档一份。
+ * <p>
+ * {@link VectorClock} 用 slot 作为 long[] 下标，避免每个时钟都持有一张 Map。
+ * slot 一经分配不会回收，保证历史操作上的时钟在整个文档生命周期内可比较；映射随文档的 {@link OTEngine} 一起释放。
+ */
+public class ClientSlots {
+
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private final List<String> clients = new ArrayList<>();
+
+    /**
+     * 获取（必要时分配）客户端对应的 slot
+     */
+    public int slotOf(String clientId) {
+        Integer slot = slots.get(clientId);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (clients) {
+            return slots.computeIfAbsent(clientId, id -> {
+                clients.add(id);
+                return clients.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * 已分配的 slot，未分配返回 -1（不会触发分配）
+     */
+    public int indexOf(String clientId) {
+        Integer slot = slots.get(clientId);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * slot 对应的客户端 ID，未分配时返回 null
+     */
+    public String clientAt(int slot) {
+        synchronized (clients) {
+            return slot >= 0 && slot < clients.size() ? clients.get(slot) : null;
+        }
+    }
+
+    public int size() {
+        return slots.size();
+    }
+}
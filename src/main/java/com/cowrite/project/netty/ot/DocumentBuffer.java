@@ -0,0 +1,44 @@
+package com.cowrite.project.netty.ot;
+
+/**
+ * 文档内容缓冲区抽象。
+ * <p>
+ * OTEngine / ContentHandler 只通过该接口读写文档正文，底层可以是 {@link RopeDocumentBuffer}
+ * （O(log n) 的位置插入/删除，O(1) 快照），也可以是简单的 {@link StringBuilderDocumentBuffer}；
+ * 默认的 {@link AdaptiveDocumentBuffer} 按文档大小在两者之间切换。
+ * 所有位置均为 UTF-16 char 下标，越界参数由实现方负责截断（clamp），不抛异常。
+ */
+public interface DocumentBuffer extends CharSequence {
+
+    /**
+     * 在 pos 处插入文本，pos 会被截断到 [0, length()]
+     */
+    void insert(int pos, String text);
+
+    /**
+     * 删除 [start, end) 区间，区间会被截断到 [0, length()]，空区间忽略
+     */
+    void delete(int start, int end);
+
+    /**
+     * 创建一个与当前内容一致、互不影响的快照
+     */
+    DocumentBuffer snapshot();
+
+    /**
+     * 返回完整文档内容
+     */
+    @Override
+    String toString();
+
+    /**
+     * 默认实现：小文档用 StringBuilder，大文档用 rope
+     */
+    static DocumentBuffer create() {
+        return new AdaptiveDocumentBuffer();
+    }
+
+    static DocumentBuffer of(String text) {
+        return new AdaptiveDocumentBuffer(text);
+    }
+}
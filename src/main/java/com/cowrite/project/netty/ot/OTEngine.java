@@ -14,38 +14,185 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 /**
  * 一个集中式的 OT 引擎，用单一的 serverClock 来管理因果，
  * 并对并发操作做位置变换。
+ * <p>
+ * 每个被应用的操作都会分配一个单调递增的服务端版本号（revision）。
+ * 客户端提交操作时带上它已经看到的版本号（baseRevision），引擎只需要对
+ * baseRevision 之后的历史做 transform，单次处理成本与会话时长无关。
+ * 所有在线客户端都已确认的历史会被回收，文档缓冲区本身就是回收点的快照；
+ * 历史长度另有上限，落后太多的客户端需要重新同步。
  */
 public class OTEngine {
-    private final VectorClock serverClock = new VectorClock("server");
-    private final List<Operation> history = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * 默认保留的最大历史条数
+     */
+    public static final int DEFAULT_MAX_HISTORY = 1024;
+
+    /**
+     * 达到该数量的可回收条目才真正执行一次回收，摊还 ArrayList 前移的成本
+     */
+    private static final int COMPACT_BATCH = 64;
+
+    private final ClientSlots clientSlots = new ClientSlots();
+    private final VectorClock serverClock = new VectorClock(clientSlots, "server");
+    /**
+     * 各客户端在本文档内的向量时钟，与 slot 映射同生命周期
+     */
+    private final Map<String, VectorClock> clientClocks = new HashMap<>();
+    private final List<Operation> history = new ArrayList<>();
     private final Queue<Operation> incoming = new ConcurrentLinkedQueue<>();
-    private final StringBuilder doc = new StringBuilder();
+    private final DocumentBuffer doc;
+    private final int maxHistory;
+
+    /**
+     * 每个客户端（{@link Operation#source()}，通常是连接 ID）已确认（基于其提交的 baseRevision）的版本号
+     */
+    private final Map<String, Long> clientRevisions = new ConcurrentHashMap<>();
+
+    /**
+     * 已应用的操作编号，Stream 重新投递的操作不会被应用两次
+     */
+    private AppliedOps applied = new AppliedOps();
 
-    public synchronized void receive(Operation op) {
+    /**
+     * 当前服务端版本号，即最后一个被应用操作的 revision
+     */
+    private long revision;
+
+    /**
+     * 已被回收的最大版本号；history.get(i).revision == compactedRevision + 1 + i
+     */
+    private long compactedRevision;
+
+    /**
+     * 是否由 {@link #restore} 以持久化的状态创建；直接 new 的引擎从空文档开始，内容不能代表文档
+     */
+    private boolean seeded;
+
+    public OTEngine() {
+        this(DocumentBuffer.create());
+    }
+
+    public OTEngine(DocumentBuffer doc) {
+        this(doc, DEFAULT_MAX_HISTORY);
+    }
+
+    public OTEngine(DocumentBuffer doc, int maxHistory) {
+        this.doc = doc;
+        this.maxHistory = Math.max(COMPACT_BATCH, maxHistory);
+    }
+
+    /**
+     * 从快照恢复：doc 是 revision 时的文档内容，revision 之前的历史视为已回收
+     */
+    public static OTEngine restore(DocumentBuffer doc, long revision) {
+        OTEngine engine = new OTEngine(doc);
+        engine.revision = revision;
+        engine.compactedRevision = revision;
+        engine.seeded = true;
+        return engine;
+    }
+
+    /**
+     * 从快照恢复，同时恢复快照时已应用的操作编号（{@link #appliedOps()} 的导出结果）
+     */
+    public static OTEngine restore(DocumentBuffer doc, long revision, Map<String, List<Long>> appliedOps) {
+        OTEngine engine = restore(doc, revision);
+        engine.applied = AppliedOps.restore(appliedOps, System.currentTimeMillis());
+        return engine;
+    }
+
+    /**
+     * 从快照恢复，同时恢复快照时保留的历史（{@link #historyOps()} 的导出结果）：
+     * 快照之后重放的操作基线早于快照时，仍按服务端当时应用的（变换后的）操作做变换。
+     * 历史的版本号必须连续并以 revision 结尾，否则视为没有历史
+     */
+    public static OTEngine restore(DocumentBuffer doc, long revision, Map<String, List<Long>> appliedOps,
+                                   List<Operation> history) {
+        OTEngine engine = restore(doc, revision, appliedOps);
+        if (history == null || history.isEmpty()) {
+            return engine;
+        }
+        long first = revision - history.size() + 1;
+        for (int i = 0; i < history.size(); i++) {
+            if (history.get(i).revision != first + i) {
+                return engine;
+            }
+        }
+        engine.history.addAll(history);
+        engine.compactedRevision = first - 1;
+        return engine;
+    }
+
+    /**
+     * 操作是否已被应用过（按 clientId + seq），重复投递的操作应直接丢弃
+     */
+    public synchronized boolean isApplied(String clientId, long seq) {
+        return clientId != null && applied.contains(clientId, seq);
+    }
+
+    /**
+     * 接收一个客户端操作
+     *
+     * @return false 表示 op.baseRevision 对应的历史已被回收，无法变换，客户端需要重新同步
+     */
+    public synchronized boolean receive(Operation op) {
+        if (op.baseRevision >= 0 && op.baseRevision < compactedRevision) {
+            return false;
+        }
         incoming.add(op);
         process();
+        return true;
     }
 
     private void process() {
         Operation op;
         while ((op = incoming.poll()) != null) {
-            if (!serverClock.canAdvance(op.clock)) {
+            if (op.baseRevision < 0 && !serverClock.canAdvance(op.clock)) {
                 incoming.add(op);
                 break;
             }
             long start = System.nanoTime();
 
-            for (Operation prev : history) {
-                // **只对其他用户** 的并发操作做 transform，本用户自己的操作跳过**
-                if (!prev.userId.equals(op.userId)
-                        && op.clock.isConcurrent(prev.clock)) {
-                    Transformer.transform(op, prev);
+            if (op.baseRevision >= 0) {
+                // 只对 baseRevision 之后、其他客户端的操作做 transform；同一连接同时只有一个未确认的操作，
+                // 它自己之前的操作都在基线之内。同一用户的不同连接（多个标签页）互相之间也要变换
+                long base = Math.min(op.baseRevision, revision);
+                String source = op.source();
+                for (int i = (int) Math.max(0, base - compactedRevision); i < history.size(); i++) {
+                    Operation prev = history.get(i);
+                    if (!prev.source().equals(source)) {
+                        Transformer.transform(op, prev);
+                    }
+                }
+                clientRevisions.merge(source, base, Math::max);
+            } else {
+                // 旧客户端未携带版本号：退回到向量时钟判断，范围仅限保留的历史
+                for (Operation prev : history) {
+                    // **只对其他客户端** 的并发操作做 transform，本客户端自己的操作跳过**
+                    if (!prev.source().equals(op.source())
+                            && op.clock.isConcurrent(prev.clock)) {
+                        Transformer.transform(op, prev);
+                    }
                 }
             }
 
             applyToDoc(op);
-            history.add(op);
-            serverClock.advance(op.clock);
+            // 被拆开的删除每段各占一个版本号，历史中只保存单段操作
+            for (Operation part = op; part != null; part = part.next) {
+                part.revision = ++revision;
+                Operation entry = part.next == null ? part : part.part(part.content, part.length, part.pos);
+                entry.revision = part.revision;
+                history.add(entry);
+            }
+            if (op.clientId != null) {
+                applied.record(op.clientId, op.seq, System.currentTimeMillis());
+            }
+            if (op.clock != null) {
+                // 按版本号协作的操作可以不携带时钟
+                serverClock.advance(op.clock);
+            }
+            compact();
 
             long dur = (System.nanoTime() - start) / 1_000_000;
             if (dur > 30) {
@@ -55,27 +202,127 @@ public class OTEngine {
     }
 
     private void applyToDoc(Operation op) {
-        switch (op.type) {
-            case CONTENT_INSERT:
-                // clamp pos 到 [0, doc.length()]
-                int ipos = Math.max(0, Math.min(op.pos, doc.length()));
-                doc.insert(ipos, op.content);
-                break;
-            case CONTENT_DELETE:
-                int start = Math.max(0, op.pos);
-                int end = Math.min(op.pos + op.length, doc.length());
-                if (start < end) {
-                    doc.delete(start, end);
-                }
-                break;
-            case CURSOR_MOVE:
-                break;
+        // 区间截断由 DocumentBuffer 负责
+        Transformer.apply(doc, op);
+    }
+
+    /**
+     * 回收所有在线客户端都已确认的历史，并保证历史长度不超过 maxHistory
+     */
+    private void compact() {
+        // 没有客户端上报过版本号（旧客户端）时保留完整窗口供向量时钟路径使用
+        long safe = clientRevisions.isEmpty() ? revision - maxHistory : revision;
+        for (long acked : clientRevisions.values()) {
+            safe = Math.min(safe, acked);
+        }
+        safe = Math.max(safe, revision - maxHistory);
+        int drop = (int) (safe - compactedRevision);
+        if (drop >= COMPACT_BATCH || history.size() > maxHistory) {
+            history.subList(0, Math.min(drop, history.size())).clear();
+            compactedRevision = safe;
         }
     }
 
+    /**
+     * 记录客户端已确认的版本号（例如收到广播后的回执）
+     *
+     * @param clientId 与操作的 {@link Operation#source()} 一致，通常是连接 ID
+     */
+    public synchronized void acknowledge(String clientId, long ackRevision) {
+        clientRevisions.merge(clientId, Math.min(ackRevision, revision), Math::max);
+    }
+
+    /**
+     * 客户端（连接）离开文档后不再阻止历史回收
+     */
+    public synchronized void removeClient(String clientId) {
+        clientRevisions.remove(clientId);
+    }
+
+    /**
+     * 为该文档的客户端创建向量时钟，slot 在文档内分配
+     */
+    public VectorClock newClock(String userId) {
+        return new VectorClock(clientSlots, userId);
+    }
+
+    /**
+     * 客户端时钟自增一次并返回副本，作为该客户端下一个操作的时钟
+     */
+    public synchronized VectorClock tick(String userId) {
+        VectorClock clock = clientClocks.computeIfAbsent(userId, this::newClock);
+        clock.tick();
+        return clock.copy();
+    }
+
+    /**
+     * 引擎内容是否以持久化的文档状态为起点，只有这样的引擎才能直接用于打开文档
+     */
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    public synchronized long getRevision() {
+        return revision;
+    }
+
+    /**
+     * 可变换的最早基线版本，更早的操作会被 {@link #receive} 拒绝
+     */
+    public synchronized long getCompactedRevision() {
+        return compactedRevision;
+    }
+
+    /**
+     * 当前保留的历史条数
+     */
+    public synchronized int getHistorySize() {
+        return history.size();
+    }
+
+    /**
+     * 已应用的操作编号：连接 ID -> [最大序号, 未应用的更小序号...]，与文档内容一起写入快照
+     */
+    public synchronized Map<String, List<Long>> appliedOps() {
+        return applied.export();
+    }
+
+    /**
+     * 保留的历史（已变换、单段，按版本号递增），与文档内容一起写入快照
+     */
+    public synchronized List<Operation> historyOps() {
+        List<Operation> ops = new ArrayList<>(history.size());
+        for (Operation op : history) {
+            ops.add(op.copy());
+        }
+        return ops;
+    }
+
     public synchronized String getDocument() {
         return doc.toString();
     }
-}
 
+    /**
+     * 当前文档的只读快照，大文档（rope）为 O(1)，小文档复制一次全文
+     */
+    public synchronized DocumentBuffer snapshot() {
+        return doc.snapshot();
+    }
+
+    /**
+     * 同一时刻的文档快照与版本号，供不在文档邮箱中的读取方使用
+     */
+    public synchronized VersionedSnapshot versionedSnapshot() {
+        return new VersionedSnapshot(doc.snapshot(), revision);
+    }
+
+    public static final class VersionedSnapshot {
+        public final DocumentBuffer doc;
+        public final long revision;
 
+        VersionedSnapshot(DocumentBuffer doc, long revision) {
+            this.doc = doc;
+            this.revision = revision;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.cowrite.project.netty.ot;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 本节点持有的文档 OT 引擎，插入 / 删除等所有内容处理器共用同一份，保证一个文档只有一个引擎
+ */
+@Component
+public class OTEngineRegistry {
+
+    private final Map<String, OTEngine> engines = new ConcurrentHashMap<>();
+
+    /**
+     * 创建引擎时用于恢复文档状态（快照 + 操作流尾部），未设置时从空文档开始
+     */
+    private volatile Function<String, OTEngine> loader = id -> new OTEngine();
+
+    /**
+     * 获取（必要时创建）文档引擎
+     */
+    public OTEngine engineFor(String docId) {
+        return engines.computeIfAbsent(docId, loader);
+    }
+
+    public void setLoader(Function<String, OTEngine> loader) {
+        this.loader = loader;
+    }
+
+    public OTEngine get(String docId) {
+        return engines.get(docId);
+    }
+
+    /**
+     * 丢弃文档引擎（例如集群模式下文档归属转移到其他节点）
+     */
+    public OTEngine remove(String docId) {
+        return engines.remove(docId);
+    }
+
+    public Set<String> docIds() {
+        return engines.keySet();
+    }
+}
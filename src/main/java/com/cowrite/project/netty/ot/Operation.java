@@ -9,11 +9,28 @@ public class Operation {
     public final String docId;
     public final String userId;
     public final MessageType type;
-    public final String content;
+    public String content;
     public int length;  // 对 delete 有效
     public int pos;
     public final long timestamp;
     public final VectorClock clock;
+    /**
+     * 客户端生成该操作时已看到的服务端版本号，-1 表示未携带（旧客户端）
+     */
+    public long baseRevision = -1;
+    /**
+     * 被引擎应用后分配的服务端版本号
+     */
+    public long revision;
+    /**
+     * 删除区间被并发插入拆开后的下一段，坐标基于本段应用之后；只有删除会被拆开
+     */
+    public Operation next;
+    /**
+     * 提交该操作的连接 ID 与连接内序号（从 1 开始），引擎据此丢弃重复投递；为 null 时不去重
+     */
+    public String clientId;
+    public long seq;
 
     public Operation(String docId,
                      String userId,
@@ -32,4 +49,54 @@ public class Operation {
         this.timestamp = timestamp;
         this.clock = clock;
     }
+
+    public Operation(String docId,
+                     String userId,
+                     MessageType type,
+                     String content,
+                     int length,
+                     int pos,
+                     long timestamp,
+                     VectorClock clock,
+                     long baseRevision) {
+        this(docId, userId, type, content, length, pos, timestamp, clock);
+        this.baseRevision = baseRevision;
+    }
+
+    public Operation copy() {
+        Operation copy = part(content, length, pos);
+        copy.revision = revision;
+        if (next != null) {
+            copy.next = next.copy();
+        }
+        return copy;
+    }
+
+    /**
+     * 同一操作的另一段，不带后续分段
+     */
+    Operation part(String content, int length, int pos) {
+        Operation part = new Operation(docId, userId, type, content, length, pos, timestamp, clock, baseRevision);
+        part.clientId = clientId;
+        part.seq = seq;
+        return part;
+    }
+
+    /**
+     * 提交方：有连接 ID 时按连接区分（同一用户的多个标签页互相变换），否则按用户
+     */
+    public String source() {
+        return clientId != null ? clientId : userId;
+    }
+
+    /**
+     * 最后一段；操作被拆开时它的 revision 是该操作最终的版本号
+     */
+    public Operation last() {
+        Operation op = this;
+        while (op.next != null) {
+            op = op.next;
+        }
+        return op;
+    }
 }
@@ -0,0 +1,269 @@
+package com.cowrite.project.netty.ot;
+
+/**
+ * 基于不可变 AVL rope 的文档缓冲区。
+ * <p>
+ * - 叶子节点保存不超过 {@link #MAX_LEAF} 个字符的 String 片段，内部节点只记录长度和高度
+ * - insert / delete 通过 split + concat 实现，只重建根到叶子路径上的 O(log n) 个节点
+ * - 节点不可变，{@link #snapshot()} 只复制根引用，O(1)
+ * - 连续输入时相邻的小叶子会被合并，避免逐字符插入把树打碎
+ * <p>
+ * 该类本身不是线程安全的，调用方（OTEngine / ContentHandler）负责串行访问；
+ * 但快照之间互不影响，可以安全地交给其他线程读取。
+ */
+public class RopeDocumentBuffer implements DocumentBuffer {
+
+    /**
+     * 叶子最大字符数
+     */
+    static final int MAX_LEAF = 1024;
+
+    private static final Leaf EMPTY = new Leaf("");
+
+    private Node root;
+
+    public RopeDocumentBuffer() {
+        this.root = EMPTY;
+    }
+
+    public RopeDocumentBuffer(String text) {
+        this.root = text == null ? EMPTY : build(text, 0, text.length());
+    }
+
+    private RopeDocumentBuffer(Node root) {
+        this.root = root;
+    }
+
+    @Override
+    public void insert(int pos, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        int p = Math.max(0, Math.min(pos, root.length));
+        Node[] parts = split(root, p);
+        root = concat(concat(parts[0], build(text, 0, text.length())), parts[1]);
+    }
+
+    @Override
+    public void delete(int start, int end) {
+        int s = Math.max(0, start);
+        int e = Math.min(end, root.length);
+        if (s >= e) {
+            return;
+        }
+        Node[] right = split(root, e);
+        Node[] left = split(right[0], s);
+        root = concat(left[0], right[1]);
+    }
+
+    @Override
+    public DocumentBuffer snapshot() {
+        return new RopeDocumentBuffer(root);
+    }
+
+    @Override
+    public int length() {
+        return root.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= root.length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + root.length);
+        }
+        Node node = root;
+        while (node instanceof Concat) {
+            Concat c = (Concat) node;
+            if (index < c.left.length) {
+                node = c.left;
+            } else {
+                index -= c.left.length;
+                node = c.right;
+            }
+        }
+        return ((Leaf) node).text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > root.length || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + root.length);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        appendRange(root, start, end, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(root.length);
+        appendRange(root, 0, root.length, sb);
+        return sb.toString();
+    }
+
+    /**
+     * 树高，仅用于测试平衡性
+     */
+    int depth() {
+        return root.height;
+    }
+
+    // ========================================================================
+    // rope 内部实现
+    // ========================================================================
+
+    private abstract static class Node {
+        final int length;
+        final int height;
+
+        Node(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final String text;
+
+        Leaf(String text) {
+            super(text.length(), 0);
+            this.text = text;
+        }
+    }
+
+    private static final class Concat extends Node {
+        final Node left;
+        final Node right;
+
+        Concat(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static Node build(String text, int from, int to) {
+        if (to - from <= MAX_LEAF) {
+            return from == to ? EMPTY : new Leaf(text.substring(from, to));
+        }
+        int mid = (from + to) >>> 1;
+        return new Concat(build(text, from, mid), build(text, mid, to));
+    }
+
+    /**
+     * 在下标 i 处把 node 拆成 [0, i) 和 [i, length)
+     */
+    private static Node[] split(Node node, int i) {
+        if (i <= 0) {
+            return new Node[]{EMPTY, node};
+        }
+        if (i >= node.length) {
+            return new Node[]{node, EMPTY};
+        }
+        if (node instanceof Leaf) {
+            String text = ((Leaf) node).text;
+            return new Node[]{new Leaf(text.substring(0, i)), new Leaf(text.substring(i))};
+        }
+        Concat c = (Concat) node;
+        if (i == c.left.length) {
+            return new Node[]{c.left, c.right};
+        }
+        if (i < c.left.length) {
+            Node[] parts = split(c.left, i);
+            return new Node[]{parts[0], concat(parts[1], c.right)};
+        }
+        Node[] parts = split(c.right, i - c.left.length);
+        return new Node[]{concat(c.left, parts[0]), parts[1]};
+    }
+
+    /**
+     * 拼接两棵 AVL rope，结果仍然平衡（任意节点左右子树高度差不超过 1）
+     */
+    private static Node concat(Node a, Node b) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        if (a.length + b.length <= MAX_LEAF) {
+            StringBuilder sb = new StringBuilder(a.length + b.length);
+            appendRange(a, 0, a.length, sb);
+            appendRange(b, 0, b.length, sb);
+            return new Leaf(sb.toString());
+        }
+        if (a.height > b.height + 1) {
+            Concat ca = (Concat) a;
+            return balance(ca.left, concat(ca.right, b));
+        }
+        if (b.height > a.height + 1) {
+            Concat cb = (Concat) b;
+            return balance(concat(a, cb.left), cb.right);
+        }
+        // 连续输入：把新片段并进相邻的小叶子
+        if (b instanceof Leaf && a instanceof Concat) {
+            Concat ca = (Concat) a;
+            if (ca.right instanceof Leaf && ca.right.length + b.length <= MAX_LEAF) {
+                return balance(ca.left, new Leaf(((Leaf) ca.right).text + ((Leaf) b).text));
+            }
+        }
+        if (a instanceof Leaf && b instanceof Concat) {
+            Concat cb = (Concat) b;
+            if (cb.left instanceof Leaf && a.length + cb.left.length <= MAX_LEAF) {
+                return balance(new Leaf(((Leaf) a).text + ((Leaf) cb.left).text), cb.right);
+            }
+        }
+        return new Concat(a, b);
+    }
+
+    /**
+     * 高度差为 2 时做单/双旋转；更大的高度差（叶子合并导致子树变矮）交回 concat 递归处理
+     */
+    private static Node balance(Node l, Node r) {
+        int diff = l.height - r.height;
+        if (diff > 2 || diff < -2) {
+            return concat(l, r);
+        }
+        if (diff == 2) {
+            Concat cl = (Concat) l;
+            if (cl.left.height >= cl.right.height) {
+                return new Concat(cl.left, new Concat(cl.right, r));
+            }
+            Concat lr = (Concat) cl.right;
+            return new Concat(new Concat(cl.left, lr.left), new Concat(lr.right, r));
+        }
+        if (diff == -2) {
+            Concat cr = (Concat) r;
+            if (cr.right.height >= cr.left.height) {
+                return new Concat(new Concat(l, cr.left), cr.right);
+            }
+            Concat rl = (Concat) cr.left;
+            return new Concat(new Concat(l, rl.left), new Concat(rl.right, cr.right));
+        }
+        if (l.length == 0) {
+            return r;
+        }
+        if (r.length == 0) {
+            return l;
+        }
+        return new Concat(l, r);
+    }
+
+    private static void appendRange(Node node, int start, int end, StringBuilder sb) {
+        if (start >= end) {
+            return;
+        }
+        if (node instanceof Leaf) {
+            sb.append(((Leaf) node).text, start, end);
+            return;
+        }
+        Concat c = (Concat) node;
+        int leftLen = c.left.length;
+        if (start < leftLen) {
+            appendRange(c.left, start, Math.min(end, leftLen), sb);
+        }
+        if (end > leftLen) {
+            appendRange(c.right, Math.max(0, start - leftLen), end - leftLen, sb);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.cowrite.project.netty.ot;
+
+/**
+ * 基于 StringBuilder 的文档缓冲区，插入/删除为 O(n) 数组搬移，适合小文档或作为对照基线。
+ */
+public class StringBuilderDocumentBuffer implements DocumentBuffer {
+
+    private final StringBuilder doc;
+
+    public StringBuilderDocumentBuffer() {
+        this.doc = new StringBuilder();
+    }
+
+    public StringBuilderDocumentBuffer(String text) {
+        this.doc = new StringBuilder(text == null ? "" : text);
+    }
+
+    @Override
+    public void insert(int pos, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        doc.insert(Math.max(0, Math.min(pos, doc.length())), text);
+    }
+
+    @Override
+    public void delete(int start, int end) {
+        int s = Math.max(0, start);
+        int e = Math.min(end, doc.length());
+        if (s < e) {
+            doc.delete(s, e);
+        }
+    }
+
+    @Override
+    public DocumentBuffer snapshot() {
+        return new StringBuilderDocumentBuffer(doc.toString());
+    }
+
+    @Override
+    public int length() {
+        return doc.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return doc.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return doc.substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return doc.toString();
+    }
+}
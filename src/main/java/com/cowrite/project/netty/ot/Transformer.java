@@ -3,21 +3,233 @@ package com.cowrite.project.netty.ot;
 import com.cowrite.project.netty.protocol.MessageType;
 
 /**
- * 最基础的 OT 变换：只在并发时调整位置，不改内容长度。
+ * OT 变换的唯一实现。
+ * <p>
+ * {@link #transform(Operation, Operation)} 满足 TP1：对同一状态 S 上的两个并发操作 a、b，
+ * apply(apply(S, b), a') == apply(apply(S, a), b')，其中 a' = T(a, b)，b' = T(b, a)。
+ * 规则：
+ * <ul>
+ *     <li>插入 / 插入：位置相同时按 userId 字典序决定先后，保证两端结果一致；userId 相同（同一用户的两个连接）时
+ *         服务端先应用的在前，客户端一侧用 {@link #transformRemote} 得到一致的结果</li>
+ *     <li>插入 / 删除：插入点在删除区间之前或恰好在起点不动，在区间之后左移；
+ *         严格落在被并发删除的区间内部时，插入保留并移到区间起点</li>
+ *     <li>删除 / 插入：插入点严格在删除区间内部时，删除拆成插入点前后两段（{@link Operation#next}），
+ *         插入的内容不被删除（与上一条对称）</li>
+ *     <li>删除 / 删除：去掉已被对方删除的部分，覆盖前后相交、包含、被包含等所有重叠情况，完全被覆盖时变为空操作</li>
+ * </ul>
+ * 拆开的删除与其他操作变换时按“依次应用各段”的组合语义处理，结果仍可能是多段。
+ * 其他类型（光标等）不参与变换。
  */
-public class Transformer {
+public final class Transformer {
+
+    private Transformer() {
+    }
+
     /**
-     * 只在并发时移动 pos，不改内容
+     * 将 op 变换为在 prev 之后应用的形式（原地修改 op）。op 与 prev 必须基于同一文档状态。
      */
     public static void transform(Operation op, Operation prev) {
-        if (prev.type == MessageType.CONTENT_INSERT) {
-            if (prev.pos <= op.pos) {
-                op.pos += prev.content.length();
+        transform(op, prev, false);
+    }
+
+    /**
+     * 客户端一侧：把服务端下发的 remote 变换到本地尚未确认的 local 之后（原地修改 remote）。
+     * 服务端上 local 排在 remote 之后应用，同位置插入时只有 local 的 userId 严格更小才在前
+     */
+    public static void transformRemote(Operation remote, Operation local) {
+        transform(remote, local, true);
+    }
+
+    /**
+     * @param prevAppliedLater prev 在服务端排在 op 之后（客户端变换远端操作），同位置插入的先后与服务端相反方向判断
+     */
+    private static void transform(Operation op, Operation prev, boolean prevAppliedLater) {
+        // prev 被拆开时依次越过每一段，后一段的坐标本就基于前一段应用之后
+        for (Operation part = prev; part != null; part = part.next) {
+            transformAgainst(op, part, prevAppliedLater);
+        }
+    }
+
+    /**
+     * op 对单段的 prev 变换；op 为多段删除时，首段直接对 prev 变换，
+     * 其余各段对“越过首段之后的 prev”变换，再接回首段（可能已被拆开）的末尾
+     */
+    private static void transformAgainst(Operation op, Operation prev, boolean prevAppliedLater) {
+        Operation rest = op.next;
+        if (rest == null) {
+            transformPart(op, prev, prevAppliedLater);
+            return;
+        }
+        op.next = null;
+        Operation prevAfterHead = prev.part(prev.content, prev.length, prev.pos);
+        // 只有删除会被拆开，这一步不涉及同位置插入的先后
+        transformPart(prevAfterHead, op, false);
+        transformPart(op, prev, prevAppliedLater);
+        transform(rest, prevAfterHead, prevAppliedLater);
+        op.last().next = rest;
+        dropEmptyParts(op);
+    }
+
+    private static void transformPart(Operation op, Operation prev, boolean prevAppliedLater) {
+        if (isNoopPart(op) || isNoopPart(prev)) {
+            return;
+        }
+        if (op.type == MessageType.CONTENT_INSERT) {
+            if (prev.type == MessageType.CONTENT_INSERT) {
+                insertInsert(op, prev, prevAppliedLater);
+            } else if (prev.type == MessageType.CONTENT_DELETE) {
+                insertDelete(op, prev);
             }
-        } else if (prev.type == MessageType.CONTENT_DELETE) {
-            if (prev.pos < op.pos) {
-                op.pos -= Math.min(prev.length, op.pos - prev.pos);
+        } else if (op.type == MessageType.CONTENT_DELETE) {
+            if (prev.type == MessageType.CONTENT_INSERT) {
+                deleteInsert(op, prev);
+            } else if (prev.type == MessageType.CONTENT_DELETE) {
+                deleteDelete(op, prev);
             }
         }
     }
+
+    /**
+     * 不修改入参，返回变换后的副本
+     */
+    public static Operation transformed(Operation op, Operation prev) {
+        Operation copy = op.copy();
+        transform(copy, prev);
+        return copy;
+    }
+
+    /**
+     * {@link #transformRemote} 的副本版本
+     */
+    public static Operation transformedRemote(Operation remote, Operation local) {
+        Operation copy = remote.copy();
+        transformRemote(copy, local);
+        return copy;
+    }
+
+    /**
+     * 将操作应用到文档，越界位置由 DocumentBuffer 截断
+     */
+    public static void apply(DocumentBuffer doc, Operation op) {
+        for (Operation part = op; part != null; part = part.next) {
+            if (isNoopPart(part)) {
+                continue;
+            }
+            if (part.type == MessageType.CONTENT_INSERT) {
+                doc.insert(part.pos, part.content);
+            } else if (part.type == MessageType.CONTENT_DELETE) {
+                doc.delete(part.pos, part.pos + part.length);
+            }
+        }
+    }
+
+    /**
+     * 空插入 / 零长度删除 / 非内容操作；多段删除要求每一段都为空
+     */
+    public static boolean isNoop(Operation op) {
+        for (Operation part = op; part != null; part = part.next) {
+            if (!isNoopPart(part)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNoopPart(Operation op) {
+        if (op.type == MessageType.CONTENT_INSERT) {
+            return op.content == null || op.content.isEmpty();
+        }
+        if (op.type == MessageType.CONTENT_DELETE) {
+            return op.length <= 0;
+        }
+        return true;
+    }
+
+    private static void insertInsert(Operation op, Operation prev, boolean prevAppliedLater) {
+        boolean prevFirst = prevAppliedLater ? !insertsFirst(op, prev) : insertsFirst(prev, op);
+        if (prev.pos < op.pos || (prev.pos == op.pos && prevFirst)) {
+            op.pos += prev.content.length();
+        }
+    }
+
+    private static void insertDelete(Operation op, Operation prev) {
+        int start = prev.pos;
+        int end = prev.pos + prev.length;
+        if (op.pos <= start) {
+            return;
+        }
+        if (op.pos >= end) {
+            op.pos -= prev.length;
+            return;
+        }
+        // 插入点落在被删除区间内部：保留插入，落在区间起点
+        op.pos = start;
+    }
+
+    private static void deleteInsert(Operation op, Operation prev) {
+        int start = op.pos;
+        int end = op.pos + op.length;
+        int insLen = prev.content.length();
+        if (prev.pos <= start) {
+            op.pos += insLen;
+        } else if (prev.pos < end) {
+            // 并发插入落在删除区间内部：删除插入点之前的部分，插入内容之后的部分作为下一段
+            Operation tail = op.part(op.content, end - prev.pos, start + insLen);
+            tail.next = op.next;
+            op.length = prev.pos - start;
+            op.next = tail;
+        }
+    }
+
+    private static void deleteDelete(Operation op, Operation prev) {
+        int start = mapThroughDelete(op.pos, prev);
+        int end = mapThroughDelete(op.pos + op.length, prev);
+        op.pos = start;
+        op.length = end - start;
+    }
+
+    /**
+     * 去掉变换后长度为 0 的分段；首段为空时由下一段顶上，保证调用方持有的引用仍指向第一段
+     */
+    private static void dropEmptyParts(Operation op) {
+        while (op.next != null && isNoopPart(op)) {
+            Operation next = op.next;
+            op.pos = next.pos;
+            op.length = next.length;
+            op.content = next.content;
+            op.next = next.next;
+        }
+        for (Operation part = op; part.next != null; ) {
+            if (isNoopPart(part.next)) {
+                part.next = part.next.next;
+            } else {
+                part = part.next;
+            }
+        }
+    }
+
+    /**
+     * 位置 x 在删除 prev 之后的新位置，落在被删区间内的位置折叠到区间起点
+     */
+    private static int mapThroughDelete(int x, Operation prev) {
+        int start = prev.pos;
+        int end = prev.pos + prev.length;
+        if (x <= start) {
+            return x;
+        }
+        if (x >= end) {
+            return x - prev.length;
+        }
+        return start;
+    }
+
+    /**
+     * 同位置插入的先后：userId 小者在前，userId 相同（同一用户）时服务端先应用者在前
+     */
+    private static boolean insertsFirst(Operation a, Operation b) {
+        if (a.userId == null || b.userId == null) {
+            return true;
+        }
+        return a.userId.compareTo(b.userId) <= 0;
+    }
 }
@@ -1,52 +1,181 @@
 package com.cowrite.project.netty.ot;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
 
 /**
  * 简单向量时钟：记录各用户的版本号，支持自增、合并、因果 & 并发检测。
+ * <p>
+ * 内部为按 {@link ClientSlots} 下标排列的稠密 long[]，比较与合并都是一次线性扫描，不产生任何分配。
+ * 写操作（tick / advance）加锁串行；读操作基于 volatile 数组引用，无锁。
+ * 二进制编码（{@link #toBytes()}）为 varint：selfSlot、长度、各分量，slot 含义相对于所属文档的 ClientSlots。
  */
 public class VectorClock {
-    private final Map<String, Long> time = new ConcurrentHashMap<>();
+
+    /**
+     * {@link #compare(VectorClock)} 的返回值
+     */
+    public static final int BEFORE = -1;
+    public static final int EQUAL = 0;
+    public static final int AFTER = 1;
+    public static final int CONCURRENT = 2;
+
+    private volatile long[] time;
+    private final ClientSlots slots;
+    private final int selfSlot;
     public final String selfId;
 
-    public VectorClock(String selfId) {
+    public VectorClock(ClientSlots slots, String selfId) {
+        this.slots = slots;
+        this.selfId = selfId;
+        this.selfSlot = slots.slotOf(selfId);
+        this.time = new long[selfSlot + 1];
+    }
+
+    private VectorClock(ClientSlots slots, String selfId, int selfSlot, long[] time) {
+        this.slots = slots;
         this.selfId = selfId;
-        time.put(selfId, 0L);
+        this.selfSlot = selfSlot;
+        this.time = time;
     }
 
-    public void tick() {
-        time.merge(selfId, 1L, Long::sum);
+    public synchronized void tick() {
+        ensureCapacity(selfSlot + 1)[selfSlot]++;
     }
 
-    public void advance(VectorClock other) {
-        other.time.forEach((k, v) -> time.merge(k, v, Math::max));
+    /**
+     * 合并：逐分量取最大值
+     */
+    public synchronized void advance(VectorClock other) {
+        long[] o = other.time;
+        long[] t = ensureCapacity(o.length);
+        for (int i = 0; i < o.length; i++) {
+            if (o[i] > t[i]) {
+                t[i] = o[i];
+            }
+        }
     }
 
+    /**
+     * other 除自身分量外的所有分量都不超过当前时钟，即 other 的因果依赖都已被应用
+     */
     public boolean canAdvance(VectorClock other) {
-        for (Map.Entry<String, Long> e : other.time.entrySet()) {
-            if (e.getKey().equals(other.selfId)) continue;
-            if (time.getOrDefault(e.getKey(), 0L) < e.getValue()) return false;
+        long[] t = time;
+        long[] o = other.time;
+        for (int i = 0; i < o.length; i++) {
+            if (i == other.selfSlot) continue;
+            if ((i < t.length ? t[i] : 0L) < o[i]) return false;
         }
         return true;
     }
 
-    public boolean happenedBefore(VectorClock other) {
+    /**
+     * 一次扫描得到两个时钟的偏序关系
+     *
+     * @return {@link #BEFORE} / {@link #AFTER} / {@link #EQUAL} / {@link #CONCURRENT}
+     */
+    public int compare(VectorClock other) {
+        long[] a = time;
+        long[] b = other.time;
+        int n = Math.max(a.length, b.length);
         boolean less = false;
-        Set<String> keys = new HashSet<>(time.keySet());
-        keys.addAll(other.time.keySet());
-        for (String u : keys) {
-            long a = time.getOrDefault(u, 0L);
-            long b = other.time.getOrDefault(u, 0L);
-            if (a > b) return false;
-            if (a < b) less = true;
+        boolean greater = false;
+        for (int i = 0; i < n; i++) {
+            long x = i < a.length ? a[i] : 0L;
+            long y = i < b.length ? b[i] : 0L;
+            if (x < y) {
+                less = true;
+            } else if (x > y) {
+                greater = true;
+            }
+            if (less && greater) {
+                return CONCURRENT;
+            }
         }
-        return less;
+        return less ? BEFORE : (greater ? AFTER : EQUAL);
     }
 
+    public boolean happenedBefore(VectorClock other) {
+        return compare(other) == BEFORE;
+    }
+
+    /**
+     * 互不先于对方即视为并发（与旧实现一致，相等的时钟也视为并发）
+     */
     public boolean isConcurrent(VectorClock other) {
-        return !happenedBefore(other) && !other.happenedBefore(this);
+        int c = compare(other);
+        return c == CONCURRENT || c == EQUAL;
+    }
+
+    /**
+     * 某个客户端在该时钟上的分量
+     */
+    public long get(String clientId) {
+        int slot = slots.indexOf(clientId);
+        long[] t = time;
+        return slot >= 0 && slot < t.length ? t[slot] : 0L;
+    }
+
+    /**
+     * 不可变快照，作为 Operation 上的时钟，避免后续 tick 影响历史操作
+     */
+    public synchronized VectorClock copy() {
+        return new VectorClock(slots, selfId, selfSlot, time.clone());
+    }
+
+    public byte[] toBytes() {
+        long[] t = time;
+        byte[] out = new byte[10 * (t.length + 2)];
+        int p = writeVarLong(out, 0, selfSlot);
+        p = writeVarLong(out, p, t.length);
+        for (long v : t) {
+            p = writeVarLong(out, p, v);
+        }
+        return Arrays.copyOf(out, p);
+    }
+
+    public static VectorClock fromBytes(ClientSlots slots, byte[] bytes) {
+        int[] pos = {0};
+        int selfSlot = (int) readVarLong(bytes, pos);
+        int n = (int) readVarLong(bytes, pos);
+        long[] t = new long[Math.max(n, selfSlot + 1)];
+        for (int i = 0; i < n; i++) {
+            t[i] = readVarLong(bytes, pos);
+        }
+        return new VectorClock(slots, slots.clientAt(selfSlot), selfSlot, t);
+    }
+
+    @Override
+    public String toString() {
+        return "VectorClock{" + selfId + "=" + Arrays.toString(time) + '}';
+    }
+
+    private long[] ensureCapacity(int size) {
+        long[] t = time;
+        if (t.length < size) {
+            t = Arrays.copyOf(t, size);
+            time = t;
+        }
+        return t;
+    }
+
+    private static int writeVarLong(byte[] out, int p, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[p++] = (byte) v;
+        return p;
+    }
+
+    private static long readVarLong(byte[] in, int[] pos) {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in[pos[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
     }
 }
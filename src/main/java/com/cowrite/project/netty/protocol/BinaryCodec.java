@@ -0,0 +1,387 @@
+package com.cowrite.project.netty.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link NettyMessage} / {@link MessageResponse} 的紧凑二进制编码（子协议 {@link WireFormat#BINARY_SUBPROTOCOL}）。
+ * <p>
+ * 整数一律为 zigzag varint，字符串为 varint 长度 + UTF-8，解码直接读 ByteBuf，不经过整帧字符串。
+ * <pre>
+ * NettyMessage:    kind(1) type(1) flags(1) docId(ref) userId(ref) [content] [length] [pos] [x] [y] [timestamp] [revision]
+ * MessageResponse: kind(2) type(1) docId(str) userId(str) timestamp count { key value }*
+ * </pre>
+ * - flags 标记可选字段是否存在，最高位是 isTyping
+ * - ref：0 为 null，1 表示后面跟字面量并加入连接的 {@link StringTable}，n >= 2 引用表中第 n - 2 项；
+ *   客户端上行的 docId / userId 在同一连接上只传一次
+ * - 下行响应不依赖连接状态（id 直接写字面量），同一帧可以发给所有接收方；
+ *   payload 的常用 key 用一个字节的字典编码，值带类型标签，列表 / 对象等复杂值退化为内嵌 JSON
+ */
+public final class BinaryCodec {
+
+    public static final int KIND_MESSAGE = 1;
+    public static final int KIND_RESPONSE = 2;
+
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final int NULL_TYPE = 0xFF;
+
+    private static final int HAS_CONTENT = 1;
+    private static final int HAS_LENGTH = 1 << 1;
+    private static final int HAS_POS = 1 << 2;
+    private static final int HAS_X = 1 << 3;
+    private static final int HAS_Y = 1 << 4;
+    private static final int HAS_TIMESTAMP = 1 << 5;
+    private static final int HAS_REVISION = 1 << 6;
+    private static final int TYPING = 1 << 7;
+
+    /**
+     * payload key 字典，只能在末尾追加
+     */
+    private static final String[] PAYLOAD_KEYS = {
+            "content", "pos", "length", "revision", "message", "userId", "docId",
+            "x", "y", "isTyping", "timestamp", "users", "cursors", "typing"
+    };
+    private static final Map<String, Integer> KEY_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < PAYLOAD_KEYS.length; i++) {
+            KEY_CODES.put(PAYLOAD_KEYS[i], i + 1);
+        }
+    }
+
+    private static final int V_NULL = 0;
+    private static final int V_STRING = 1;
+    private static final int V_LONG = 2;
+    private static final int V_TRUE = 3;
+    private static final int V_FALSE = 4;
+    private static final int V_DOUBLE = 5;
+    private static final int V_JSON = 6;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private BinaryCodec() {
+    }
+
+    // ========================================================================
+    // NettyMessage（客户端 -> 服务端）
+    // ========================================================================
+
+    public static void encodeMessage(NettyMessage message, StringTable ids, ByteBuf out) {
+        out.writeByte(KIND_MESSAGE);
+        out.writeByte(typeCode(message.getOperationType()));
+        int flags = (message.getContent() != null ? HAS_CONTENT : 0)
+                | (message.getLength() != null ? HAS_LENGTH : 0)
+                | (message.getPos() != null ? HAS_POS : 0)
+                | (message.getX() != null ? HAS_X : 0)
+                | (message.getY() != null ? HAS_Y : 0)
+                | (message.getTimestamp() != null ? HAS_TIMESTAMP : 0)
+                | (message.getRevision() != null ? HAS_REVISION : 0)
+                | (message.isTyping() ? TYPING : 0);
+        out.writeByte(flags);
+        writeRef(out, message.getDocId(), ids);
+        writeRef(out, message.getUserId(), ids);
+        if (message.getContent() != null) writeString(out, message.getContent());
+        if (message.getLength() != null) writeVarLong(out, zigzag(message.getLength()));
+        if (message.getPos() != null) writeVarLong(out, zigzag(message.getPos()));
+        if (message.getX() != null) writeVarLong(out, zigzag(message.getX()));
+        if (message.getY() != null) writeVarLong(out, zigzag(message.getY()));
+        if (message.getTimestamp() != null) writeVarLong(out, zigzag(message.getTimestamp()));
+        if (message.getRevision() != null) writeVarLong(out, zigzag(message.getRevision()));
+    }
+
+    public static NettyMessage decodeMessage(ByteBuf in, StringTable ids) {
+        expectKind(in, KIND_MESSAGE);
+        NettyMessage message = new NettyMessage();
+        message.setOperationType(readType(in));
+        int flags = in.readUnsignedByte();
+        message.setDocId(readRef(in, ids));
+        message.setUserId(readRef(in, ids));
+        if ((flags & HAS_CONTENT) != 0) message.setContent(readString(in));
+        if ((flags & HAS_LENGTH) != 0) message.setLength((int) unzigzag(readVarLong(in)));
+        if ((flags & HAS_POS) != 0) message.setPos((int) unzigzag(readVarLong(in)));
+        if ((flags & HAS_X) != 0) message.setX((int) unzigzag(readVarLong(in)));
+        if ((flags & HAS_Y) != 0) message.setY((int) unzigzag(readVarLong(in)));
+        if ((flags & HAS_TIMESTAMP) != 0) message.setTimestamp(unzigzag(readVarLong(in)));
+        if ((flags & HAS_REVISION) != 0) message.setRevision(unzigzag(readVarLong(in)));
+        message.setIsTyping((flags & TYPING) != 0);
+        return message;
+    }
+
+    // ========================================================================
+    // MessageResponse（服务端 -> 客户端）
+    // ========================================================================
+
+    public static void encodeResponse(MessageResponse response, ByteBuf out) {
+        out.writeByte(KIND_RESPONSE);
+        out.writeByte(typeCode(response.getType()));
+        writeNullableString(out, response.getDocId());
+        writeNullableString(out, response.getUserId());
+        writeVarLong(out, zigzag(response.getTimestamp()));
+        Map<String, Object> payload = response.getPayload();
+        if (payload == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        writeVarLong(out, payload.size());
+        for (Map.Entry<String, Object> entry : payload.entrySet()) {
+            Integer code = KEY_CODES.get(entry.getKey());
+            if (code != null) {
+                writeVarLong(out, code);
+            } else {
+                writeVarLong(out, 0);
+                writeString(out, entry.getKey());
+            }
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    public static MessageResponse decodeResponse(ByteBuf in) {
+        expectKind(in, KIND_RESPONSE);
+        MessageResponse response = new MessageResponse();
+        response.setType(readType(in));
+        response.setDocId(readNullableString(in));
+        response.setUserId(readNullableString(in));
+        response.setTimestamp(unzigzag(readVarLong(in)));
+        int count = (int) readVarLong(in);
+        Map<String, Object> payload = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int code = (int) readVarLong(in);
+            String key;
+            if (code == 0) {
+                key = readString(in);
+            } else if (code <= PAYLOAD_KEYS.length) {
+                key = PAYLOAD_KEYS[code - 1];
+            } else {
+                throw new CorruptedFrameException("unknown payload key code " + code);
+            }
+            payload.put(key, readValue(in));
+        }
+        response.setPayload(payload);
+        return response;
+    }
+
+    // ========================================================================
+    // 连接级字符串表
+    // ========================================================================
+
+    /**
+     * 单个连接、单个方向的 id 字符串表，编码端与解码端按相同顺序追加，容量满后不再追加（继续写字面量）
+     */
+    public static final class StringTable {
+
+        public static final int MAX_SIZE = 256;
+
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> index = new HashMap<>();
+
+        int indexOf(String value) {
+            Integer i = index.get(value);
+            return i == null ? -1 : i;
+        }
+
+        String get(int i) {
+            if (i < 0 || i >= values.size()) {
+                throw new CorruptedFrameException("unknown string ref " + i);
+            }
+            return values.get(i);
+        }
+
+        void add(String value) {
+            if (values.size() < MAX_SIZE && !index.containsKey(value)) {
+                index.put(value, values.size());
+                values.add(value);
+            }
+        }
+
+        public int size() {
+            return values.size();
+        }
+    }
+
+    // ========================================================================
+    // 基础读写
+    // ========================================================================
+
+    private static void writeRef(ByteBuf out, String value, StringTable ids) {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        int i = ids.indexOf(value);
+        if (i >= 0) {
+            writeVarLong(out, i + 2);
+            return;
+        }
+        writeVarLong(out, 1);
+        writeString(out, value);
+        ids.add(value);
+    }
+
+    private static String readRef(ByteBuf in, StringTable ids) {
+        int ref = (int) readVarLong(in);
+        if (ref == 0) {
+            return null;
+        }
+        if (ref == 1) {
+            String value = readString(in);
+            ids.add(value);
+            return value;
+        }
+        return ids.get(ref - 2);
+    }
+
+    private static void writeValue(ByteBuf out, Object value) {
+        if (value == null) {
+            out.writeByte(V_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(V_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            out.writeByte(V_LONG);
+            writeVarLong(out, zigzag(((Number) value).longValue()));
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? V_TRUE : V_FALSE);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(V_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else {
+            byte[] json;
+            try {
+                json = mapper.writeValueAsBytes(value);
+            } catch (Exception e) {
+                throw new RuntimeException("序列化失败", e);
+            }
+            out.writeByte(V_JSON);
+            writeVarLong(out, json.length);
+            out.writeBytes(json);
+        }
+    }
+
+    private static Object readValue(ByteBuf in) {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case V_NULL:
+                return null;
+            case V_STRING:
+                return readString(in);
+            case V_LONG:
+                long v = unzigzag(readVarLong(in));
+                // 与 Jackson 解析 JSON 的结果保持一致：int 范围内为 Integer
+                return v == (int) v ? (Object) (int) v : (Object) v;
+            case V_TRUE:
+                return Boolean.TRUE;
+            case V_FALSE:
+                return Boolean.FALSE;
+            case V_DOUBLE:
+                return in.readDouble();
+            case V_JSON:
+                byte[] json = new byte[checkLength(in, readVarLong(in))];
+                in.readBytes(json);
+                try {
+                    return mapper.readValue(json, Object.class);
+                } catch (Exception e) {
+                    throw new CorruptedFrameException("invalid embedded json", e);
+                }
+            default:
+                throw new CorruptedFrameException("unknown value tag " + tag);
+        }
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        writeVarLong(out, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    private static String readString(ByteBuf in) {
+        int len = checkLength(in, readVarLong(in));
+        String value = in.toString(in.readerIndex(), len, StandardCharsets.UTF_8);
+        in.skipBytes(len);
+        return value;
+    }
+
+    public static void writeNullableString(ByteBuf out, String value) {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        writeVarLong(out, ByteBufUtil.utf8Bytes(value) + 1L);
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    public static String readNullableString(ByteBuf in) {
+        long n = readVarLong(in);
+        if (n == 0) {
+            return null;
+        }
+        int len = checkLength(in, n - 1);
+        String value = in.toString(in.readerIndex(), len, StandardCharsets.UTF_8);
+        in.skipBytes(len);
+        return value;
+    }
+
+    private static int checkLength(ByteBuf in, long len) {
+        if (len < 0 || len > in.readableBytes()) {
+            throw new CorruptedFrameException("length " + len + " exceeds frame");
+        }
+        return (int) len;
+    }
+
+    private static int typeCode(MessageType type) {
+        return type == null ? NULL_TYPE : type.ordinal();
+    }
+
+    private static MessageType readType(ByteBuf in) {
+        int code = in.readUnsignedByte();
+        if (code == NULL_TYPE) {
+            return null;
+        }
+        if (code >= TYPES.length) {
+            throw new CorruptedFrameException("unknown message type " + code);
+        }
+        return TYPES[code];
+    }
+
+    private static void expectKind(ByteBuf in, int kind) {
+        int actual = in.readUnsignedByte();
+        if (actual != kind) {
+            throw new CorruptedFrameException("unexpected frame kind " + actual);
+        }
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void writeVarLong(ByteBuf out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(ByteBuf in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new CorruptedFrameException("malformed varint");
+    }
+}
@@ -1,5 +1,8 @@
 package com.cowrite.project.netty.protocol;
 
+/**
+ * 二进制协议（{@link BinaryCodec}）按 ordinal 编码类型，新增类型只能追加在末尾
+ */
 public enum MessageType {
     DOCUMENT_JOIN("加入文档"),
     DOCUMENT_LEAVE("离开文档"),
@@ -28,7 +31,9 @@ public enum MessageType {
     LOCK("锁定文档"),
     UNLOCK("解锁文档"),
     CHUNK_REQUEST("请求分块"),
-    HEARTBEAT("心跳消息");
+    HEARTBEAT("心跳消息"),
+    PRESENCE("在线状态批量更新"),
+    OPERATION_ACK("操作确认");
 
     private final String description;
 
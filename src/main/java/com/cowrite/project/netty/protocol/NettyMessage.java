@@ -1,4 +1,6 @@
 package com.cowrite.project.netty.protocol;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.time.Instant;
@@ -62,6 +64,23 @@ public class NettyMessage {
      */
     private boolean isTyping;
 
+    /**
+     * 客户端已看到的服务端版本号（OT 基线），旧客户端可不传
+     */
+    private Long revision;
+
+    /**
+     * 服务端在入口处分配的连接 ID 与连接内序号，随操作写入 Stream，重新投递时据此去重；客户端传入的值会被覆盖
+     */
+    private String clientId;
+    private Long seq;
+
+    /**
+     * 服务端在入口处按握手时绑定的权限填写，随操作写入 Stream 与节点间转发，没有本地连接的处理器据此校验；
+     * 未开启握手认证时为 null，客户端传入的值会被覆盖
+     */
+    private PermissionLevel permission;
+
     public String getUserId() {
         return userId;
     }
@@ -143,6 +162,38 @@ public class NettyMessage {
         isTyping = typing;
     }
 
+    public Long getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Long revision) {
+        this.revision = revision;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    public PermissionLevel getPermission() {
+        return permission;
+    }
+
+    public void setPermission(PermissionLevel permission) {
+        this.permission = permission;
+    }
+
     public int getInsertLength() {
         return content == null ? 0 : content.length();
     }
@@ -174,9 +225,17 @@ public class NettyMessage {
         this.y = op.getY();
         this.timestamp = op.getTimestamp();
         this.isTyping = op.isTyping();
+        this.revision = op.getRevision();
+        this.clientId = op.getClientId();
+        this.seq = op.getSeq();
+        this.permission = op.getPermission();
     }
 
-    private static final ObjectMapper mapper = new ObjectMapper();
+    /**
+     * toJson 会输出 insertLength 等只读属性，反序列化时忽略，保证 toJson / fromJson 可以往返
+     */
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
     public static NettyMessage fromJson(String json) {
         try {
@@ -216,6 +275,7 @@ public class NettyMessage {
         private Integer y;
         private Long timestamp;
         private boolean isTyping;
+        private Long revision;
 
         public Builder() {
         }
@@ -320,12 +380,24 @@ public class NettyMessage {
             return this;
         }
 
+        /**
+         * 设置客户端已看到的服务端版本号
+         * @param revision 版本号
+         * @return Builder实例
+         */
+        public Builder revision(Long revision) {
+            this.revision = revision;
+            return this;
+        }
+
         /**
          * 构建NettyMessage对象
          * @return 构建完成的NettyMessage实例
          */
         public NettyMessage build() {
-            return new NettyMessage(operationType, docId, userId, content, length, pos, x, y, timestamp, isTyping);
+            NettyMessage message = new NettyMessage(operationType, docId, userId, content, length, pos, x, y, timestamp, isTyping);
+            message.setRevision(revision);
+            return message;
         }
     }
 
@@ -342,6 +414,10 @@ public class NettyMessage {
                 ", y=" + y +
                 ", timestamp=" + timestamp +
                 ", isTyping=" + isTyping +
+                ", revision=" + revision +
+                ", clientId='" + clientId + '\'' +
+                ", seq=" + seq +
+                ", permission=" + permission +
                 '}';
     }
 
@@ -357,6 +433,10 @@ public class NettyMessage {
         map.put("y", y);
         map.put("timestamp", timestamp);
         map.put("isTyping", isTyping);
+        map.put("revision", revision);
+        map.put("clientId", clientId);
+        map.put("seq", seq);
+        map.put("permission", permission);
         return map;
     }
 
@@ -381,6 +461,16 @@ public class NettyMessage {
         message.setX(castToInteger(map.get("x")));
         message.setY(castToInteger(map.get("y")));
         message.setTimestamp(castToLong(map.get("timestamp")));
+        message.setRevision(castToLong(map.get("revision")));
+        message.setClientId((String) map.get("clientId"));
+        message.setSeq(castToLong(map.get("seq")));
+
+        Object permission = map.get("permission");
+        if (permission instanceof String) {
+            message.setPermission(PermissionLevel.valueOf((String) permission));
+        } else if (permission instanceof PermissionLevel) {
+            message.setPermission((PermissionLevel) permission);
+        }
 
         Object typing = map.get("isTyping");
         if (typing instanceof Boolean) {
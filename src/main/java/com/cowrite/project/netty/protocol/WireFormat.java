@@ -0,0 +1,67 @@
+package com.cowrite.project.netty.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+
+/**
+ * 连接上使用的消息编码，在 WebSocket 握手时按子协议协商。
+ * <p>
+ * 客户端在 Sec-WebSocket-Protocol 中请求 {@link #BINARY_SUBPROTOCOL} 时使用 {@link BinaryCodec}，
+ * 未请求子协议的旧客户端继续使用 JSON 文本帧。
+ */
+public enum WireFormat {
+    JSON,
+    BINARY;
+
+    public static final String BINARY_SUBPROTOCOL = "cowrite.bin.v1";
+
+    public static final String JSON_SUBPROTOCOL = "cowrite.json";
+
+    /**
+     * 服务端支持的子协议列表（逗号分隔，交给 WebSocketServerProtocolHandler）
+     */
+    public static final String SUBPROTOCOLS = BINARY_SUBPROTOCOL + "," + JSON_SUBPROTOCOL;
+
+    public static final AttributeKey<WireFormat> KEY = AttributeKey.valueOf("wireFormat");
+
+    public static WireFormat fromSubprotocol(String subprotocol) {
+        return BINARY_SUBPROTOCOL.equals(subprotocol) ? BINARY : JSON;
+    }
+
+    public static WireFormat of(Channel channel) {
+        WireFormat format = channel.attr(KEY).get();
+        return format == null ? JSON : format;
+    }
+
+    /**
+     * 按当前编码把响应包装成 WebSocket 帧
+     */
+    public WebSocketFrame encode(MessageResponse response, ByteBufAllocator alloc) {
+        if (this == BINARY) {
+            ByteBuf buf = alloc.directBuffer();
+            try {
+                BinaryCodec.encodeResponse(response, buf);
+            } catch (RuntimeException e) {
+                buf.release();
+                throw e;
+            }
+            return new BinaryWebSocketFrame(buf);
+        }
+        return textFrame(response.toJson(), alloc);
+    }
+
+    /**
+     * 文本帧直接以 UTF-8 写入 direct buffer，不经过中间 byte[]
+     */
+    public static TextWebSocketFrame textFrame(String text, ByteBufAllocator alloc) {
+        ByteBuf buf = alloc.directBuffer(ByteBufUtil.utf8MaxBytes(text));
+        ByteBufUtil.writeUtf8(buf, text);
+        return new TextWebSocketFrame(buf);
+    }
+}
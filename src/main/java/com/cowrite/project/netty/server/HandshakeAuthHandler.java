@@ -0,0 +1,99 @@
+package com.cowrite.project.netty.server;
+
+import com.cowrite.project.netty.session.DocumentAccess;
+import com.cowrite.project.netty.session.SessionManager;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 在 WebSocket 升级请求上认证，每个连接一个实例，认证通过后从 pipeline 中移除。
+ * <p>
+ * token 取自 Authorization: Bearer 头，浏览器无法设置请求头时取查询参数 token；文档取查询参数 docId。
+ * 认证期间暂停读取，结果回到 event loop 后绑定 {@link DocumentAccess} / USER_ID / DOC_ID，
+ * 去掉查询参数（WebSocketServerProtocolHandler 按路径精确匹配）再交给握手处理器；失败返回 401 并关闭连接。
+ */
+public class HandshakeAuthHandler extends ChannelInboundHandlerAdapter {
+
+    private static final String BEARER = "Bearer ";
+
+    private final String websocketPath;
+
+    private final HandshakeAuthenticator authenticator;
+
+    public HandshakeAuthHandler(String websocketPath, HandshakeAuthenticator authenticator) {
+        this.websocketPath = websocketPath;
+        this.authenticator = authenticator;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof FullHttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        FullHttpRequest request = (FullHttpRequest) msg;
+        QueryStringDecoder query = new QueryStringDecoder(request.uri());
+        if (!websocketPath.equals(query.path())) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        String token = token(request, query);
+        String docId = parameter(query, "docId");
+
+        ctx.channel().config().setAutoRead(false);
+        try {
+            authenticator.executor().execute(() -> {
+                DocumentAccess access = authenticator.authenticate(token, docId);
+                ctx.executor().execute(() -> complete(ctx, request, query, access));
+            });
+        } catch (RejectedExecutionException e) {
+            complete(ctx, request, query, null);
+        }
+    }
+
+    private void complete(ChannelHandlerContext ctx, FullHttpRequest request, QueryStringDecoder query,
+                          DocumentAccess access) {
+        if (!ctx.channel().isActive()) {
+            request.release();
+            return;
+        }
+        if (access == null) {
+            request.release();
+            FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+                    HttpResponseStatus.UNAUTHORIZED);
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        ctx.channel().attr(DocumentAccess.KEY).set(access);
+        ctx.channel().attr(SessionManager.USER_ID).set(access.getUserId());
+        ctx.channel().attr(SessionManager.DOC_ID).set(access.getDocId());
+        request.setUri(query.path());
+        ctx.fireChannelRead(request);
+        ctx.pipeline().remove(this);
+        ctx.channel().config().setAutoRead(true);
+    }
+
+    private static String token(FullHttpRequest request, QueryStringDecoder query) {
+        String header = request.headers().get(HttpHeaderNames.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER)) {
+            return header.substring(BEARER.length());
+        }
+        return parameter(query, "token");
+    }
+
+    private static String parameter(QueryStringDecoder query, String name) {
+        List<String> values = query.parameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.cowrite.project.netty.server;
+
+import com.cowrite.project.config.NettyServerProperties;
+import com.cowrite.project.model.entity.User;
+import com.cowrite.project.netty.session.DocumentAccess;
+import com.cowrite.project.service.PermissionEvaluatorService;
+import com.cowrite.project.utils.JwtUtils;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WebSocket 握手认证：校验 JWT（含 Redis 黑名单）并查询一次文档权限。
+ * 两者都是阻塞调用，在独立线程池中执行，不占用 event loop。
+ */
+@Component
+public class HandshakeAuthenticator {
+
+    private static final Logger log = LoggerFactory.getLogger(HandshakeAuthenticator.class);
+
+    private final JwtUtils jwtUtils;
+
+    private final PermissionEvaluatorService permissionEvaluator;
+
+    private final NettyServerProperties props;
+
+    private final ExecutorService executor;
+
+    public HandshakeAuthenticator(JwtUtils jwtUtils, PermissionEvaluatorService permissionEvaluator,
+                                  NettyServerProperties props) {
+        this.jwtUtils = jwtUtils;
+        this.permissionEvaluator = permissionEvaluator;
+        this.props = props;
+        this.executor = Executors.newFixedThreadPool(props.getAuthThreads(), new DefaultThreadFactory("ws-auth", true));
+    }
+
+    public boolean isEnabled() {
+        return props.isAuthEnabled();
+    }
+
+    public Executor executor() {
+        return executor;
+    }
+
+    /**
+     * @return 认证通过时连接要绑定的权限，token 无效时返回 null
+     */
+    public DocumentAccess authenticate(String token, String docId) {
+        if (token == null || token.isEmpty() || docId == null || docId.isEmpty()) {
+            return null;
+        }
+        try {
+            if (!jwtUtils.validateToken(token)) {
+                return null;
+            }
+            User user = jwtUtils.getUserFromToken(token);
+            if (user.getId() == null) {
+                return null;
+            }
+            String userId = String.valueOf(user.getId());
+            return new DocumentAccess(userId, docId, permissionEvaluator.permissionOf(userId, docId));
+        } catch (RuntimeException e) {
+            log.warn("websocket handshake authentication failed for doc {}", docId, e);
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,16 +1,12 @@
 package com.cowrite.project.netty.server;
 
 
+import com.cowrite.project.config.NettyServerProperties;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
@@ -18,13 +14,13 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
+/**
+ * WebSocket 服务端，传输实现与连接参数见 {@link NettyServerProperties}
+ */
 @Component
 @ConditionalOnProperty(name = "netty.enabled", havingValue = "true", matchIfMissing = true)
 public class NettyServer {
 
-    @Value("${netty.server.port:8090}")
-    private int port;
-
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
 
@@ -33,20 +29,30 @@ public class NettyServer {
     @Resource
     private ServerInitializer serverInitializer;
 
+    @Resource
+    private NettyServerProperties props;
+
     @PostConstruct
     public void start() throws InterruptedException {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        NettyTransport transport = NettyTransport.select(props.getTransport());
+        bossGroup = transport.newGroup(1, "netty-boss");
+        workerGroup = transport.newGroup(props.getWorkerThreads(), "netty-worker");
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannel())
                     .childHandler(serverInitializer) //使用注入的实例
-                    .option(ChannelOption.SO_BACKLOG, 128)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true);
+                    .option(ChannelOption.SO_BACKLOG, props.getBacklog())
+                    .option(ChannelOption.SO_REUSEADDR, true)
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childOption(ChannelOption.SO_KEEPALIVE, true)
+                    .childOption(ChannelOption.TCP_NODELAY, props.isTcpNoDelay())
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            props.getWriteBufferLowWaterMark(), props.getWriteBufferHighWaterMark()));
 
-            ChannelFuture future = bootstrap.bind(port).sync();
-            log.info("Netty server started on port {}", port);
+            ChannelFuture future = bootstrap.bind(props.getPort()).sync();
+            log.info("Netty server started on port {} ({} transport)", props.getPort(), transport);
 
             future.channel().closeFuture().addListener(f -> {
                 log.info("Netty server closed");
@@ -63,4 +69,4 @@ public class NettyServer {
         if (bossGroup != null) bossGroup.shutdownGracefully();
         if (workerGroup != null) workerGroup.shutdownGracefully();
     }
-}
\ No newline at end of file
+}
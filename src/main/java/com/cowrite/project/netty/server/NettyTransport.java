@@ -0,0 +1,84 @@
+package com.cowrite.project.netty.server;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 传输实现：Linux 上优先使用 native epoll（边沿触发、更少的系统调用与垃圾），不可用时回退到 NIO
+ */
+public enum NettyTransport {
+
+    EPOLL {
+        @Override
+        public EventLoopGroup newGroup(int threads, String name) {
+            return new EpollEventLoopGroup(threads, new DefaultThreadFactory(name));
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannel() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> clientChannel() {
+            return EpollSocketChannel.class;
+        }
+    },
+
+    NIO {
+        @Override
+        public EventLoopGroup newGroup(int threads, String name) {
+            return new NioEventLoopGroup(threads, new DefaultThreadFactory(name));
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannel() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> clientChannel() {
+            return NioSocketChannel.class;
+        }
+    };
+
+    private static final Logger log = LoggerFactory.getLogger(NettyTransport.class);
+
+    /**
+     * @param threads 0 表示 Netty 默认线程数
+     */
+    public abstract EventLoopGroup newGroup(int threads, String name);
+
+    public abstract Class<? extends ServerChannel> serverChannel();
+
+    public abstract Class<? extends SocketChannel> clientChannel();
+
+    /**
+     * 按配置选择传输实现，要求 epoll 但当前平台不可用时回退到 NIO
+     *
+     * @param preference auto / epoll / nio
+     */
+    public static NettyTransport select(String preference) {
+        if ("nio".equalsIgnoreCase(preference)) {
+            return NIO;
+        }
+        if (Epoll.isAvailable()) {
+            return EPOLL;
+        }
+        if ("epoll".equalsIgnoreCase(preference)) {
+            log.warn("epoll transport unavailable, falling back to NIO", Epoll.unavailabilityCause());
+        }
+        return NIO;
+    }
+}
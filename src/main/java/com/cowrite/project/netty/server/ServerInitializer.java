@@ -1,9 +1,16 @@
 package com.cowrite.project.netty.server;
 
+import com.cowrite.project.config.NettyServerProperties;
+import com.cowrite.project.config.StreamConsumerProperties;
+import com.cowrite.project.netty.cluster.ClusterRelay;
 import com.cowrite.project.netty.handler.ContentHandler;
 import com.cowrite.project.netty.handler.MessageHandlerFactory;
+import com.cowrite.project.netty.handler.OperationCoalescer;
 import com.cowrite.project.netty.handler.ServerHandler;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.protocol.WireFormat;
 import com.cowrite.project.netty.session.SessionManager;
+import com.cowrite.project.netty.stream.DocumentExecutorManager;
 import com.cowrite.project.netty.stream.NettyStreamProducer;
 import com.cowrite.project.utils.RedisUtils;
 import io.netty.channel.ChannelHandler;
@@ -34,6 +41,30 @@ public class ServerInitializer extends ChannelInitializer<SocketChannel> {
     @Resource
     private MessageHandlerFactory messageHandlerFactory;
 
+    @Resource
+    private DocumentExecutorManager documentExecutorManager;
+
+    @Resource
+    private OperationCoalescer operationCoalescer;
+
+    @Resource
+    private ClusterRelay clusterRelay;
+
+    @Resource
+    private OTEngineRegistry otEngineRegistry;
+
+    @Resource
+    private NettyStreamProducer nettyStreamProducer;
+
+    @Resource
+    private StreamConsumerProperties streamConsumerProperties;
+
+    @Resource
+    private NettyServerProperties nettyServerProperties;
+
+    @Resource
+    private HandshakeAuthenticator handshakeAuthenticator;
+
     /**
      * 初始化通道
      * @param ch 通道
@@ -43,12 +74,22 @@ public class ServerInitializer extends ChannelInitializer<SocketChannel> {
         // 添加HTTP编解码器
         ch.pipeline().addLast(new HttpServerCodec());
         // 添加HTTP消息聚合器
-        ch.pipeline().addLast(new HttpObjectAggregator(65536));
-        // 添加WebSocket协议处理器
-        ch.pipeline().addLast(new WebSocketServerProtocolHandler("/ws"));
+        ch.pipeline().addLast(new HttpObjectAggregator(nettyServerProperties.getMaxContentLength()));
+        // 升级请求上校验 JWT，绑定用户与文档权限
+        if (handshakeAuthenticator.isEnabled()) {
+            ch.pipeline().addLast(new HandshakeAuthHandler("/ws", handshakeAuthenticator));
+        }
+        // 按需协商 permessage-deflate，需在协议处理器之前
+        boolean compression = nettyServerProperties.isCompressionEnabled();
+        if (compression) {
+            ch.pipeline().addLast(WebSocketCompression.newHandler(nettyServerProperties));
+        }
+        // 添加WebSocket协议处理器，支持协商二进制子协议；压缩帧带 RSV1 位，开启压缩时需允许扩展
+        ch.pipeline().addLast(new WebSocketServerProtocolHandler("/ws", WireFormat.SUBPROTOCOLS, compression));
         // 添加心跳检测
         ch.pipeline().addLast(new IdleStateHandler(300, 0, 0, TimeUnit.SECONDS));
         // 添加自定义处理器
-        ch.pipeline().addLast(new ServerHandler(sessionManager, redisUtils, contentHandler, messageHandlerFactory));
+        ch.pipeline().addLast(new ServerHandler(sessionManager, redisUtils, contentHandler, messageHandlerFactory, documentExecutorManager, operationCoalescer, clusterRelay, otEngineRegistry,
+                nettyStreamProducer, streamConsumerProperties.isEnabled()));
     }
 }
\ No newline at end of file
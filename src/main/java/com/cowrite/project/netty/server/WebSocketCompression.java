@@ -0,0 +1,98 @@
+package com.cowrite.project.netty.server;
+
+import com.cowrite.project.config.NettyServerProperties;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * permessage-deflate（RFC 7692）。
+ * <p>
+ * - 下行：载荷小于阈值的帧（按键级操作、光标）不压缩，快照、重同步、大段粘贴等大帧压缩
+ * - 上行：客户端压缩的帧都会解压
+ * - 上下文接管（context takeover）可分别关闭：关闭后每条消息独立压缩，压缩率下降，
+ *   但连接之间不再各自常驻一份 deflate 窗口（服务端约 256KB / 连接）
+ */
+public final class WebSocketCompression {
+
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+
+    static final String CLIENT_NO_CONTEXT = "client_no_context_takeover";
+
+    private WebSocketCompression() {
+    }
+
+    public static WebSocketServerExtensionHandler newHandler(NettyServerProperties props) {
+        return new WebSocketServerExtensionHandler(newHandshaker(props.getCompressionLevel(),
+                props.getCompressionThreshold(), props.isServerContextTakeover(), props.isClientContextTakeover()));
+    }
+
+    /**
+     * @param threshold 载荷小于该字节数的下行帧不压缩
+     */
+    public static WebSocketServerExtensionHandshaker newHandshaker(int level, int threshold,
+                                                                   boolean serverContextTakeover,
+                                                                   boolean clientContextTakeover) {
+        WebSocketExtensionFilterProvider filters = new WebSocketExtensionFilterProvider() {
+            private final WebSocketExtensionFilter encoderFilter = new SizeThreshold(threshold);
+
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return encoderFilter;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        PerMessageDeflateServerExtensionHandshaker deflate = new PerMessageDeflateServerExtensionHandshaker(
+                level, ZlibCodecFactory.isSupportingWindowSizeAndMemLevel(), 15,
+                true, !clientContextTakeover, filters);
+        if (serverContextTakeover && clientContextTakeover) {
+            return deflate;
+        }
+        // 服务端可以在客户端没有请求时自行声明 server_no_context_takeover / client_no_context_takeover
+        // （RFC 7692 7.1.1），netty 只在请求中带有对应参数时才启用，这里补上
+        return data -> {
+            if (!PERMESSAGE_DEFLATE.equals(data.name())) {
+                return null;
+            }
+            Map<String, String> parameters = new HashMap<>(data.parameters());
+            if (!serverContextTakeover) {
+                parameters.put(SERVER_NO_CONTEXT, null);
+            }
+            if (!clientContextTakeover) {
+                parameters.put(CLIENT_NO_CONTEXT, null);
+            }
+            return deflate.handshakeExtension(new WebSocketExtensionData(data.name(), parameters));
+        };
+    }
+
+    /**
+     * 小帧跳过压缩
+     */
+    static final class SizeThreshold implements WebSocketExtensionFilter {
+
+        private final int threshold;
+
+        SizeThreshold(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean mustSkip(WebSocketFrame frame) {
+            return frame.content().readableBytes() < threshold;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.netty.protocol.MessageResponse;
+
+/**
+ * 集群模式下 {@link SessionManager} 与其他节点之间的桥，由集群中继注册。
+ * SessionManager 只持有本节点的连接，需要到达其他节点的消息通过这里转出。
+ */
+public interface ClusterBridge {
+
+    /**
+     * 同一条广播交给其他节点，在各自的本地连接上下发
+     *
+     * @param excludeUserId 不接收的用户，null 表示全部
+     */
+    void publish(String docId, String excludeUserId, MessageResponse response);
+
+    /**
+     * 目标用户不在本节点时，交给持有该连接的节点下发
+     */
+    void publishToUser(String docId, String userId, MessageResponse response);
+
+    /**
+     * 内容操作的广播交给其他节点，提交该操作的连接不接收
+     */
+    void publishExcept(String docId, String excludeConnectionId, MessageResponse response);
+
+    /**
+     * 目标连接不在本节点时，交给持有该连接的节点下发
+     */
+    void publishToConnection(String docId, String connectionId, MessageResponse response);
+
+    /**
+     * 本节点出现了该文档的第一个连接
+     */
+    void localDocumentOpened(String docId);
+
+    /**
+     * 本节点上该文档的最后一个连接已断开
+     */
+    void localDocumentClosed(String docId);
+}
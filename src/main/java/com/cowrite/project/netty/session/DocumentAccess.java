@@ -0,0 +1,70 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+
+/**
+ * 握手时绑定到连接上的身份与文档权限。
+ * <p>
+ * 用户 ID 来自握手时校验过的 JWT，之后连接上的消息不再信任其中的 userId；
+ * 权限级别在握手时查询一次，权限变更时由 {@link PermissionChangeListener} 更新并推送给客户端。
+ */
+public class DocumentAccess {
+
+    public static final AttributeKey<DocumentAccess> KEY = AttributeKey.valueOf("documentAccess");
+
+    private final String userId;
+
+    private final String docId;
+
+    private volatile PermissionLevel level;
+
+    public DocumentAccess(String userId, String docId, PermissionLevel level) {
+        this.userId = userId;
+        this.docId = docId;
+        this.level = level;
+    }
+
+    /**
+     * 连接上绑定的权限，未经过握手认证（或 ctx 为 null，例如从 Stream 重放）时返回 null
+     */
+    public static DocumentAccess of(ChannelHandlerContext ctx) {
+        return ctx == null ? null : of(ctx.channel());
+    }
+
+    public static DocumentAccess of(Channel channel) {
+        return channel == null ? null : channel.attr(KEY).get();
+    }
+
+    /**
+     * 内容操作在入口处校验过的权限：有本地连接时取连接上绑定的权限，从 Stream 或其他节点到达（ctx 为 null）时
+     * 取随操作携带的权限；未开启握手认证时返回 null
+     */
+    public static PermissionLevel levelOf(ChannelHandlerContext ctx, NettyMessage message) {
+        DocumentAccess access = of(ctx);
+        return access != null ? access.getLevel() : message.getPermission();
+    }
+
+    public static boolean canEdit(PermissionLevel level) {
+        return level.compareTo(PermissionLevel.EDIT) >= 0;
+    }
+
+    public String getUserId() { return userId; }
+    public String getDocId() { return docId; }
+    public PermissionLevel getLevel() { return level; }
+
+    public void setLevel(PermissionLevel level) {
+        this.level = level;
+    }
+
+    public boolean canComment() {
+        return level.compareTo(PermissionLevel.COMMENT) >= 0;
+    }
+
+    public boolean canEdit() {
+        return canEdit(level);
+    }
+}
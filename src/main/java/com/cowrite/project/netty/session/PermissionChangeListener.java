@@ -0,0 +1,61 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.WireFormat;
+import com.cowrite.project.service.PermissionEvaluatorService;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import com.cowrite.project.service.event.DocumentPermissionChangedEvent;
+import io.netty.channel.Channel;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 权限变更后更新本节点上受影响连接绑定的权限，并推送一帧 PERMISSION_CHANGE（payload.permission 为新级别），
+ * 内容操作因此不必每次查库
+ */
+@Component
+public class PermissionChangeListener {
+
+    private final SessionManager sessionManager;
+
+    private final PermissionEvaluatorService permissionEvaluator;
+
+    public PermissionChangeListener(SessionManager sessionManager, PermissionEvaluatorService permissionEvaluator) {
+        this.sessionManager = sessionManager;
+        this.permissionEvaluator = permissionEvaluator;
+    }
+
+    @EventListener
+    public void onPermissionChanged(DocumentPermissionChangedEvent event) {
+        String docId = event.getDocId();
+        // 同一用户可能有多个连接，权限只查一次
+        Map<String, PermissionLevel> levels = new HashMap<>();
+        for (UserSession session : sessionManager.getAllUserSessions(docId)) {
+            Channel channel = session.getChannel();
+            DocumentAccess access = DocumentAccess.of(channel);
+            if (access == null || !docId.equals(access.getDocId())
+                    || (event.getUserId() != null && !event.getUserId().equals(access.getUserId()))) {
+                continue;
+            }
+            PermissionLevel level = levels.computeIfAbsent(access.getUserId(),
+                    userId -> permissionEvaluator.permissionOf(userId, docId));
+            if (level == access.getLevel()) {
+                continue;
+            }
+            access.setLevel(level);
+            if (channel.isActive()) {
+                MessageResponse push = new MessageResponse.Builder()
+                        .docId(docId)
+                        .userId(access.getUserId())
+                        .type(MessageType.PERMISSION_CHANGE)
+                        .putPayload("permission", level.name())
+                        .build();
+                channel.writeAndFlush(WireFormat.of(channel).encode(push, channel.alloc()));
+            }
+        }
+    }
+}
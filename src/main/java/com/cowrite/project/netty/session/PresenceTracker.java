@@ -0,0 +1,211 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.config.PresenceProperties;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线状态（光标位置、输入状态）：
+ * - 收到光标移动时只记录每个文档每个用户的最新位置，不立即转发，被覆盖的中间位置直接丢弃
+ * - 按固定周期（cowrite.netty.presence.tick-millis，默认约 15Hz）为每个文档下发一个 PRESENCE 帧，
+ *   只包含上次下发后有变化的光标和输入状态；没有变化的文档不发送
+ * - 输入状态由编辑操作驱动（{@link #markTyping}），超过 typingTimeoutMillis 没有编辑即视为停止输入
+ * - 已离线的用户在下一个周期被移除
+ * - 周期任务跑在独立的单线程调度器上，不占用 Spring 共享的 @Scheduled 线程
+ * <p>
+ * PRESENCE 帧 payload：cursors = [{userId, x, y}]，typing = {userId: true/false}
+ */
+@Component
+public class PresenceTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceTracker.class);
+
+    private final SessionManager sessionManager;
+
+    private final long typingTimeoutMillis;
+
+    private final long tickMillis;
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-tick");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, Map<String, UserPresence>> documents = new ConcurrentHashMap<>();
+
+    private final Counter updateCounter;
+
+    private final Counter cursorSentCounter;
+
+    private final Counter frameCounter;
+
+    public PresenceTracker(SessionManager sessionManager, PresenceProperties props, MeterRegistry meterRegistry) {
+        this.sessionManager = sessionManager;
+        this.typingTimeoutMillis = props.getTypingTimeoutMillis();
+        this.tickMillis = Math.max(1, props.getTickMillis());
+        this.updateCounter = Counter.builder("cowrite.presence.updates")
+                .description("收到的光标更新数")
+                .register(meterRegistry);
+        this.cursorSentCounter = Counter.builder("cowrite.presence.cursors.sent")
+                .description("实际下发的光标位置数（其余被后续位置覆盖或未变化）")
+                .register(meterRegistry);
+        this.frameCounter = Counter.builder("cowrite.presence.frames")
+                .description("下发的 PRESENCE 帧数（每个文档每个周期至多一个）")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录最新光标位置，只覆盖内存中的值
+     */
+    public void updateCursor(String docId, String userId, Integer x, Integer y) {
+        if (docId == null || userId == null) {
+            return;
+        }
+        updateCounter.increment();
+        presence(docId, userId).cursor = new Cursor(x, y);
+    }
+
+    /**
+     * 用户刚刚编辑过文档
+     */
+    public void markTyping(String docId, String userId) {
+        if (docId == null || userId == null) {
+            return;
+        }
+        presence(docId, userId).lastTypedAt = System.currentTimeMillis();
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker.scheduleAtFixedRate(() -> {
+            try {
+                tick();
+            } catch (Exception e) {
+                // 异常会取消周期任务，这里吞掉并等待下一个周期
+                log.warn("presence tick failed", e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    public void tick() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Map<String, UserPresence>> doc : documents.entrySet()) {
+            String docId = doc.getKey();
+            Map<String, UserPresence> users = doc.getValue();
+            List<Map<String, Object>> cursors = new ArrayList<>();
+            Map<String, Object> typing = new HashMap<>();
+
+            Iterator<Map.Entry<String, UserPresence>> it = users.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, UserPresence> entry = it.next();
+                String userId = entry.getKey();
+                UserPresence presence = entry.getValue();
+                if (!sessionManager.isUserOnline(docId, userId)) {
+                    it.remove();
+                    if (presence.typingSent) {
+                        typing.put(userId, false);
+                    }
+                    continue;
+                }
+                Cursor cursor = presence.cursor;
+                if (cursor != null && cursor != presence.sentCursor) {
+                    Cursor sent = presence.sentCursor;
+                    presence.sentCursor = cursor;
+                    if (sent == null || !sent.samePosition(cursor)) {
+                        Map<String, Object> c = new HashMap<>(4);
+                        c.put("userId", userId);
+                        c.put("x", cursor.x);
+                        c.put("y", cursor.y);
+                        cursors.add(c);
+                    }
+                }
+                boolean isTyping = now - presence.lastTypedAt < typingTimeoutMillis;
+                if (isTyping != presence.typingSent) {
+                    presence.typingSent = isTyping;
+                    typing.put(userId, isTyping);
+                }
+            }
+            // 判空与移除在同一个 compute 内完成，期间登记的新用户不会随旧 Map 一起丢失
+            documents.computeIfPresent(docId, (id, current) -> current.isEmpty() ? null : current);
+            if (cursors.isEmpty() && typing.isEmpty()) {
+                continue;
+            }
+
+            MessageResponse.Builder frame = new MessageResponse.Builder()
+                    .docId(docId)
+                    .type(MessageType.PRESENCE)
+                    .timestamp(now);
+            if (!cursors.isEmpty()) {
+                frame.putPayload("cursors", cursors);
+            }
+            if (!typing.isEmpty()) {
+                frame.putPayload("typing", typing);
+            }
+            sessionManager.broadcastToAll(docId, frame.build());
+            cursorSentCounter.increment(cursors.size());
+            frameCounter.increment();
+        }
+    }
+
+    private UserPresence presence(String docId, String userId) {
+        UserPresence[] presence = new UserPresence[1];
+        // 在文档条目的锁内登记用户，不会写进 tick 刚移除的空 Map
+        documents.compute(docId, (k, users) -> {
+            Map<String, UserPresence> current = users != null ? users : new ConcurrentHashMap<>();
+            presence[0] = current.computeIfAbsent(userId, id -> new UserPresence());
+            return current;
+        });
+        return presence[0];
+    }
+
+    private static final class UserPresence {
+        /**
+         * 最新位置，由 event loop 线程写入，tick 线程读取
+         */
+        volatile Cursor cursor;
+        volatile long lastTypedAt;
+        /**
+         * 以下字段只在 tick 线程访问
+         */
+        Cursor sentCursor;
+        boolean typingSent;
+    }
+
+    private static final class Cursor {
+        final Integer x;
+        final Integer y;
+
+        Cursor(Integer x, Integer y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        boolean samePosition(Cursor other) {
+            return Objects.equals(x, other.x) && Objects.equals(y, other.y);
+        }
+    }
+}
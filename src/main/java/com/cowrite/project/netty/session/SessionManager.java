@@ -3,21 +3,28 @@ package com.cowrite.project.netty.session;
 
 import com.cowrite.project.netty.protocol.MessageResponse;
 import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.protocol.WireFormat;
 import com.cowrite.project.utils.RedisUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
 
 /**
  * Session管理器
+ * <p>
+ * 会话按连接保存：同一用户在同一文档上可以有多个连接（多个标签页），内容操作的确认只发给提交它的连接，
+ * 广播发给除该连接外的所有连接。连接 ID 为 {@link #connectionId(Channel)}，与内容操作上的 clientId 一致。
  */
 @Component
 public class SessionManager {
@@ -25,33 +32,79 @@ public class SessionManager {
     public static final AttributeKey<String> USER_ID = AttributeKey.valueOf("userId");
     //绑定channel和docId
     public static final AttributeKey<String> DOC_ID = AttributeKey.valueOf("docId");
-    //用来记录有哪些文档有缓存
-    private List<String> cacheDoc = Collections.synchronizedList(new ArrayList<>());
+    private Map<String, Map<Channel, UserSession>> sessions = new ConcurrentHashMap<>();
 
-    private Map<String, Map<String, UserSession>> sessions = new ConcurrentHashMap<>();
+    /**
+     * 集群模式下通往其他节点的桥，单机模式为 null
+     */
+    private volatile ClusterBridge clusterBridge;
+
+    /**
+     * 慢连接处理，未注入时（单独构造的 SessionManager）不做处理
+     */
+    @Resource
+    private SlowConsumerGuard slowConsumerGuard;
+
+    public void setClusterBridge(ClusterBridge clusterBridge) {
+        this.clusterBridge = clusterBridge;
+    }
+
+    /**
+     * 连接 ID，内容操作以它作为 clientId，集群内唯一
+     */
+    public static String connectionId(Channel channel) {
+        return channel.id().asLongText();
+    }
 
     //新增在线用户
     public void addSessions(String docId,String userId,Channel channel){
-        sessions.computeIfAbsent(docId, k -> new HashMap<>())
-                .put(userId, new UserSession(userId, docId, channel));
+        boolean[] opened = new boolean[1];
+        // 内容操作在文档工作线程上遍历会话，内层也需要线程安全
+        sessions.computeIfAbsent(docId, k -> {
+            opened[0] = true;
+            return new ConcurrentHashMap<>();
+        }).put(channel, new UserSession(userId, docId, channel));
+        ClusterBridge bridge = clusterBridge;
+        if (opened[0] && bridge != null) {
+            bridge.localDocumentOpened(docId);
+        }
     }
 
-    //删除channel
+    //删除该用户在文档上的所有连接
     public  void deleteSessions(String docId,String userId) {
         if (docId == null || userId == null) {
             return; // 防止 null key
         }
+        removeSessions(docId, session -> userId.equals(session.getUserId()));
+    }
+
+    /**
+     * 只删除一个连接，同一用户的其他连接保持在线
+     */
+    public void deleteSession(String docId, Channel channel) {
+        if (docId == null || channel == null) {
+            return;
+        }
+        removeSessions(docId, session -> session.getChannel() == channel);
+    }
 
+    private void removeSessions(String docId, Predicate<UserSession> filter) {
+        boolean[] closed = new boolean[1];
         sessions.computeIfPresent(docId, (key, userSessions) -> {
-            userSessions.remove(userId);
+            userSessions.values().removeIf(filter);
 
             // 如果当前文档已无用户，可以移除该文档的 map，节省内存
             if (userSessions.isEmpty()) {
+                closed[0] = true;
                 return null; // remove the entry
             }
 
             return userSessions;
         });
+        ClusterBridge bridge = clusterBridge;
+        if (closed[0] && bridge != null) {
+            bridge.localDocumentClosed(docId);
+        }
     }
 
 
@@ -61,33 +114,87 @@ public class SessionManager {
         if (docId == null || userId == null || messageResponse == null) {
             return;
         }
+        if (!deliverToUser(docId, userId, messageResponse)) {
+            // 用户不在本节点，交给集群中继
+            ClusterBridge bridge = clusterBridge;
+            if (bridge != null) {
+                bridge.publishToUser(docId, userId, messageResponse);
+            }
+        }
+    }
 
-        Map<String, UserSession> userSessions = sessions.get(docId);
-        if (userSessions == null || userSessions.isEmpty()) {
+    /**
+     * 只在本节点的连接上给指定用户（该用户的所有连接）发消息
+     *
+     * @return false 表示该用户在本节点没有连接
+     */
+    public boolean deliverToUser(String docId, String userId, MessageResponse messageResponse) {
+        boolean found = false;
+        for (UserSession session : getAllUserSessions(docId)) {
+            if (userId.equals(session.getUserId())) {
+                found = true;
+                write(session.getChannel(), messageResponse);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 给提交内容操作的连接发消息（确认、重新同步），连接不在本节点时交给集群中继；
+     * connectionId 为 null（操作没有经过连接分配编号）时按用户发送
+     */
+    public void sendMessageToConnection(String docId, String userId, String connectionId, MessageResponse messageResponse) {
+        if (connectionId == null) {
+            sendMessageToUser(docId, userId, messageResponse);
             return;
         }
+        if (docId == null || messageResponse == null) {
+            return;
+        }
+        if (!deliverToConnection(docId, connectionId, messageResponse)) {
+            ClusterBridge bridge = clusterBridge;
+            if (bridge != null) {
+                bridge.publishToConnection(docId, connectionId, messageResponse);
+            }
+        }
+    }
 
-        UserSession session = userSessions.get(userId);
-        if (session != null) {
-            Channel channel = session.getChannel();
-            if (channel != null && channel.isActive()) {
-                try {
-                    // 使用 MessageResponse 的 toJson() 方法序列化为 JSON
-                    String json = messageResponse.toJson();
-                    // 包装成 WebSocket 文本帧并发送
-                    channel.writeAndFlush(new TextWebSocketFrame(json));
-                } catch (Exception e) {
-                    // 防止 JSON 序列化失败导致异常中断（例如 payload 中有不可序列化对象）
-                    e.printStackTrace(); // 建议使用日志框架：log.error("消息序列化失败", e);
-                }
+    /**
+     * 只在本节点上给指定连接发消息
+     *
+     * @return false 表示该连接不在本节点
+     */
+    public boolean deliverToConnection(String docId, String connectionId, MessageResponse messageResponse) {
+        for (UserSession session : getAllUserSessions(docId)) {
+            if (connectionId.equals(connectionId(session.getChannel()))) {
+                write(session.getChannel(), messageResponse);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(Channel channel, MessageResponse messageResponse) {
+        if (channel != null && channel.isActive()) {
+            try {
+                // 按连接协商的编码（JSON / 二进制）序列化并发送
+                channel.writeAndFlush(WireFormat.of(channel).encode(messageResponse, channel.alloc()));
+            } catch (Exception e) {
+                // 防止 JSON 序列化失败导致异常中断（例如 payload 中有不可序列化对象）
+                e.printStackTrace(); // 建议使用日志框架：log.error("消息序列化失败", e);
             }
         }
     }
 
 
-    //查找用户channel
+    //查找用户channel，用户有多个连接时返回其中一个
     public UserSession findSessions(String docId,String userId){
-        return sessions.get(docId).get(userId);
+        for (UserSession session : getAllUserSessions(docId)) {
+            if (session.getUserId().equals(userId)) {
+                return session;
+            }
+        }
+        return null;
     }
 
     //查找编辑文档的所有用户
@@ -96,185 +203,224 @@ public class SessionManager {
             return Collections.emptySet();
         }
 
-        Map<String, UserSession> userSessions = sessions.get(docId);
+        Map<Channel, UserSession> userSessions = sessions.get(docId);
         if (userSessions == null) {
             return Collections.emptySet();
         }
 
-        // 返回当前文档中所有用户的 ID 集合（不可变）
-        return Collections.unmodifiableSet(userSessions.keySet());
+        // 返回当前文档中所有用户的 ID 集合（不可变），多个连接的用户只出现一次
+        Set<String> users = new LinkedHashSet<>();
+        for (UserSession session : userSessions.values()) {
+            users.add(session.getUserId());
+        }
+        return Collections.unmodifiableSet(users);
     }
 
     //同步信息
     public void sendMessageToOthers(String docId, String excludeUserId, MessageResponse messageResponse) {
-        if (docId == null || excludeUserId == null || messageResponse == null) {
+        if (excludeUserId == null || messageResponse == null) {
             return;
         }
+        fanOut(docId, excludeUserId, null, (format, alloc) -> format.encode(messageResponse, alloc), true);
+        publishToCluster(docId, excludeUserId, messageResponse);
+    }
 
-        Map<String, UserSession> userSessions = sessions.get(docId);
-        if (userSessions == null || userSessions.isEmpty()) {
+    /**
+     * 内容操作的广播：除提交操作的连接外都接收，同一用户的其他连接也会收到；
+     * excludeConnectionId 为 null 时退回按用户排除
+     */
+    public void sendMessageToOtherConnections(String docId, String userId, String excludeConnectionId,
+                                              MessageResponse messageResponse) {
+        if (excludeConnectionId == null) {
+            sendMessageToOthers(docId, userId, messageResponse);
             return;
         }
-
-        String json = messageResponse.toJson();
-        // 创建一个引用计数为 1 的帧
-        TextWebSocketFrame frame = new TextWebSocketFrame(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8));
-
-        // 发送给其他人
-        for (Map.Entry<String, UserSession> entry : userSessions.entrySet()) {
-            String userId = entry.getKey();
-            UserSession session = entry.getValue();
-
-            if (!userId.equals(excludeUserId)) {
-                Channel channel = session.getChannel();
-                if (channel != null && channel.isActive()) {
-                    channel.writeAndFlush(frame.retainedDuplicate()); // retainedDuplicate = retain + copy
-                }
-            }
+        if (messageResponse == null) {
+            return;
+        }
+        fanOut(docId, null, excludeConnectionId, (format, alloc) -> format.encode(messageResponse, alloc), true);
+        ClusterBridge bridge = clusterBridge;
+        if (bridge != null && docId != null) {
+            bridge.publishExcept(docId, excludeConnectionId, messageResponse);
         }
-
-        // 释放原始帧
-        frame.release();
     }
 
     //同步信息
     public void sendMessageToOthers(String docId, String excludeUserId, NettyMessage nettyMessage) {
-        if (docId == null || excludeUserId == null || nettyMessage == null) {
+        if (excludeUserId == null || nettyMessage == null) {
             return;
         }
-
-        Map<String, UserSession> userSessions = sessions.get(docId);
-        if (userSessions == null || userSessions.isEmpty()) {
-            return;
-        }
-
         String json = nettyMessage.toJson();
-        // 创建一个引用计数为 1 的帧
-        TextWebSocketFrame frame = new TextWebSocketFrame(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8));
-
-        // 发送给其他人
-        for (Map.Entry<String, UserSession> entry : userSessions.entrySet()) {
-            String userId = entry.getKey();
-            UserSession session = entry.getValue();
-
-            if (!userId.equals(excludeUserId)) {
-                Channel channel = session.getChannel();
-                if (channel != null && channel.isActive()) {
-                    channel.writeAndFlush(frame.retainedDuplicate()); // retainedDuplicate = retain + copy
-                }
-            }
-        }
-
-        // 释放原始帧
-        frame.release();
+        fanOut(docId, excludeUserId, null, (format, alloc) -> WireFormat.textFrame(json, alloc), false);
     }
 
     //同步信息
     public void sendMessageToOthers(String docId, String excludeUserId, String content) {
-        // 参数检查
-        if (docId == null || excludeUserId == null || content == null) {
+        if (excludeUserId == null || content == null) {
             return;
         }
-
-        Map<String, UserSession> userSessions = sessions.get(docId);
-        if (userSessions == null || userSessions.isEmpty()) {
-            return; // 没有用户在线
-        }
-
-        // 创建一个引用计数为 1 的帧
-        TextWebSocketFrame frame = new TextWebSocketFrame(Unpooled.copiedBuffer(content, StandardCharsets.UTF_8));
-
-        try {
-            // 发送给其他用户
-            for (Map.Entry<String, UserSession> entry : userSessions.entrySet()) {
-                String userId = entry.getKey();
-                UserSession session = entry.getValue();
-
-                if (!userId.equals(excludeUserId)) {
-                    Channel channel = session.getChannel();
-                    if (channel != null && channel.isActive()) {
-                        // 使用 retainedDuplicate()：每个 Channel 拿到一个独立的副本
-                        channel.writeAndFlush(frame.retainedDuplicate());
-                    }
-                }
-            }
-        } finally {
-            // 确保原始帧被释放
-            frame.release();
-        }
+        fanOut(docId, excludeUserId, null, (format, alloc) -> WireFormat.textFrame(content, alloc), false);
     }
 
     //全局发送
     public void broadcastToAll(String docId, Object message) {
-        // 参数检查
-        if (docId == null || message == null) {
+        if (message instanceof MessageResponse) {
+            broadcastToAll(docId, (MessageResponse) message);
             return;
         }
-
-        Map<String, UserSession> userSessions = sessions.get(docId);
-        if (userSessions == null || userSessions.isEmpty()) {
+        String text;
+        if (message instanceof String) {
+            text = (String) message;
+        } else if (message instanceof NettyMessage) {
+            text = ((NettyMessage) message).toJson();
+        } else {
+            //不支持的类型
             return;
         }
+        fanOut(docId, null, null, (format, alloc) -> WireFormat.textFrame(text, alloc), false);
+    }
 
-        //根据 message 类型，生成对应的 WebSocket 帧
-        Object frameToSend = null;
-
-        if (message instanceof String) {
-            //如果是字符串，包装成 TextWebSocketFrame
-            frameToSend = new TextWebSocketFrame((String) message);
+    public void broadcastToAll(String docId, MessageResponse messageResponse) {
+        if (messageResponse == null) {
+            return;
         }
-        else if (message instanceof NettyMessage) {
-            //如果是 NettyMessage，转成 JSON 再包装
-            String json = ((NettyMessage) message).toJson();
-            frameToSend = new TextWebSocketFrame(json);
+        fanOut(docId, null, null, (format, alloc) -> format.encode(messageResponse, alloc), true);
+        publishToCluster(docId, null, messageResponse);
+    }
+
+    /**
+     * 只在本节点的连接上广播，供集群中继投递其他节点发来的消息
+     */
+    public void deliverLocal(String docId, String excludeUserId, MessageResponse messageResponse) {
+        if (messageResponse == null) {
+            return;
         }
-        else {
-            //不支持的类型
-            return; // 或 throw new IllegalArgumentException
+        fanOut(docId, excludeUserId, null, (format, alloc) -> format.encode(messageResponse, alloc), true);
+    }
+
+    /**
+     * 只在本节点上广播，排除一个连接，供集群中继投递其他节点发来的内容操作广播
+     */
+    public void deliverLocalExcept(String docId, String excludeConnectionId, MessageResponse messageResponse) {
+        if (messageResponse == null) {
+            return;
         }
+        fanOut(docId, null, excludeConnectionId, (format, alloc) -> format.encode(messageResponse, alloc), true);
+    }
 
-        //广播给所有人
-        for (UserSession session : userSessions.values()) {
-            Channel channel = session.getChannel();
-            if (channel != null && channel.isActive()) {
-                channel.writeAndFlush(frameToSend);
-            }
+    private void publishToCluster(String docId, String excludeUserId, MessageResponse messageResponse) {
+        ClusterBridge bridge = clusterBridge;
+        if (bridge != null && docId != null) {
+            bridge.publish(docId, excludeUserId, messageResponse);
         }
     }
 
-    public void broadcastToAll(String docId, MessageResponse messageResponse) {
-        // 参数检查（使用正确的变量名）
-        if (docId == null || messageResponse == null) {
+    /**
+     * 所有广播的统一出口：
+     * - 每种编码只序列化一次，写入 direct buffer，接收方共享同一份数据（retainedDuplicate）
+     * - 按 event loop 分组，每个 event loop 只提交一个任务：先逐个 write，最后逐个 flush，
+     *   而不是每个接收方各提交一次 writeAndFlush
+     * - 越过写高水位的连接不再排队，排空后由 {@link SlowConsumerGuard} 下发快照
+     *
+     * @param excludeUserId       不接收的用户，null 表示全部
+     * @param excludeConnectionId 不接收的连接，null 表示全部
+     * @param negotiate           false 时所有连接都发送 JSON 文本帧
+     */
+    private void fanOut(String docId, String excludeUserId, String excludeConnectionId,
+                        FrameEncoder encoder, boolean negotiate) {
+        if (docId == null) {
             return;
         }
-
-        Map<String, UserSession> userSessions = sessions.get(docId);
+        Map<Channel, UserSession> userSessions = sessions.get(docId);
         if (userSessions == null || userSessions.isEmpty()) {
             return;
         }
 
-        //直接序列化 MessageResponse 为 JSON
-        String json;
+        WebSocketFrame[] frames = new WebSocketFrame[WireFormat.values().length];
+        Map<EventLoop, List<Object>> batches = new IdentityHashMap<>();
         try {
-            json = messageResponse.toJson(); // 使用你定义的 toJson()
+            for (UserSession session : userSessions.values()) {
+                if (excludeUserId != null && excludeUserId.equals(session.getUserId())) {
+                    continue;
+                }
+                Channel channel = session.getChannel();
+                if (channel == null || !channel.isActive()) {
+                    continue;
+                }
+                if (excludeConnectionId != null && excludeConnectionId.equals(connectionId(channel))) {
+                    continue;
+                }
+                SlowConsumerGuard guard = slowConsumerGuard;
+                if (guard != null && guard.shouldSkip(channel, docId)) {
+                    continue;
+                }
+                WireFormat format = negotiate ? WireFormat.of(channel) : WireFormat.JSON;
+                WebSocketFrame frame = frames[format.ordinal()];
+                if (frame == null) {
+                    frame = encoder.encode(format, channel.alloc());
+                    frames[format.ordinal()] = frame;
+                }
+                // 交替存放 channel 和它要发送的帧
+                List<Object> batch = batches.computeIfAbsent(channel.eventLoop(), k -> new ArrayList<>());
+                batch.add(channel);
+                batch.add(frame.retainedDuplicate());
+            }
         } catch (Exception e) {
             e.printStackTrace(); // 建议使用 log.error("序列化失败", e);
-            return;
+        } finally {
+            for (WebSocketFrame frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
         }
 
-        // 不要共享同一个 Frame，每次 writeAndFlush 都要 new 新的
-        for (UserSession session : userSessions.values()) {
-            Channel channel = session.getChannel();
-            if (channel != null && channel.isActive()) {
-                // 每次发送都创建新的 TextWebSocketFrame
-                channel.writeAndFlush(new TextWebSocketFrame(json));
+        for (Map.Entry<EventLoop, List<Object>> entry : batches.entrySet()) {
+            EventLoop loop = entry.getKey();
+            List<Object> batch = entry.getValue();
+            if (loop.inEventLoop()) {
+                writeThenFlush(batch);
+                continue;
+            }
+            try {
+                loop.execute(() -> writeThenFlush(batch));
+            } catch (RejectedExecutionException e) {
+                // event loop 已关闭，释放未发送的帧
+                for (int i = 1; i < batch.size(); i += 2) {
+                    ReferenceCountUtil.release(batch.get(i));
+                }
             }
         }
     }
 
+    private static void writeThenFlush(List<Object> batch) {
+        for (int i = 0; i < batch.size(); i += 2) {
+            // 写失败（连接已关闭）时由 netty 释放帧
+            ((Channel) batch.get(i)).write(batch.get(i + 1));
+        }
+        for (int i = 0; i < batch.size(); i += 2) {
+            ((Channel) batch.get(i)).flush();
+        }
+    }
+
+    /**
+     * 连接可写性变化（在连接的 event loop 上调用）
+     */
+    public void channelWritabilityChanged(Channel channel) {
+        SlowConsumerGuard guard = slowConsumerGuard;
+        if (guard != null) {
+            guard.writabilityChanged(channel);
+        }
+    }
+
+    @FunctionalInterface
+    private interface FrameEncoder {
+        WebSocketFrame encode(WireFormat format, ByteBufAllocator alloc);
+    }
+
     //获取所有用户session
     public Collection<UserSession> getAllUserSessions(String docId) {
-        Map<String, UserSession> userSessions = sessions.get(docId);
+        Map<Channel, UserSession> userSessions = sessions.get(docId);
         return userSessions == null ? Collections.emptyList() : userSessions.values();
     }
 
@@ -290,24 +436,9 @@ public class SessionManager {
             return false;
         }
 
-        Map<String, UserSession> userSessions = sessions.get(docId);
-        return userSessions != null && userSessions.containsKey(userId);
-    }
-
-    // 获取当前缓存的文档Id
-    public List<String> getAllCacheDocIds() {
-        return cacheDoc;
+        return findSessions(docId, userId) != null;
     }
 
-    //添加缓存文档
-    public void putCacheDocId(String docId){
-        cacheDoc.add(docId);
-    }
-
-    //清空缓存数组
-    public void clearCacheDocId(){
-        cacheDoc.clear();
-    }
 
 
 
@@ -0,0 +1,166 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.config.SlowConsumerProperties;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.WireFormat;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 慢连接处理。
+ * <p>
+ * - 广播时连接已越过写高水位（{@code !isWritable()}）即标记为降级，之后不再为它排队任何广播帧，
+ *   服务端为一个连接缓存的待发送数据因此以高水位为上限
+ * - 连接排空到低水位以下（channelWritabilityChanged）时解除降级，并下发一帧 DOCUMENT_UPDATE：
+ *   文档当前内容与 revision（payload.resync = true），客户端用它替换本地内容并丢弃 revision 不大于它的操作；
+ *   本节点没有该文档的引擎时（集群模式下由其他节点负责）只带 resync 标记，客户端重新拉取文档
+ * - 降级超过 deadline 仍未排空的连接被断开
+ * <p>
+ * 降级状态保存在 Channel 属性中，标记可以发生在任意线程，解除、快照下发与断开都在连接的 event loop 上执行。
+ */
+@Component
+public class SlowConsumerGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowConsumerGuard.class);
+
+    static final AttributeKey<Degraded> DEGRADED = AttributeKey.valueOf("slowConsumer");
+
+    private final OTEngineRegistry engineRegistry;
+
+    private final SlowConsumerProperties props;
+
+    private final AtomicInteger degraded = new AtomicInteger();
+
+    private final Counter resynced;
+
+    private final Counter evicted;
+
+    public SlowConsumerGuard(OTEngineRegistry engineRegistry, SlowConsumerProperties props, MeterRegistry meterRegistry) {
+        this.engineRegistry = engineRegistry;
+        this.props = props;
+        Gauge.builder("cowrite.netty.channels.degraded", degraded, AtomicInteger::get)
+                .description("越过写高水位、暂停推送的连接数")
+                .register(meterRegistry);
+        this.resynced = Counter.builder("cowrite.netty.channels.resynced")
+                .description("排空后下发快照的次数")
+                .register(meterRegistry);
+        this.evicted = Counter.builder("cowrite.netty.channels.evicted")
+                .description("持续不可写超时被断开的连接数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 广播前调用：连接已降级，或刚越过写高水位（此时标记降级）时返回 true，调用方不再给它写入
+     */
+    public boolean shouldSkip(Channel channel, String docId) {
+        if (!props.isEnabled()) {
+            return false;
+        }
+        if (channel.attr(DEGRADED).get() != null) {
+            return true;
+        }
+        if (channel.isWritable()) {
+            return false;
+        }
+        Degraded state = new Degraded(docId);
+        if (channel.attr(DEGRADED).compareAndSet(null, state)) {
+            degraded.incrementAndGet();
+            channel.eventLoop().execute(() -> arm(channel, state));
+        }
+        return true;
+    }
+
+    /**
+     * 连接可写性变化时调用（在连接的 event loop 上）
+     */
+    public void writabilityChanged(Channel channel) {
+        Degraded state = channel.attr(DEGRADED).get();
+        if (state != null && channel.isWritable()) {
+            resync(channel, state);
+        }
+    }
+
+    public boolean isDegraded(Channel channel) {
+        return channel.attr(DEGRADED).get() != null;
+    }
+
+    public int degradedCount() {
+        return degraded.get();
+    }
+
+    private void arm(Channel channel, Degraded state) {
+        if (channel.attr(DEGRADED).get() != state) {
+            return;
+        }
+        channel.closeFuture().addListener(f -> clear(channel, state));
+        if (channel.isWritable()) {
+            // 标记之后、本任务之前已经排空，不会再有可写性变化事件
+            resync(channel, state);
+            return;
+        }
+        state.deadline = channel.eventLoop().schedule(() -> {
+            if (channel.attr(DEGRADED).get() == state) {
+                evicted.increment();
+                log.warn("close slow consumer {} of doc {}, not writable for {} ms",
+                        channel.remoteAddress(), state.docId, props.getDeadlineMillis());
+                channel.close();
+            }
+        }, props.getDeadlineMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void resync(Channel channel, Degraded state) {
+        // 先解除降级再取快照：取快照之后应用的操作会正常广播，之前的已包含在快照中
+        if (!clear(channel, state) || !channel.isActive()) {
+            return;
+        }
+        MessageResponse.Builder builder = new MessageResponse.Builder()
+                .docId(state.docId)
+                .type(MessageType.DOCUMENT_UPDATE)
+                .putPayload("resync", true);
+        OTEngine engine = engineRegistry.get(state.docId);
+        if (engine != null) {
+            OTEngine.VersionedSnapshot snapshot = engine.versionedSnapshot();
+            builder.putPayload("content", snapshot.doc.toString())
+                    .putPayload("revision", snapshot.revision);
+        }
+        channel.writeAndFlush(WireFormat.of(channel).encode(builder.build(), channel.alloc()));
+        resynced.increment();
+    }
+
+    private boolean clear(Channel channel, Degraded state) {
+        if (!channel.attr(DEGRADED).compareAndSet(state, null)) {
+            return false;
+        }
+        degraded.decrementAndGet();
+        ScheduledFuture<?> deadline = state.deadline;
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        return true;
+    }
+
+    static final class Degraded {
+        final String docId;
+        /**
+         * 只在 event loop 上读写
+         */
+        ScheduledFuture<?> deadline;
+
+        Degraded(String docId) {
+            this.docId = docId;
+        }
+    }
+}
@@ -1,19 +1,192 @@
 package com.cowrite.project.netty.stream;
 
+import com.cowrite.project.config.DocumentSchedulerProperties;
+import com.cowrite.project.utils.Threads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 按文档串行的任务调度器（actor 邮箱模型）。
+ * <p>
+ * - 每个文档一个邮箱，同一文档的任务严格按提交顺序串行执行
+ * - 所有邮箱共享一个固定大小的工作线程池，每次调度最多处理 drainBatch 个任务后让出，避免热点文档饿死其他文档
+ * - 邮箱深度超过 maxMailboxDepth 时拒绝新任务（{@link #execute} 返回 false），由调用方回压给客户端
+ * - 空闲超过 idleEvictMillis 的邮箱被回收
+ * - 指标：邮箱数、总/最大排队深度、任务排队耗时、拒绝次数
+ */
 @Component
 public class DocumentExecutorManager {
 
-    private final Map<String, ExecutorService> docExecutors = new ConcurrentHashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(DocumentExecutorManager.class);
 
-    public void execute(String docId, Runnable task) {
-        docExecutors.computeIfAbsent(docId, id -> Executors.newSingleThreadExecutor())
-                .submit(task);
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final ExecutorService workers;
+
+    private final int maxMailboxDepth;
+
+    private final int drainBatch;
+
+    private final long idleEvictMillis;
+
+    private final Timer queueTimer;
+
+    private final Counter rejectedCounter;
+
+    public DocumentExecutorManager(DocumentSchedulerProperties props, MeterRegistry meterRegistry) {
+        this.maxMailboxDepth = props.getMaxMailboxDepth();
+        this.drainBatch = Math.max(1, props.getDrainBatch());
+        this.idleEvictMillis = props.getIdleEvictMillis();
+        int threads = props.getWorkerThreads();
+        // 同一邮箱同一时刻最多只有一个 drain 任务在线程池队列中，队列长度以活跃文档数为上界
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new BasicThreadFactory.Builder().namingPattern("doc-worker-%d").daemon(true).build());
+
+        this.queueTimer = Timer.builder("cowrite.doc.mailbox.wait")
+                .description("文档任务在邮箱中的排队耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("cowrite.doc.mailbox.rejected")
+                .description("因邮箱已满被拒绝的任务数")
+                .register(meterRegistry);
+        Gauge.builder("cowrite.doc.mailbox.count", mailboxes, Map::size)
+                .description("当前活跃的文档邮箱数")
+                .register(meterRegistry);
+        Gauge.builder("cowrite.doc.mailbox.depth.total", this, DocumentExecutorManager::totalDepth)
+                .description("所有文档邮箱的排队任务总数")
+                .register(meterRegistry);
+        Gauge.builder("cowrite.doc.mailbox.depth.max", this, DocumentExecutorManager::maxDepth)
+                .description("单个文档邮箱的最大排队任务数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交任务到文档邮箱
+     *
+     * @return false 表示邮箱已满，任务未被接收
+     */
+    public boolean execute(String docId, Runnable task) {
+        Mailbox mailbox = mailboxes.compute(docId, (id, existing) -> {
+            Mailbox mb = existing != null ? existing : new Mailbox();
+            // 在 compute 内占位，保证与 evictIdle 的回收判断互斥
+            mb.depth.incrementAndGet();
+            return mb;
+        });
+        if (mailbox.depth.get() > maxMailboxDepth) {
+            mailbox.depth.decrementAndGet();
+            rejectedCounter.increment();
+            return false;
+        }
+        mailbox.queue.offer(new Envelope(task, System.nanoTime()));
+        schedule(mailbox);
+        return true;
+    }
+
+    /**
+     * 文档邮箱当前排队任务数
+     */
+    public int depth(String docId) {
+        Mailbox mailbox = mailboxes.get(docId);
+        return mailbox == null ? 0 : mailbox.depth.get();
+    }
+
+    @Scheduled(fixedDelayString = "${cowrite.netty.scheduler.evict-interval-ms:10000}")
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (String docId : mailboxes.keySet()) {
+            mailboxes.computeIfPresent(docId, (id, mb) -> mb.isIdle(now, idleEvictMillis) ? null : mb);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Threads.shutdownAndAwaitTermination(workers);
+    }
+
+    private void schedule(Mailbox mailbox) {
+        if (mailbox.scheduled.compareAndSet(false, true)) {
+            workers.execute(() -> drain(mailbox));
+        }
+    }
+
+    private void drain(Mailbox mailbox) {
+        Envelope envelope;
+        int processed = 0;
+        while (processed < drainBatch && (envelope = mailbox.queue.poll()) != null) {
+            queueTimer.record(System.nanoTime() - envelope.enqueuedAt, TimeUnit.NANOSECONDS);
+            try {
+                envelope.task.run();
+            } catch (Throwable t) {
+                log.error("文档任务执行失败", t);
+            } finally {
+                mailbox.depth.decrementAndGet();
+            }
+            processed++;
+        }
+        mailbox.lastActive = System.currentTimeMillis();
+        mailbox.scheduled.set(false);
+        if (!mailbox.queue.isEmpty()) {
+            schedule(mailbox);
+        }
+    }
+
+    private double totalDepth() {
+        long total = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            total += mailbox.depth.get();
+        }
+        return total;
+    }
+
+    private double maxDepth() {
+        int max = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            max = Math.max(max, mailbox.depth.get());
+        }
+        return max;
+    }
+
+    private static final class Mailbox {
+        final Queue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        /**
+         * 已接收但尚未执行完的任务数（含正在执行的）
+         */
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile long lastActive = System.currentTimeMillis();
+
+        boolean isIdle(long now, long idleMillis) {
+            return depth.get() == 0 && !scheduled.get() && now - lastActive >= idleMillis;
+        }
+    }
+
+    private static final class Envelope {
+        final Runnable task;
+        final long enqueuedAt;
+
+        Envelope(Runnable task, long enqueuedAt) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
     }
 }
@@ -0,0 +1,402 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.config.WriteBehindProperties;
+import com.cowrite.project.model.entity.DocumentSnapshot;
+import com.cowrite.project.netty.cluster.ClusterRelay;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文档状态的 write-behind 持久化：内存中的 OT 引擎是文档的权威状态，这里异步把它写入 Mongo。
+ * <p>
+ * - 检测：每个检查间隔比较引擎版本号与已处理的 Stream 条目，变化即视为脏，不需要处理器显式通知
+ * - 防抖与合并：文档安静 debounce 后才写入，期间的所有版本合并为一次写入；
+ *   持续编辑的文档最多等待 maxDelay，宕机时丢失的编辑不超过 maxDelay + 一个检查间隔
+ * - 截取：在文档邮箱中读取内容、版本号、已应用的操作编号、保留的历史与已覆盖的 Stream 条目，来自同一时刻
+ * - 写入：一批文档一次无序 {@link BulkOperations}，按版本号条件 upsert 到 {@link DocumentSnapshot}，
+ *   集群中归属转移后旧 owner 的迟到写入不会覆盖新版本；写入成功后按快照裁剪文档 Stream
+ * - 写入失败的文档保持为脏，下一个检查间隔重试；停机时同步写入所有脏文档
+ * - 集群释放空闲文档的归属前通过 {@link #flushNow} 同步写入最终状态
+ * - 指标：写入 / 过期 / 失败的文档数、每批耗时、脏文档数、最早未写入修改的时长
+ */
+@Component
+public class DocumentWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentWriteBehind.class);
+
+    /**
+     * 等待文档邮箱完成截取的上限
+     */
+    private static final long CAPTURE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Mongo 唯一键冲突：条件 upsert 未命中（库中已有更新的版本）
+     */
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final OTEngineRegistry engines;
+
+    private final DocumentExecutorManager documentExecutorManager;
+
+    private final RedisStreamConsumerManager consumerManager;
+
+    private final StreamSnapshotter streamSnapshotter;
+
+    private final WriteBehindProperties props;
+
+    private final ClusterRelay clusterRelay;
+
+    /**
+     * 每个文档的写入状态，只在写入线程上访问
+     */
+    private final Map<String, DirtyState> states = new HashMap<>();
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "doc-write-behind");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong dirtyDocs = new AtomicLong();
+
+    private final AtomicLong oldestDirtyMillis = new AtomicLong();
+
+    private final Counter writtenCounter;
+
+    private final Counter staleCounter;
+
+    private final Counter failedCounter;
+
+    private final Timer batchTimer;
+
+    public DocumentWriteBehind(MongoTemplate mongoTemplate,
+                               OTEngineRegistry engines,
+                               DocumentExecutorManager documentExecutorManager,
+                               RedisStreamConsumerManager consumerManager,
+                               StreamSnapshotter streamSnapshotter,
+                               WriteBehindProperties props,
+                               ClusterRelay clusterRelay,
+                               MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.engines = engines;
+        this.documentExecutorManager = documentExecutorManager;
+        this.consumerManager = consumerManager;
+        this.streamSnapshotter = streamSnapshotter;
+        this.props = props;
+        this.clusterRelay = clusterRelay;
+        this.writtenCounter = Counter.builder("cowrite.persist.written")
+                .description("写入 Mongo 的文档快照数")
+                .register(meterRegistry);
+        this.staleCounter = Counter.builder("cowrite.persist.stale")
+                .description("库中已有更新版本而跳过的写入数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("cowrite.persist.failed")
+                .description("写入失败、等待重试的文档数")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("cowrite.persist.batch")
+                .description("一次批量写入的耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("cowrite.persist.dirty", dirtyDocs, AtomicLong::get)
+                .description("有未写入修改的文档数")
+                .register(meterRegistry);
+        Gauge.builder("cowrite.persist.oldest.dirty", oldestDirtyMillis, AtomicLong::get)
+                .description("最早一个未写入修改已等待的毫秒数")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!props.isEnabled()) {
+            return;
+        }
+        long tick = props.getTickMillis();
+        writer.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+        clusterRelay.setFinalFlush(this::flushNow);
+    }
+
+    /**
+     * 在写入线程上立即写入指定文档的当前状态，忽略防抖
+     *
+     * @return 状态已持久化的文档（写入成功或库中已有更新版本）；截取或写入失败的文档不在其中
+     */
+    public Set<String> flushNow(Collection<String> docIds) {
+        try {
+            return writer.submit(() -> flush(new ArrayList<>(docIds))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptySet();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            log.warn("final flush of {} docs failed", docIds.size(), e);
+            return Collections.emptySet();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(CAPTURE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (props.isEnabled()) {
+            // 写入线程已停止，在当前线程写入剩余的脏文档
+            flush(collect(System.currentTimeMillis(), true));
+        }
+    }
+
+    private void tick() {
+        try {
+            flush(collect(System.currentTimeMillis(), false));
+        } catch (RuntimeException e) {
+            log.error("write-behind tick failed", e);
+        }
+    }
+
+    /**
+     * 观察所有引擎的当前状态，返回需要写入的文档
+     *
+     * @param all true 时忽略防抖，返回所有脏文档
+     */
+    private List<String> collect(long now, boolean all) {
+        Set<String> live = new HashSet<>(engines.docIds());
+        // 引擎已丢弃（归属转移）的文档由新 owner 负责
+        states.keySet().retainAll(live);
+        List<String> due = new ArrayList<>();
+        long dirty = 0;
+        long oldest = 0;
+        for (String docId : live) {
+            OTEngine engine = engines.get(docId);
+            if (engine == null) {
+                continue;
+            }
+            DirtyState state = states.computeIfAbsent(docId, id -> new DirtyState());
+            state.observe(engine.getRevision(), consumerManager.lastApplied(docId), now);
+            if (!state.isDirty()) {
+                continue;
+            }
+            dirty++;
+            oldest = Math.max(oldest, now - state.firstDirtyAt);
+            if (all || state.isDue(now, props.getDebounceMillis(), props.getMaxDelayMillis())) {
+                due.add(docId);
+            }
+        }
+        dirtyDocs.set(dirty);
+        oldestDirtyMillis.set(oldest);
+        return due;
+    }
+
+    /**
+     * @return 状态已持久化的文档
+     */
+    private Set<String> flush(List<String> docIds) {
+        Set<String> persisted = new HashSet<>();
+        int batchSize = props.getBatchSize();
+        for (int from = 0; from < docIds.size(); from += batchSize) {
+            List<DocumentSnapshot> captured = capture(docIds.subList(from, Math.min(docIds.size(), from + batchSize)));
+            if (!captured.isEmpty()) {
+                persisted.addAll(write(captured));
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * 在各文档邮箱中截取状态；邮箱繁忙或超时的文档保持为脏
+     */
+    private List<DocumentSnapshot> capture(List<String> docIds) {
+        List<CompletableFuture<DocumentSnapshot>> futures = new ArrayList<>(docIds.size());
+        for (String docId : docIds) {
+            OTEngine engine = engines.get(docId);
+            if (engine == null) {
+                continue;
+            }
+            CompletableFuture<DocumentSnapshot> future = new CompletableFuture<>();
+            boolean accepted = documentExecutorManager.execute(docId, () -> {
+                RecordId applied = consumerManager.lastApplied(docId);
+                DocumentSnapshot snapshot = new DocumentSnapshot();
+                snapshot.setId(docId);
+                snapshot.setContent(engine.getDocument());
+                snapshot.setRevision(engine.getRevision());
+                snapshot.setApplied(engine.appliedOps());
+                snapshot.setHistory(StreamSnapshotter.toHistory(engine.historyOps()));
+                snapshot.setStreamId(applied != null ? applied.getValue() : null);
+                snapshot.setCreatedAt(Instant.now());
+                future.complete(snapshot);
+            });
+            if (accepted) {
+                futures.add(future);
+            }
+        }
+        long deadline = System.currentTimeMillis() + CAPTURE_TIMEOUT_MILLIS;
+        List<DocumentSnapshot> captured = new ArrayList<>(futures.size());
+        for (CompletableFuture<DocumentSnapshot> future : futures) {
+            try {
+                long wait = Math.max(0, deadline - System.currentTimeMillis());
+                captured.add(future.get(wait, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                // 邮箱积压，留到下一轮
+            }
+        }
+        return captured;
+    }
+
+    /**
+     * @return 状态已持久化的文档
+     */
+    private Set<String> write(List<DocumentSnapshot> snapshots) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DocumentSnapshot.class);
+        for (DocumentSnapshot snapshot : snapshots) {
+            // 库中版本更新时条件不命中，upsert 因 _id 冲突失败，不会覆盖
+            Query query = new Query(Criteria.where("_id").is(snapshot.getId())
+                    .and("revision").lte(snapshot.getRevision()));
+            Update update = new Update()
+                    .set("content", snapshot.getContent())
+                    .set("revision", snapshot.getRevision())
+                    .set("streamId", snapshot.getStreamId())
+                    .set("applied", snapshot.getApplied())
+                    .set("history", snapshot.getHistory())
+                    .set("createdAt", snapshot.getCreatedAt());
+            bulk.upsert(query, update);
+        }
+        Set<Integer> stale = new HashSet<>();
+        Set<Integer> failed = new HashSet<>();
+        long start = System.nanoTime();
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() == DUPLICATE_KEY) {
+                    stale.add(error.getIndex());
+                } else {
+                    failed.add(error.getIndex());
+                }
+            }
+            log.warn("write-behind: {} of {} snapshots failed", failed.size(), snapshots.size());
+        } catch (RuntimeException e) {
+            failedCounter.increment(snapshots.size());
+            log.error("write-behind of {} snapshots failed", snapshots.size(), e);
+            return Collections.emptySet();
+        } finally {
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        Set<String> persisted = new HashSet<>();
+        for (int i = 0; i < snapshots.size(); i++) {
+            if (failed.contains(i)) {
+                failedCounter.increment();
+                continue;
+            }
+            DocumentSnapshot snapshot = snapshots.get(i);
+            persisted.add(snapshot.getId());
+            RecordId covered = snapshot.getStreamId() != null ? RecordId.of(snapshot.getStreamId()) : null;
+            DirtyState state = states.get(snapshot.getId());
+            if (state != null) {
+                state.persisted(snapshot.getRevision(), covered, snapshot.getCreatedAt().toEpochMilli());
+            }
+            if (stale.contains(i)) {
+                staleCounter.increment();
+                continue;
+            }
+            writtenCounter.increment();
+            if (covered != null) {
+                streamSnapshotter.trim(snapshot.getId(), covered);
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * 单个文档的修改 / 写入进度
+     */
+    static final class DirtyState {
+        private long seenRevision = -1;
+        private RecordId seenApplied;
+        private long persistedRevision = -1;
+        private RecordId persistedApplied;
+        /**
+         * 最早一个未写入修改的观察时间
+         */
+        long firstDirtyAt;
+        /**
+         * 最近一次观察到修改的时间
+         */
+        long lastChangeAt;
+
+        void observe(long revision, RecordId applied, long now) {
+            if (revision == seenRevision && Objects.equals(applied, seenApplied)) {
+                return;
+            }
+            if (!isDirty()) {
+                firstDirtyAt = now;
+            }
+            seenRevision = revision;
+            seenApplied = applied;
+            lastChangeAt = now;
+        }
+
+        boolean isDirty() {
+            return seenRevision != persistedRevision || !Objects.equals(seenApplied, persistedApplied);
+        }
+
+        /**
+         * 安静超过 debounce，或最早的修改已等待 maxDelay
+         */
+        boolean isDue(long now, long debounceMillis, long maxDelayMillis) {
+            return now - lastChangeAt >= debounceMillis || now - firstDirtyAt >= maxDelayMillis;
+        }
+
+        /**
+         * @param capturedAt 截取时间，之后观察到的修改仍未写入
+         */
+        void persisted(long revision, RecordId applied, long capturedAt) {
+            persistedRevision = revision;
+            persistedApplied = applied;
+            if (isDirty()) {
+                firstDirtyAt = Math.max(firstDirtyAt, capturedAt);
+            }
+        }
+    }
+}
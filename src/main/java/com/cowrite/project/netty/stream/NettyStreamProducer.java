@@ -1,26 +1,314 @@
 package com.cowrite.project.netty.stream;
 
+import com.cowrite.project.config.RedisCombinerProperties;
 import com.cowrite.project.netty.protocol.NettyMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.Resource;
-import com.cowrite.project.config.RedisCombinerProperties;
-import java.util.HashMap;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * 文档操作写入 Redis Stream 的 JVM 侧合并器。
+ * <p>
+ * - 每个文档一个定容环形缓冲区（{@link OpRing}），提交只是内存写入；槽位按需分配，
+ *   刷写清空且没有新提交的缓冲区被回收，文档再次编辑时重新创建
+ * - 缓冲区攒够 maxBatch 个操作，或第一个操作等待超过 maxFlushMillis 时进入待刷写队列
+ * - 单个刷写线程把所有到期文档的批次放进一次 pipeline，每个批次一条 XADD（字段 {@link #OPS_FIELD} 为操作 JSON 数组）
+ *   和一条登记活跃 Stream 的 ZADD，Redis 命令数约为 2 / maxBatch 每操作，往返次数与文档数无关；
+ *   单线程刷写保证同一文档的批次按顺序写入
+ * - 缓冲区写满时提交线程等待刷写完成，形成回压而不是丢弃；event loop 上的提交不等待，由调用方拒绝
+ * - pipeline 失败时所有批次按原顺序退回各自缓冲区，稍后重试；pipeline 中已成功的 XADD 会被再次写入，
+ *   消费端按操作编号（clientId + seq）去重。Redis 持续不可用时缓冲区写满，新操作被拒绝
+ * - 指标：入队操作数、XADD 次数、批次大小、每次 pipeline 耗时、写入失败的操作数
+ */
 @Component
 public class NettyStreamProducer {
 
-    @Resource
-    private RedisWriteCombiner writeCombiner;
+    private static final Logger log = LoggerFactory.getLogger(NettyStreamProducer.class);
+
+    /**
+     * 批量写入时 Stream 条目中存放操作数组的字段
+     */
+    public static final String OPS_FIELD = "ops";
+
+    /**
+     * 缓冲区写满时提交线程等待刷写的上限
+     */
+    private static final long BACKPRESSURE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * 写入失败后重试的间隔
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final int maxBatch;
+
+    private final long maxFlushMillis;
+
+    private final int ringCapacity;
+
+    private final Map<String, OpRing> rings = new ConcurrentHashMap<>();
+
+    private final Queue<OpRing> due = new ConcurrentLinkedQueue<>();
 
-    @Resource
-    private RedisCombinerProperties combinerProperties;
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "stream-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter bufferedCounter;
+
+    private final Counter xaddCounter;
+
+    private final Counter failedCounter;
+
+    private final DistributionSummary batchSize;
+
+    private final Timer flushTimer;
+
+    public NettyStreamProducer(RedisTemplate<String, Object> redisTemplate,
+                               RedisCombinerProperties combinerProperties,
+                               MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.maxBatch = Math.max(1, combinerProperties.getMaxBatch());
+        this.maxFlushMillis = combinerProperties.getMaxFlushMillis();
+        this.ringCapacity = Math.max(maxBatch, combinerProperties.getRingCapacity());
+
+        this.bufferedCounter = Counter.builder("cowrite.stream.ops")
+                .description("进入 JVM 合并缓冲区的操作数")
+                .register(meterRegistry);
+        this.xaddCounter = Counter.builder("cowrite.stream.xadd")
+                .description("写入 Redis Stream 的 XADD 次数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("cowrite.stream.failed")
+                .description("写入 Redis Stream 失败、退回缓冲区重试的操作数")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("cowrite.stream.batch.size")
+                .description("每条 XADD 携带的操作数")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("cowrite.stream.flush")
+                .description("一次 pipeline 刷写的耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    public static String streamKey(String docId) {
+        return "doc:" + docId + ":stream";
+    }
 
     public void publishToStream(NettyMessage message) {
-        // Serialize as JSON string payload for script
         String payload = message.toJson();
-        writeCombiner.execute(String.valueOf(message.getDocId()), payload,
-                combinerProperties.getMaxBatch(), combinerProperties.getMaxFlushMillis());
+        while (true) {
+            OpRing ring = ringFor(message);
+            int size = ring.offer(payload);
+            if (size == OpRing.FULL) {
+                awaitFlush(ring);
+            } else if (size != OpRing.RETIRED) {
+                bufferedCounter.increment();
+                afterOffer(ring, size);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 不等待的提交，供 netty event loop 使用
+     *
+     * @return false 表示文档缓冲区已满（Redis 写入跟不上或不可用），调用方应拒绝该操作
+     */
+    public boolean offerToStream(NettyMessage message) {
+        String payload = message.toJson();
+        OpRing ring;
+        int size;
+        // 缓冲区恰好被回收时改用新创建的
+        do {
+            ring = ringFor(message);
+            size = ring.offer(payload);
+        } while (size == OpRing.RETIRED);
+        if (size == OpRing.FULL) {
+            enqueue(ring);
+            return false;
+        }
+        bufferedCounter.increment();
+        afterOffer(ring, size);
+        return true;
+    }
+
+    private OpRing ringFor(NettyMessage message) {
+        return rings.computeIfAbsent(String.valueOf(message.getDocId()), id -> new OpRing(id, ringCapacity));
+    }
+
+    private void afterOffer(OpRing ring, int size) {
+        if (size >= maxBatch) {
+            enqueue(ring);
+        } else if (size == 1) {
+            // 缓冲区由空变为非空：开始计时
+            flusher.schedule(() -> enqueue(ring), maxFlushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即刷写所有文档的缓冲区
+     */
+    public void flushAll() {
+        for (OpRing ring : rings.values()) {
+            if (ring.size() > 0) {
+                enqueue(ring);
+            }
+        }
+        try {
+            flusher.submit(this::flushDue).get(BACKPRESSURE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("flush stream buffers failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushAll();
+        flusher.shutdown();
+    }
+
+    private void enqueue(OpRing ring) {
+        if (!ring.markQueued()) {
+            return;
+        }
+        due.add(ring);
+        if (flushPending.compareAndSet(false, true)) {
+            flusher.execute(this::flushDue);
+        }
+    }
+
+    private void awaitFlush(OpRing ring) {
+        enqueue(ring);
+        try {
+            flusher.submit(this::flushDue).get(BACKPRESSURE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for stream flush", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("stream buffer of doc " + ring.docId + " is full", e);
+        }
+    }
+
+    /**
+     * 在刷写线程上执行：取出所有到期缓冲区的一个批次，一次 pipeline 写入；写入成功后回收已清空的缓冲区
+     */
+    private void flushDue() {
+        flushPending.set(false);
+        List<OpRing> polled = new ArrayList<>();
+        List<String> docIds = new ArrayList<>();
+        List<List<String>> batches = new ArrayList<>();
+        OpRing ring;
+        while ((ring = due.poll()) != null) {
+            ring.clearQueued();
+            polled.add(ring);
+            List<String> batch = ring.drain(maxBatch);
+            if (!batch.isEmpty()) {
+                docIds.add(ring.docId);
+                batches.add(batch);
+            }
+            int remaining = ring.size();
+            if (remaining >= maxBatch) {
+                // 积压超过一个批次：在本轮继续取
+                enqueue(ring);
+            } else if (remaining > 0) {
+                OpRing rest = ring;
+                flusher.schedule(() -> enqueue(rest), maxFlushMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (!batches.isEmpty() && !write(docIds, batches)) {
+            return;
+        }
+        for (OpRing drained : polled) {
+            if (drained.retire()) {
+                rings.remove(drained.docId, drained);
+            }
+        }
+    }
+
+    /**
+     * 在刷写线程上执行：按取出的相反顺序退回，保证同一文档的多个批次仍按原顺序写入
+     */
+    private void requeue(List<String> docIds, List<List<String>> batches) {
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            OpRing ring = rings.get(docIds.get(i));
+            if (ring == null) {
+                continue;
+            }
+            ring.requeue(batches.get(i));
+            flusher.schedule(() -> enqueue(ring), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return false 表示写入失败，批次已退回各自缓冲区
+     */
+    @SuppressWarnings("unchecked")
+    private boolean write(List<String> docIds, List<List<String>> batches) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<String> hashKeySerializer = (RedisSerializer<String>) redisTemplate.getHashKeySerializer();
+        RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        byte[] field = hashKeySerializer.serialize(OPS_FIELD);
+        byte[] activeKey = keySerializer.serialize(RedisStreamConsumerManager.ACTIVE_STREAMS_KEY);
+        long start = System.nanoTime();
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < batches.size(); i++) {
+                    Map<byte[], byte[]> body = Collections.singletonMap(field, hashValueSerializer.serialize(batches.get(i)));
+                    connection.xAdd(MapRecord.create(keySerializer.serialize(streamKey(docIds.get(i))), body));
+                    // 活跃 Stream 登记，消费端据此发现新文档
+                    connection.zAdd(activeKey, now, valueSerializer.serialize(docIds.get(i)));
+                }
+                return null;
+            });
+            xaddCounter.increment(batches.size());
+            for (List<String> batch : batches) {
+                batchSize.record(batch.size());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            int ops = 0;
+            for (List<String> batch : batches) {
+                ops += batch.size();
+            }
+            failedCounter.increment(ops);
+            log.error("XADD {} ops to {} streams failed, retrying in {}ms", ops, batches.size(), RETRY_DELAY_MILLIS, e);
+            requeue(docIds, batches);
+            return false;
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 }
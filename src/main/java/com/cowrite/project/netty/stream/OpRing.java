@@ -0,0 +1,143 @@
+package com.cowrite.project.netty.stream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 单个文档的定容环形缓冲区，暂存待写入 Redis Stream 的操作。
+ * 所有方法都在自身监视器上同步，提交线程与刷写线程之间只在这里竞争。
+ * 槽位按需倍增到容量上限，空闲文档不占用整个容量；刷写清空后由 {@link #retire()} 回收。
+ */
+final class OpRing {
+
+    /**
+     * 缓冲区已满
+     */
+    static final int FULL = -1;
+
+    /**
+     * 缓冲区已回收，提交方应改用新的缓冲区
+     */
+    static final int RETIRED = -2;
+
+    private static final int INITIAL_SLOTS = 16;
+
+    final String docId;
+
+    private final int capacity;
+
+    private String[] slots = new String[0];
+
+    private int head;
+
+    private int size;
+
+    /**
+     * 写入失败后退回的元素，排在环中元素之前取出；计入容量，缓冲区因此更早写满形成回压
+     */
+    private final Deque<String> returned = new ArrayDeque<>();
+
+    /**
+     * 是否已在待刷写队列中，避免同一个缓冲区被重复排队
+     */
+    private boolean queued;
+
+    private boolean retired;
+
+    OpRing(String docId, int capacity) {
+        this.docId = docId;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return 写入后的元素个数，缓冲区已满时返回 {@link #FULL}，已回收时返回 {@link #RETIRED}
+     */
+    synchronized int offer(String payload) {
+        if (retired) {
+            return RETIRED;
+        }
+        if (size + returned.size() >= capacity) {
+            return FULL;
+        }
+        if (size == slots.length) {
+            grow();
+        }
+        slots[(head + size) % slots.length] = payload;
+        return ++size + returned.size();
+    }
+
+    private void grow() {
+        String[] next = new String[Math.min(capacity, Math.max(INITIAL_SLOTS, slots.length * 2))];
+        for (int i = 0; i < size; i++) {
+            next[i] = slots[(head + i) % slots.length];
+        }
+        slots = next;
+        head = 0;
+    }
+
+    /**
+     * 按提交顺序取出最多 max 个元素
+     */
+    synchronized List<String> drain(int max) {
+        List<String> batch = new ArrayList<>(Math.min(max, size + returned.size()));
+        while (batch.size() < max && !returned.isEmpty()) {
+            batch.add(returned.pollFirst());
+        }
+        int n = Math.min(max - batch.size(), size);
+        for (int i = 0; i < n; i++) {
+            batch.add(slots[head]);
+            slots[head] = null;
+            head = (head + 1) % slots.length;
+        }
+        size -= n;
+        return batch;
+    }
+
+    /**
+     * 把写入失败的批次退回缓冲区头部，下次按原顺序先取出；
+     * 同一缓冲区的多个批次需按取出的相反顺序退回
+     */
+    synchronized void requeue(List<String> batch) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            returned.addFirst(batch.get(i));
+        }
+    }
+
+    synchronized int size() {
+        return size + returned.size();
+    }
+
+    /**
+     * 标记为已排队
+     *
+     * @return false 表示已经在队列中
+     */
+    synchronized boolean markQueued() {
+        if (queued) {
+            return false;
+        }
+        queued = true;
+        return true;
+    }
+
+    synchronized void clearQueued() {
+        queued = false;
+    }
+
+    /**
+     * 空且不在待刷写队列中时回收，之后的提交返回 {@link #RETIRED}
+     *
+     * @return true 表示已回收，调用方应从缓冲区表中移除
+     */
+    synchronized boolean retire() {
+        if (retired || queued || size + returned.size() > 0) {
+            return false;
+        }
+        retired = true;
+        slots = new String[0];
+        head = 0;
+        return true;
+    }
+}
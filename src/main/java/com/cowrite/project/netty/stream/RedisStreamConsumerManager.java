@@ -1,115 +1,416 @@
 package com.cowrite.project.netty.stream;
 
-import com.cowrite.project.netty.handler.MessageHandler;
+import com.cowrite.project.config.ClusterProperties;
+import com.cowrite.project.config.StreamConsumerProperties;
+import com.cowrite.project.netty.cluster.ClusterRelay;
 import com.cowrite.project.netty.handler.MessageHandlerFactory;
-import com.cowrite.project.netty.protocol.MessageType;
 import com.cowrite.project.netty.protocol.NettyMessage;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import javax.annotation.Resource;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
 
+/**
+ * 文档操作 Stream 的消费者。
+ * <p>
+ * - 发现：生产端每次 XADD 时在 {@link #ACTIVE_STREAMS_KEY} 中登记文档，最近写入在活跃窗口内的 Stream 参与消费
+ * - 节点分片：节点在 {@link #NODES_KEY} 中心跳，每个文档按 rendezvous hash 归属到一个存活节点，
+ *   节点加入或离开时只有受影响的文档迁移，同一文档同一时刻只被一个节点消费，保证顺序。
+ *   分片只决定由谁读取 Stream，操作仍在 {@link ClusterRelay} 租约确定的 owner 节点上应用，两者不一致时转发给 owner
+ * - 节点内分片：文档按 hash 分给固定数量的消费线程，每个线程用一条阻塞的 XREADGROUP 同时读取多个 Stream，
+ *   超过 maxStreamsPerRead 时分段轮转（非阻塞读取）
+ * - 至少一次：条目中的操作在文档邮箱中应用成功后才确认（{@link StreamRecordProcessor}），
+ *   确认按 Stream 合并成一条 XACK，所有 Stream 的 XACK 放进一次 pipeline；
+ *   定期回收本节点负责文档中空闲的待确认条目（含已离开节点遗留的），超过最大投递次数的转入死信 Stream；
+ *   条目失败后同一文档之后的条目等它重试成功或转入死信后再按顺序处理
+ * - 消费组：文档第一次分配给本节点时用 XGROUP CREATE ... MKSTREAM 创建，Stream 尚不存在也可以；
+ *   创建失败的文档不参与消费，下一轮分配时重试
+ * - 积压指标：定期采样本节点负责的 Stream，见 {@link StreamLagMonitor}
+ */
 @Component
 public class RedisStreamConsumerManager {
 
     private static final Logger log = LoggerFactory.getLogger(RedisStreamConsumerManager.class);
 
-    private static final String GROUP_NAME = "doc-group";
+    static final String GROUP_NAME = "doc-group";
 
-    private static final int THREAD_POOL_SIZE = 8;
-    private static final int POLL_COUNT = 100;
-    private static final Duration BLOCK_TIMEOUT = Duration.ofMillis(300);
+    /**
+     * 活跃文档 Stream，score 为最近一次写入时间
+     */
+    public static final String ACTIVE_STREAMS_KEY = "cowrite:streams:active";
 
-    @Resource
-    private RedisTemplate<String, Object> redisTemplate;
+    /**
+     * 消费节点心跳，score 为最近一次心跳时间
+     */
+    static final String NODES_KEY = "cowrite:streams:consumers";
 
-    @Resource
-    private DocumentExecutorManager documentExecutorManager;
+    /**
+     * 分段轮转时所有分段都没有数据后的等待时长
+     */
+    private static final long IDLE_SLEEP_MILLIS = 50;
 
-    private final MessageHandlerFactory handlerFactory;
+    private final RedisTemplate<String, Object> redisTemplate;
 
-    private final ExecutorService consumerPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+    private final StreamConsumerProperties props;
 
-    public RedisStreamConsumerManager(MessageHandlerFactory handlerFactory) {
-        this.handlerFactory = handlerFactory;
+    private final StreamRecordProcessor processor;
+
+    private final StreamLagMonitor lagMonitor;
+
+    private final String nodeId;
+
+    /**
+     * 当前分配给本节点的文档
+     */
+    private final Set<String> assigned = ConcurrentHashMap.newKeySet();
+
+    private ShardConsumer[] shards;
+
+    private ExecutorService consumerPool;
+
+    private ScheduledExecutorService rebalancer;
+
+    private volatile boolean running;
+
+    public RedisStreamConsumerManager(RedisTemplate<String, Object> redisTemplate,
+                                      DocumentExecutorManager documentExecutorManager,
+                                      MessageHandlerFactory handlerFactory,
+                                      StreamConsumerProperties props,
+                                      ClusterProperties clusterProperties,
+                                      ClusterRelay clusterRelay,
+                                      MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.props = props;
+        this.nodeId = clusterProperties.getNodeId();
+        this.processor = new StreamRecordProcessor(new RedisStreamStore(redisTemplate, GROUP_NAME),
+                documentExecutorManager, handlerFactory::getHandler, clusterRelay::route, props.getMaxDeliveries(),
+                Duration.ofMillis(props.getClaimMinIdleMillis()), meterRegistry);
+        this.lagMonitor = new StreamLagMonitor(redisTemplate, GROUP_NAME, meterRegistry, props.isPerStreamMetrics());
     }
 
     @PostConstruct
     public void init() {
-        List<String> docIds = getAllActiveDocIds();
+        if (!props.isEnabled()) {
+            return;
+        }
+        running = true;
+        int threads = props.getThreads();
+        shards = new ShardConsumer[threads];
+        consumerPool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "stream-consumer");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new ShardConsumer(nodeId + "-" + i);
+            consumerPool.submit(shards[i]);
+        }
+        rebalancer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stream-rebalancer");
+            t.setDaemon(true);
+            return t;
+        });
+        rebalancer.scheduleWithFixedDelay(this::rebalance, 0, props.getRebalanceIntervalMillis(), TimeUnit.MILLISECONDS);
+        rebalancer.scheduleWithFixedDelay(this::recoverPending, props.getClaimIntervalMillis(),
+                props.getClaimIntervalMillis(), TimeUnit.MILLISECONDS);
+        if (props.getLagIntervalMillis() > 0) {
+            rebalancer.scheduleWithFixedDelay(this::sampleLag, props.getLagIntervalMillis(),
+                    props.getLagIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        rebalancer.shutdownNow();
+        consumerPool.shutdownNow();
+        try {
+            // 主动离开，其他节点在下一轮分配中接管
+            redisTemplate.opsForZSet().remove(NODES_KEY, nodeId);
+        } catch (Exception e) {
+            log.warn("unregister stream consumer node failed", e);
+        }
+    }
 
-        for (String docId : docIds) {
-            String streamKey = "doc:" + docId + ":stream";
+    /**
+     * 心跳并重新计算本节点负责的文档
+     */
+    void rebalance() {
+        try {
+            long now = System.currentTimeMillis();
+            redisTemplate.opsForZSet().add(NODES_KEY, nodeId, now);
+            redisTemplate.opsForZSet().removeRangeByScore(NODES_KEY, 0, now - 3 * props.getRebalanceIntervalMillis());
+            redisTemplate.opsForZSet().removeRangeByScore(ACTIVE_STREAMS_KEY, 0, now - props.getActiveWindowMillis());
 
-            // 保证消费组存在
+            List<String> nodes = new ArrayList<>();
+            for (Object node : nonNull(redisTemplate.opsForZSet().range(NODES_KEY, 0, -1))) {
+                nodes.add(String.valueOf(node));
+            }
+            List<List<String>> perShard = new ArrayList<>(shards.length);
+            for (int i = 0; i < shards.length; i++) {
+                perShard.add(new ArrayList<>());
+            }
+            Set<String> owned = new HashSet<>();
+            for (Object member : nonNull(redisTemplate.opsForZSet().range(ACTIVE_STREAMS_KEY, 0, -1))) {
+                String docId = String.valueOf(member);
+                if (!nodeId.equals(ownerOf(docId, nodes))) {
+                    continue;
+                }
+                if (!assigned.contains(docId) && !ensureGroup(docId)) {
+                    continue;
+                }
+                owned.add(docId);
+                perShard.get(shardOf(docId, shards.length)).add(docId);
+            }
+            assigned.retainAll(owned);
+            assigned.addAll(owned);
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].assign(perShard.get(i));
+            }
+        } catch (Exception e) {
+            log.warn("rebalance stream consumers failed", e);
+        }
+    }
+
+    /**
+     * 当前由本节点消费的文档
+     */
+    public Set<String> assignedDocIds() {
+        return Collections.unmodifiableSet(assigned);
+    }
+
+    /**
+     * 文档已处理完成的最大条目 ID，没有时返回 null
+     */
+    public RecordId lastApplied(String docId) {
+        return processor.lastApplied(docId);
+    }
+
+    /**
+     * 引擎加载时已重放到 covered，之后的快照与保存的内容以它为覆盖点
+     */
+    public void markApplied(String docId, RecordId covered) {
+        processor.markApplied(docId, covered);
+    }
+
+    /**
+     * 文档 Stream 中最后一条条目的 ID，Stream 不存在或为空时返回 null
+     */
+    public RecordId lastEntry(String docId) {
+        List<MapRecord<String, Object, Object>> last = redisTemplate.opsForStream().reverseRange(
+                NettyStreamProducer.streamKey(docId), Range.unbounded(), Limit.limit().count(1));
+        return last == null || last.isEmpty() ? null : last.get(0).getId();
+    }
+
+    /**
+     * 回收本节点负责文档中空闲的待确认条目，由负责该文档的消费线程接手
+     */
+    void recoverPending() {
+        for (String docId : assigned) {
             try {
-                redisTemplate.opsForStream().createGroup(streamKey, GROUP_NAME);
+                processor.recover(docId, shards[shardOf(docId, shards.length)].consumer.getName());
             } catch (Exception e) {
-                log.debug("消费组已存在: {}", streamKey);
+                log.warn("recover pending entries of doc {} failed", docId, e);
             }
+        }
+        processor.flushAcks();
+    }
 
-            String consumerName = "consumer-" + docId;
+    void sampleLag() {
+        try {
+            lagMonitor.sample(new ArrayList<>(assigned));
+        } catch (Exception e) {
+            log.warn("sample stream consumer lag failed", e);
+        }
+    }
 
-            // 每个文档一个异步消费线程，使用线程池管理
-            consumerPool.submit(() -> consumeLoop(streamKey, docId, consumerName));
+    /**
+     * rendezvous hash：权重最高的节点负责该文档，节点增减时只迁移受影响的文档
+     */
+    static String ownerOf(String docId, List<String> nodes) {
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for (String node : nodes) {
+            long weight = mix(((long) node.hashCode() << 32) ^ (docId.hashCode() & 0xffffffffL));
+            if (owner == null || weight > best || (weight == best && node.compareTo(owner) < 0)) {
+                owner = node;
+                best = weight;
+            }
         }
+        return owner;
     }
 
-    private List<String> getAllActiveDocIds() {
-        // TODO: 可从数据库或Redis中动态获取活跃文档列表
-        return List.of("1", "2", "3");
+    static int shardOf(String docId, int shards) {
+        return (int) Math.floorMod(mix(docId.hashCode()), (long) shards);
     }
 
-    private void consumeLoop(String streamKey, String docId, String consumerName) {
-        while (true) {
-            try {
-                List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().read(
-                        Consumer.from(GROUP_NAME, consumerName),
-                        StreamReadOptions.empty().count(POLL_COUNT).block(BLOCK_TIMEOUT),
-                        StreamOffset.create(streamKey, ReadOffset.lastConsumed())
-                );
-
-                if (records != null && !records.isEmpty()) {
-                    for (MapRecord<String, Object, Object> record : records) {
-                        try {
-                            NettyMessage message;
-                            if (record.getValue() != null && record.getValue().containsKey("payload")) {
-                                Object payload = record.getValue().get("payload");
-                                message = NettyMessage.fromJson(String.valueOf(payload));
-                            } else {
-                                message = NettyMessage.fromMap(record.getValue());
-                            }
-                            documentExecutorManager.execute(docId, () -> {
-                                MessageHandler handler = handlerFactory.getHandler(message.getOperationType());
-                                if (handler != null) {
-                                    handler.handle(null, message); // ctx 为空，可用 DummyCtx 替代
-                                } else {
-                                    log.warn("未找到处理器: {}", message.getOperationType());
-                                }
-                            });
-
-                            // ACK确认
-                            redisTemplate.opsForStream().acknowledge(streamKey, GROUP_NAME, record.getId());
-                        } catch (Exception e) {
-                            log.error("处理消息失败: {}", record, e);
-                        }
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 创建消费组（MKSTREAM），已存在视为成功
+     *
+     * @return 消费组是否可用
+     */
+    boolean ensureGroup(String docId) {
+        byte[] key = NettyStreamProducer.streamKey(docId).getBytes(StandardCharsets.UTF_8);
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.streamCommands().xGroupCreate(key, GROUP_NAME, ReadOffset.from("0"), true));
+            return true;
+        } catch (Exception e) {
+            if (isBusyGroup(e)) {
+                return true;
+            }
+            log.warn("create consumer group of doc {} failed", docId, e);
+            return false;
+        }
+    }
+
+    static boolean isBusyGroup(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> Set<T> nonNull(Set<T> set) {
+        return set != null ? set : Collections.emptySet();
+    }
+
+    static String docIdOf(String streamKey) {
+        // key format: doc:{docId}:stream
+        return streamKey.substring(streamKey.indexOf(':') + 1, streamKey.lastIndexOf(':'));
+    }
+
+    /**
+     * 解析一条 Stream 记录：JVM 合并器写入的批次（ops 字段为 JSON 数组）、单条 payload 或字段形式
+     */
+    static List<NettyMessage> decode(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> value = record.getValue();
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        Object ops = value.get(NettyStreamProducer.OPS_FIELD);
+        if (ops instanceof List) {
+            List<NettyMessage> messages = new ArrayList<>(((List<?>) ops).size());
+            for (Object payload : (List<?>) ops) {
+                messages.add(NettyMessage.fromJson(String.valueOf(payload)));
+            }
+            return messages;
+        }
+        if (value.containsKey("payload")) {
+            return Collections.singletonList(NettyMessage.fromJson(String.valueOf(value.get("payload"))));
+        }
+        return Collections.singletonList(NettyMessage.fromMap(value));
+    }
+
+    /**
+     * 一个消费线程，负责本节点的一部分文档
+     */
+    private final class ShardConsumer implements Runnable {
+
+        private final Consumer consumer;
+
+        private volatile List<String> docIds = Collections.emptyList();
+
+        /**
+         * 分段轮转的起点
+         */
+        private int cursor;
+
+        ShardConsumer(String consumerName) {
+            this.consumer = Consumer.from(GROUP_NAME, consumerName);
+        }
+
+        void assign(List<String> docIds) {
+            this.docIds = Collections.unmodifiableList(docIds);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                List<String> current = docIds;
+                try {
+                    if (current.isEmpty()) {
+                        processor.flushAcks();
+                        Thread.sleep(props.getBlockMillis());
+                        continue;
+                    }
+                    // 确认上一轮已应用完成的条目
+                    processor.flushAcks();
+                    int perRead = props.getMaxStreamsPerRead();
+                    boolean rotating = current.size() > perRead;
+                    if (cursor >= current.size()) {
+                        cursor = 0;
+                    }
+                    int end = Math.min(cursor + perRead, current.size());
+                    List<String> chunk = current.subList(cursor, end);
+                    cursor = end;
+
+                    int read = poll(chunk, !rotating);
+                    if (rotating && read == 0 && cursor >= current.size()) {
+                        Thread.sleep(IDLE_SLEEP_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("拉取Redis Stream异常: {}", consumer.getName(), e);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
                 }
+            }
+        }
 
-            } catch (Exception e) {
-                log.error("拉取Redis Stream异常: {}", streamKey, e);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ignored) {}
+        /**
+         * 一次 XREADGROUP 读取多个 Stream，交给文档邮箱处理
+         *
+         * @return 读取到的条目数
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private int poll(List<String> chunk, boolean block) {
+            StreamOffset<String>[] offsets = new StreamOffset[chunk.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = StreamOffset.create(NettyStreamProducer.streamKey(chunk.get(i)), ReadOffset.lastConsumed());
+            }
+            StreamReadOptions options = StreamReadOptions.empty().count(props.getPollCount());
+            if (block) {
+                options = options.block(Duration.ofMillis(props.getBlockMillis()));
+            }
+            List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().read(consumer, options, offsets);
+            if (records == null || records.isEmpty()) {
+                return 0;
             }
+            processor.process(records);
+            return records.size();
         }
     }
 }
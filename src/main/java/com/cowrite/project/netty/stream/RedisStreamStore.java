@@ -0,0 +1,97 @@
+package com.cowrite.project.netty.stream;
+
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 RedisTemplate 的 {@link StreamStore}
+ */
+final class RedisStreamStore implements StreamStore {
+
+    /**
+     * 每个死信 Stream 保留的最大条目数（近似裁剪）
+     */
+    private static final long DEAD_LETTER_MAX_LEN = 10_000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final String group;
+
+    RedisStreamStore(RedisTemplate<String, Object> redisTemplate, String group) {
+        this.redisTemplate = redisTemplate;
+        this.group = group;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void acknowledge(Map<String, List<RecordId>> acks) {
+        if (acks.isEmpty()) {
+            return;
+        }
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, List<RecordId>> entry : acks.entrySet()) {
+                connection.xAck(keySerializer.serialize(entry.getKey()), group,
+                        entry.getValue().toArray(new RecordId[0]));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<PendingMessage> pending(String streamKey, long count) {
+        PendingMessages pending = redisTemplate.opsForStream().pending(streamKey, group, Range.unbounded(), count);
+        if (pending == null || pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<PendingMessage> messages = new ArrayList<>(pending.size());
+        pending.forEach(messages::add);
+        return messages;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<MapRecord<String, Object, Object>> claim(String streamKey, String consumer, Duration minIdle, List<RecordId> ids) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redisTemplate.getHashKeySerializer();
+        RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+        List<ByteRecord> claimed = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.xClaim(keySerializer.serialize(streamKey), group, consumer,
+                        RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids)));
+        if (claimed == null || claimed.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>(claimed.size());
+        for (ByteRecord record : claimed) {
+            records.add(record.deserialize(keySerializer, hashKeySerializer, hashValueSerializer));
+        }
+        return records;
+    }
+
+    @Override
+    public MapRecord<String, Object, Object> get(String streamKey, RecordId id) {
+        List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream()
+                .range(streamKey, Range.closed(id.getValue(), id.getValue()));
+        return records == null || records.isEmpty() ? null : records.get(0);
+    }
+
+    @Override
+    public void deadLetter(String streamKey, Map<String, Object> fields) {
+        redisTemplate.opsForStream().add(streamKey, fields);
+        redisTemplate.opsForStream().trim(streamKey, DEAD_LETTER_MAX_LEN, true);
+    }
+}
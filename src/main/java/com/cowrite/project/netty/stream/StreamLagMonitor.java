@@ -0,0 +1,215 @@
+package com.cowrite.project.netty.stream;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 消费组积压指标。
+ * <p>
+ * 定期对本节点负责的每个文档 Stream 执行 XINFO STREAM / XINFO GROUPS / XPENDING（每批文档一次 pipeline），
+ * 以 Micrometer gauge 暴露（经 actuator 输出）：
+ * - cowrite.stream.consumer.lag：未投递条目数，需要 Redis 7 的 XINFO GROUPS lag 字段，更早的版本为 NaN
+ * - cowrite.stream.consumer.lag.age：最早未投递条目已等待的毫秒数（上界，按最后投递 ID 与首条目估算）
+ * - cowrite.stream.consumer.pending：已投递未确认的条目数
+ * - cowrite.stream.consumer.pending.age：最早待确认条目的年龄（毫秒）
+ * 每个指标有带 doc 标签的单 Stream 版本（默认关闭，避免文档很多时标签过多）和 .total / .max 汇总版本。
+ */
+final class StreamLagMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamLagMonitor.class);
+
+    /**
+     * 每次 pipeline 采样的文档数
+     */
+    private static final int SAMPLE_BATCH = 100;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final String group;
+
+    private final MeterRegistry meterRegistry;
+
+    private final boolean perStream;
+
+    private final Map<String, StreamLag> lags = new ConcurrentHashMap<>();
+
+    private final StreamLag total = new StreamLag();
+
+    StreamLagMonitor(RedisTemplate<String, Object> redisTemplate, String group, MeterRegistry meterRegistry,
+                     boolean perStream) {
+        this.redisTemplate = redisTemplate;
+        this.group = group;
+        this.meterRegistry = meterRegistry;
+        this.perStream = perStream;
+        register("cowrite.stream.consumer.lag.total", "所有 Stream 未投递条目数之和", total, l -> l.lag);
+        register("cowrite.stream.consumer.lag.age.max", "最早未投递条目已等待的毫秒数", total, l -> l.lagAge);
+        register("cowrite.stream.consumer.pending.total", "所有 Stream 待确认条目数之和", total, l -> l.pending);
+        register("cowrite.stream.consumer.pending.age.max", "最早待确认条目的年龄（毫秒）", total, l -> l.pendingAge);
+    }
+
+    /**
+     * 采样给定文档的 Stream，并移除不再负责的文档的指标
+     */
+    void sample(Collection<String> docIds) {
+        long now = System.currentTimeMillis();
+        List<String> batch = new ArrayList<>(SAMPLE_BATCH);
+        for (String docId : docIds) {
+            batch.add(docId);
+            if (batch.size() == SAMPLE_BATCH) {
+                sampleBatch(batch, now);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            sampleBatch(batch, now);
+        }
+
+        Set<String> current = new HashSet<>(docIds);
+        lags.keySet().removeIf(docId -> {
+            if (current.contains(docId)) {
+                return false;
+            }
+            lags.get(docId).remove(meterRegistry);
+            return true;
+        });
+
+        double lag = 0;
+        boolean lagKnown = false;
+        double lagAge = 0;
+        double pending = 0;
+        double pendingAge = 0;
+        for (StreamLag value : lags.values()) {
+            if (!Double.isNaN(value.lag)) {
+                lag += value.lag;
+                lagKnown = true;
+            }
+            lagAge = Math.max(lagAge, value.lagAge);
+            pending += value.pending;
+            pendingAge = Math.max(pendingAge, value.pendingAge);
+        }
+        total.lag = lagKnown || lags.isEmpty() ? lag : Double.NaN;
+        total.lagAge = lagAge;
+        total.pending = pending;
+        total.pendingAge = pendingAge;
+    }
+
+    private void sampleBatch(List<String> docIds, long now) {
+        List<Object> results;
+        try {
+            results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String docId : docIds) {
+                    byte[] key = NettyStreamProducer.streamKey(docId).getBytes(StandardCharsets.UTF_8);
+                    connection.xInfo(key);
+                    connection.xInfoGroups(key);
+                    connection.xPending(key, group);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // 某个 Stream 不存在等错误会使整个 pipeline 失败，逐个重试
+            results = null;
+        }
+        for (int i = 0; i < docIds.size(); i++) {
+            String docId = docIds.get(i);
+            try {
+                if (results != null) {
+                    update(docId, (StreamInfo.XInfoStream) results.get(3 * i),
+                            (StreamInfo.XInfoGroups) results.get(3 * i + 1),
+                            (PendingMessagesSummary) results.get(3 * i + 2), now);
+                } else {
+                    String key = NettyStreamProducer.streamKey(docId);
+                    update(docId, redisTemplate.opsForStream().info(key), redisTemplate.opsForStream().groups(key),
+                            redisTemplate.opsForStream().pending(key, group), now);
+                }
+            } catch (RuntimeException e) {
+                log.debug("sample lag of doc {} failed", docId, e);
+            }
+        }
+    }
+
+    private void update(String docId, StreamInfo.XInfoStream stream, StreamInfo.XInfoGroups groups,
+                        PendingMessagesSummary pending, long now) {
+        StreamInfo.XInfoGroup info = groups.stream()
+                .filter(g -> group.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+        if (info == null) {
+            return;
+        }
+        StreamLag lag = lags.computeIfAbsent(docId, this::newLag);
+        Object rawLag = info.getRaw().get("lag");
+        lag.lag = rawLag instanceof Number ? ((Number) rawLag).doubleValue() : Double.NaN;
+        lag.lagAge = undeliveredAge(stream.lastGeneratedId(), info.lastDeliveredId(), stream.firstEntryId(), now);
+        lag.pending = info.pendingCount();
+        lag.pendingAge = pending != null && pending.getTotalPendingMessages() > 0 && pending.minRecordId() != null
+                ? Math.max(0, now - pending.minRecordId().getTimestamp())
+                : 0;
+    }
+
+    /**
+     * 最早未投递条目已等待时长的上界：它不早于最后投递的条目，也不早于 Stream 的首条目
+     */
+    static long undeliveredAge(String lastGeneratedId, String lastDeliveredId, String firstEntryId, long now) {
+        if (lastGeneratedId == null || lastGeneratedId.equals(lastDeliveredId)) {
+            return 0;
+        }
+        long since = lastDeliveredId != null ? RecordId.of(lastDeliveredId).getTimestamp() : 0;
+        if (firstEntryId != null) {
+            since = Math.max(since, RecordId.of(firstEntryId).getTimestamp());
+        }
+        if (since == 0 || RecordId.of(lastGeneratedId).getTimestamp() < since) {
+            return 0;
+        }
+        return Math.max(0, now - since);
+    }
+
+    private StreamLag newLag(String docId) {
+        StreamLag lag = new StreamLag();
+        if (perStream) {
+            lag.gauges.add(Gauge.builder("cowrite.stream.consumer.lag", lag, l -> l.lag)
+                    .description("未投递条目数").tag("doc", docId).register(meterRegistry));
+            lag.gauges.add(Gauge.builder("cowrite.stream.consumer.lag.age", lag, l -> l.lagAge)
+                    .description("最早未投递条目已等待的毫秒数").tag("doc", docId).register(meterRegistry));
+            lag.gauges.add(Gauge.builder("cowrite.stream.consumer.pending", lag, l -> l.pending)
+                    .description("待确认条目数").tag("doc", docId).register(meterRegistry));
+            lag.gauges.add(Gauge.builder("cowrite.stream.consumer.pending.age", lag, l -> l.pendingAge)
+                    .description("最早待确认条目的年龄（毫秒）").tag("doc", docId).register(meterRegistry));
+        }
+        return lag;
+    }
+
+    private void register(String name, String description, StreamLag lag,
+                          java.util.function.ToDoubleFunction<StreamLag> value) {
+        Gauge.builder(name, lag, value).description(description).register(meterRegistry);
+    }
+
+    static final class StreamLag {
+        volatile double lag = Double.NaN;
+        volatile double lagAge;
+        volatile double pending;
+        volatile double pendingAge;
+        final List<Gauge> gauges = new ArrayList<>();
+
+        void remove(MeterRegistry registry) {
+            for (Gauge gauge : gauges) {
+                registry.remove(gauge);
+            }
+        }
+    }
+}
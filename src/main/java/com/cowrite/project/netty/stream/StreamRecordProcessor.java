@@ -0,0 +1,401 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.netty.cluster.ClusterRelay;
+import com.cowrite.project.netty.handler.MessageHandler;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 文档操作 Stream 条目的至少一次处理。
+ * <p>
+ * - 每个操作按 {@link ClusterRelay} 的文档 owner 路由：本节点是 owner 时在文档邮箱中执行，
+ *   否则转发给 owner（转发后即视为完成，owner 宕机时该操作丢失，与连接直连时的转发语义一致）；
+ *   owner 暂时无法确定时不确认，等待回收
+ * - 条目中的所有操作都执行（或转发）成功后才进入待确认队列，由 {@link #flushAcks()} 批量 XACK；
+ *   处理器抛出异常、邮箱拒绝或 owner 未知时不确认，条目留在 PEL 中等待回收
+ * - 顺序：条目失败后该文档被阻塞，之后的条目（包括同一条目中剩余的操作）不执行也不确认，
+ *   直到失败的条目重试成功或转入死信，同一客户端的操作不会越过失败的操作先被应用
+ * - {@link #recover} 回收空闲超过 minIdle 的待确认条目（包括已宕机消费者的）：投递次数未达上限的 XCLAIM 后重新处理，
+ *   达到上限的连同投递次数与原因写入文档的死信 Stream 并确认；文档被阻塞时，阻塞它的条目被重试或转入死信的同一轮里，
+ *   其后所有待确认条目按 ID 顺序跟着重新处理，被阻塞期间不会因投递次数转入死信
+ * - 无法解析的条目重试也不会成功，直接进入死信
+ * - 部分操作失败的条目被重新投递时，已应用的操作由文档引擎按操作编号（clientId + seq）丢弃，不会重复插入
+ */
+final class StreamRecordProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamRecordProcessor.class);
+
+    /**
+     * 每个 Stream 一轮最多检查的待确认条目数
+     */
+    static final int RECOVER_BATCH = 100;
+
+    private final StreamStore store;
+
+    private final DocumentExecutorManager documentExecutorManager;
+
+    private final Function<MessageType, MessageHandler> handlers;
+
+    private final Function<NettyMessage, ClusterRelay.Route> router;
+
+    private final int maxDeliveries;
+
+    private final Duration minIdle;
+
+    /**
+     * 已处理成功、等待确认的条目
+     */
+    private final Queue<Completed> completed = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 每个文档已处理完成的最大条目 ID，在文档邮箱中更新，快照以此为覆盖点
+     */
+    private final Map<String, RecordId> lastApplied = new ConcurrentHashMap<>();
+
+    /**
+     * 被阻塞的文档 -> 最早一个处理失败的条目，ID 更大的条目暂不处理
+     */
+    private final Map<String, RecordId> blocked = new ConcurrentHashMap<>();
+
+    private final Counter appliedCounter;
+
+    private final Counter failedCounter;
+
+    private final Counter reclaimedCounter;
+
+    private final Counter deadLetterCounter;
+
+    StreamRecordProcessor(StreamStore store, DocumentExecutorManager documentExecutorManager,
+                          Function<MessageType, MessageHandler> handlers, Function<NettyMessage, ClusterRelay.Route> router,
+                          int maxDeliveries, Duration minIdle, MeterRegistry meterRegistry) {
+        this.store = store;
+        this.documentExecutorManager = documentExecutorManager;
+        this.handlers = handlers;
+        this.router = router;
+        this.maxDeliveries = maxDeliveries;
+        this.minIdle = minIdle;
+        this.appliedCounter = Counter.builder("cowrite.stream.consumer.applied")
+                .description("处理成功并确认的 Stream 条目数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("cowrite.stream.consumer.failed")
+                .description("处理失败、留待重新投递的 Stream 条目数")
+                .register(meterRegistry);
+        this.reclaimedCounter = Counter.builder("cowrite.stream.consumer.reclaimed")
+                .description("从空闲消费者回收并重新处理的 Stream 条目数")
+                .register(meterRegistry);
+        this.deadLetterCounter = Counter.builder("cowrite.stream.consumer.dead.letter")
+                .description("转入死信 Stream 的条目数")
+                .register(meterRegistry);
+    }
+
+    static String deadLetterKey(String docId) {
+        return "doc:" + docId + ":dlq";
+    }
+
+    static int compare(RecordId a, RecordId b) {
+        int c = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    /**
+     * 文档已处理完成的最大条目 ID，没有时返回 null
+     */
+    RecordId lastApplied(String docId) {
+        return lastApplied.get(docId);
+    }
+
+    /**
+     * 文档的内容已覆盖 id 及之前的条目（例如引擎加载时重放到的位置），只会前进
+     */
+    void markApplied(String docId, RecordId id) {
+        lastApplied.merge(docId, id, (a, b) -> compare(a, b) >= 0 ? a : b);
+    }
+
+    /**
+     * 把条目交给文档邮箱处理（或转发给 owner），全部成功后进入待确认队列
+     */
+    void process(List<MapRecord<String, Object, Object>> records) {
+        for (MapRecord<String, Object, Object> record : records) {
+            String streamKey = record.getStream();
+            String docId = RedisStreamConsumerManager.docIdOf(streamKey);
+            List<NettyMessage> messages;
+            try {
+                messages = RedisStreamConsumerManager.decode(record);
+            } catch (RuntimeException e) {
+                log.error("无法解析的 Stream 条目，转入死信: {}", record, e);
+                if (deadLetter(docId, record, 1, "unparseable: " + e.getMessage())) {
+                    complete(streamKey, record.getId(), false);
+                }
+                continue;
+            }
+            if (messages.isEmpty()) {
+                complete(streamKey, record.getId(), false);
+                continue;
+            }
+            Tracker tracker = new Tracker(docId, streamKey, record.getId(), messages.size());
+            for (NettyMessage message : messages) {
+                ClusterRelay.Route route;
+                try {
+                    route = router.apply(message);
+                } catch (RuntimeException e) {
+                    log.warn("查询文档 owner 失败，等待重新投递: {}", record.getId(), e);
+                    route = ClusterRelay.Route.UNKNOWN;
+                }
+                if (route != ClusterRelay.Route.LOCAL) {
+                    if (tracker.isHeld()) {
+                        tracker.hold();
+                    } else {
+                        tracker.done(route == ClusterRelay.Route.FORWARDED);
+                    }
+                    continue;
+                }
+                boolean accepted = documentExecutorManager.execute(docId, () -> {
+                    // 在邮箱中判断：排在前面的条目（包括正在重试的阻塞点）此时已处理完
+                    if (tracker.isHeld()) {
+                        tracker.hold();
+                        return;
+                    }
+                    boolean ok = false;
+                    try {
+                        MessageHandler handler = handlers.apply(message.getOperationType());
+                        if (handler != null) {
+                            handler.handle(null, message);
+                        } else {
+                            log.warn("未找到处理器: {}", message.getOperationType());
+                        }
+                        ok = true;
+                    } catch (RuntimeException e) {
+                        log.error("处理消息失败，等待重新投递: {}", record.getId(), e);
+                    } finally {
+                        tracker.done(ok);
+                    }
+                });
+                if (!accepted) {
+                    tracker.done(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 条目失败，阻塞文档中 ID 更大的条目
+     */
+    private void block(String docId, RecordId id) {
+        blocked.merge(docId, id, (a, b) -> compare(a, b) <= 0 ? a : b);
+    }
+
+    private boolean isBlockedBefore(String docId, RecordId id) {
+        RecordId blocker = blocked.get(docId);
+        return blocker != null && compare(blocker, id) < 0;
+    }
+
+    private void complete(String streamKey, RecordId id, boolean applied) {
+        markApplied(RedisStreamConsumerManager.docIdOf(streamKey), id);
+        completed.add(new Completed(streamKey, id, applied));
+    }
+
+    /**
+     * 批量确认已处理成功的条目
+     *
+     * @return 确认的条目数
+     */
+    int flushAcks() {
+        Map<String, List<RecordId>> acks = new HashMap<>();
+        int applied = 0;
+        int count = 0;
+        Completed entry;
+        while ((entry = completed.poll()) != null) {
+            acks.computeIfAbsent(entry.streamKey, k -> new ArrayList<>()).add(entry.id);
+            if (entry.applied) {
+                applied++;
+            }
+            count++;
+        }
+        if (count > 0) {
+            store.acknowledge(acks);
+            appliedCounter.increment(applied);
+        }
+        return count;
+    }
+
+    /**
+     * 回收文档 Stream 中空闲超过 minIdle 的待确认条目
+     *
+     * @param consumer 接手条目的消费者
+     * @return 重新处理或转入死信的条目数
+     */
+    int recover(String docId, String consumer) {
+        String streamKey = NettyStreamProducer.streamKey(docId);
+        List<PendingMessage> pendingMessages = store.pending(streamKey, RECOVER_BATCH);
+        RecordId blocker = blocked.get(docId);
+        if (blocker != null && pendingMessages.size() < RECOVER_BATCH && !containsId(pendingMessages, blocker)) {
+            // 阻塞点已不在 PEL 中（已被确认或裁剪）
+            blocked.remove(docId, blocker);
+            blocker = null;
+        }
+        // 阻塞点本轮被重试或转入死信时，其后的条目才跟着按顺序重新处理
+        boolean releasing = false;
+        List<RecordId> retry = new ArrayList<>();
+        Map<String, List<RecordId>> dropped = new LinkedHashMap<>();
+        for (PendingMessage pending : pendingMessages) {
+            if (blocker != null && compare(blocker, pending.getId()) < 0) {
+                // 被阻塞的条目没有失败过，不检查空闲时长与投递次数
+                if (releasing) {
+                    retry.add(pending.getId());
+                }
+                continue;
+            }
+            if (pending.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                continue;
+            }
+            boolean isBlocker = pending.getId().equals(blocker);
+            if (pending.getTotalDeliveryCount() < maxDeliveries) {
+                retry.add(pending.getId());
+                releasing |= isBlocker;
+                continue;
+            }
+            MapRecord<String, Object, Object> record = store.get(streamKey, pending.getId());
+            // 条目已被裁剪时只需确认
+            if (record != null && !deadLetter(docId, record, pending.getTotalDeliveryCount(),
+                    "max deliveries exceeded by " + pending.getConsumerName())) {
+                continue;
+            }
+            dropped.computeIfAbsent(streamKey, k -> new ArrayList<>()).add(pending.getId());
+            // 死信写入成功后阻塞解除
+            blocked.remove(docId, pending.getId());
+            releasing |= isBlocker;
+        }
+        if (!dropped.isEmpty()) {
+            store.acknowledge(dropped);
+        }
+        if (!retry.isEmpty()) {
+            // 被阻塞的条目可能刚被投递，不按 minIdle 过滤
+            List<MapRecord<String, Object, Object>> claimed = store.claim(streamKey, consumer,
+                    releasing ? Duration.ZERO : minIdle, retry);
+            reclaimedCounter.increment(claimed.size());
+            process(claimed);
+            return claimed.size() + dropped.size();
+        }
+        return dropped.size();
+    }
+
+    private static boolean containsId(List<PendingMessage> pendingMessages, RecordId id) {
+        for (PendingMessage pending : pendingMessages) {
+            if (pending.getId().equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false 表示写入死信失败，条目不应被确认，留到下一轮回收
+     */
+    private boolean deadLetter(String docId, MapRecord<String, Object, Object> record, long deliveries, String reason) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        if (record.getValue() != null) {
+            for (Map.Entry<Object, Object> entry : record.getValue().entrySet()) {
+                fields.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+        }
+        fields.put("sourceId", record.getId().getValue());
+        fields.put("deliveries", deliveries);
+        fields.put("reason", reason);
+        try {
+            store.deadLetter(deadLetterKey(docId), fields);
+            deadLetterCounter.increment();
+            return true;
+        } catch (RuntimeException e) {
+            log.error("写入死信 Stream 失败: {}", record.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 跟踪一条 Stream 记录中所有操作的完成情况
+     */
+    private final class Tracker {
+        final String docId;
+        final String streamKey;
+        final RecordId id;
+        final AtomicInteger remaining;
+        final AtomicBoolean failed = new AtomicBoolean();
+        final AtomicBoolean held = new AtomicBoolean();
+
+        Tracker(String docId, String streamKey, RecordId id, int operations) {
+            this.docId = docId;
+            this.streamKey = streamKey;
+            this.id = id;
+            this.remaining = new AtomicInteger(operations);
+        }
+
+        /**
+         * 条目中已有操作失败，或文档被更早的条目阻塞
+         */
+        boolean isHeld() {
+            return failed.get() || isBlockedBefore(docId, id);
+        }
+
+        /**
+         * 操作未执行，条目留待与阻塞点一起重新处理
+         */
+        void hold() {
+            held.set(true);
+            finish();
+        }
+
+        void done(boolean ok) {
+            if (!ok && !failed.getAndSet(true)) {
+                block(docId, id);
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (remaining.decrementAndGet() == 0) {
+                if (failed.get()) {
+                    failedCounter.increment();
+                } else if (!held.get()) {
+                    // 阻塞点重试成功后，排在它后面的条目才能被处理
+                    blocked.remove(docId, id);
+                    complete(streamKey, id, true);
+                }
+            }
+        }
+    }
+
+    private static final class Completed {
+        final String streamKey;
+        final RecordId id;
+        /**
+         * false 表示条目被直接确认（空条目或已转入死信），不计入处理成功数
+         */
+        final boolean applied;
+
+        Completed(String streamKey, RecordId id, boolean applied) {
+            this.streamKey = streamKey;
+            this.id = id;
+            this.applied = applied;
+        }
+    }
+}
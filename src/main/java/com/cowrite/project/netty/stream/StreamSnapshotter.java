@@ -0,0 +1,323 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.mapper.DocumentSnapshotRepository;
+import com.cowrite.project.model.entity.DocumentSnapshot;
+import com.cowrite.project.model.entity.DocumentVersion;
+import com.cowrite.project.netty.ot.DocumentBuffer;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.ot.Operation;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.service.DocumentService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文档操作流（doc:{id}:stream）的裁剪与基于快照的引擎恢复。
+ * <p>
+ * - 快照：由 {@link DocumentWriteBehind} 在文档邮箱中截取 OT 引擎状态（内容、版本号、已覆盖的最后一条 Stream 条目），
+ *   写入 Mongo {@link DocumentSnapshot}，每个文档只保留最新一份
+ * - 裁剪：快照落盘后以 XTRIM MINID 删除其覆盖的条目；最小 ID 不会越过消费组中最早的待确认条目，
+ *   未确认的操作仍可被回收和重新投递
+ * - 加载：引擎首次创建时读取快照（含已应用的操作编号与保留的历史），再重放快照之后已投递、已确认的条目；
+ *   条目的基线早于快照时对快照中的历史（服务端当时应用的变换后的操作）做变换，与实时处理的结果一致，
+ *   基线早于保留历史的条目与实时处理一样被拒绝。待确认条目由消费者重新投递，这里不重放。
+ *   重放与重新投递都按操作编号去重
+ * - 没有快照、或 {@link DocumentService#loadPersistedContent} 保存的内容版本号更新时，以该内容及其版本号（未记录时为 0）
+ *   为初始状态，与快照一样只重放它记录的已覆盖条目（{@link DocumentVersion#getStreamId()}）之后的条目；
+ *   旧数据没有记录时不重放，视为已包含当时已投递的全部条目
+ * - 加载后把已覆盖的位置交给消费者，之后的快照与保存以它为起点，即使引擎尚未处理新的条目
+ * <p>
+ * XTRIM MINID 需要 Redis 6.2 及以上。
+ */
+@Component
+public class StreamSnapshotter {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamSnapshotter.class);
+
+    /**
+     * 重放时每次 XRANGE 读取的条目数
+     */
+    private static final int REPLAY_PAGE = 500;
+
+    /**
+     * 重放时最多读取的待确认条目数，超出部分可能被重复应用
+     */
+    private static final int PENDING_SCAN_LIMIT = 10000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final OTEngineRegistry engines;
+
+    private final DocumentSnapshotRepository snapshotRepository;
+
+    private final DocumentService documentService;
+
+    private final RedisStreamConsumerManager consumerManager;
+
+    private final Counter trimmedCounter;
+
+    private final Counter replayedCounter;
+
+    private final Timer loadTimer;
+
+    public StreamSnapshotter(RedisTemplate<String, Object> redisTemplate,
+                             OTEngineRegistry engines,
+                             DocumentSnapshotRepository snapshotRepository,
+                             DocumentService documentService,
+                             RedisStreamConsumerManager consumerManager,
+                             MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.engines = engines;
+        this.snapshotRepository = snapshotRepository;
+        this.documentService = documentService;
+        this.consumerManager = consumerManager;
+        this.trimmedCounter = Counter.builder("cowrite.stream.snapshot.trimmed")
+                .description("快照后裁剪掉的 Stream 条目数")
+                .register(meterRegistry);
+        this.replayedCounter = Counter.builder("cowrite.stream.snapshot.replayed")
+                .description("加载时从 Stream 尾部重放的条目数")
+                .register(meterRegistry);
+        this.loadTimer = Timer.builder("cowrite.stream.snapshot.load")
+                .description("快照 + 尾部重放恢复引擎的耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        engines.setLoader(this::load);
+    }
+
+    /**
+     * 删除快照已覆盖的条目，保留最早的待确认条目及其之后的所有条目
+     */
+    void trim(String docId, RecordId covered) {
+        String streamKey = NettyStreamProducer.streamKey(docId);
+        try {
+            // MINID 保留 ID >= minId 的条目，快照覆盖的最后一条留作加载时的起点
+            RecordId minId = covered;
+            PendingMessagesSummary summary = redisTemplate.opsForStream()
+                    .pending(streamKey, RedisStreamConsumerManager.GROUP_NAME);
+            if (summary != null && summary.getTotalPendingMessages() > 0 && summary.minRecordId() != null
+                    && StreamRecordProcessor.compare(summary.minRecordId(), minId) < 0) {
+                minId = summary.minRecordId();
+            }
+            byte[] minIdBytes = minId.getValue().getBytes(StandardCharsets.UTF_8);
+            Object trimmed = redisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+                    streamKey.getBytes(StandardCharsets.UTF_8),
+                    "MINID".getBytes(StandardCharsets.UTF_8),
+                    minIdBytes));
+            if (trimmed instanceof Long) {
+                trimmedCounter.increment((Long) trimmed);
+            }
+        } catch (RuntimeException e) {
+            log.warn("trim {} up to {} failed", streamKey, covered, e);
+        }
+    }
+
+    /**
+     * 恢复文档引擎：最新快照 + 快照之后已确认的条目；保存的内容更新时从它开始，重放它覆盖的条目之后的条目。
+     * 读取持久化内容失败时抛出异常，不以空文档创建引擎
+     */
+    OTEngine load(String docId) {
+        long start = System.nanoTime();
+        DocumentSnapshot snapshot = snapshotRepository.findById(docId).orElse(null);
+        DocumentVersion persisted = loadPersisted(docId);
+        long revision = persisted != null && persisted.getRevision() != null ? persisted.getRevision() : 0L;
+        OTEngine engine;
+        String from;
+        if (snapshot != null && snapshot.getContent() != null && snapshot.getRevision() != null
+                && snapshot.getRevision() >= revision) {
+            engine = OTEngine.restore(DocumentBuffer.of(snapshot.getContent()), snapshot.getRevision(),
+                    snapshot.getApplied(), fromHistory(docId, snapshot.getHistory()));
+            from = snapshot.getStreamId() != null ? snapshot.getStreamId() : "-";
+        } else {
+            // 保存的内容比快照新（或没有快照），快照中的操作编号仍用于去重
+            String content = persisted != null && persisted.getContent() != null ? persisted.getContent() : "";
+            engine = OTEngine.restore(DocumentBuffer.of(content), revision, snapshot != null ? snapshot.getApplied() : null);
+            from = persisted != null ? persisted.getStreamId() : "-";
+        }
+        try {
+            RecordId covered = replayTail(docId, engine, from);
+            if (covered != null) {
+                consumerManager.markApplied(docId, covered);
+            }
+        } catch (RuntimeException e) {
+            // Stream 不存在或无法读取：只能从快照开始
+            log.warn("replay stream tail of doc {} failed", docId, e);
+        }
+        loadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return engine;
+    }
+
+    private DocumentVersion loadPersisted(String docId) {
+        Long id;
+        try {
+            id = Long.valueOf(docId);
+        } catch (NumberFormatException e) {
+            // 不对应业务文档（如压测文档），从空文档开始
+            return null;
+        }
+        return documentService.loadPersistedContent(id);
+    }
+
+    /**
+     * 重放 from 之后已投递、已确认的条目
+     *
+     * @param from 已覆盖的最后一条条目，"-" 表示从头开始，null 表示已包含全部已投递的条目
+     * @return 引擎内容已覆盖的最后一条条目，没有时为 null
+     */
+    RecordId replayTail(String docId, OTEngine engine, String from) {
+        String streamKey = NettyStreamProducer.streamKey(docId);
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(streamKey))) {
+            return null;
+        }
+        RecordId lastDelivered = redisTemplate.opsForStream().groups(streamKey).stream()
+                .filter(group -> RedisStreamConsumerManager.GROUP_NAME.equals(group.groupName()))
+                .map(group -> RecordId.of(group.lastDeliveredId()))
+                .findFirst()
+                .orElse(null);
+        if (lastDelivered == null) {
+            // 还没有投递过任何条目，全部交给消费者
+            return null;
+        }
+        if (from == null) {
+            return lastDelivered;
+        }
+        Set<RecordId> pending = new HashSet<>();
+        PendingMessages messages = redisTemplate.opsForStream().pending(streamKey,
+                RedisStreamConsumerManager.GROUP_NAME, Range.unbounded(), PENDING_SCAN_LIMIT);
+        for (PendingMessage message : messages) {
+            pending.add(message.getId());
+        }
+
+        RecordId covered = "-".equals(from) ? null : RecordId.of(from);
+        String cursor = from;
+        boolean skipCursor = covered != null;
+        while (true) {
+            List<MapRecord<String, Object, Object>> page = redisTemplate.opsForStream().range(streamKey,
+                    Range.closed(cursor, lastDelivered.getValue()), Limit.limit().count(REPLAY_PAGE));
+            if (page == null || page.isEmpty()) {
+                return covered;
+            }
+            for (MapRecord<String, Object, Object> record : page) {
+                if (skipCursor && record.getId().getValue().equals(cursor)) {
+                    continue;
+                }
+                if (!pending.contains(record.getId())) {
+                    apply(docId, engine, record);
+                    replayedCounter.increment();
+                }
+            }
+            RecordId lastId = page.get(page.size() - 1).getId();
+            if (covered == null || StreamRecordProcessor.compare(lastId, covered) > 0) {
+                covered = lastId;
+            }
+            String last = lastId.getValue();
+            if (page.size() < REPLAY_PAGE || last.equals(lastDelivered.getValue())) {
+                return covered;
+            }
+            cursor = last;
+            skipCursor = true;
+        }
+    }
+
+    private static void apply(String docId, OTEngine engine, MapRecord<String, Object, Object> record) {
+        List<NettyMessage> messages;
+        try {
+            messages = RedisStreamConsumerManager.decode(record);
+        } catch (RuntimeException e) {
+            // 无法解析的条目已由消费者转入死信
+            return;
+        }
+        for (NettyMessage message : messages) {
+            Operation op = toOperation(docId, engine, message);
+            if (op != null && !engine.isApplied(op.clientId, op.seq)) {
+                // 返回 false 时基线早于保留的历史，实时处理时同样被拒绝（客户端已重新同步）
+                engine.receive(op);
+            }
+        }
+    }
+
+    /**
+     * 引擎保留的历史，写入快照
+     */
+    static List<DocumentSnapshot.HistoryOp> toHistory(List<Operation> ops) {
+        List<DocumentSnapshot.HistoryOp> history = new ArrayList<>(ops.size());
+        for (Operation op : ops) {
+            DocumentSnapshot.HistoryOp entry = new DocumentSnapshot.HistoryOp();
+            entry.setUserId(op.userId);
+            entry.setClientId(op.clientId);
+            entry.setType(op.type.name());
+            entry.setContent(op.content);
+            entry.setLength(op.length);
+            entry.setPos(op.pos);
+            entry.setRevision(op.revision);
+            history.add(entry);
+        }
+        return history;
+    }
+
+    static List<Operation> fromHistory(String docId, List<DocumentSnapshot.HistoryOp> history) {
+        if (history == null) {
+            return null;
+        }
+        List<Operation> ops = new ArrayList<>(history.size());
+        for (DocumentSnapshot.HistoryOp entry : history) {
+            Operation op = new Operation(docId, entry.getUserId(), MessageType.valueOf(entry.getType()),
+                    entry.getContent(), entry.getLength(), entry.getPos(), 0L, null, entry.getRevision());
+            op.clientId = entry.getClientId();
+            op.revision = entry.getRevision();
+            ops.add(op);
+        }
+        return ops;
+    }
+
+    /**
+     * 与内容处理器构造操作的方式一致，基线保持客户端提交时的版本号
+     */
+    static Operation toOperation(String docId, OTEngine engine, NettyMessage message) {
+        MessageType type = message.getOperationType();
+        if (type != MessageType.CONTENT_INSERT && type != MessageType.CONTENT_DELETE) {
+            return null;
+        }
+        long base = message.getRevision() != null ? message.getRevision() : engine.getRevision();
+        Operation op = new Operation(
+                docId,
+                message.getUserId(),
+                type,
+                message.getContent(),
+                message.getLength() != null ? message.getLength() : 0,
+                message.getPos() != null ? message.getPos() : 0,
+                message.getTimestamp() != null ? message.getTimestamp() : System.currentTimeMillis(),
+                null,
+                base
+        );
+        op.clientId = message.getClientId();
+        op.seq = message.getSeq() != null ? message.getSeq() : 0L;
+        return op;
+    }
+}
@@ -0,0 +1,40 @@
+package com.cowrite.project.netty.stream;
+
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link StreamRecordProcessor} 用到的 Stream 命令，消费组固定为文档操作的消费组
+ */
+interface StreamStore {
+
+    /**
+     * 批量确认，每个 Stream 一条 XACK
+     */
+    void acknowledge(Map<String, List<RecordId>> acks);
+
+    /**
+     * XPENDING：最早的 count 个待确认条目
+     */
+    List<PendingMessage> pending(String streamKey, long count);
+
+    /**
+     * XCLAIM：把空闲超过 minIdle 的条目转给 consumer，投递次数加一
+     */
+    List<MapRecord<String, Object, Object>> claim(String streamKey, String consumer, Duration minIdle, List<RecordId> ids);
+
+    /**
+     * XRANGE id id，条目已被裁剪时返回 null
+     */
+    MapRecord<String, Object, Object> get(String streamKey, RecordId id);
+
+    /**
+     * 写入死信 Stream
+     */
+    void deadLetter(String streamKey, Map<String, Object> fields);
+}
@@ -0,0 +1,79 @@
+package com.cowrite.project.scheduler;
+
+import com.cowrite.project.config.VersionStorageProperties;
+import com.cowrite.project.model.entity.DocumentVersion;
+import com.cowrite.project.service.impl.DocumentVersionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 文档版本迁移：把只保存完整内容的旧 DocumentVersion 改写为关键帧 + 增量。
+ * 由 cowrite.version.migration.enabled 开启，启动后提交到应用的 taskExecutor 执行，按文档逐个处理，中断后重新执行即可继续。
+ *
+ * @author heathcetide
+ */
+@Component
+public class DocumentVersionMigrationJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentVersionMigrationJob.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final DocumentVersionStore versionStore;
+
+    private final VersionStorageProperties props;
+
+    private final TaskExecutor taskExecutor;
+
+    public DocumentVersionMigrationJob(MongoTemplate mongoTemplate, DocumentVersionStore versionStore,
+                                       VersionStorageProperties props,
+                                       @Qualifier("taskExecutor") TaskExecutor taskExecutor) {
+        this.mongoTemplate = mongoTemplate;
+        this.versionStore = versionStore;
+        this.props = props;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!props.isMigrationEnabled()) {
+            return;
+        }
+        taskExecutor.execute(this::migrateAll);
+    }
+
+    public void migrateAll() {
+        List<Long> documentIds = mongoTemplate.findDistinct(new Query(Criteria.where("keyframeVersion").is(null)),
+                "documentId", DocumentVersion.class, Long.class);
+        logger.info("开始迁移 {} 个文档的历史版本", documentIds.size());
+        long start = System.currentTimeMillis();
+        int documents = 0;
+        int versions = 0;
+        long before = 0;
+        long after = 0;
+        for (Long documentId : documentIds) {
+            try {
+                DocumentVersionStore.MigrationResult result = versionStore.migrate(documentId);
+                documents++;
+                versions += result.versions;
+                before += result.charsBefore;
+                after += result.charsAfter;
+            } catch (Exception e) {
+                logger.error("迁移文档 {} 的版本失败", documentId, e);
+            }
+        }
+        logger.info("版本迁移完成：文档 {} 个，版本 {} 个，内容 {} -> {} 字符（{}%），耗时 {} ms",
+                documents, versions, before, after, before == 0 ? 100 : after * 100 / before,
+                System.currentTimeMillis() - start);
+    }
+}
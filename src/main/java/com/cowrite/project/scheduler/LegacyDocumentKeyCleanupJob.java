@@ -0,0 +1,124 @@
+package com.cowrite.project.scheduler;
+
+import com.cowrite.project.config.DocumentStateProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 清理旧布局遗留的文档键：doc:{id}:content / title / editor / savedAt / version 没有过期时间，
+ * 改为 doc:{id}:state 单个 hash 之后不再被读写，不清理会一直占用内存。
+ * 由 cowrite.document.state.legacy-cleanup.enabled 控制，启动后提交到应用的 taskExecutor 执行，
+ * 以 Redis 中的标记保证整个集群只执行一次；失败时删除标记，下次启动重新执行。
+ *
+ * @author heathcetide
+ */
+@Component
+public class LegacyDocumentKeyCleanupJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(LegacyDocumentKeyCleanupJob.class);
+
+    static final String DONE_KEY = "cowrite:cleanup:legacy-doc-keys";
+
+    private static final String[] LEGACY_SUFFIXES = {":content", ":title", ":editor", ":savedAt", ":version"};
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final DocumentStateProperties props;
+
+    private final TaskExecutor taskExecutor;
+
+    public LegacyDocumentKeyCleanupJob(StringRedisTemplate stringRedisTemplate, DocumentStateProperties props,
+                                       @Qualifier("taskExecutor") TaskExecutor taskExecutor) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.props = props;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!props.isLegacyCleanupEnabled()) {
+            return;
+        }
+        taskExecutor.execute(this::cleanupOnce);
+    }
+
+    void cleanupOnce() {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(DONE_KEY, String.valueOf(System.currentTimeMillis())))) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            long removed = cleanup();
+            logger.info("已清理 {} 个旧布局的文档键，耗时 {} ms", removed, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("清理旧布局的文档键失败", e);
+            try {
+                stringRedisTemplate.delete(DONE_KEY);
+            } catch (Exception ignored) {
+                // 标记过期不了也只是不再自动重试
+            }
+        }
+    }
+
+    /**
+     * SCAN doc:* 并分批 UNLINK 旧布局的键
+     *
+     * @return 删除的键数
+     */
+    public long cleanup() {
+        int batchSize = props.getLegacyCleanupBatchSize();
+        return stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long removed = 0;
+            List<byte[]> batch = new ArrayList<>(batchSize);
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match("doc:*").count(1000).build())) {
+                while (cursor.hasNext()) {
+                    byte[] key = cursor.next();
+                    if (!isLegacy(new String(key, StandardCharsets.UTF_8))) {
+                        continue;
+                    }
+                    batch.add(key);
+                    if (batch.size() >= batchSize) {
+                        removed += unlink(connection, batch);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return removed + unlink(connection, batch);
+        });
+    }
+
+    static boolean isLegacy(String key) {
+        for (String suffix : LEGACY_SUFFIXES) {
+            if (key.endsWith(suffix) && key.indexOf(':', 4) == key.length() - suffix.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long unlink(RedisConnection connection, List<byte[]> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Long count = connection.keyCommands().unlink(batch.toArray(new byte[0][]));
+        batch.clear();
+        return count == null ? 0 : count;
+    }
+}
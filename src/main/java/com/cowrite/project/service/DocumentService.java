@@ -19,6 +19,12 @@ public interface DocumentService extends IService<Document> {
 
     DocumentVersion getLatestContent(Long id);
 
+    /**
+     * 已持久化的最新内容（保存的内容与 write-behind 快照中版本号较新的一份），不经过内存中的 OT 引擎；
+     * 引擎首次创建时以它为初始内容。文档不存在时返回 null
+     */
+    DocumentVersion loadPersistedContent(Long id);
+
     void saveNewVersion(Long documentId, String content, String title, Long editorId, String operationJson);
 
     DocumentVersion getVersionById(String versionId);
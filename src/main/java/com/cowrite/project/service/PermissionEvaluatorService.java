@@ -1,13 +1,26 @@
 package com.cowrite.project.service;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface PermissionEvaluatorService {
     enum PermissionLevel { VIEW, COMMENT, EDIT, ADMIN }
 
+    /**
+     * 用户对文档的权限级别，没有记录时为 VIEW
+     */
+    PermissionLevel permissionOf(String userId, String docId);
+
+    /**
+     * 批量查询同一文档下多个用户的权限级别（列表页），只对未缓存的用户查一次库
+     *
+     * @return userId -> 权限级别，包含所有请求的用户
+     */
+    Map<String, PermissionLevel> permissionsFor(String docId, Collection<String> userIds);
+
     boolean canView(String userId, String docId);
     boolean canComment(String userId, String docId);
     boolean canEdit(String userId, String docId);
     boolean canAdmin(String userId, String docId);
     boolean isExportDisabled(String userId, String docId);
 }
-
-
@@ -0,0 +1,33 @@
+package com.cowrite.project.service.event;
+
+/**
+ * 文档权限变更（新增、修改、删除 document_permission 记录）后发布
+ */
+public class DocumentPermissionChangedEvent {
+
+    private final String docId;
+
+    /**
+     * 权限发生变化的用户，null 表示文档的所有用户
+     */
+    private final String userId;
+
+    /**
+     * true 表示缓存已在写入节点失效并广播过（来自其他节点的广播或延迟的二次失效），只需处理本节点状态
+     */
+    private final boolean propagated;
+
+    public DocumentPermissionChangedEvent(String docId, String userId) {
+        this(docId, userId, false);
+    }
+
+    public DocumentPermissionChangedEvent(String docId, String userId, boolean propagated) {
+        this.docId = docId;
+        this.userId = userId;
+        this.propagated = propagated;
+    }
+
+    public String getDocId() { return docId; }
+    public String getUserId() { return userId; }
+    public boolean isPropagated() { return propagated; }
+}
@@ -4,13 +4,77 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.cowrite.project.mapper.DocumentPermissionMapper;
 import com.cowrite.project.model.entity.DocumentPermission;
 import com.cowrite.project.service.DocumentPermissionService;
+import com.cowrite.project.service.event.DocumentPermissionChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
+import java.util.Objects;
+
 /**
  * DocumentPermission 服务实现类
+ * <p>
+ * 单条写入成功后发布 {@link DocumentPermissionChangedEvent}，在线连接上绑定的权限据此更新
  * @author Hibiscus-code-generate
  */
 @Service
 public class DocumentPermissionServiceImpl extends ServiceImpl<DocumentPermissionMapper, DocumentPermission> implements DocumentPermissionService {
 
+    private final ApplicationEventPublisher eventPublisher;
+
+    public DocumentPermissionServiceImpl(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public boolean save(DocumentPermission entity) {
+        boolean saved = super.save(entity);
+        if (saved) {
+            changed(entity);
+        }
+        return saved;
+    }
+
+    @Override
+    public boolean updateById(DocumentPermission entity) {
+        // 更新请求可能只带主键和权限字段，先取出文档与用户
+        DocumentPermission before = entity.getId() == null ? null : getById(entity.getId());
+        boolean updated = super.updateById(entity);
+        if (updated) {
+            if (before == null) {
+                changed(entity);
+                return true;
+            }
+            changed(before);
+            // 记录被改到另一个文档或用户时，新的组合也要失效，否则旧的缓存结果要到过期才被替换
+            Long documentId = entity.getDocumentId() != null ? entity.getDocumentId() : before.getDocumentId();
+            Long userId = entity.getUserId() != null ? entity.getUserId() : before.getUserId();
+            if (!Objects.equals(documentId, before.getDocumentId()) || !Objects.equals(userId, before.getUserId())) {
+                changed(documentId, userId);
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        DocumentPermission before = getById(id);
+        boolean removed = super.removeById(id);
+        if (removed && before != null) {
+            changed(before);
+        }
+        return removed;
+    }
+
+    private void changed(DocumentPermission permission) {
+        changed(permission.getDocumentId(), permission.getUserId());
+    }
+
+    private void changed(Long documentId, Long userId) {
+        if (documentId == null) {
+            return;
+        }
+        eventPublisher.publishEvent(new DocumentPermissionChangedEvent(String.valueOf(documentId),
+                userId == null ? null : String.valueOf(userId)));
+    }
 }
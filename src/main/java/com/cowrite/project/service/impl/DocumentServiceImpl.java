@@ -6,17 +6,32 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.cowrite.project.config.ServerConfig;
 import com.cowrite.project.mapper.DocumentMapper;
+import com.cowrite.project.mapper.DocumentSnapshotRepository;
 import com.cowrite.project.mapper.DocumentVersionRepository;
 import com.cowrite.project.model.entity.Document;
+import com.cowrite.project.model.entity.DocumentSnapshot;
 import com.cowrite.project.model.entity.DocumentVersion;
+import com.cowrite.project.netty.cluster.ClusterRelay;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.stream.DocumentExecutorManager;
+import com.cowrite.project.netty.stream.RedisStreamConsumerManager;
 import com.cowrite.project.service.DocumentService;
-import com.cowrite.project.utils.RedisUtils;
+import com.cowrite.project.utils.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
@@ -26,16 +41,52 @@ import java.util.stream.Collectors;
 @Service
 public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> implements DocumentService {
 
-    private final RedisUtils redisUtils;
+    private static final Logger log = LoggerFactory.getLogger(DocumentServiceImpl.class);
+
+    /**
+     * 不包含任何操作流条目
+     */
+    static final String NO_STREAM_ENTRY = "0-0";
+
+    /**
+     * 保存时等待文档邮箱截取引擎状态的上限
+     */
+    private static final long CAPTURE_TIMEOUT_MILLIS = 5000;
 
     private final ServerConfig serverConfig;
 
     private final DocumentVersionRepository versionRepository;
 
-    public DocumentServiceImpl(RedisUtils redisUtils, ServerConfig serverConfig, DocumentVersionRepository versionRepository) {
-        this.redisUtils = redisUtils;
+    private final DocumentVersionStore versionStore;
+
+    private final OTEngineRegistry engines;
+
+    private final DocumentStateCache stateCache;
+
+    private final DocumentSnapshotRepository snapshotRepository;
+
+    private final ClusterRelay clusterRelay;
+
+    private final DocumentExecutorManager documentExecutorManager;
+
+    private final RedisStreamConsumerManager consumerManager;
+
+    private final SingleFlight<Long, DocumentVersion> openFlight = new SingleFlight<>();
+
+    public DocumentServiceImpl(ServerConfig serverConfig, DocumentVersionRepository versionRepository,
+                               DocumentVersionStore versionStore, OTEngineRegistry engines,
+                               DocumentStateCache stateCache, DocumentSnapshotRepository snapshotRepository,
+                               ClusterRelay clusterRelay, DocumentExecutorManager documentExecutorManager,
+                               RedisStreamConsumerManager consumerManager) {
         this.serverConfig = serverConfig;
         this.versionRepository = versionRepository;
+        this.versionStore = versionStore;
+        this.engines = engines;
+        this.stateCache = stateCache;
+        this.snapshotRepository = snapshotRepository;
+        this.clusterRelay = clusterRelay;
+        this.documentExecutorManager = documentExecutorManager;
+        this.consumerManager = consumerManager;
     }
 
     @Override
@@ -52,48 +103,109 @@ public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> i
             return new ArrayList<>();
         }
 
-        // 2. 批量获取 Redis 中的 title 缓存
+        // 2. 一次 pipeline 获取 Redis 中的 title 缓存
         List<Long> docIds = dbDocs.stream().map(Document::getId).collect(Collectors.toList());
-        List<String> redisKeys = docIds.stream().map(id -> "doc:" + id + ":title").collect(Collectors.toList());
-        List<String> cachedTitles = redisUtils.multiGet(redisKeys);
+        Map<Long, String> cachedTitles = stateCache.getTitles(docIds);
 
         // 3. 填充 title（缓存优先，不足的回源 DB）
-        for (int i = 0; i < dbDocs.size(); i++) {
-            Document doc = dbDocs.get(i);
-            String cachedTitle = cachedTitles.get(i);
+        Map<Long, String> missing = new HashMap<>();
+        for (Document doc : dbDocs) {
+            String cachedTitle = cachedTitles.get(doc.getId());
 
             if (cachedTitle != null) {
                 doc.setTitle(cachedTitle);
-            } else {
-                // 如果缓存没有，使用数据库中已有的 title（你 list 查询时可能已包含）
-                // 若你只查了 id，可以单独查 title
-                String dbTitle = doc.getTitle();
-                if (dbTitle != null) {
-                    redisUtils.set("doc:" + doc.getId() + ":title", dbTitle, Duration.ofHours(1));
-                }
+            } else if (doc.getTitle() != null) {
+                // 如果缓存没有，使用数据库中已有的 title
+                missing.put(doc.getId(), doc.getTitle());
             }
         }
+        stateCache.cacheTitles(missing);
         return dbDocs;
     }
 
     public DocumentVersion getLatestVersion(Long documentId) {
-        return versionRepository.findTopByDocumentIdOrderByVersionDesc(documentId);
+        return versionStore.withContent(versionRepository.findTopByDocumentIdOrderByVersionDesc(documentId));
     }
+
+    /**
+     * 打开文档的统一入口：
+     * 1. 本节点持有该文档的 OT 引擎、且引擎以持久化状态为起点时直接返回内存快照与版本号（最新状态）
+     * 2. 否则一次 HMGET 读取 Redis 中的文档状态，未命中再回源 Mongo / MySQL，并与快照比较版本号取较新的一份；
+     *    同一文档的并发回源合并为一次
+     */
     @Override
     public DocumentVersion getLatestContent(Long docId) {
-        String keyPrefix = "doc:" + docId;
+        OTEngine engine = engines.get(String.valueOf(docId));
+        if (engine != null && engine.isSeeded()) {
+            return liveContent(docId, engine);
+        }
+        DocumentVersion loaded = openFlight.execute(docId, () -> loadPersistedContent(docId));
+        // 调用方会修改返回值，共享结果需复制
+        return loaded == null ? null : BeanUtil.toBean(loaded, DocumentVersion.class);
+    }
 
-        String content = (String) redisUtils.get(keyPrefix + ":content");
-        String title = (String) redisUtils.get(keyPrefix + ":title");
-        String editorId = (String) redisUtils.get(keyPrefix + ":editor");
+    private DocumentVersion liveContent(Long docId, OTEngine engine) {
+        OTEngine.VersionedSnapshot snapshot = engine.versionedSnapshot();
+        DocumentVersion version = new DocumentVersion();
+        version.setDocumentId(docId);
+        version.setContent(snapshot.doc.toString());
+        version.setRevision(snapshot.revision);
+        String title = stateCache.getTitle(docId);
+        if (title != null) {
+            version.setTitle(title);
+        } else {
+            Document doc = getById(docId);
+            version.setTitle(doc != null ? doc.getTitle() : null);
+        }
+        version.setCreatedAt(Instant.now());
+        return version;
+    }
+
+    /**
+     * 已保存的内容（Redis 热状态，未命中再回源 Mongo / MySQL）与 write-behind 写入的快照中取版本号较新的一份，
+     * 版本号相同时取快照
+     */
+    @Override
+    public DocumentVersion loadPersistedContent(Long docId) {
+        DocumentVersion saved = loadSavedContent(docId);
+        if (saved == null) {
+            // 文档不存在或已删除，残留的快照不再使用
+            return null;
+        }
+        DocumentSnapshot snapshot = snapshotRepository.findById(String.valueOf(docId)).orElse(null);
+        if (snapshot == null || snapshot.getContent() == null || snapshot.getRevision() == null
+                || snapshot.getRevision() < revisionOf(saved)) {
+            return saved;
+        }
+        DocumentVersion version = new DocumentVersion();
+        version.setDocumentId(docId);
+        version.setContent(snapshot.getContent());
+        version.setRevision(snapshot.getRevision());
+        version.setStreamId(snapshot.getStreamId() != null ? snapshot.getStreamId() : NO_STREAM_ENTRY);
+        version.setTitle(saved.getTitle());
+        version.setEditorId(saved.getEditorId());
+        version.setCreatedAt(snapshot.getCreatedAt());
+        return version;
+    }
+
+    private DocumentVersion loadSavedContent(Long docId) {
+        List<String> cached = stateCache.get(docId);
+        String content = cached.get(0);
+        String title = cached.get(1);
+        String editorId = cached.get(2);
+        String savedAt = cached.get(3);
+        String revision = cached.get(4);
+        String streamId = cached.get(5);
 
         if (StrUtil.isNotBlank(content) && StrUtil.isNotBlank(title)) {
             DocumentVersion version = new DocumentVersion();
             version.setDocumentId(docId);
             version.setContent(content);
             version.setTitle(title);
-            version.setEditorId(Long.valueOf(editorId));
-            version.setCreatedAt(Instant.now());
+            version.setEditorId(StrUtil.isNotBlank(editorId) ? Long.valueOf(editorId) : null);
+            version.setRevision(StrUtil.isNotBlank(revision) ? Long.valueOf(revision) : null);
+            version.setStreamId(streamId);
+            version.setCreatedAt(StrUtil.isNotBlank(savedAt) ? Instant.ofEpochMilli(Long.parseLong(savedAt)) : Instant.now());
             return version;
         }
 
@@ -103,59 +215,95 @@ public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> i
             Document doc = getById(docId);
             if (doc == null || doc.getDeleted()) return null;
             latest = BeanUtil.toBean(doc, DocumentVersion.class);
+            // 从未保存过版本，操作流中的条目都不在其中
+            latest.setStreamId(NO_STREAM_ENTRY);
         }
 
         return latest;
     }
 
+    private static long revisionOf(DocumentVersion version) {
+        return version.getRevision() != null ? version.getRevision() : 0L;
+    }
+
     public void saveNewVersion(Long documentId, String content, String title, Long editorId, String operationJson) {
-        String keyPrefix = "doc:" + documentId;
-
-        // 缓存当前内容
-        redisUtils.set(keyPrefix + ":content", content);
-        redisUtils.set(keyPrefix + ":title", title);
-        redisUtils.set(keyPrefix + ":editor", String.valueOf(editorId));
-
-        // 初始化版本号为 1（仅第一次）
-        redisUtils.setIfAbsent(keyPrefix + ":version", 1);
-
-        // 每次操作都递增版本号
-        Long version = redisUtils.increment(keyPrefix + ":version",1);
-
-        // 操作记录追加
-        String queueKey = "queue:doc:" + documentId;
-        redisUtils.push(queueKey, operationJson);
-
-        // 设置操作队列过期时间
-        redisUtils.expire(queueKey, Duration.ofHours(2));
-//        Document document = documentService.getById(documentId);
-//        if (document == null) throw new IllegalArgumentException("文档不存在");
-//
-//        Integer newVersion = document.getVersion() + 1;
-//
-//        DocumentVersion version = new DocumentVersion();
-//        version.setDocumentId(documentId);
-//        version.setVersion(newVersion);
-//        version.setContent(content);
-//        version.setEditorId(editorId);
-//        version.setCreatedAt(Instant.now());
-//        version.setTitle(title);
-//
-//        DocumentVersion savedVersion = versionRepository.save(version);
-//
-//        document.setVersion(newVersion);
-//        document.setTitle(title);
-//        documentService.updateById(document);
-//
-//        return savedVersion;
+        Document document = getById(documentId);
+        if (document == null) throw new IllegalArgumentException("文档不存在");
+        DocumentVersion saving;
+        OTEngine engine = engines.get(String.valueOf(documentId));
+        if (engine != null && engine.isSeeded()) {
+            // 协同编辑中：客户端提交的内容可能落后于引擎，保存引擎在同一版本号下的内容
+            saving = captureEngine(String.valueOf(documentId), engine);
+        } else {
+            // 客户端提交的内容视为包含操作流中已有的全部条目
+            RecordId last = consumerManager.lastEntry(String.valueOf(documentId));
+            saving = new DocumentVersion();
+            saving.setContent(content);
+            saving.setRevision(revisionForSave(documentId));
+            saving.setStreamId(last != null ? last.getValue() : NO_STREAM_ENTRY);
+        }
+        String savedContent = saving.getContent();
+        long revision = saving.getRevision();
+        // 缓存当前内容、版本号与覆盖的 Stream 条目，追加操作记录：一次 Lua 调用
+        stateCache.save(documentId, savedContent, title, editorId, operationJson, revision, saving.getStreamId());
+        // 版本按关键帧 + 增量写入 Mongo
+        DocumentVersion savedVersion = versionStore.append(documentId, title, savedContent, editorId, revision,
+                saving.getStreamId());
+
+        document.setVersion(savedVersion.getVersion());
+        document.setTitle(title);
+        updateById(document);
+    }
+
+    /**
+     * 在文档邮箱中截取引擎的内容、版本号与已应用到的 Stream 条目，三者来自同一时刻；
+     * 邮箱繁忙或超时时退回直接读取内容与版本号，覆盖的条目记为未知
+     */
+    private DocumentVersion captureEngine(String docId, OTEngine engine) {
+        CompletableFuture<DocumentVersion> future = new CompletableFuture<>();
+        boolean accepted = documentExecutorManager.execute(docId, () -> {
+            RecordId applied = consumerManager.lastApplied(docId);
+            DocumentVersion version = new DocumentVersion();
+            version.setContent(engine.getDocument());
+            version.setRevision(engine.getRevision());
+            version.setStreamId(applied != null ? applied.getValue() : NO_STREAM_ENTRY);
+            future.complete(version);
+        });
+        if (accepted) {
+            try {
+                return future.get(CAPTURE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("capture of doc {} for save timed out, stream position not recorded", docId);
+            }
+        }
+        OTEngine.VersionedSnapshot snapshot = engine.versionedSnapshot();
+        DocumentVersion version = new DocumentVersion();
+        version.setContent(snapshot.doc.toString());
+        version.setRevision(snapshot.revision);
+        return version;
+    }
+
+    /**
+     * 本节点没有文档引擎时的版本号：引擎在其他节点上时记为 0（未记录），不会优先于快照；
+     * 否则这是一次不经过 OT 的修改，在已持久化的版本号上加一，使它比已有的快照更新
+     */
+    private long revisionForSave(Long documentId) {
+        if (clusterRelay.isOwnedElsewhere(String.valueOf(documentId))) {
+            return 0L;
+        }
+        DocumentVersion persisted = loadPersistedContent(documentId);
+        return persisted == null ? 0L : revisionOf(persisted) + 1;
     }
 
     public DocumentVersion getVersionById(String versionId) {
-        return versionRepository.findById(versionId).orElse(null);
+        return versionStore.withContent(versionRepository.findById(versionId).orElse(null));
     }
 
     public List<DocumentVersion> getVersions(Long documentId) {
-        return versionRepository.findByDocumentIdOrderByVersionDesc(documentId);
+        // 只返回元数据，内容按版本单独获取
+        return versionRepository.findMetadataByDocumentId(documentId);
     }
 
 }
@@ -0,0 +1,155 @@
+package com.cowrite.project.service.impl;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档的 Redis 热状态：每个文档一个 hash（doc:{id}:state），字段 content / title / editor / savedAt / revision / streamId。
+ * <p>
+ * - 保存内容、追加操作记录并设置过期时间在一个 Lua 脚本中完成，一次往返；文档版本号以 Mongo 中的 DocumentVersion.version 为准，这里不另行计数
+ * - 值以原始 UTF-8 保存（{@link StringRedisTemplate}），不经过 RedisConfig 的 JSON 序列化，没有引号与转义
+ * - 列表页只缓存标题时 hash 带 1 小时过期，之后的保存会去掉过期时间
+ */
+@Component
+public class DocumentStateCache {
+
+    static final String CONTENT = "content";
+
+    static final String TITLE = "title";
+
+    static final String EDITOR = "editor";
+
+    /**
+     * 保存时间（毫秒）
+     */
+    static final String SAVED_AT = "savedAt";
+
+    /**
+     * 保存时文档的 OT 服务端版本号
+     */
+    static final String REVISION = "revision";
+
+    /**
+     * 保存的内容已覆盖的最后一条操作流条目，引擎以该内容为初始状态时只重放之后的条目
+     */
+    static final String STREAM_ID = "streamId";
+
+    /**
+     * 操作记录保留时长
+     */
+    private static final long OPS_TTL_SECONDS = 2 * 60 * 60;
+
+    /**
+     * 只缓存标题时的过期时长
+     */
+    private static final long TITLE_TTL_SECONDS = 60 * 60;
+
+    /**
+     * KEYS[1] 状态 hash，KEYS[2] 操作记录；ARGV: content, title, editor, 操作 JSON（可为空串）, 操作记录过期秒数, 保存时间, 版本号, Stream 条目（可为空串）
+     */
+    private static final String SAVE_SCRIPT =
+            "redis.call('HSET', KEYS[1], 'content', ARGV[1], 'title', ARGV[2], 'editor', ARGV[3], 'savedAt', ARGV[6], 'revision', ARGV[7], 'streamId', ARGV[8]) " +
+            "redis.call('PERSIST', KEYS[1]) " +
+            "redis.call('HDEL', KEYS[1], 'version') " +
+            "if ARGV[4] ~= '' then " +
+            "  redis.call('RPUSH', KEYS[2], ARGV[4]) " +
+            "  redis.call('EXPIRE', KEYS[2], ARGV[5]) " +
+            "end " +
+            "return 1";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final DefaultRedisScript<Long> saveScript = new DefaultRedisScript<>(SAVE_SCRIPT, Long.class);
+
+    public DocumentStateCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public static String stateKey(Long docId) {
+        return "doc:" + docId + ":state";
+    }
+
+    public static String opsKey(Long docId) {
+        return "queue:doc:" + docId;
+    }
+
+    /**
+     * 保存文档状态并追加操作记录
+     *
+     * @param streamId 内容已覆盖的最后一条操作流条目，未知时为 null
+     */
+    public void save(Long docId, String content, String title, Long editorId, String operationJson, long revision,
+                     String streamId) {
+        stringRedisTemplate.execute(saveScript, Arrays.asList(stateKey(docId), opsKey(docId)),
+                content, title, String.valueOf(editorId), operationJson == null ? "" : operationJson,
+                String.valueOf(OPS_TTL_SECONDS), String.valueOf(System.currentTimeMillis()), String.valueOf(revision),
+                streamId == null ? "" : streamId);
+    }
+
+    /**
+     * 一次 HMGET 读取 content / title / editor / savedAt / revision / streamId，缺失的字段为 null
+     */
+    public List<String> get(Long docId) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(stateKey(docId),
+                Arrays.asList(CONTENT, TITLE, EDITOR, SAVED_AT, REVISION, STREAM_ID));
+        List<String> result = new ArrayList<>(values.size());
+        for (Object value : values) {
+            String field = (String) value;
+            // 未知的条目保存为空串
+            result.add(field == null || field.isEmpty() ? null : field);
+        }
+        return result;
+    }
+
+    public String getTitle(Long docId) {
+        return (String) stringRedisTemplate.opsForHash().get(stateKey(docId), TITLE);
+    }
+
+    /**
+     * 一次 pipeline 读取多个文档的标题
+     */
+    public Map<Long, String> getTitles(List<Long> docIds) {
+        byte[] field = TITLE.getBytes(StandardCharsets.UTF_8);
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long docId : docIds) {
+                connection.hGet(stateKey(docId).getBytes(StandardCharsets.UTF_8), field);
+            }
+            return null;
+        });
+        Map<Long, String> titles = new HashMap<>();
+        for (int i = 0; i < docIds.size(); i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                titles.put(docIds.get(i), (String) value);
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * 缓存从数据库读到的标题（文档尚未保存过内容时才会调用），1 小时后过期
+     */
+    public void cacheTitles(Map<Long, String> titles) {
+        if (titles.isEmpty()) {
+            return;
+        }
+        byte[] field = TITLE.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, String> entry : titles.entrySet()) {
+                byte[] key = stateKey(entry.getKey()).getBytes(StandardCharsets.UTF_8);
+                connection.hSet(key, field, entry.getValue().getBytes(StandardCharsets.UTF_8));
+                connection.expire(key, TITLE_TTL_SECONDS);
+            }
+            return null;
+        });
+    }
+}
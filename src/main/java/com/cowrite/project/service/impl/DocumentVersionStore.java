@@ -0,0 +1,226 @@
+package com.cowrite.project.service.impl;
+
+import com.cowrite.project.config.VersionStorageProperties;
+import com.cowrite.project.mapper.DocumentVersionRepository;
+import com.cowrite.project.model.entity.DocumentVersion;
+import com.cowrite.project.utils.TextDelta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文档版本的关键帧 + 增量存储。
+ * <p>
+ * - 写入：新版本相对上一版本编码为差量；增量链已有 K 个版本、与上一版本不连续或差量不划算时保存关键帧；
+ *   版本号由 (documentId, version) 唯一索引保证不重复，并发保存撞号时重新读取最新版本后重试
+ * - 读取：一次查询取回 [关键帧, 目标版本] 的整条链，最多应用 K 次差量
+ * - 迁移：把只有完整内容的旧版本按同样规则改写，可重复执行
+ */
+@Component
+public class DocumentVersionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentVersionStore.class);
+
+    /**
+     * 版本号冲突时最多尝试的次数
+     */
+    static final int APPEND_ATTEMPTS = 5;
+
+    /**
+     * 迁移时每次读取的版本数
+     */
+    private static final int MIGRATION_PAGE = 100;
+
+    private final DocumentVersionRepository versionRepository;
+
+    private final VersionStorageProperties props;
+
+    private final MongoTemplate mongoTemplate;
+
+    public DocumentVersionStore(DocumentVersionRepository versionRepository, VersionStorageProperties props,
+                                MongoTemplate mongoTemplate) {
+        this.versionRepository = versionRepository;
+        this.props = props;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * 不依赖 auto-index-creation，启动时确保唯一索引存在；库中已有重复版本号时创建失败，需要先清理
+     */
+    @PostConstruct
+    public void ensureIndexes() {
+        try {
+            mongoTemplate.indexOps(DocumentVersion.class).ensureIndex(new Index()
+                    .named("document_version")
+                    .on("documentId", Sort.Direction.ASC)
+                    .on("version", Sort.Direction.ASC)
+                    .unique());
+        } catch (RuntimeException e) {
+            log.error("创建 document_versions (documentId, version) 唯一索引失败，并发保存可能产生重复版本号", e);
+        }
+    }
+
+    /**
+     * 追加一个版本
+     *
+     * @param revision 保存时文档的 OT 服务端版本号
+     * @param streamId 内容已覆盖的最后一条操作流条目，未知时为 null
+     */
+    public DocumentVersion append(Long documentId, String title, String content, Long editorId, long revision,
+                                  String streamId) {
+        for (int attempt = 1; ; attempt++) {
+            DocumentVersion latest = versionRepository.findTopByDocumentIdOrderByVersionDesc(documentId);
+            DocumentVersion version = new DocumentVersion();
+            version.setDocumentId(documentId);
+            version.setVersion(latest == null ? 1 : latest.getVersion() + 1);
+            version.setTitle(title);
+            version.setEditorId(editorId);
+            version.setRevision(revision);
+            version.setStreamId(streamId);
+            version.setCreatedAt(Instant.now());
+            encode(version, latest, latest == null ? null : content(latest), content);
+            try {
+                return versionRepository.insert(version);
+            } catch (DuplicateKeyException e) {
+                // 另一次保存抢先写入了同一版本号
+                if (attempt >= APPEND_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 返回带完整内容的版本（差量版本会被重建）
+     */
+    public DocumentVersion withContent(DocumentVersion version) {
+        if (version == null || version.getDelta() == null) {
+            return version;
+        }
+        version.setContent(content(version));
+        version.setDelta(null);
+        return version;
+    }
+
+    /**
+     * 版本的完整内容
+     */
+    public String content(DocumentVersion version) {
+        if (version.getDelta() == null) {
+            return version.getContent();
+        }
+        List<DocumentVersion> chain = versionRepository.findChain(version.getDocumentId(),
+                keyframeOf(version), version.getVersion());
+        return replay(chain, version.getVersion());
+    }
+
+    /**
+     * 把文档中只有完整内容的旧版本改写为关键帧 + 增量
+     */
+    public MigrationResult migrate(Long documentId) {
+        MigrationResult result = new MigrationResult();
+        DocumentVersion latest = versionRepository.findTopByDocumentIdOrderByVersionDesc(documentId);
+        if (latest == null) {
+            return result;
+        }
+        DocumentVersion previous = null;
+        String previousContent = null;
+        for (int from = 0; from <= latest.getVersion(); from += MIGRATION_PAGE) {
+            List<DocumentVersion> page = versionRepository.findChain(documentId, from, from + MIGRATION_PAGE - 1);
+            List<DocumentVersion> changed = new ArrayList<>();
+            for (DocumentVersion version : page) {
+                String content;
+                if (version.getDelta() == null) {
+                    content = version.getContent() != null ? version.getContent() : "";
+                } else if (previous != null && previous.getVersion() == version.getVersion() - 1) {
+                    content = TextDelta.apply(previousContent, version.getDelta());
+                } else {
+                    // 已迁移的增量版本必定紧跟上一版本
+                    throw new IllegalStateException("broken version chain of document " + documentId
+                            + " at version " + version.getVersion());
+                }
+                if (version.getKeyframeVersion() == null) {
+                    result.versions++;
+                    result.charsBefore += content.length();
+                    encode(version, previous, previousContent, content);
+                    result.charsAfter += version.getDelta() != null ? version.getDelta().length() : content.length();
+                    changed.add(version);
+                }
+                previous = version;
+                previousContent = content;
+            }
+            if (!changed.isEmpty()) {
+                versionRepository.saveAll(changed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按关键帧规则填充 content / delta / keyframeVersion / size
+     */
+    void encode(DocumentVersion version, DocumentVersion previous, String previousContent, String content) {
+        version.setSize(content.length());
+        if (previous != null && previousContent != null
+                && previous.getVersion() == version.getVersion() - 1
+                && previous.getVersion() - keyframeOf(previous) < props.getKeyframeInterval()) {
+            String delta = TextDelta.encode(previousContent, content);
+            if (delta.length() <= content.length() * props.getMaxDeltaRatio()) {
+                version.setContent(null);
+                version.setDelta(delta);
+                version.setKeyframeVersion(keyframeOf(previous));
+                return;
+            }
+        }
+        version.setContent(content);
+        version.setDelta(null);
+        version.setKeyframeVersion(version.getVersion());
+    }
+
+    /**
+     * 从关键帧开始依次应用差量
+     *
+     * @param chain 按版本号升序，第一个为关键帧
+     */
+    static String replay(List<DocumentVersion> chain, int target) {
+        String content = null;
+        int last = -1;
+        for (DocumentVersion link : chain) {
+            if (link.getDelta() == null) {
+                content = link.getContent();
+            } else if (content == null || link.getVersion() != last + 1) {
+                throw new IllegalStateException("broken version chain at version " + link.getVersion());
+            } else {
+                content = TextDelta.apply(content, link.getDelta());
+            }
+            last = link.getVersion();
+        }
+        if (content == null || last != target) {
+            throw new IllegalStateException("version " + target + " cannot be reconstructed");
+        }
+        return content;
+    }
+
+    private static int keyframeOf(DocumentVersion version) {
+        // 旧数据没有 keyframeVersion，本身就是完整内容
+        return version.getKeyframeVersion() != null ? version.getKeyframeVersion() : version.getVersion();
+    }
+
+    /**
+     * 迁移统计：改写的版本数与改写前后保存的字符数
+     */
+    public static class MigrationResult {
+        public int versions;
+        public long charsBefore;
+        public long charsAfter;
+    }
+}
@@ -0,0 +1,381 @@
+package com.cowrite.project.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.cowrite.project.config.ClusterProperties;
+import com.cowrite.project.config.PermissionCacheProperties;
+import com.cowrite.project.model.entity.DocumentPermission;
+import com.cowrite.project.service.DocumentPermissionService;
+import com.cowrite.project.service.event.DocumentPermissionChangedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文档权限缓存，键为 (docId, userId)，值同时包含权限级别与禁止导出标记，权限判断和导出判断共用一次查询。
+ * <p>
+ * - L1：本地 Caffeine，容量与过期时间可配
+ * - L2：Redis，每个文档一个 hash（cowrite:perm:{docId}），字段为 userId；列表页的批量查询一次 HMGET
+ * - 没有权限记录也缓存（值为 "-"），避免未授权用户反复查库
+ * - 失效：{@link DocumentPermissionServiceImpl} 写入后发布 {@link DocumentPermissionChangedEvent}，
+ *   本节点删除 L1 / L2 并在 cowrite:perm:invalidate 频道广播，其他节点收到后删除 L1，
+ *   再以 propagated 事件通知本节点的在线连接；延迟一段时间后再失效一次，覆盖并发读取把旧值回填的情况
+ * - Redis 不可用时直接查库，不影响权限判断
+ */
+@Component
+public class PermissionCache implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PermissionCache.class);
+
+    static final String KEY_PREFIX = "cowrite:perm:";
+
+    static final String INVALIDATE_CHANNEL = "cowrite:perm:invalidate";
+
+    /**
+     * KEYS[1] 文档权限 hash；ARGV[1] 过期秒数，之后为 userId、值交替
+     */
+    private static final String PUT_SCRIPT =
+            "for i = 2, #ARGV, 2 do redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "return 1";
+
+    private final PermissionCacheProperties props;
+
+    private final ClusterProperties clusterProperties;
+
+    private final DocumentPermissionService docPermService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final Cache<String, Grant> local;
+
+    private final DefaultRedisScript<Long> putScript = new DefaultRedisScript<>(PUT_SCRIPT, Long.class);
+
+    private final ScheduledExecutorService redeleter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "perm-cache-redelete");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter l1Misses;
+
+    private final Counter l2Misses;
+
+    private RedisMessageListenerContainer container;
+
+    public PermissionCache(PermissionCacheProperties props,
+                           ClusterProperties clusterProperties,
+                           DocumentPermissionService docPermService,
+                           StringRedisTemplate stringRedisTemplate,
+                           ApplicationEventPublisher eventPublisher,
+                           MeterRegistry meterRegistry) {
+        this.props = props;
+        this.clusterProperties = clusterProperties;
+        this.docPermService = docPermService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.eventPublisher = eventPublisher;
+        this.local = Caffeine.newBuilder()
+                .maximumSize(props.getL1MaxSize())
+                .expireAfterWrite(props.getL1TtlSeconds(), TimeUnit.SECONDS)
+                .build();
+        this.l1Misses = Counter.builder("cowrite.permission.cache.miss")
+                .tag("tier", "l1")
+                .description("本地缓存未命中、转查 Redis 的次数")
+                .register(meterRegistry);
+        this.l2Misses = Counter.builder("cowrite.permission.cache.miss")
+                .tag("tier", "l2")
+                .description("Redis 未命中、回源查库的次数")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!props.isEnabled()) {
+            return;
+        }
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(stringRedisTemplate.getConnectionFactory());
+        container.afterPropertiesSet();
+        container.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+        container.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        redeleter.shutdownNow();
+        if (container == null) {
+            return;
+        }
+        try {
+            container.destroy();
+        } catch (Exception e) {
+            log.warn("stop permission invalidation listener failed", e);
+        }
+    }
+
+    public Grant get(String docId, String userId) {
+        if (!props.isEnabled()) {
+            return loadFromDb(docId, userId);
+        }
+        return local.get(localKey(docId, userId), k -> {
+            l1Misses.increment();
+            return loadThrough(docId, userId);
+        });
+    }
+
+    /**
+     * 批量查询同一文档下多个用户，只对缺失部分访问 Redis（一次 HMGET）和数据库（一次 IN 查询）
+     *
+     * @return userId -> 权限，包含所有请求的用户
+     */
+    public Map<String, Grant> getAll(String docId, Collection<String> userIds) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(userIds));
+        if (distinct.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (!props.isEnabled()) {
+            return loadFromDb(docId, distinct);
+        }
+        List<String> keys = new ArrayList<>(distinct.size());
+        for (String userId : distinct) {
+            keys.add(localKey(docId, userId));
+        }
+        Map<String, Grant> cached = local.getAll(keys, missing -> {
+            List<String> missingUsers = new ArrayList<>(missing.size());
+            for (String key : missing) {
+                missingUsers.add(key.substring(docId.length() + 1));
+            }
+            l1Misses.increment(missingUsers.size());
+            Map<String, Grant> loaded = new HashMap<>();
+            loadThrough(docId, missingUsers).forEach((userId, grant) -> loaded.put(localKey(docId, userId), grant));
+            return loaded;
+        });
+        Map<String, Grant> result = new HashMap<>(cached.size());
+        cached.forEach((key, grant) -> result.put(key.substring(docId.length() + 1), grant));
+        return result;
+    }
+
+    /**
+     * 权限写入后失效缓存，先于在线连接的权限刷新执行，保证刷新时读到新值
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener
+    public void onPermissionChanged(DocumentPermissionChangedEvent event) {
+        String docId = event.getDocId();
+        String userId = event.getUserId();
+        evictLocal(docId, userId);
+        if (event.isPropagated() || !props.isEnabled()) {
+            return;
+        }
+        evictShared(docId, userId);
+        long delay = props.getRedeleteDelayMillis();
+        if (delay > 0) {
+            redeleter.schedule(() -> {
+                evictLocal(docId, userId);
+                evictShared(docId, userId);
+                eventPublisher.publishEvent(new DocumentPermissionChangedEvent(docId, userId, true));
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 其他节点的失效广播，消息为 nodeId \n docId \n userId（空串表示文档的所有用户）
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\n", -1);
+        if (parts.length != 3 || clusterProperties.getNodeId().equals(parts[0])) {
+            return;
+        }
+        String userId = parts[2].isEmpty() ? null : parts[2];
+        evictLocal(parts[1], userId);
+        eventPublisher.publishEvent(new DocumentPermissionChangedEvent(parts[1], userId, true));
+    }
+
+    private Grant loadThrough(String docId, String userId) {
+        try {
+            Object value = stringRedisTemplate.opsForHash().get(sharedKey(docId), userId);
+            if (value != null) {
+                return Grant.decode((String) value);
+            }
+        } catch (Exception e) {
+            log.debug("read permission cache failed, docId={}", docId, e);
+        }
+        l2Misses.increment();
+        Grant grant = loadFromDb(docId, userId);
+        putShared(docId, Collections.singletonMap(userId, grant));
+        return grant;
+    }
+
+    private Map<String, Grant> loadThrough(String docId, List<String> userIds) {
+        Map<String, Grant> result = new HashMap<>();
+        List<String> misses = userIds;
+        try {
+            List<Object> values = stringRedisTemplate.opsForHash().multiGet(sharedKey(docId),
+                    new ArrayList<>(userIds));
+            misses = new ArrayList<>();
+            for (int i = 0; i < userIds.size(); i++) {
+                Object value = values == null ? null : values.get(i);
+                if (value != null) {
+                    result.put(userIds.get(i), Grant.decode((String) value));
+                } else {
+                    misses.add(userIds.get(i));
+                }
+            }
+        } catch (Exception e) {
+            log.debug("read permission cache failed, docId={}", docId, e);
+        }
+        if (!misses.isEmpty()) {
+            l2Misses.increment(misses.size());
+            Map<String, Grant> loaded = loadFromDb(docId, misses);
+            putShared(docId, loaded);
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    private Grant loadFromDb(String docId, String userId) {
+        DocumentPermission p = docPermService.getOne(new QueryWrapper<DocumentPermission>()
+                .eq("document_id", docId)
+                .eq("user_id", userId)
+                .last("limit 1"));
+        return p == null ? Grant.NONE : Grant.of(p);
+    }
+
+    private Map<String, Grant> loadFromDb(String docId, List<String> userIds) {
+        List<DocumentPermission> rows = docPermService.list(new QueryWrapper<DocumentPermission>()
+                .eq("document_id", docId)
+                .in("user_id", userIds));
+        Map<String, Grant> result = new HashMap<>();
+        for (DocumentPermission p : rows) {
+            if (p.getUserId() != null) {
+                result.putIfAbsent(String.valueOf(p.getUserId()), Grant.of(p));
+            }
+        }
+        for (String userId : userIds) {
+            result.putIfAbsent(userId, Grant.NONE);
+        }
+        return result;
+    }
+
+    private void putShared(String docId, Map<String, Grant> grants) {
+        List<String> args = new ArrayList<>(grants.size() * 2 + 1);
+        args.add(String.valueOf(props.getL2TtlSeconds()));
+        grants.forEach((userId, grant) -> {
+            args.add(userId);
+            args.add(grant.encode());
+        });
+        try {
+            stringRedisTemplate.execute(putScript, Collections.singletonList(sharedKey(docId)), args.toArray());
+        } catch (Exception e) {
+            log.debug("write permission cache failed, docId={}", docId, e);
+        }
+    }
+
+    private void evictLocal(String docId, String userId) {
+        if (userId != null) {
+            local.invalidate(localKey(docId, userId));
+            return;
+        }
+        // 整个文档失效很少发生，遍历一次本地缓存即可
+        String prefix = docId + ":";
+        local.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private void evictShared(String docId, String userId) {
+        try {
+            if (userId != null) {
+                stringRedisTemplate.opsForHash().delete(sharedKey(docId), userId);
+            } else {
+                stringRedisTemplate.delete(sharedKey(docId));
+            }
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL,
+                    clusterProperties.getNodeId() + "\n" + docId + "\n" + (userId == null ? "" : userId));
+        } catch (Exception e) {
+            // 其他节点的 L1 最迟在过期后读到新值
+            log.warn("invalidate permission cache failed, docId={}, userId={}", docId, userId, e);
+        }
+    }
+
+    private static String localKey(String docId, String userId) {
+        return docId + ":" + userId;
+    }
+
+    static String sharedKey(String docId) {
+        return KEY_PREFIX + docId;
+    }
+
+    /**
+     * 一条 document_permission 记录中权限判断需要的部分
+     */
+    public static final class Grant {
+
+        /**
+         * 没有权限记录：按 VIEW 处理，禁止导出
+         */
+        static final Grant NONE = new Grant(null, true);
+
+        /**
+         * 权限字符串，没有记录时为 null
+         */
+        private final String permission;
+
+        private final boolean exportDisabled;
+
+        private Grant(String permission, boolean exportDisabled) {
+            this.permission = permission;
+            this.exportDisabled = exportDisabled;
+        }
+
+        static Grant of(DocumentPermission p) {
+            return new Grant(p.getPermission() == null ? "" : p.getPermission(),
+                    p.getDisableExport() != null && p.getDisableExport());
+        }
+
+        public String getPermission() { return permission; }
+        public boolean isExportDisabled() { return exportDisabled; }
+
+        /**
+         * L2 中的值：没有记录为 "-"，否则为导出标记（0/1）+ 权限字符串
+         */
+        String encode() {
+            return permission == null ? "-" : (exportDisabled ? "1" : "0") + permission;
+        }
+
+        static Grant decode(String value) {
+            if (value.isEmpty() || "-".equals(value)) {
+                return NONE;
+            }
+            return new Grant(value.substring(1), value.charAt(0) == '1');
+        }
+    }
+}
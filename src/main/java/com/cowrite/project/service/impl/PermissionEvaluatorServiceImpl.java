@@ -1,26 +1,49 @@
 package com.cowrite.project.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.cowrite.project.model.entity.DocumentPermission;
-import com.cowrite.project.service.DocumentPermissionService;
 import com.cowrite.project.service.PermissionEvaluatorService;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 权限判断，document_permission 记录经 {@link PermissionCache} 缓存
+ */
 @Service
 public class PermissionEvaluatorServiceImpl implements PermissionEvaluatorService {
 
-    private final DocumentPermissionService docPermService;
+    private final PermissionCache permissionCache;
 
-    public PermissionEvaluatorServiceImpl(DocumentPermissionService docPermService) {
-        this.docPermService = docPermService;
+    public PermissionEvaluatorServiceImpl(PermissionCache permissionCache) {
+        this.permissionCache = permissionCache;
     }
 
     private String findPermission(String userId, String docId) {
-        DocumentPermission p = docPermService.getOne(new QueryWrapper<DocumentPermission>()
-                .eq("document_id", docId)
-                .eq("user_id", userId)
-                .last("limit 1"));
-        return p == null ? "VIEW" : p.getPermission();
+        String perm = permissionCache.get(docId, userId).getPermission();
+        return perm == null ? "VIEW" : perm;
+    }
+
+    private static PermissionLevel levelOf(PermissionCache.Grant grant) {
+        String perm = grant.getPermission() == null ? "VIEW" : grant.getPermission();
+        for (PermissionLevel level : PermissionLevel.values()) {
+            if (level.name().equals(perm)) {
+                return level;
+            }
+        }
+        return PermissionLevel.VIEW;
+    }
+
+    @Override
+    public PermissionLevel permissionOf(String userId, String docId) {
+        return levelOf(permissionCache.get(docId, userId));
+    }
+
+    @Override
+    public Map<String, PermissionLevel> permissionsFor(String docId, Collection<String> userIds) {
+        Map<String, PermissionLevel> levels = new HashMap<>();
+        permissionCache.getAll(docId, userIds).forEach((userId, grant) -> levels.put(userId, levelOf(grant)));
+        return levels;
     }
 
     @Override
@@ -49,12 +72,8 @@ public class PermissionEvaluatorServiceImpl implements PermissionEvaluatorServic
 
     @Override
     public boolean isExportDisabled(String userId, String docId) {
-        DocumentPermission p = docPermService.getOne(new QueryWrapper<DocumentPermission>()
-                .eq("document_id", docId)
-                .eq("user_id", userId)
-                .last("limit 1"));
-        if (p == null) return true; // 无权限默认禁导出
-        return p.getDisableExport() != null && p.getDisableExport();
+        // 与权限判断共用同一条缓存，无权限记录时默认禁导出
+        return permissionCache.get(docId, userId).isExportDisabled();
     }
 }
 
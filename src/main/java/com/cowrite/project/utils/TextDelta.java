@@ -0,0 +1,172 @@
+package com.cowrite.project.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 文本差量编码：把 target 表示为对 base 的一串复制 / 插入指令，用于文档版本的增量存储。
+ * <p>
+ * - 先去掉公共前缀与后缀（常见的局部修改到此即可），中间部分按固定长度的块在 base 中查找相同内容并向两侧扩展，
+ *   可以复用被移动或分散修改之间的原文
+ * - 编码为紧凑文本：{@code c<offset>,<len>;} 复制 base[offset, offset+len)，{@code i<len>:<text>} 插入 len 个字符；
+ *   长度按 UTF-16 char 计，插入内容原样保存，不需要转义
+ */
+public class TextDelta {
+
+    /**
+     * 匹配块长度，更短的重复内容直接作为插入保存
+     */
+    private static final int BLOCK = 16;
+
+    private static final long PRIME = 1_000_003L;
+
+    /**
+     * 计算从 base 得到 target 的差量
+     */
+    public static String encode(String base, String target) {
+        StringBuilder out = new StringBuilder();
+        int prefix = commonPrefix(base, target);
+        int suffix = commonSuffix(base, target, prefix);
+        if (prefix > 0) {
+            copy(out, 0, prefix);
+        }
+        encodeMiddle(base, target, prefix, target.length() - suffix, out);
+        if (suffix > 0) {
+            copy(out, base.length() - suffix, suffix);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 在 base 上应用差量
+     *
+     * @throws IllegalArgumentException 差量格式错误或与 base 不匹配
+     */
+    public static String apply(String base, String delta) {
+        StringBuilder out = new StringBuilder(base.length());
+        int i = 0;
+        int n = delta.length();
+        while (i < n) {
+            char op = delta.charAt(i++);
+            if (op == 'c') {
+                int comma = delta.indexOf(',', i);
+                int semi = delta.indexOf(';', comma + 1);
+                if (comma < 0 || semi < 0) {
+                    throw new IllegalArgumentException("truncated copy at " + (i - 1));
+                }
+                int offset = Integer.parseInt(delta.substring(i, comma));
+                int len = Integer.parseInt(delta.substring(comma + 1, semi));
+                if (offset < 0 || len < 0 || offset + len > base.length()) {
+                    throw new IllegalArgumentException("copy out of range: " + offset + "+" + len);
+                }
+                out.append(base, offset, offset + len);
+                i = semi + 1;
+            } else if (op == 'i') {
+                int colon = delta.indexOf(':', i);
+                if (colon < 0) {
+                    throw new IllegalArgumentException("truncated insert at " + (i - 1));
+                }
+                int len = Integer.parseInt(delta.substring(i, colon));
+                int end = colon + 1 + len;
+                if (len < 0 || end > n) {
+                    throw new IllegalArgumentException("insert out of range: " + len);
+                }
+                out.append(delta, colon + 1, end);
+                i = end;
+            } else {
+                throw new IllegalArgumentException("unknown op '" + op + "' at " + (i - 1));
+            }
+        }
+        return out.toString();
+    }
+
+    private static void encodeMiddle(String base, String target, int from, int to, StringBuilder out) {
+        if (from >= to) {
+            return;
+        }
+        if (to - from < BLOCK || base.length() < BLOCK) {
+            insert(out, target, from, to);
+            return;
+        }
+        // base 中不重叠块的哈希 -> 第一次出现的位置
+        Map<Long, Integer> blocks = new HashMap<>();
+        for (int start = 0; start + BLOCK <= base.length(); start += BLOCK) {
+            blocks.putIfAbsent(hash(base, start), start);
+        }
+        long pow = 1;
+        for (int k = 1; k < BLOCK; k++) {
+            pow *= PRIME;
+        }
+        int literal = from;
+        int p = from;
+        long h = hash(target, p);
+        while (p + BLOCK <= to) {
+            Integer candidate = blocks.get(h);
+            if (candidate != null && base.regionMatches(candidate, target, p, BLOCK)) {
+                int baseStart = candidate;
+                int targetStart = p;
+                // 向前扩展，吃掉待插入的字面量
+                while (targetStart > literal && baseStart > 0
+                        && base.charAt(baseStart - 1) == target.charAt(targetStart - 1)) {
+                    baseStart--;
+                    targetStart--;
+                }
+                int len = p - targetStart + BLOCK;
+                while (targetStart + len < to && baseStart + len < base.length()
+                        && base.charAt(baseStart + len) == target.charAt(targetStart + len)) {
+                    len++;
+                }
+                insert(out, target, literal, targetStart);
+                copy(out, baseStart, len);
+                p = targetStart + len;
+                literal = p;
+                if (p + BLOCK <= to) {
+                    h = hash(target, p);
+                }
+                continue;
+            }
+            if (p + BLOCK < to) {
+                // 滚动哈希：移出 target[p]，移入 target[p + BLOCK]
+                h = (h - target.charAt(p) * pow) * PRIME + target.charAt(p + BLOCK);
+            }
+            p++;
+        }
+        insert(out, target, literal, to);
+    }
+
+    private static long hash(String s, int start) {
+        long h = 0;
+        for (int k = start; k < start + BLOCK; k++) {
+            h = h * PRIME + s.charAt(k);
+        }
+        return h;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int commonSuffix(String a, String b, int prefix) {
+        int max = Math.min(a.length(), b.length()) - prefix;
+        int i = 0;
+        while (i < max && a.charAt(a.length() - 1 - i) == b.charAt(b.length() - 1 - i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void copy(StringBuilder out, int offset, int len) {
+        out.append('c').append(offset).append(',').append(len).append(';');
+    }
+
+    private static void insert(StringBuilder out, String target, int from, int to) {
+        if (to > from) {
+            out.append('i').append(to - from).append(':').append(target, from, to);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.cowrite.project.netty;
+
+import io.netty.channel.ChannelHandler;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * netty 包下扫描到的 Bean 必须能被 Spring 装配：构造参数都能注入，ChannelHandler 必须可共享
+ */
+public class NettyComponentWiringTest {
+
+    @Test
+    public void testNettyComponentsAreWireable() throws Exception {
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+        scanner.addIncludeFilter(new AnnotationTypeFilter(Component.class));
+        List<String> problems = new ArrayList<>();
+        int scanned = 0;
+        for (BeanDefinition definition : scanner.findCandidateComponents("com.cowrite.project.netty")) {
+            Class<?> type = Class.forName(definition.getBeanClassName());
+            scanned++;
+            if (ChannelHandler.class.isAssignableFrom(type) && !type.isAnnotationPresent(ChannelHandler.Sharable.class)) {
+                problems.add(type.getSimpleName() + " is a per-channel handler but registered as a singleton bean");
+            }
+            Constructor<?> constructor = autowiredConstructor(type);
+            if (constructor == null) {
+                problems.add(type.getSimpleName() + " has no constructor Spring can choose");
+                continue;
+            }
+            for (Parameter parameter : constructor.getParameters()) {
+                Class<?> parameterType = parameter.getType();
+                boolean plain = parameterType.isPrimitive() || parameterType == String.class;
+                if (plain && !parameter.isAnnotationPresent(Value.class)) {
+                    problems.add(type.getSimpleName() + " takes a " + parameterType.getSimpleName()
+                            + " constructor argument that no bean can satisfy");
+                }
+            }
+        }
+        assertTrue(scanned > 0);
+        assertEquals(new ArrayList<String>(), problems);
+    }
+
+    /**
+     * 与 Spring 的选择一致：唯一的构造器、标注 @Autowired 的构造器，或者无参构造器
+     */
+    private static Constructor<?> autowiredConstructor(Class<?> type) {
+        Constructor<?>[] constructors = type.getDeclaredConstructors();
+        if (constructors.length == 1) {
+            return constructors[0];
+        }
+        Constructor<?> noArgs = null;
+        for (Constructor<?> constructor : constructors) {
+            if (constructor.isAnnotationPresent(Autowired.class)) {
+                return constructor;
+            }
+            if (constructor.getParameterCount() == 0) {
+                noArgs = constructor;
+            }
+        }
+        return noArgs;
+    }
+}
@@ -0,0 +1,146 @@
+package com.cowrite.project.netty.cluster;
+
+import com.cowrite.project.config.ClusterProperties;
+import com.cowrite.project.netty.handler.MessageHandler;
+import com.cowrite.project.netty.handler.MessageHandlerFactory;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.session.PresenceTracker;
+import com.cowrite.project.netty.session.SessionManager;
+import com.cowrite.project.netty.stream.DocumentExecutorManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ClusterRelayTest {
+
+    private static final String KEY = ClusterRelay.OWNER_KEY_PREFIX + "doc";
+
+    private ValueOperations<String, Object> values;
+    private RedisTemplate<String, Object> redisTemplate;
+    private SessionManager sessionManager;
+    private MessageHandlerFactory handlerFactory;
+    private DocumentExecutorManager executor;
+    private OTEngineRegistry engines;
+    private ClusterRelay relay;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        ClusterProperties props = new ClusterProperties();
+        ReflectionTestUtils.setField(props, "nodeId", "node-a");
+        ReflectionTestUtils.setField(props, "leaseMillis", 15000L);
+        ReflectionTestUtils.setField(props, "idleReleaseMillis", 0L);
+        redisTemplate = mock(RedisTemplate.class);
+        values = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        sessionManager = mock(SessionManager.class);
+        handlerFactory = mock(MessageHandlerFactory.class);
+        executor = mock(DocumentExecutorManager.class);
+        engines = new OTEngineRegistry();
+        relay = new ClusterRelay(props, redisTemplate, sessionManager, handlerFactory, executor, engines,
+                mock(PresenceTracker.class), new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void testExpiredLeaseBetweenSetAndGetIsRetried() {
+        when(values.setIfAbsent(eq(KEY), eq("node-a"), anyLong(), eq(TimeUnit.MILLISECONDS)))
+                .thenReturn(false, true);
+        when(values.get(KEY)).thenReturn(null);
+
+        assertEquals("node-a", relay.ownerOf("doc"));
+        verify(values, times(2)).setIfAbsent(eq(KEY), eq("node-a"), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testUnknownOwnerIsNotCached() {
+        when(values.setIfAbsent(eq(KEY), eq("node-a"), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(false);
+        when(values.get(KEY)).thenReturn(null);
+        assertNull(relay.ownerOf("doc"));
+
+        // 下一次查询重新访问 Redis，而不是沿用“自己是 owner”的缓存
+        when(values.get(KEY)).thenReturn("node-b");
+        assertEquals("node-b", relay.ownerOf("doc"));
+    }
+
+    @Test
+    public void testBusyForwardedOpIsRejectedToSender() {
+        when(handlerFactory.getHandler(MessageType.CONTENT_INSERT)).thenReturn(mock(MessageHandler.class));
+        when(executor.execute(eq("doc"), any())).thenReturn(false);
+        NettyMessage op = NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT)
+                .docId("doc")
+                .userId("u1")
+                .content("x")
+                .pos(0)
+                .build();
+        op.setClientId("c1");
+        op.setSeq(3L);
+        Message message = mock(Message.class);
+        when(message.getBody()).thenReturn(RelayCodec.encodeForward("node-b", op));
+
+        relay.onMessage(message, null);
+
+        // 与本地连接被拒绝时相同的 ERROR，经 owner 节点回到发送方连接
+        ArgumentCaptor<MessageResponse> reply = ArgumentCaptor.forClass(MessageResponse.class);
+        verify(sessionManager).sendMessageToConnection(eq("doc"), eq("u1"), eq("c1"), reply.capture());
+        assertEquals(MessageType.ERROR, reply.getValue().getType());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIdleDocReleasedAfterFinalFlush() {
+        ownDocWithInlineMailbox();
+        relay.setFinalFlush(docIds -> {
+            assertEquals(Collections.singleton("doc"), docIds);
+            return Collections.singleton("doc");
+        });
+
+        relay.renewLeases();
+
+        assertNull(engines.get("doc"));
+        verify(redisTemplate).execute(any(RedisScript.class), eq(Collections.singletonList(KEY)), eq("node-a"));
+        // 归属缓存已清除，下一次操作重新抢占
+        relay.ownerOf("doc");
+        verify(values, times(2)).setIfAbsent(eq(KEY), eq("node-a"), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIdleDocKeptWhenFinalFlushFails() {
+        ownDocWithInlineMailbox();
+        relay.setFinalFlush(docIds -> Collections.emptySet());
+
+        relay.renewLeases();
+
+        assertNotNull(engines.get("doc"));
+        verify(redisTemplate, never()).execute(any(RedisScript.class), anyList(), eq("node-a"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void ownDocWithInlineMailbox() {
+        when(values.setIfAbsent(eq(KEY), eq("node-a"), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+        doReturn(1L).when(redisTemplate).execute(any(RedisScript.class), anyList(), any(), any());
+        when(executor.execute(anyString(), any())).thenAnswer(invocation -> {
+            invocation.getArgument(1, Runnable.class).run();
+            return true;
+        });
+        assertEquals("node-a", relay.ownerOf("doc"));
+        engines.engineFor("doc");
+    }
+}
@@ -0,0 +1,91 @@
+package com.cowrite.project.netty.cluster;
+
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.BinaryCodec;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RelayCodecTest {
+
+    @Test
+    public void testForwardRoundTrip() {
+        NettyMessage insert = NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT)
+                .docId("doc-1")
+                .userId("u-1")
+                .content("hello")
+                .pos(3)
+                .revision(7L)
+                .build();
+        insert.setClientId("conn-1");
+        insert.setSeq(12L);
+        insert.setPermission(PermissionLevel.EDIT);
+
+        RelayCodec.Envelope envelope = RelayCodec.decode(RelayCodec.encodeForward("node-a", insert));
+
+        assertEquals(RelayCodec.FORWARD, envelope.kind);
+        assertEquals("node-a", envelope.origin);
+        assertEquals("doc-1", envelope.docId);
+        assertNull(envelope.userId);
+        assertEquals(insert.toString(), envelope.message.toString());
+        assertEquals(PermissionLevel.EDIT, envelope.message.getPermission());
+    }
+
+    @Test
+    public void testForwardWithoutPermissionFromOlderNode() {
+        NettyMessage insert = NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT)
+                .docId("doc-1")
+                .content("a")
+                .build();
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(RelayCodec.FORWARD);
+        BinaryCodec.writeNullableString(buf, "node-a");
+        BinaryCodec.writeNullableString(buf, "doc-1");
+        BinaryCodec.writeNullableString(buf, null);
+        BinaryCodec.encodeMessage(insert, new BinaryCodec.StringTable(), buf);
+        BinaryCodec.writeNullableString(buf, "conn-1");
+        buf.writeLong(3L);
+
+        RelayCodec.Envelope envelope = RelayCodec.decode(ByteBufUtil.getBytes(buf));
+
+        assertEquals("a", envelope.message.getContent());
+        assertEquals(Long.valueOf(3L), envelope.message.getSeq());
+        // 没有随操作携带的权限，owner 回退到查询
+        assertNull(envelope.message.getPermission());
+    }
+
+    @Test
+    public void testBroadcastRoundTrip() {
+        MessageResponse response = new MessageResponse.Builder()
+                .docId("doc-1")
+                .userId("u-1")
+                .type(MessageType.CONTENT_DELETE)
+                .putPayload("pos", 4)
+                .putPayload("length", 2)
+                .build();
+
+        RelayCodec.Envelope envelope = RelayCodec.decode(
+                RelayCodec.encodeResponse(RelayCodec.BROADCAST, "node-b", "doc-1", "u-1", response));
+
+        assertEquals(RelayCodec.BROADCAST, envelope.kind);
+        assertEquals("node-b", envelope.origin);
+        assertEquals("u-1", envelope.userId);
+        assertEquals(MessageType.CONTENT_DELETE, envelope.response.getType());
+        assertEquals(4, ((Number) envelope.response.getPayload().get("pos")).intValue());
+        assertEquals(2, ((Number) envelope.response.getPayload().get("length")).intValue());
+    }
+
+    @Test
+    public void testUnknownKindRejected() {
+        assertThrows(CorruptedFrameException.class, () -> RelayCodec.decode(new byte[]{9, 0, 0, 0}));
+    }
+}
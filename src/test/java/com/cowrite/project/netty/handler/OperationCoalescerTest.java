@@ -0,0 +1,170 @@
+package com.cowrite.project.netty.handler;
+
+import com.cowrite.project.config.OperationCoalescerProperties;
+import com.cowrite.project.netty.ot.DocumentBuffer;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationCoalescerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DefaultEventExecutor executor = new DefaultEventExecutor();
+    private final List<NettyMessage> emitted = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testMergesTypingAndBackspace() {
+        NettyMessage typed = insert(5, "a");
+        assertTrue(OperationCoalescer.merge(typed, insert(6, "b"), 512));
+        assertTrue(OperationCoalescer.merge(typed, insert(7, "c"), 512));
+        assertEquals("abc", typed.getContent());
+        assertEquals(5, typed.getPos());
+        // 跳到别处输入、或基线版本变化时不合并
+        assertFalse(OperationCoalescer.merge(typed, insert(3, "d"), 512));
+        NettyMessage otherBase = insert(8, "d");
+        otherBase.setRevision(8L);
+        assertFalse(OperationCoalescer.merge(typed, otherBase, 512));
+        assertFalse(OperationCoalescer.merge(typed, insert(8, "d"), 3));
+
+        NettyMessage backspace = delete(9, 1);
+        assertTrue(OperationCoalescer.merge(backspace, delete(8, 1), 512));
+        assertTrue(OperationCoalescer.merge(backspace, delete(7, 1), 512));
+        assertEquals(7, backspace.getPos());
+        assertEquals(3, backspace.getLength());
+
+        NettyMessage forward = delete(4, 1);
+        assertTrue(OperationCoalescer.merge(forward, delete(4, 1), 512));
+        assertEquals(4, forward.getPos());
+        assertEquals(2, forward.getLength());
+        assertFalse(OperationCoalescer.merge(forward, insert(4, "x"), 512));
+    }
+
+    @Test
+    public void testMergedOpsProduceSameDocument() {
+        String base = "hello world";
+        NettyMessage[] ops = {insert(5, ","), insert(6, " big"), delete(10, 1), delete(9, 1), delete(8, 1)};
+
+        DocumentBuffer oneByOne = DocumentBuffer.of(base);
+        for (NettyMessage op : ops) {
+            apply(oneByOne, op);
+        }
+
+        DocumentBuffer merged = DocumentBuffer.of(base);
+        NettyMessage pending = null;
+        for (NettyMessage op : ops) {
+            if (pending == null || !OperationCoalescer.merge(pending, op, 512)) {
+                if (pending != null) {
+                    apply(merged, pending);
+                }
+                pending = new NettyMessage(op);
+            }
+        }
+        apply(merged, pending);
+        assertEquals(oneByOne.toString(), merged.toString());
+    }
+
+    @Test
+    public void testWindowBoundsLatencyAndRecordsRatio() throws Exception {
+        OperationCoalescer coalescer = newCoalescer(true, 50);
+        OperationCoalescer.Buffer buffer = coalescer.open(executor, emitted::add);
+        executor.submit(() -> {
+            for (int i = 0; i < 10; i++) {
+                buffer.offer(insert(i, String.valueOf((char) ('a' + i))));
+            }
+        }).get();
+        assertTrue(emitted.isEmpty());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (emitted.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, emitted.size());
+        assertEquals("abcdefghij", emitted.get(0).getContent());
+        assertEquals(10.0, registry.get("cowrite.ot.coalesce.ratio").gauge().value());
+        assertEquals(10.0, registry.get("cowrite.ot.coalesce.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    public void testFlushKeepsOrderAndDisabledPassesThrough() throws Exception {
+        OperationCoalescer coalescer = newCoalescer(true, 10_000);
+        OperationCoalescer.Buffer buffer = coalescer.open(executor, emitted::add);
+        executor.submit(() -> {
+            buffer.offer(insert(0, "a"));
+            buffer.offer(insert(1, "b"));
+            buffer.offer(delete(0, 1));
+            buffer.flush();
+        }).get();
+        assertEquals(2, emitted.size());
+        assertEquals("ab", emitted.get(0).getContent());
+        assertEquals(MessageType.CONTENT_DELETE, emitted.get(1).getOperationType());
+
+        emitted.clear();
+        OperationCoalescer.Buffer passThrough = newCoalescer(false, 100).open(executor, emitted::add);
+        executor.submit(() -> {
+            passThrough.offer(insert(0, "a"));
+            passThrough.offer(insert(1, "b"));
+        }).get();
+        assertEquals(2, emitted.size());
+    }
+
+    @Test
+    public void testReachingMaxLengthEmitsWithoutWaiting() throws Exception {
+        OperationCoalescer coalescer = newCoalescer(true, 10_000);
+        OperationCoalescer.Buffer buffer = coalescer.open(executor, emitted::add);
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 512; i++) {
+            longText.append('x');
+        }
+        executor.submit(() -> {
+            buffer.offer(insert(0, longText.substring(0, 500)));
+            buffer.offer(insert(500, longText.substring(500)));
+            buffer.offer(insert(512, longText.toString()));
+        }).get();
+        assertEquals(2, emitted.size());
+        assertEquals(512, emitted.get(0).getContent().length());
+        assertEquals(512, emitted.get(1).getContent().length());
+    }
+
+    private OperationCoalescer newCoalescer(boolean enabled, long windowMillis) {
+        OperationCoalescerProperties props = new OperationCoalescerProperties();
+        ReflectionTestUtils.setField(props, "enabled", enabled);
+        ReflectionTestUtils.setField(props, "windowMillis", windowMillis);
+        ReflectionTestUtils.setField(props, "maxLength", 512);
+        return new OperationCoalescer(props, registry);
+    }
+
+    private static void apply(DocumentBuffer doc, NettyMessage op) {
+        if (op.getOperationType() == MessageType.CONTENT_INSERT) {
+            doc.insert(op.getPos(), op.getContent());
+        } else {
+            doc.delete(op.getPos(), op.getPos() + op.getLength());
+        }
+    }
+
+    private static NettyMessage insert(int pos, String content) {
+        NettyMessage message = new NettyMessage(MessageType.CONTENT_INSERT, "doc", "alice", content, null, pos, null, null, 0L, true);
+        message.setRevision(7L);
+        return message;
+    }
+
+    private static NettyMessage delete(int pos, int length) {
+        NettyMessage message = new NettyMessage(MessageType.CONTENT_DELETE, "doc", "alice", null, length, pos, null, null, 0L, true);
+        message.setRevision(7L);
+        return message;
+    }
+}
@@ -0,0 +1,103 @@
+package com.cowrite.project.netty.handler;
+
+import com.cowrite.project.config.OperationCoalescerProperties;
+import com.cowrite.project.netty.cluster.ClusterRelay;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.session.DocumentAccess;
+import com.cowrite.project.netty.session.SessionManager;
+import com.cowrite.project.netty.stream.DocumentExecutorManager;
+import com.cowrite.project.netty.stream.NettyStreamProducer;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ServerHandlerTest {
+
+    private NettyStreamProducer streamProducer;
+
+    private MessageHandlerFactory handlerFactory;
+
+    @BeforeEach
+    public void setUp() {
+        streamProducer = mock(NettyStreamProducer.class);
+        when(streamProducer.offerToStream(any(NettyMessage.class))).thenReturn(true);
+        handlerFactory = mock(MessageHandlerFactory.class);
+        when(handlerFactory.getHandler(MessageType.CONTENT_INSERT)).thenReturn(mock(MessageHandler.class));
+    }
+
+    @Test
+    public void testViewerEditRejectedBeforeStream() {
+        EmbeddedChannel channel = channel(PermissionLevel.VIEW);
+
+        channel.writeInbound(new TextWebSocketFrame(insert()));
+
+        verify(streamProducer, never()).offerToStream(any(NettyMessage.class));
+        TextWebSocketFrame frame = channel.readOutbound();
+        MessageResponse error = MessageResponse.fromJson(frame.text());
+        frame.release();
+        assertEquals(MessageType.ERROR, error.getType());
+    }
+
+    @Test
+    public void testBoundPermissionTravelsWithOp() {
+        EmbeddedChannel channel = channel(PermissionLevel.EDIT);
+
+        // 客户端自报的权限被覆盖
+        channel.writeInbound(new TextWebSocketFrame(insert().replace("}", ",\"permission\":\"ADMIN\"}")));
+
+        ArgumentCaptor<NettyMessage> offered = ArgumentCaptor.forClass(NettyMessage.class);
+        verify(streamProducer).offerToStream(offered.capture());
+        assertEquals(PermissionLevel.EDIT, offered.getValue().getPermission());
+        // 写入 Stream 的 JSON 中保留权限
+        assertEquals(PermissionLevel.EDIT, NettyMessage.fromJson(offered.getValue().toJson()).getPermission());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testClientPermissionIgnoredWithoutHandshakeAuth() {
+        EmbeddedChannel channel = channel(null);
+
+        channel.writeInbound(new TextWebSocketFrame(insert().replace("}", ",\"permission\":\"ADMIN\"}")));
+
+        ArgumentCaptor<NettyMessage> offered = ArgumentCaptor.forClass(NettyMessage.class);
+        verify(streamProducer).offerToStream(offered.capture());
+        // 处理器回退到查询
+        assertNull(offered.getValue().getPermission());
+    }
+
+    private EmbeddedChannel channel(PermissionLevel level) {
+        ServerHandler handler = new ServerHandler(new SessionManager(), null, null, handlerFactory,
+                mock(DocumentExecutorManager.class),
+                new OperationCoalescer(new OperationCoalescerProperties(), new SimpleMeterRegistry()),
+                mock(ClusterRelay.class), new OTEngineRegistry(), streamProducer, true);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        if (level != null) {
+            channel.attr(DocumentAccess.KEY).set(new DocumentAccess("u-1", "doc", level));
+        }
+        channel.pipeline().addLast(handler);
+        return channel;
+    }
+
+    private static String insert() {
+        return NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT)
+                .docId("doc")
+                .userId("u-1")
+                .content("a")
+                .pos(0)
+                .revision(0L)
+                .build()
+                .toJson();
+    }
+}
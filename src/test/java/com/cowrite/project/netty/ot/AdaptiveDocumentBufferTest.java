@@ -0,0 +1,93 @@
+package com.cowrite.project.netty.ot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveDocumentBufferTest {
+
+    @Test
+    public void testSmallDocumentStaysFlat() {
+        AdaptiveDocumentBuffer buffer = new AdaptiveDocumentBuffer("hello");
+        buffer.insert(5, " world");
+        assertFalse(buffer.isRope());
+        assertEquals("hello world", buffer.toString());
+    }
+
+    @Test
+    public void testSwitchesToRopeAndBackWithHysteresis() {
+        AdaptiveDocumentBuffer buffer = new AdaptiveDocumentBuffer();
+        buffer.insert(0, repeat('a', AdaptiveDocumentBuffer.ROPE_THRESHOLD));
+        assertFalse(buffer.isRope());
+        buffer.insert(0, "b");
+        assertTrue(buffer.isRope());
+
+        // 回落到两个阈值之间仍保持 rope
+        buffer.delete(0, AdaptiveDocumentBuffer.ROPE_THRESHOLD - AdaptiveDocumentBuffer.FLAT_THRESHOLD);
+        assertTrue(buffer.isRope());
+        buffer.delete(0, 2);
+        assertFalse(buffer.isRope());
+        assertEquals(AdaptiveDocumentBuffer.FLAT_THRESHOLD - 1, buffer.length());
+    }
+
+    @Test
+    public void testLargeInitialTextStartsAsRope() {
+        assertTrue(new AdaptiveDocumentBuffer(repeat('a', AdaptiveDocumentBuffer.ROPE_THRESHOLD + 1)).isRope());
+        assertFalse(((AdaptiveDocumentBuffer) DocumentBuffer.of("abc")).isRope());
+    }
+
+    @Test
+    public void testSnapshotIsIsolatedAcrossSwitch() {
+        AdaptiveDocumentBuffer buffer = new AdaptiveDocumentBuffer("version-1");
+        DocumentBuffer snapshot = buffer.snapshot();
+        buffer.insert(0, repeat('x', AdaptiveDocumentBuffer.ROPE_THRESHOLD));
+        assertTrue(buffer.isRope());
+        assertEquals("version-1", snapshot.toString());
+    }
+
+    @Test
+    public void testRandomOperationsMatchStringBuilder() {
+        Random random = new Random(42);
+        AdaptiveDocumentBuffer buffer = new AdaptiveDocumentBuffer();
+        StringBuilderDocumentBuffer expected = new StringBuilderDocumentBuffer();
+        boolean sawRope = false;
+        boolean sawFlatAfterRope = false;
+        for (int i = 0; i < 5000; i++) {
+            int len = expected.length();
+            if (len == 0 || random.nextInt(2) > 0) {
+                int pos = random.nextInt(len + 1);
+                String text = repeat((char) ('a' + random.nextInt(26)), 1 + random.nextInt(200));
+                buffer.insert(pos, text);
+                expected.insert(pos, text);
+            } else {
+                int start = random.nextInt(len);
+                int end = start + 1 + random.nextInt(Math.min(len - start, 400));
+                buffer.delete(start, end);
+                expected.delete(start, end);
+            }
+            if (i == 2500) {
+                // 先长到阈值以上，再删回阈值以下
+                String text = repeat('z', AdaptiveDocumentBuffer.ROPE_THRESHOLD);
+                buffer.insert(0, text);
+                expected.insert(0, text);
+                sawRope = buffer.isRope();
+                buffer.delete(0, text.length());
+                expected.delete(0, text.length());
+                sawFlatAfterRope = !buffer.isRope();
+            }
+            assertEquals(expected.length(), buffer.length());
+        }
+        assertTrue(sawRope);
+        assertTrue(sawFlatAfterRope);
+        assertEquals(expected.toString(), buffer.toString());
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,71 @@
+package com.cowrite.project.netty.ot;
+
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * DocumentBuffer 微基准：在 10KB ~ 10MB 文档上模拟随机位置的逐字输入与删除，
+ * 中间几档用于确定 {@link AdaptiveDocumentBuffer} 的切换阈值。
+ * <p>
+ * 非单元测试（不会被 surefire 执行），手动运行：
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.cowrite.project.netty.ot.DocumentBufferBenchmark
+ * </pre>
+ */
+public class DocumentBufferBenchmark {
+
+    private static final int[] SIZES = {10 * 1024, 32 * 1024, 64 * 1024, 128 * 1024, 256 * 1024,
+            1024 * 1024, 10 * 1024 * 1024};
+    private static final int OPS = 20_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        System.out.printf("%-14s %-10s %14s %12s%n", "impl", "size", "ns/op", "snapshot ns");
+        for (int size : SIZES) {
+            String initial = randomText(new Random(size), size);
+            run("StringBuilder", size, initial, StringBuilderDocumentBuffer::new);
+            run("Rope", size, initial, RopeDocumentBuffer::new);
+            run("Adaptive", size, initial, AdaptiveDocumentBuffer::new);
+        }
+    }
+
+    private static void run(String name, int size, String initial, Function<String, DocumentBuffer> factory) {
+        long best = Long.MAX_VALUE;
+        long bestSnapshot = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            DocumentBuffer buffer = factory.apply(initial);
+            Random random = new Random(7);
+            long start = System.nanoTime();
+            for (int i = 0; i < OPS; i++) {
+                int pos = random.nextInt(buffer.length());
+                if ((i & 3) == 3) {
+                    buffer.delete(pos, pos + 1);
+                } else {
+                    buffer.insert(pos, "x");
+                }
+            }
+            best = Math.min(best, (System.nanoTime() - start) / OPS);
+
+            long snapStart = System.nanoTime();
+            DocumentBuffer snapshot = buffer.snapshot();
+            bestSnapshot = Math.min(bestSnapshot, System.nanoTime() - snapStart);
+            if (snapshot.length() != buffer.length()) {
+                throw new IllegalStateException("snapshot mismatch");
+            }
+        }
+        System.out.printf("%-14s %-10s %14d %12d%n", name, humanSize(size), best, bestSnapshot);
+    }
+
+    private static String humanSize(int size) {
+        return size >= 1024 * 1024 ? (size / (1024 * 1024)) + "MB" : (size / 1024) + "KB";
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
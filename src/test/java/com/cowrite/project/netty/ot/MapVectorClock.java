@@ -0,0 +1,52 @@
+package com.cowrite.project.netty.ot;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 旧版基于 Map 的向量时钟，仅用作 {@link VectorClock} 的对照实现。
+ */
+class MapVectorClock {
+    private final Map<String, Long> time = new ConcurrentHashMap<>();
+    final String selfId;
+
+    MapVectorClock(String selfId) {
+        this.selfId = selfId;
+        time.put(selfId, 0L);
+    }
+
+    void tick() {
+        time.merge(selfId, 1L, Long::sum);
+    }
+
+    void advance(MapVectorClock other) {
+        other.time.forEach((k, v) -> time.merge(k, v, Math::max));
+    }
+
+    boolean canAdvance(MapVectorClock other) {
+        for (Map.Entry<String, Long> e : other.time.entrySet()) {
+            if (e.getKey().equals(other.selfId)) continue;
+            if (time.getOrDefault(e.getKey(), 0L) < e.getValue()) return false;
+        }
+        return true;
+    }
+
+    boolean happenedBefore(MapVectorClock other) {
+        boolean less = false;
+        Set<String> keys = new HashSet<>(time.keySet());
+        keys.addAll(other.time.keySet());
+        for (String u : keys) {
+            long a = time.getOrDefault(u, 0L);
+            long b = other.time.getOrDefault(u, 0L);
+            if (a > b) return false;
+            if (a < b) less = true;
+        }
+        return less;
+    }
+
+    boolean isConcurrent(MapVectorClock other) {
+        return !happenedBefore(other) && !other.happenedBefore(this);
+    }
+}
@@ -0,0 +1,441 @@
+package com.cowrite.project.netty.ot;
+
+import com.cowrite.project.netty.handler.OperationReplies;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * OT 收敛性模拟器：N 个客户端与一个真实的 {@link OTEngine} 之间通过带随机延迟的 FIFO 链路通信。
+ * <p>
+ * 客户端协议（与服务端按 baseRevision 变换的约定一致）：
+ * 同一时刻最多一个已发送未确认的操作，其余本地操作缓冲；收到服务端广播时对未确认和缓冲操作做双向变换，
+ * 收到确认后发送下一个缓冲操作。所有消息送达后检查每个副本与服务端文档一致。
+ * <p>
+ * 服务端下发的是内容处理器实际发送的消息（{@link OperationReplies}）：发送方收到带版本号的 OPERATION_ACK，
+ * 其他客户端收到变换后的操作，基线被回收时发送方收到 ERROR 并按快照重新同步；引擎使用有界历史。
+ * 每个客户端是一个连接，操作带上服务端分配的连接 ID 与序号（与 ServerHandler 一致），确认只发给提交的连接。
+ * <p>
+ * connectionsPerUser 大于 1 时模拟前端的实际情况：同一用户在多个标签页中编辑，并且一次编辑可能是
+ * 替换（编辑器按新旧文本比较得到“先删后插”两个操作，依次进入缓冲）。前端 DocumnetEdit.vue 的协同逻辑与这里的
+ * Client 一一对应。
+ * <p>
+ * typing 为 true 时客户端大多在光标处逐字输入或退格（编辑器每次按键产生一个操作），
+ * 等待确认期间的连续按键与前端 OtClient 一样合并进缓冲区的最后一个操作（{@link #mergeOps}）。
+ * <p>
+ * 直接运行 main 可输出不同规模下的收敛结果以及每类变换的吞吐（ops/sec）。
+ */
+public class OTConvergenceHarness {
+
+    /**
+     * 与前端 ot.ts 的 MAX_MERGE_LENGTH 一致
+     */
+    private static final int MAX_MERGE_LENGTH = 512;
+
+    private final Random random;
+    private final int clientCount;
+    private final int opsPerClient;
+    private final int maxLatency;
+    private final int maxHistory;
+    private final int connectionsPerUser;
+    private boolean typing;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long seq;
+    private long now;
+    private int resyncs;
+    private long localEdits;
+    private long opsSent;
+
+    private OTEngine server;
+    private List<Client> clients;
+
+    public OTConvergenceHarness(long seed, int clientCount, int opsPerClient, int maxLatency) {
+        this(seed, clientCount, opsPerClient, maxLatency, OTEngine.DEFAULT_MAX_HISTORY);
+    }
+
+    public OTConvergenceHarness(long seed, int clientCount, int opsPerClient, int maxLatency, int maxHistory) {
+        this(seed, clientCount, opsPerClient, maxLatency, maxHistory, 1);
+    }
+
+    public OTConvergenceHarness(long seed, int clientCount, int opsPerClient, int maxLatency, int maxHistory,
+                                int connectionsPerUser) {
+        this.connectionsPerUser = Math.max(1, connectionsPerUser);
+        this.random = new Random(seed);
+        this.clientCount = clientCount;
+        this.opsPerClient = opsPerClient;
+        this.maxLatency = maxLatency;
+        this.maxHistory = maxHistory;
+    }
+
+    /**
+     * 模拟逐字输入：客户端在光标处连续输入或退格，等待确认期间的按键在本地合并
+     */
+    public OTConvergenceHarness typing() {
+        this.typing = true;
+        return this;
+    }
+
+    /**
+     * 运行一次模拟
+     *
+     * @return 不一致的副本描述，全部收敛时返回 null
+     */
+    public String run() {
+        String initial = randomText(20);
+        server = new OTEngine(DocumentBuffer.of(initial), maxHistory);
+        clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            Client client = new Client("user-" + i / connectionsPerUser, "conn-" + i, initial);
+            clients.add(client);
+            // 逐字输入时按键间隔远小于往返延迟
+            int span = typing ? opsPerClient * maxLatency / 4 : opsPerClient * maxLatency;
+            for (int n = 0; n < opsPerClient; n++) {
+                schedule(random.nextInt(span + 1), () -> client.edit());
+            }
+        }
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+        }
+        String expected = server.getDocument();
+        for (Client client : clients) {
+            if (!expected.equals(client.doc.toString())) {
+                return client.id + " diverged: expected [" + expected + "] but was [" + client.doc + "]";
+            }
+        }
+        return null;
+    }
+
+    public long serverRevision() {
+        return server.getRevision();
+    }
+
+    /**
+     * 因基线版本被回收而重新同步的次数
+     */
+    public int resyncs() {
+        return resyncs;
+    }
+
+    /**
+     * 客户端产生的本地操作数（逐个按键）
+     */
+    public long localEdits() {
+        return localEdits;
+    }
+
+    /**
+     * 客户端实际发送给服务端的操作数，本地合并后小于 {@link #localEdits()}
+     */
+    public long opsSent() {
+        return opsSent;
+    }
+
+    public int serverHistorySize() {
+        return server.getHistorySize();
+    }
+
+    private void schedule(long delay, Runnable action) {
+        events.add(new Event(now + delay, seq++, action));
+    }
+
+    private long deliver(long linkFree, Runnable action) {
+        // 同一链路保持 FIFO
+        long at = Math.max(now + 1 + random.nextInt(maxLatency), linkFree);
+        events.add(new Event(at, seq++, action));
+        return at;
+    }
+
+    private void serverReceive(Client from, Operation op) {
+        Operation received = op.copy();
+        if (!server.receive(received)) {
+            resyncs++;
+            MessageResponse resync = OperationReplies.resync(received, server);
+            from.downLink = deliver(from.downLink, () -> from.onMessage(resync));
+            return;
+        }
+        MessageResponse ack = OperationReplies.ack(received);
+        List<MessageResponse> broadcast = OperationReplies.broadcast(received);
+        for (Client client : clients) {
+            if (client == from) {
+                client.downLink = deliver(client.downLink, () -> client.onMessage(ack));
+                continue;
+            }
+            for (MessageResponse part : broadcast) {
+                client.downLink = deliver(client.downLink, () -> client.onMessage(part));
+            }
+        }
+    }
+
+    private final class Client {
+        final String id;
+        final String connectionId;
+        final DocumentBuffer doc;
+        long revision;
+        long nextSeq = 1;
+        Operation outstanding;
+        final Deque<Operation> buffer = new ArrayDeque<>();
+        long upLink;
+        long downLink;
+        int caret;
+
+        Client(String id, String connectionId, String initial) {
+            this.id = id;
+            this.connectionId = connectionId;
+            this.doc = new StringBuilderDocumentBuffer(initial);
+        }
+
+        void edit() {
+            int len = doc.length();
+            if (typing && random.nextInt(10) < 8) {
+                // 在光标处输入一个字符，或退格删除光标前的一个字符
+                caret = Math.min(caret, len);
+                if (caret > 0 && random.nextInt(4) == 0) {
+                    caret--;
+                    local(operation(MessageType.CONTENT_DELETE, null, 1, caret));
+                } else {
+                    local(operation(MessageType.CONTENT_INSERT, randomText(1), 0, caret));
+                    caret++;
+                }
+                return;
+            }
+            caret = len == 0 ? 0 : random.nextInt(len + 1);
+            if (len == 0 || random.nextInt(5) < 3) {
+                local(operation(MessageType.CONTENT_INSERT, randomText(1 + random.nextInt(3)), 0, random.nextInt(len + 1)));
+                return;
+            }
+            int pos = random.nextInt(len);
+            local(operation(MessageType.CONTENT_DELETE, null, 1 + random.nextInt(Math.min(5, len - pos)), pos));
+            if (connectionsPerUser > 1 && random.nextBoolean()) {
+                // 选中一段后输入：编辑器的一次变更产生先删后插两个操作
+                local(operation(MessageType.CONTENT_INSERT, randomText(1 + random.nextInt(3)), 0, pos));
+            }
+        }
+
+        void local(Operation op) {
+            localEdits++;
+            Transformer.apply(doc, op);
+            if (outstanding == null) {
+                send(op);
+            } else if (buffer.isEmpty() || !mergeOps(buffer.peekLast(), op)) {
+                buffer.add(op);
+            }
+        }
+
+        void send(Operation op) {
+            opsSent++;
+            op.baseRevision = revision;
+            outstanding = op;
+            Operation wire = op.copy();
+            // 服务端按连接分配的操作编号
+            wire.clientId = connectionId;
+            wire.seq = nextSeq++;
+            upLink = deliver(upLink, () -> serverReceive(this, wire));
+        }
+
+        void onMessage(MessageResponse message) {
+            Map<String, Object> payload = message.getPayload();
+            long messageRevision = ((Number) payload.get("revision")).longValue();
+            if (message.getType() == MessageType.OPERATION_ACK) {
+                ack(messageRevision);
+            } else if (message.getType() == MessageType.ERROR) {
+                resync(messageRevision, (String) payload.get("content"));
+            } else if (messageRevision > revision) {
+                // 重新同步之前发出的广播已经包含在快照里
+                Operation remote = new Operation(message.getDocId(), message.getUserId(), message.getType(),
+                        (String) payload.get("content"), ((Number) payload.get("length")).intValue(),
+                        ((Number) payload.get("pos")).intValue(), message.getTimestamp(), null, -1);
+                remote.revision = messageRevision;
+                receive(remote);
+            }
+        }
+
+        void receive(Operation remote) {
+            Operation s = remote;
+            if (outstanding != null) {
+                Operation local = outstanding;
+                outstanding = Transformer.transformed(local, s);
+                s = Transformer.transformedRemote(s, local);
+            }
+            int size = buffer.size();
+            for (int i = 0; i < size; i++) {
+                Operation local = buffer.poll();
+                // 被拆开的删除按段逐个发送，后一段基于前一段
+                for (Operation part = Transformer.transformed(local, s); part != null; part = part.next) {
+                    buffer.add(part.part(part.content, part.length, part.pos));
+                }
+                s = Transformer.transformedRemote(s, local);
+            }
+            Transformer.apply(doc, s);
+            for (Operation part = s; part != null; part = part.next) {
+                caret = moveCaret(caret, part);
+            }
+            revision = remote.revision;
+        }
+
+        void ack(long ackRevision) {
+            outstanding = null;
+            revision = ackRevision;
+            if (!buffer.isEmpty()) {
+                send(buffer.poll());
+            }
+        }
+
+        void resync(long snapshotRevision, String content) {
+            // 与前端一致：丢弃未确认和缓冲的本地操作，整体替换为服务端快照
+            doc.delete(0, doc.length());
+            doc.insert(0, content);
+            revision = snapshotRevision;
+            outstanding = null;
+            buffer.clear();
+        }
+
+        /**
+         * 远端操作应用后光标的位置：之前的插入右移光标，删除区间内的光标落到区间起点
+         */
+        int moveCaret(int at, Operation remote) {
+            if (remote.type == MessageType.CONTENT_INSERT) {
+                return remote.pos < at ? at + remote.content.length() : at;
+            }
+            if (at <= remote.pos) {
+                return at;
+            }
+            return Math.max(remote.pos, at - remote.length);
+        }
+
+        Operation operation(MessageType type, String content, int length, int pos) {
+            return new Operation("doc", id, type, content, length, pos, now, null, -1);
+        }
+    }
+
+    /**
+     * 与前端 ot.ts 的 mergeOps 一致：把紧接在 last 之后的本地操作 next 合并进 last（原地修改）
+     *
+     * @return false 表示不可合并，last 保持不变
+     */
+    static boolean mergeOps(Operation last, Operation next) {
+        if (last.type != next.type || !last.userId.equals(next.userId)) {
+            return false;
+        }
+        if (last.type == MessageType.CONTENT_INSERT) {
+            if (next.pos != last.pos + last.content.length()
+                    || last.content.length() + next.content.length() > MAX_MERGE_LENGTH) {
+                return false;
+            }
+            last.content = last.content + next.content;
+            return true;
+        }
+        if (last.length <= 0 || next.length <= 0 || last.length + next.length > MAX_MERGE_LENGTH) {
+            return false;
+        }
+        if (next.pos + next.length == last.pos) {
+            // 退格：删除区间向前延伸
+            last.pos = next.pos;
+        } else if (next.pos != last.pos) {
+            return false;
+        }
+        last.length += next.length;
+        return true;
+    }
+
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long seq;
+        final Runnable action;
+
+        Event(long time, long seq, Runnable action) {
+            this.time = time;
+            this.seq = seq;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            return time != o.time ? Long.compare(time, o.time) : Long.compare(seq, o.seq);
+        }
+    }
+
+    private String randomText(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    // ========================================================================
+    // 手动运行：收敛结果 + 每类变换吞吐
+    // ========================================================================
+
+    public static void main(String[] args) {
+        for (int clients : new int[]{2, 8, 32}) {
+            int failures = 0;
+            long ops = 0;
+            long start = System.nanoTime();
+            for (long seed = 0; seed < 200; seed++) {
+                OTConvergenceHarness harness = new OTConvergenceHarness(seed, clients, 50, 20);
+                if (harness.run() != null) {
+                    failures++;
+                }
+                ops += harness.serverRevision();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("clients=%-3d runs=200 ops=%-8d diverged=%-3d simulated ops/sec=%.0f%n",
+                    clients, ops, failures, ops / seconds);
+        }
+
+        String[][] pairs = {
+                {"insert/insert", "CONTENT_INSERT", "CONTENT_INSERT"},
+                {"insert/delete", "CONTENT_INSERT", "CONTENT_DELETE"},
+                {"delete/insert", "CONTENT_DELETE", "CONTENT_INSERT"},
+                {"delete/delete", "CONTENT_DELETE", "CONTENT_DELETE"},
+        };
+        for (String[] pair : pairs) {
+            System.out.printf("%-14s %,.0f ops/sec%n", pair[0],
+                    transformThroughput(MessageType.valueOf(pair[1]), MessageType.valueOf(pair[2])));
+        }
+    }
+
+    private static double transformThroughput(MessageType opType, MessageType prevType) {
+        Random random = new Random(11);
+        int n = 4096;
+        Operation[] ops = new Operation[n];
+        Operation[] prevs = new Operation[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = new Operation("doc", "a", opType, "xy", 1 + random.nextInt(8), random.nextInt(100), 0, null, -1);
+            prevs[i] = new Operation("doc", "b", prevType, "xyz", 1 + random.nextInt(8), random.nextInt(100), 0, null, -1);
+        }
+        long sink = 0;
+        long iterations = 0;
+        long start = System.nanoTime();
+        long deadline = start + 500_000_000L;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < n; i++) {
+                Operation op = ops[i];
+                int pos = op.pos;
+                int length = op.length;
+                String content = op.content;
+                Transformer.transform(op, prevs[i]);
+                sink += op.pos;
+                op.pos = pos;
+                op.length = length;
+                op.content = content;
+                op.next = null;
+            }
+            iterations += n;
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        return iterations / ((System.nanoTime() - start) / 1e9);
+    }
+}
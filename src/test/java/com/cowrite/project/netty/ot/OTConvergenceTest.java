@@ -0,0 +1,66 @@
+package com.cowrite.project.netty.ot;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OTConvergenceTest {
+
+    @Test
+    public void testTwoClientsConverge() {
+        for (long seed = 0; seed < 200; seed++) {
+            assertNull(new OTConvergenceHarness(seed, 2, 40, 10).run(), "seed " + seed);
+        }
+    }
+
+    @Test
+    public void testManyClientsWithHighLatencyConverge() {
+        for (long seed = 0; seed < 50; seed++) {
+            assertNull(new OTConvergenceHarness(seed, 10, 30, 50).run(), "seed " + seed);
+        }
+    }
+
+    @Test
+    public void testSameUserInSeveralTabsConverges() {
+        // 与前端一致：两个用户各开两个标签页，选中替换产生先删后插的连续操作
+        for (long seed = 0; seed < 200; seed++) {
+            OTConvergenceHarness harness = new OTConvergenceHarness(seed, 4, 40, 20, OTEngine.DEFAULT_MAX_HISTORY, 2);
+            assertNull(harness.run(), "seed " + seed);
+        }
+    }
+
+    @Test
+    public void testTypingMergedInLocalBufferConverges() {
+        // 与前端 OtClient 一致：等待确认期间的连续按键合并进缓冲区，确认后以新的版本号作为一个操作发送
+        long edits = 0;
+        long sent = 0;
+        for (long seed = 0; seed < 200; seed++) {
+            OTConvergenceHarness harness = new OTConvergenceHarness(seed, 3, 60, 20).typing();
+            assertNull(harness.run(), "seed " + seed);
+            edits += harness.localEdits();
+            sent += harness.opsSent();
+        }
+        assertTrue(sent * 4 < edits * 3, "sent " + sent + " of " + edits);
+    }
+
+    @Test
+    public void testSoloEditorKeepsEditingPastHistoryLimit() {
+        // 确认推进 baseRevision 后，单人编辑超过历史上限也不会被要求重新同步
+        OTConvergenceHarness harness = new OTConvergenceHarness(7, 1, 500, 10, 64);
+        assertNull(harness.run());
+        assertEquals(0, harness.resyncs());
+        // 等待确认期间恰好相邻的本地编辑会被合并，每个发送的操作都被应用
+        assertEquals(harness.opsSent(), harness.serverRevision());
+        assertTrue(harness.opsSent() <= 500);
+        assertTrue(harness.serverHistorySize() <= 128, "history " + harness.serverHistorySize());
+    }
+
+    @Test
+    public void testBoundedHistoryConverges() {
+        for (long seed = 0; seed < 50; seed++) {
+            OTConvergenceHarness harness = new OTConvergenceHarness(seed, 4, 100, 10, 64);
+            assertNull(harness.run(), "seed " + seed);
+            assertEquals(0, harness.resyncs(), "seed " + seed);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.cowrite.project.netty.ot;
+
+import com.cowrite.project.netty.protocol.MessageType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OTEngineTest {
+
+    @Test
+    public void testTransformsOnlyAgainstOpsAfterBaseRevision() {
+        OTEngine engine = new OTEngine();
+        assertTrue(engine.receive(insert("alice", 0, "hello", 0)));
+        assertEquals(1, engine.getRevision());
+
+        // bob 与 alice 都基于 r1 并发编辑
+        assertTrue(engine.receive(insert("alice", 5, " world", 1)));
+        Operation bob = insert("bob", 5, "!", 1);
+        assertTrue(engine.receive(bob));
+
+        assertEquals("hello world!", engine.getDocument());
+        assertEquals(11, bob.pos);
+        assertEquals(3, bob.revision);
+    }
+
+    @Test
+    public void testOwnOpsAreNotTransformed() {
+        OTEngine engine = new OTEngine();
+        engine.receive(insert("alice", 0, "ab", 0));
+        engine.receive(insert("alice", 2, "cd", 0));
+        assertEquals("abcd", engine.getDocument());
+    }
+
+    @Test
+    public void testTabsOfSameUserTransformAgainstEachOther() {
+        OTEngine engine = new OTEngine();
+        engine.receive(numbered(insert("alice", 0, "hello", 0), "tab-1", 1));
+        // 两个标签页都基于版本 1：tab-1 删掉 "he"，tab-2 在 "o" 前插入
+        engine.receive(numbered(delete("alice", 0, 2, 1), "tab-1", 2));
+        engine.receive(numbered(insert("alice", 4, "X", 1), "tab-2", 1));
+        assertEquals("llXo", engine.getDocument());
+    }
+
+    @Test
+    public void testHistoryIsBoundedAndStaleBaseIsRejected() {
+        OTEngine engine = new OTEngine(DocumentBuffer.create(), 128);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(engine.receive(insert("alice", i, "x", i)));
+        }
+        assertTrue(engine.getHistorySize() <= 128);
+        assertEquals(10_000, engine.getRevision());
+        assertFalse(engine.receive(insert("bob", 0, "y", 1)));
+        assertEquals(10_000, engine.getDocument().length());
+    }
+
+    @Test
+    public void testAcknowledgedHistoryIsCompacted() {
+        OTEngine engine = new OTEngine();
+        for (int i = 0; i < 200; i++) {
+            engine.receive(insert("alice", i, "x", i));
+            engine.acknowledge("bob", engine.getRevision());
+        }
+        assertTrue(engine.getHistorySize() < 64, "history = " + engine.getHistorySize());
+    }
+
+    @Test
+    public void testRestoreFromSnapshot() {
+        OTEngine engine = OTEngine.restore(DocumentBuffer.of("hello"), 500);
+        assertEquals(500, engine.getRevision());
+        assertEquals(500, engine.getCompactedRevision());
+
+        assertTrue(engine.receive(insert("alice", 5, "!", 500)));
+        assertEquals(501, engine.getRevision());
+        assertEquals("hello!", engine.getDocument());
+        // 快照之前的历史已不存在
+        assertFalse(engine.receive(insert("bob", 0, "x", 499)));
+    }
+
+    @Test
+    public void testRestoredHistoryTransformsLateOps() {
+        OTEngine live = OTEngine.restore(DocumentBuffer.of("hello"), 0);
+        live.receive(numbered(insert("alice", 0, "A", 0), "c1", 1));
+        live.receive(numbered(delete("bob", 1, 3, 0), "c2", 1));
+        OTEngine restored = OTEngine.restore(DocumentBuffer.of(live.getDocument()), live.getRevision(),
+                live.appliedOps(), live.historyOps());
+        assertEquals(live.getCompactedRevision(), restored.getCompactedRevision());
+
+        // 快照之后重放的条目基线早于快照，与实时处理一样对服务端应用的操作变换
+        Operation late = numbered(insert("carol", 4, "!", 1), "c3", 1);
+        Operation replayed = numbered(insert("carol", 4, "!", 1), "c3", 1);
+        assertTrue(live.receive(late));
+        assertTrue(restored.receive(replayed));
+        assertEquals(live.getDocument(), restored.getDocument());
+        assertEquals(live.getRevision(), restored.getRevision());
+    }
+
+    @Test
+    public void testClientClocksAreScopedToEngine() {
+        OTEngine busy = new OTEngine();
+        for (int i = 0; i < 200; i++) {
+            busy.tick("u" + i);
+        }
+        assertEquals(2, busy.tick("u0").get("u0"));
+
+        // 另一个文档的 slot 从头分配，时钟不随其他文档的用户数增长
+        VectorClock clock = new OTEngine().tick("u0");
+        assertEquals(1, clock.get("u0"));
+        assertTrue(clock.toBytes().length <= 4);
+    }
+
+    @Test
+    public void testRedeliveredOpsAreRecognised() {
+        OTEngine engine = new OTEngine();
+        engine.receive(numbered(insert("alice", 0, "a", 0), "c1", 1));
+        // seq 2 所在的条目处理失败，seq 3 先被应用
+        engine.receive(numbered(insert("alice", 1, "c", 1), "c1", 3));
+        assertTrue(engine.isApplied("c1", 1));
+        assertFalse(engine.isApplied("c1", 2));
+        assertTrue(engine.isApplied("c1", 3));
+        assertFalse(engine.isApplied("c2", 1));
+        assertFalse(engine.isApplied(null, 1));
+
+        engine.receive(numbered(insert("alice", 1, "b", 1), "c1", 2));
+        assertTrue(engine.isApplied("c1", 2));
+
+        // 随快照恢复后仍能识别
+        OTEngine restored = OTEngine.restore(DocumentBuffer.of(engine.getDocument()), engine.getRevision(),
+                engine.appliedOps());
+        assertTrue(restored.isApplied("c1", 3));
+        assertFalse(restored.isApplied("c1", 4));
+    }
+
+    private static Operation numbered(Operation op, String clientId, long seq) {
+        op.clientId = clientId;
+        op.seq = seq;
+        return op;
+    }
+
+    private static Operation insert(String userId, int pos, String content, long baseRevision) {
+        return new Operation("doc", userId, MessageType.CONTENT_INSERT, content, 0, pos,
+                System.currentTimeMillis(), null, baseRevision);
+    }
+
+    private static Operation delete(String userId, int pos, int length, long baseRevision) {
+        return new Operation("doc", userId, MessageType.CONTENT_DELETE, null, length, pos,
+                System.currentTimeMillis(), null, baseRevision);
+    }
+}
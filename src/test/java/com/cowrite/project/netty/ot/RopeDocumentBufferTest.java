@@ -0,0 +1,84 @@
+package com.cowrite.project.netty.ot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RopeDocumentBufferTest {
+
+    @Test
+    public void testInsertAndDelete() {
+        RopeDocumentBuffer buffer = new RopeDocumentBuffer("hello world");
+        buffer.insert(5, ",");
+        buffer.insert(100, "!");
+        buffer.delete(0, 1);
+        buffer.insert(-3, "H");
+        assertEquals("Hello, world!", buffer.toString());
+        assertEquals(13, buffer.length());
+        assertEquals('w', buffer.charAt(7));
+        assertEquals("world", buffer.subSequence(7, 12).toString());
+    }
+
+    @Test
+    public void testDeleteOutOfRangeIsClamped() {
+        RopeDocumentBuffer buffer = new RopeDocumentBuffer("abcdef");
+        buffer.delete(4, 100);
+        buffer.delete(-5, 1);
+        buffer.delete(3, 2);
+        assertEquals("bcd", buffer.toString());
+    }
+
+    @Test
+    public void testSnapshotIsIsolated() {
+        RopeDocumentBuffer buffer = new RopeDocumentBuffer("version-1");
+        DocumentBuffer snapshot = buffer.snapshot();
+        buffer.delete(0, 8);
+        buffer.insert(0, "v");
+        assertEquals("v1", buffer.toString());
+        assertEquals("version-1", snapshot.toString());
+    }
+
+    @Test
+    public void testRandomOperationsMatchStringBuilder() {
+        Random random = new Random(42);
+        RopeDocumentBuffer rope = new RopeDocumentBuffer();
+        StringBuilderDocumentBuffer expected = new StringBuilderDocumentBuffer();
+        for (int i = 0; i < 20000; i++) {
+            int len = expected.length();
+            if (len == 0 || random.nextInt(3) > 0) {
+                int pos = random.nextInt(len + 1);
+                String text = random.nextInt(50) == 0 ? randomText(random, 3000) : randomText(random, 1 + random.nextInt(4));
+                rope.insert(pos, text);
+                expected.insert(pos, text);
+            } else {
+                int start = random.nextInt(len);
+                int end = start + 1 + random.nextInt(Math.min(len - start, 2000));
+                rope.delete(start, end);
+                expected.delete(start, end);
+            }
+        }
+        assertEquals(expected.toString(), rope.toString());
+        assertEquals(expected.length(), rope.length());
+    }
+
+    @Test
+    public void testTypingKeepsTreeShallow() {
+        RopeDocumentBuffer rope = new RopeDocumentBuffer();
+        for (int i = 0; i < 200_000; i++) {
+            rope.insert(rope.length() / 2, "x");
+        }
+        assertEquals(200_000, rope.length());
+        // 200k 字符约 200 个叶子，AVL 高度应远小于 64
+        assertTrue(rope.depth() < 32, "depth = " + rope.depth());
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
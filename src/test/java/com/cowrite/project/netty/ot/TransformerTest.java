@@ -0,0 +1,143 @@
+package com.cowrite.project.netty.ot;
+
+import com.cowrite.project.netty.protocol.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransformerTest {
+
+    @Test
+    public void testInsertInsertTieBreaksByUserId() {
+        Operation a = insert("alice", 3, "A");
+        Operation b = insert("bob", 3, "B");
+        assertEquals(3, Transformer.transformed(a, b).pos);
+        assertEquals(4, Transformer.transformed(b, a).pos);
+    }
+
+    @Test
+    public void testSameUserTieBreakFollowsServerOrder() {
+        // 同一用户的两个标签页在同一位置插入：服务端先应用 b，标签页本地先应用了 a
+        Operation a = insert("alice", 3, "A");
+        Operation b = insert("alice", 3, "B");
+
+        DocumentBuffer server = DocumentBuffer.of("abcdef");
+        Transformer.apply(server, b);
+        Transformer.apply(server, Transformer.transformed(a, b));
+
+        DocumentBuffer tab = DocumentBuffer.of("abcdef");
+        Transformer.apply(tab, a);
+        Transformer.apply(tab, Transformer.transformedRemote(b, a));
+
+        assertEquals("abcBAdef", server.toString());
+        assertEquals(server.toString(), tab.toString());
+    }
+
+    @Test
+    public void testInsertInsideConcurrentDeleteSurvives() {
+        Operation ins = insert("alice", 4, "X");
+        Operation del = delete("bob", 2, 5);
+        Operation insT = Transformer.transformed(ins, del);
+        Operation delT = Transformer.transformed(del, ins);
+        // 插入保留在删除区间起点
+        assertEquals(2, insT.pos);
+        assertEquals("X", insT.content);
+        // 删除绕开插入的内容拆成两段
+        assertEquals(2, delT.pos);
+        assertEquals(2, delT.length);
+        assertEquals(3, delT.next.pos);
+        assertEquals(3, delT.next.length);
+        assertNull(delT.next.next);
+
+        DocumentBuffer doc = DocumentBuffer.of("abcdefghij");
+        Transformer.apply(doc, ins);
+        Transformer.apply(doc, delT);
+        assertEquals("abXhij", doc.toString());
+    }
+
+    @Test
+    public void testDeleteDeleteOverlaps() {
+        // 新删除起点落在旧删除内部，尾部仍需删除
+        Operation tail = Transformer.transformed(delete("a", 4, 6), delete("b", 2, 4));
+        assertEquals(2, tail.pos);
+        assertEquals(4, tail.length);
+        // 旧删除完全包含新删除
+        assertTrue(Transformer.isNoop(Transformer.transformed(delete("a", 3, 2), delete("b", 2, 6))));
+        // 新删除完全包含旧删除
+        Operation outer = Transformer.transformed(delete("a", 1, 8), delete("b", 3, 2));
+        assertEquals(1, outer.pos);
+        assertEquals(6, outer.length);
+        // 前部相交
+        Operation head = Transformer.transformed(delete("a", 1, 4), delete("b", 3, 4));
+        assertEquals(1, head.pos);
+        assertEquals(2, head.length);
+    }
+
+    @Test
+    public void testRandomPairsSatisfyTP1() {
+        Random random = new Random(5);
+        for (int i = 0; i < 50_000; i++) {
+            String base = "abcdefghijklmnop";
+            Operation a = randomOp(random, "alice", base.length());
+            Operation b = randomOp(random, "bob", base.length());
+
+            DocumentBuffer left = DocumentBuffer.of(base);
+            Transformer.apply(left, a);
+            Transformer.apply(left, Transformer.transformed(b, a));
+
+            DocumentBuffer right = DocumentBuffer.of(base);
+            Transformer.apply(right, b);
+            Transformer.apply(right, Transformer.transformed(a, b));
+
+            assertEquals(left.toString(), right.toString(), "a=" + describe(a) + " b=" + describe(b));
+        }
+    }
+
+    @Test
+    public void testSplitDeletePairsSatisfyTP1() {
+        Random random = new Random(9);
+        for (int i = 0; i < 50_000; i++) {
+            // 先用一个并发插入把删除拆开，再与随机操作检查 TP1
+            String base = "abcdefghijklmnop";
+            Operation split = insert("carol", 1 + random.nextInt(base.length() - 2), "Z");
+            Operation a = Transformer.transformed(delete("alice", 0, base.length()), split);
+            DocumentBuffer start = DocumentBuffer.of(base);
+            Transformer.apply(start, split);
+            String state = start.toString();
+            Operation b = randomOp(random, "bob", state.length());
+
+            DocumentBuffer left = DocumentBuffer.of(state);
+            Transformer.apply(left, a);
+            Transformer.apply(left, Transformer.transformed(b, a));
+
+            DocumentBuffer right = DocumentBuffer.of(state);
+            Transformer.apply(right, b);
+            Transformer.apply(right, Transformer.transformed(a, b));
+
+            assertEquals(left.toString(), right.toString(), "a=" + describe(a) + " b=" + describe(b));
+        }
+    }
+
+    private static Operation randomOp(Random random, String userId, int len) {
+        if (random.nextBoolean()) {
+            return insert(userId, random.nextInt(len + 1), userId.substring(0, 1 + random.nextInt(3)));
+        }
+        int pos = random.nextInt(len);
+        return delete(userId, pos, 1 + random.nextInt(len - pos));
+    }
+
+    private static String describe(Operation op) {
+        String part = op.type + "@" + op.pos + (op.type == MessageType.CONTENT_INSERT ? "+" + op.content : "-" + op.length);
+        return op.next == null ? part : part + "," + describe(op.next);
+    }
+
+    private static Operation insert(String userId, int pos, String content) {
+        return new Operation("doc", userId, MessageType.CONTENT_INSERT, content, 0, pos, 0, null, -1);
+    }
+
+    private static Operation delete(String userId, int pos, int length) {
+        return new Operation("doc", userId, MessageType.CONTENT_DELETE, null, length, pos, 0, null, -1);
+    }
+}
@@ -0,0 +1,99 @@
+package com.cowrite.project.netty.ot;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * VectorClock 与旧版 Map 实现的对比：isConcurrent + advance 的耗时与每次调用的分配字节数。
+ * <p>
+ * 非单元测试（不会被 surefire 执行），手动运行：
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.cowrite.project.netty.ot.VectorClockBenchmark
+ * </pre>
+ */
+public class VectorClockBenchmark {
+
+    private static final int[] EDITORS = {2, 16, 128};
+    private static final int OPS = 2_000_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        System.out.printf("%-8s %-6s %10s %12s%n", "impl", "peers", "ns/op", "bytes/op");
+        for (int editors : EDITORS) {
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;
+                runMap(editors, print);
+                runDense(editors, print);
+            }
+        }
+    }
+
+    private static void runMap(int editors, boolean print) {
+        MapVectorClock[] clocks = new MapVectorClock[editors];
+        for (int i = 0; i < editors; i++) {
+            clocks[i] = new MapVectorClock("u" + i);
+            clocks[i].tick();
+        }
+        for (int i = 0; i < editors; i++) {
+            clocks[0].advance(clocks[i]);
+        }
+        // 每个时钟都包含全部 peers 的分量，再各自前进一步制造并发
+        for (int i = 1; i < editors; i++) {
+            clocks[i].advance(clocks[0]);
+            clocks[i].tick();
+        }
+        Random random = new Random(1);
+        long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+        for (int n = 0; n < OPS; n++) {
+            MapVectorClock a = clocks[random.nextInt(editors)];
+            MapVectorClock b = clocks[random.nextInt(editors)];
+            if (a.isConcurrent(b)) {
+                sink++;
+            }
+        }
+        report("Map", editors, start, bytes, print);
+    }
+
+    private static void runDense(int editors, boolean print) {
+        ClientSlots slots = new ClientSlots();
+        VectorClock[] clocks = new VectorClock[editors];
+        for (int i = 0; i < editors; i++) {
+            clocks[i] = new VectorClock(slots, "u" + i);
+            clocks[i].tick();
+        }
+        for (int i = 0; i < editors; i++) {
+            clocks[0].advance(clocks[i]);
+        }
+        // 每个时钟都包含全部 peers 的分量，再各自前进一步制造并发
+        for (int i = 1; i < editors; i++) {
+            clocks[i].advance(clocks[0]);
+            clocks[i].tick();
+        }
+        Random random = new Random(1);
+        long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+        for (int n = 0; n < OPS; n++) {
+            VectorClock a = clocks[random.nextInt(editors)];
+            VectorClock b = clocks[random.nextInt(editors)];
+            if (a.isConcurrent(b)) {
+                sink++;
+            }
+        }
+        report("Dense", editors, start, bytes, print);
+    }
+
+    private static void report(String name, int editors, long start, long bytesBefore, boolean print) {
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesBefore;
+        if (print) {
+            System.out.printf("%-8s %-6d %10.1f %12.1f%n", name, editors,
+                    (double) elapsed / OPS, (double) allocated / OPS);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.cowrite.project.netty.ot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VectorClockTest {
+
+    @Test
+    public void testCausalOrdering() {
+        ClientSlots slots = new ClientSlots();
+        VectorClock a = new VectorClock(slots, "alice");
+        VectorClock b = new VectorClock(slots, "bob");
+        a.tick();
+        VectorClock a1 = a.copy();
+        b.advance(a1);
+        b.tick();
+        assertTrue(a1.happenedBefore(b));
+        assertEquals(VectorClock.AFTER, b.compare(a1));
+
+        a.tick();
+        assertTrue(a.isConcurrent(b));
+        assertEquals(VectorClock.CONCURRENT, a.compare(b));
+        assertTrue(a.isConcurrent(a.copy()));
+    }
+
+    @Test
+    public void testMatchesMapBasedClock() {
+        Random random = new Random(3);
+        int clients = 16;
+        ClientSlots slots = new ClientSlots();
+        VectorClock[] dense = new VectorClock[clients];
+        MapVectorClock[] reference = new MapVectorClock[clients];
+        for (int i = 0; i < clients; i++) {
+            dense[i] = new VectorClock(slots, "u" + i);
+            reference[i] = new MapVectorClock("u" + i);
+        }
+        for (int step = 0; step < 20_000; step++) {
+            int i = random.nextInt(clients);
+            int j = random.nextInt(clients);
+            switch (random.nextInt(3)) {
+                case 0:
+                    dense[i].tick();
+                    reference[i].tick();
+                    break;
+                case 1:
+                    dense[i].advance(dense[j]);
+                    reference[i].advance(reference[j]);
+                    break;
+                default:
+                    assertEquals(reference[i].happenedBefore(reference[j]), dense[i].happenedBefore(dense[j]));
+                    assertEquals(reference[i].isConcurrent(reference[j]), dense[i].isConcurrent(dense[j]));
+                    assertEquals(reference[i].canAdvance(reference[j]), dense[i].canAdvance(dense[j]));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        ClientSlots slots = new ClientSlots();
+        VectorClock a = new VectorClock(slots, "alice");
+        VectorClock b = new VectorClock(slots, "bob");
+        for (int i = 0; i < 300; i++) {
+            b.tick();
+        }
+        a.advance(b);
+        a.tick();
+        byte[] bytes = a.toBytes();
+        assertEquals(5, bytes.length);
+        VectorClock decoded = VectorClock.fromBytes(slots, bytes);
+        assertEquals("alice", decoded.selfId);
+        assertEquals(VectorClock.EQUAL, decoded.compare(a));
+        assertEquals(300, decoded.get("bob"));
+    }
+}
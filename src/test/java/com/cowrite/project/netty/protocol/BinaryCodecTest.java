@@ -0,0 +1,98 @@
+package com.cowrite.project.netty.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCodecTest {
+
+    @Test
+    public void testMessageRoundTripInternsIds() {
+        BinaryCodec.StringTable encodeIds = new BinaryCodec.StringTable();
+        BinaryCodec.StringTable decodeIds = new BinaryCodec.StringTable();
+        NettyMessage insert = NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT)
+                .docId("1843212871236741122")
+                .userId("u-42")
+                .content("中a")
+                .pos(1024)
+                .timestamp(1760000000000L)
+                .revision(-1L)
+                .isTyping(true)
+                .build();
+
+        ByteBuf first = Unpooled.buffer();
+        BinaryCodec.encodeMessage(insert, encodeIds, first);
+        ByteBuf second = Unpooled.buffer();
+        BinaryCodec.encodeMessage(insert, encodeIds, second);
+        // 第二帧 docId / userId 只占各一个字节
+        assertEquals(first.readableBytes() - "1843212871236741122".length() - "u-42".length() - 2, second.readableBytes());
+
+        for (ByteBuf buf : new ByteBuf[]{first, second}) {
+            NettyMessage decoded = BinaryCodec.decodeMessage(buf, decodeIds);
+            assertEquals(insert.toString(), decoded.toString());
+            assertEquals(0, buf.readableBytes());
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testNullFieldsSurvive() {
+        NettyMessage move = new NettyMessage(MessageType.MOUSE_MOVE, "d", null, null, null, null, -3, 7, null, false);
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.encodeMessage(move, new BinaryCodec.StringTable(), buf);
+        NettyMessage decoded = BinaryCodec.decodeMessage(buf, new BinaryCodec.StringTable());
+        assertNull(decoded.getUserId());
+        assertNull(decoded.getPos());
+        assertEquals(-3, decoded.getX());
+        assertEquals(7, decoded.getY());
+        assertFalse(decoded.isTyping());
+    }
+
+    @Test
+    public void testResponseMatchesJsonView() {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("content", "hello");
+        payload.put("pos", 12);
+        payload.put("revision", 5_000_000_000L);
+        payload.put("isTyping", true);
+        payload.put("custom", null);
+        payload.put("users", Arrays.asList("a", "b"));
+        MessageResponse response = new MessageResponse.Builder()
+                .type(MessageType.CONTENT_INSERT)
+                .docId("doc")
+                .userId("u")
+                .timestamp(123L)
+                .payload(payload)
+                .build();
+
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.encodeResponse(response, buf);
+        MessageResponse decoded = BinaryCodec.decodeResponse(buf);
+        MessageResponse viaJson = MessageResponse.fromJson(response.toJson());
+        assertEquals(viaJson.getType(), decoded.getType());
+        assertEquals(viaJson.getDocId(), decoded.getDocId());
+        assertEquals(viaJson.getTimestamp(), decoded.getTimestamp());
+        assertEquals(viaJson.getPayload(), decoded.getPayload());
+        buf.release();
+    }
+
+    @Test
+    public void testRejectsCorruptFrames() {
+        ByteBuf wrongKind = Unpooled.wrappedBuffer(new byte[]{9, 0, 0});
+        assertThrows(CorruptedFrameException.class, () -> BinaryCodec.decodeMessage(wrongKind, new BinaryCodec.StringTable()));
+        // 引用了不存在的字符串
+        ByteBuf badRef = Unpooled.wrappedBuffer(new byte[]{1, 0, 0, 5, 0});
+        assertThrows(CorruptedFrameException.class, () -> BinaryCodec.decodeMessage(badRef, new BinaryCodec.StringTable()));
+        // 字符串长度超出帧
+        ByteBuf overflow = Unpooled.wrappedBuffer(new byte[]{1, 0, 0, 1, 100, 'a'});
+        assertThrows(CorruptedFrameException.class, () -> BinaryCodec.decodeMessage(overflow, new BinaryCodec.StringTable()));
+    }
+}
@@ -0,0 +1,136 @@
+package com.cowrite.project.netty.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * JSON 与二进制编码的对比：每个操作的字节数和解码耗时。
+ * 手动运行 main，JSON 路径与 ServerHandler 一致（帧 -> text() -> Jackson）。
+ */
+public class WireFormatBenchmark {
+
+    private static final int ITERATIONS = 2_000_000;
+
+    public static void main(String[] args) {
+        NettyMessage insert = NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT)
+                .docId("1843212871236741122")
+                .userId("1843212871236741999")
+                .content("a")
+                .length(0)
+                .pos(18234)
+                .timestamp(System.currentTimeMillis())
+                .revision(81234L)
+                .isTyping(true)
+                .build();
+        NettyMessage cursor = NettyMessage.builder()
+                .operationType(MessageType.MOUSE_MOVE)
+                .docId("1843212871236741122")
+                .userId("1843212871236741999")
+                .x(812)
+                .y(377)
+                .timestamp(System.currentTimeMillis())
+                .build();
+
+        for (int round = 0; round < 2; round++) {
+            System.out.println("--- round " + round + " ---");
+            inbound("insert 1 char", insert);
+            inbound("mouse move", cursor);
+            outbound();
+        }
+    }
+
+    private static void inbound(String name, NettyMessage message) {
+        ByteBuf json = Unpooled.copiedBuffer(browserJson(message), StandardCharsets.UTF_8);
+        // 同一连接上稳态的二进制帧：id 已进入字符串表
+        BinaryCodec.StringTable encodeIds = new BinaryCodec.StringTable();
+        BinaryCodec.StringTable decodeIds = new BinaryCodec.StringTable();
+        ByteBuf warm = Unpooled.buffer();
+        BinaryCodec.encodeMessage(message, encodeIds, warm);
+        BinaryCodec.decodeMessage(warm, decodeIds);
+        ByteBuf binary = Unpooled.buffer();
+        BinaryCodec.encodeMessage(message, encodeIds, binary);
+
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            TextWebSocketFrame frame = new TextWebSocketFrame(json.retainedDuplicate());
+            sink += NettyMessage.fromJson(frame.text()).getTimestamp();
+            frame.release();
+        }
+        long jsonNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ByteBuf view = binary.duplicate();
+            sink += BinaryCodec.decodeMessage(view, decodeIds).getTimestamp();
+        }
+        long binaryNs = System.nanoTime() - start;
+
+        System.out.printf("%-16s json %4d B %7.1f ns/op | binary %3d B (first frame %d B) %6.1f ns/op   (%d)%n",
+                name, json.readableBytes(), (double) jsonNs / ITERATIONS,
+                binary.readableBytes(), warm.writerIndex(), (double) binaryNs / ITERATIONS, sink & 1);
+        json.release();
+    }
+
+    /**
+     * 与前端发送的字段一致（NettyMessage.toJson 会多出只读的 insertLength，不能直接反序列化）
+     */
+    private static String browserJson(NettyMessage m) {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"operationType\":\"").append(m.getOperationType()).append('"');
+        sb.append(",\"docId\":\"").append(m.getDocId()).append('"');
+        sb.append(",\"userId\":\"").append(m.getUserId()).append('"');
+        if (m.getContent() != null) sb.append(",\"content\":\"").append(m.getContent()).append('"');
+        if (m.getPos() != null) sb.append(",\"pos\":").append(m.getPos());
+        if (m.getLength() != null) sb.append(",\"length\":").append(m.getLength());
+        if (m.getX() != null) sb.append(",\"x\":").append(m.getX());
+        if (m.getY() != null) sb.append(",\"y\":").append(m.getY());
+        sb.append(",\"timestamp\":").append(m.getTimestamp());
+        if (m.getRevision() != null) sb.append(",\"revision\":").append(m.getRevision());
+        sb.append(",\"isTyping\":").append(m.isTyping());
+        return sb.append('}').toString();
+    }
+
+    private static void outbound() {
+        HashMap<String, Object> payload = new HashMap<>();
+        payload.put("content", "a");
+        payload.put("pos", 18234);
+        payload.put("length", 0);
+        payload.put("revision", 81234L);
+        MessageResponse response = new MessageResponse.Builder()
+                .docId("1843212871236741122")
+                .userId("1843212871236741999")
+                .type(MessageType.CONTENT_INSERT)
+                .payload(payload)
+                .build();
+
+        long sink = 0;
+        long start = System.nanoTime();
+        int jsonBytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            ByteBuf buf = Unpooled.copiedBuffer(response.toJson(), StandardCharsets.UTF_8);
+            jsonBytes = buf.readableBytes();
+            sink += buf.getByte(0);
+            buf.release();
+        }
+        long jsonNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int binaryBytes = 0;
+        ByteBuf buf = Unpooled.buffer(256);
+        for (int i = 0; i < ITERATIONS; i++) {
+            buf.clear();
+            BinaryCodec.encodeResponse(response, buf);
+            binaryBytes = buf.readableBytes();
+            sink += buf.getByte(0);
+        }
+        long binaryNs = System.nanoTime() - start;
+        System.out.printf("%-16s json %4d B %7.1f ns/op | binary %3d B %6.1f ns/op   (encode, %d)%n",
+                "broadcast insert", jsonBytes, (double) jsonNs / ITERATIONS, binaryBytes, (double) binaryNs / ITERATIONS, sink & 1);
+    }
+}
@@ -0,0 +1,122 @@
+package com.cowrite.project.netty.server;
+
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * permessage-deflate 的带宽与 CPU：一条连接收到的下行消息序列（绝大多数是按键级操作，
+ * 少量大段粘贴和重同步快照）分别以不压缩、全部压缩、按阈值压缩、按阈值压缩且不保留上下文发送，
+ * 输出线上字节数、节省比例和每条消息的压缩 CPU 时间，并换算为每连接在给定消息速率下占用的 CPU。
+ * <p>
+ * 手动运行 main：[消息数] [每连接每秒消息数] [阈值]，默认 20000 10 1024。
+ */
+public class CompressionBenchmark {
+
+    private static final String[] WORDS = ("the document editor revision cursor paragraph table of contents "
+            + "meeting notes action items owner deadline review draft final version customer report quarter "
+            + "revenue growth team project plan risk issue status update summary detail section heading list "
+            + "and to in for with on at by from as is are was be this that it we you they").split(" ");
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threshold = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        List<byte[]> workload = workload(new Random(11), messages);
+        long raw = 0;
+        for (byte[] message : workload) {
+            raw += message.length;
+        }
+        System.out.printf("messages=%d raw=%,d bytes (%.1f bytes/msg)%n", messages, raw, (double) raw / messages);
+        System.out.printf("%-32s %14s %8s %12s %18s%n", "mode", "wire bytes", "saved", "cpu us/msg", "cpu/conn @" + rate + "/s");
+        System.out.printf("%-32s %,14d %7.1f%% %12s %18s%n", "off", raw, 0.0, "-", "-");
+        run("deflate all, takeover", workload, raw, rate, 0, true);
+        run("deflate >= " + threshold + "B, takeover", workload, raw, rate, threshold, true);
+        run("deflate >= " + threshold + "B, no takeover", workload, raw, rate, threshold, false);
+    }
+
+    private static void run(String mode, List<byte[]> workload, long raw, int rate, int threshold, boolean takeover) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // 预热一轮
+        send(workload, threshold, takeover);
+        long start = threads.getCurrentThreadCpuTime();
+        long wire = send(workload, threshold, takeover);
+        long cpu = threads.getCurrentThreadCpuTime() - start;
+        double perMessage = cpu / 1000.0 / workload.size();
+        System.out.printf("%-32s %,14d %7.1f%% %12.2f %17.3f%%%n", mode, wire, (raw - wire) * 100.0 / raw,
+                perMessage, perMessage * rate / 1e6 * 100);
+    }
+
+    /**
+     * @return 压缩后的帧载荷字节数之和
+     */
+    private static long send(List<byte[]> workload, int threshold, boolean takeover) {
+        EmbeddedChannel channel = new EmbeddedChannel(WebSocketCompression.newHandshaker(6, threshold, takeover, true)
+                .handshakeExtension(new WebSocketExtensionData(WebSocketCompression.PERMESSAGE_DEFLATE,
+                        Collections.emptyMap()))
+                .newExtensionEncoder());
+        long wire = 0;
+        for (byte[] message : workload) {
+            channel.writeOutbound(new TextWebSocketFrame(Unpooled.wrappedBuffer(message)));
+            WebSocketFrame frame = channel.readOutbound();
+            wire += frame.content().readableBytes();
+            frame.release();
+        }
+        channel.finishAndReleaseAll();
+        return wire;
+    }
+
+    /**
+     * 约 97% 按键级操作、2.5% 粘贴（1-8KB）、0.5% 重同步快照（20-100KB）
+     */
+    private static List<byte[]> workload(Random random, int messages) {
+        List<byte[]> workload = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            int kind = random.nextInt(1000);
+            MessageResponse.Builder builder = new MessageResponse.Builder()
+                    .docId("1843212871236741122")
+                    .userId("1843212871236741" + (100 + random.nextInt(20)));
+            if (kind < 5) {
+                builder.type(MessageType.DOCUMENT_UPDATE)
+                        .putPayload("resync", true)
+                        .putPayload("content", text(random, 20_000 + random.nextInt(80_000)))
+                        .putPayload("revision", 80_000L + i);
+            } else if (kind < 30) {
+                builder.type(MessageType.CONTENT_INSERT)
+                        .putPayload("content", text(random, 1024 + random.nextInt(7 * 1024)))
+                        .putPayload("pos", random.nextInt(50_000))
+                        .putPayload("revision", 80_000L + i);
+            } else {
+                builder.type(random.nextInt(10) == 0 ? MessageType.CONTENT_DELETE : MessageType.CONTENT_INSERT)
+                        .putPayload("content", String.valueOf((char) ('a' + random.nextInt(26))))
+                        .putPayload("pos", random.nextInt(50_000))
+                        .putPayload("length", 1)
+                        .putPayload("revision", 80_000L + i);
+            }
+            workload.add(builder.build().toJson().getBytes(StandardCharsets.UTF_8));
+        }
+        return workload;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return sb.toString();
+    }
+}
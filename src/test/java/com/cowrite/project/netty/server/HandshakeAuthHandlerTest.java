@@ -0,0 +1,77 @@
+package com.cowrite.project.netty.server;
+
+import com.cowrite.project.netty.session.DocumentAccess;
+import com.cowrite.project.netty.session.SessionManager;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class HandshakeAuthHandlerTest {
+
+    private final HandshakeAuthenticator authenticator = mock(HandshakeAuthenticator.class);
+
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    public void setUp() {
+        when(authenticator.executor()).thenReturn((Executor) Runnable::run);
+        when(authenticator.authenticate("good", "42")).thenReturn(new DocumentAccess("7", "42", PermissionLevel.EDIT));
+        channel = new EmbeddedChannel(new HandshakeAuthHandler("/ws", authenticator));
+    }
+
+    @Test
+    public void testValidTokenBindsUserAndDocument() {
+        FullHttpRequest request = upgrade("/ws?docId=42");
+        request.headers().set(HttpHeaderNames.AUTHORIZATION, "Bearer good");
+        channel.writeInbound(request);
+        channel.runPendingTasks();
+
+        FullHttpRequest forwarded = channel.readInbound();
+        assertEquals("/ws", forwarded.uri());
+        forwarded.release();
+        assertEquals("7", channel.attr(SessionManager.USER_ID).get());
+        assertEquals("42", channel.attr(SessionManager.DOC_ID).get());
+        assertTrue(DocumentAccess.of(channel).canEdit());
+        assertNull(channel.pipeline().get(HandshakeAuthHandler.class));
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testQueryTokenIsAcceptedAndInvalidTokenIsRejected() {
+        channel.writeInbound(upgrade("/ws?docId=42&token=good"));
+        channel.runPendingTasks();
+        FullHttpRequest forwarded = channel.readInbound();
+        assertNotNull(forwarded);
+        forwarded.release();
+
+        EmbeddedChannel rejected = new EmbeddedChannel(new HandshakeAuthHandler("/ws", authenticator));
+        rejected.writeInbound(upgrade("/ws?docId=42&token=forged"));
+        rejected.runPendingTasks();
+        assertNull(rejected.readInbound());
+        FullHttpResponse response = rejected.readOutbound();
+        assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+        response.release();
+        assertFalse(rejected.isActive());
+        assertNull(DocumentAccess.of(rejected));
+    }
+
+    private static FullHttpRequest upgrade(String uri) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+        request.headers().set(HttpHeaderNames.UPGRADE, "websocket");
+        request.headers().set(HttpHeaderNames.CONNECTION, "Upgrade");
+        return request;
+    }
+}
@@ -0,0 +1,232 @@
+package com.cowrite.project.netty.server;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接规模压测：大量空闲 WebSocket 加少量持续编辑的连接，对比 NIO 与 epoll 传输。
+ * <p>
+ * 服务端使用与 {@link NettyServer} 相同的连接参数（池化分配器、TCP_NODELAY、写水位）和 WebSocket 握手流水线，
+ * 收到的文本帧原样回显；活跃客户端每隔固定时间发送一个约 60 字节的编辑帧，按回显测往返延迟。
+ * 输出服务端 I/O 线程的 CPU 时间、连接建立后的堆增量（含客户端一侧）、池化直接内存以及回显延迟。
+ * <p>
+ * 手动运行 main：[nio|epoll|both] [空闲连接数] [活跃连接数] [秒数] [发送间隔 ms]，默认 both 20000 2000 30 200。
+ * 客户端与服务端在同一进程，每条连接占两个文件描述符，需要 ulimit -n 大于 2 * 连接数。
+ */
+public class TransportBenchmark {
+
+    private static final int CONNECT_BATCH = 500;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "both";
+        int idle = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int active = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        int intervalMillis = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+
+        List<NettyTransport> transports = new ArrayList<>();
+        if (!"epoll".equals(mode)) {
+            transports.add(NettyTransport.NIO);
+        }
+        if (!"nio".equals(mode)) {
+            if (NettyTransport.select("epoll") == NettyTransport.EPOLL) {
+                transports.add(NettyTransport.EPOLL);
+            } else {
+                System.out.println("epoll unavailable on this platform, skipped");
+            }
+        }
+        for (NettyTransport transport : transports) {
+            run(transport, idle, active, seconds, intervalMillis);
+        }
+    }
+
+    private static void run(NettyTransport transport, int idle, int active, int seconds, int intervalMillis)
+            throws Exception {
+        EventLoopGroup boss = transport.newGroup(1, "bench-boss");
+        EventLoopGroup workers = transport.newGroup(0, "bench-server");
+        EventLoopGroup clients = transport.newGroup(0, "bench-client");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Timer echo = Timer.builder("echo").publishPercentiles(0.5, 0.99).register(registry);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        try {
+            Channel server = new ServerBootstrap()
+                    .group(boss, workers)
+                    .channel(transport.serverChannel())
+                    .option(ChannelOption.SO_BACKLOG, 4096)
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(32 * 1024, 64 * 1024))
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new HttpServerCodec());
+                            ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                            ch.pipeline().addLast(new WebSocketServerProtocolHandler("/ws"));
+                            ch.pipeline().addLast(new SimpleChannelInboundHandler<TextWebSocketFrame>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) {
+                                    ctx.writeAndFlush(frame.retain());
+                                }
+                            });
+                        }
+                    })
+                    .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+            URI uri = URI.create("ws://127.0.0.1:" + ((InetSocketAddress) server.localAddress()).getPort() + "/ws");
+
+            gc();
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+            // 活跃连接均匀分布在所有连接中（也就均匀分布在各个 event loop 上）
+            List<Channel> editors = new ArrayList<>(active);
+            int total = idle + active;
+            int step = Math.max(1, total / Math.max(1, active));
+            int index = 0;
+            for (int from = 0; from < total; from += CONNECT_BATCH) {
+                int count = Math.min(CONNECT_BATCH, total - from);
+                CountDownLatch handshakes = new CountDownLatch(count);
+                List<Channel> batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    batch.add(connect(transport, clients, uri, handshakes, echo));
+                }
+                if (!handshakes.await(30, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("handshake timeout after " + from + " connections");
+                }
+                for (Channel ch : batch) {
+                    if (editors.size() < active && index++ % step == 0) {
+                        editors.add(ch);
+                    }
+                }
+            }
+            gc();
+            long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+            long cpuBefore = threadCpuNanos("bench-server", "bench-boss");
+            long start = System.nanoTime();
+            List<ScheduledFuture<?>> senders = new ArrayList<>(editors.size());
+            String padding = "{\"type\":\"CONTENT_INSERT\",\"pos\":1024,\"content\":\"a\"}";
+            for (Channel ch : editors) {
+                senders.add(ch.eventLoop().scheduleAtFixedRate(
+                        () -> ch.writeAndFlush(new TextWebSocketFrame(System.nanoTime() + " " + padding)),
+                        (long) (Math.random() * intervalMillis), intervalMillis, TimeUnit.MILLISECONDS));
+            }
+            Thread.sleep(seconds * 1000L);
+            for (ScheduledFuture<?> sender : senders) {
+                sender.cancel(false);
+            }
+            long elapsed = System.nanoTime() - start;
+            long cpu = threadCpuNanos("bench-server", "bench-boss") - cpuBefore;
+
+            double p50 = 0;
+            double p99 = 0;
+            for (ValueAtPercentile v : echo.takeSnapshot().percentileValues()) {
+                if (v.percentile() == 0.5) {
+                    p50 = v.value(TimeUnit.MICROSECONDS);
+                } else {
+                    p99 = v.value(TimeUnit.MICROSECONDS);
+                }
+            }
+            System.out.printf("%-5s connections=%d (active %d) | server cpu %.1f%% of a core | heap +%.1f MB (%.2f KB/conn) "
+                            + "| pooled direct %.1f MB | echo %,.0f msg/s p50=%.0fus p99=%.0fus%n",
+                    transport, total, editors.size(), cpu * 100.0 / elapsed,
+                    (heapAfter - heapBefore) / 1048576.0, (heapAfter - heapBefore) / 1024.0 / total,
+                    PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory() / 1048576.0,
+                    echo.count() * 1e9 / elapsed, p50, p99);
+            server.close().sync();
+        } finally {
+            clients.shutdownGracefully().sync();
+            workers.shutdownGracefully().sync();
+            boss.shutdownGracefully().sync();
+        }
+    }
+
+    private static Channel connect(NettyTransport transport, EventLoopGroup group, URI uri,
+                                   CountDownLatch handshakes, Timer echo) throws InterruptedException {
+        return new Bootstrap()
+                .group(group)
+                .channel(transport.clientChannel())
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(8192));
+                        ch.pipeline().addLast(new WebSocketClientProtocolHandler(WebSocketClientHandshakerFactory.newHandshaker(
+                                uri, WebSocketVersion.V13, null, false, new DefaultHttpHeaders())));
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<TextWebSocketFrame>() {
+                            @Override
+                            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+                                if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                                    handshakes.countDown();
+                                }
+                                ctx.fireUserEventTriggered(evt);
+                            }
+
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) {
+                                String text = frame.text();
+                                long sent = Long.parseLong(text.substring(0, text.indexOf(' ')));
+                                echo.record(System.nanoTime() - sent, TimeUnit.NANOSECONDS);
+                            }
+                        });
+                    }
+                })
+                .connect(uri.getHost(), uri.getPort()).sync().channel();
+    }
+
+    /**
+     * 名称以给定前缀开头的线程累计的 CPU 时间
+     */
+    private static long threadCpuNanos(String... prefixes) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            for (String prefix : prefixes) {
+                if (thread.getName().startsWith(prefix)) {
+                    total += Math.max(0, threads.getThreadCpuTime(thread.getId()));
+                }
+            }
+        }
+        return total;
+    }
+
+    private static void gc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+    }
+}
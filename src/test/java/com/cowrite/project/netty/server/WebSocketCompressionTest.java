@@ -0,0 +1,81 @@
+package com.cowrite.project.netty.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebSocketCompressionTest {
+
+    private static final WebSocketExtensionData OFFER =
+            new WebSocketExtensionData(WebSocketCompression.PERMESSAGE_DEFLATE, Collections.emptyMap());
+
+    @Test
+    public void testOnlyFramesAboveThresholdAreCompressed() {
+        WebSocketServerExtension extension = WebSocketCompression.newHandshaker(6, 1024, true, true)
+                .handshakeExtension(OFFER);
+        EmbeddedChannel server = new EmbeddedChannel(extension.newExtensionEncoder());
+        EmbeddedChannel client = new EmbeddedChannel(new PerMessageDeflateClientExtensionHandshaker()
+                .handshakeExtension(extension.newReponseData()).newExtensionDecoder());
+
+        String keystroke = "{\"type\":\"CONTENT_INSERT\",\"docId\":\"42\",\"payload\":{\"content\":\"a\",\"pos\":7}}";
+        server.writeOutbound(new TextWebSocketFrame(keystroke));
+        WebSocketFrame small = server.readOutbound();
+        assertEquals(0, small.rsv() & WebSocketExtension.RSV1);
+        assertEquals(keystroke, small.content().toString(StandardCharsets.UTF_8));
+        small.release();
+
+        StringBuilder snapshot = new StringBuilder();
+        while (snapshot.length() < 16 * 1024) {
+            snapshot.append("The quick brown fox jumps over the lazy dog. ");
+        }
+        server.writeOutbound(new TextWebSocketFrame(snapshot.toString()));
+        WebSocketFrame large = server.readOutbound();
+        assertNotEquals(0, large.rsv() & WebSocketExtension.RSV1);
+        assertTrue(large.content().readableBytes() < snapshot.length() / 10);
+
+        client.writeInbound(large);
+        WebSocketFrame inflated = client.readInbound();
+        assertEquals(snapshot.toString(), inflated.content().toString(StandardCharsets.UTF_8));
+        inflated.release();
+    }
+
+    @Test
+    public void testNoContextTakeoverIsDeclaredWithoutClientRequest() {
+        WebSocketServerExtension takeover = WebSocketCompression.newHandshaker(6, 0, true, true)
+                .handshakeExtension(OFFER);
+        assertFalse(takeover.newReponseData().parameters().containsKey(WebSocketCompression.SERVER_NO_CONTEXT));
+
+        WebSocketServerExtension noContext = WebSocketCompression.newHandshaker(6, 0, false, false)
+                .handshakeExtension(OFFER);
+        assertTrue(noContext.newReponseData().parameters().containsKey(WebSocketCompression.SERVER_NO_CONTEXT));
+        assertTrue(noContext.newReponseData().parameters().containsKey(WebSocketCompression.CLIENT_NO_CONTEXT));
+
+        // 没有上下文时同样的消息每次压缩结果相同
+        EmbeddedChannel server = new EmbeddedChannel(noContext.newExtensionEncoder());
+        byte[] message = "hello hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+        server.writeOutbound(new TextWebSocketFrame(Unpooled.wrappedBuffer(message)));
+        server.writeOutbound(new TextWebSocketFrame(Unpooled.wrappedBuffer(message)));
+        WebSocketFrame first = server.readOutbound();
+        WebSocketFrame second = server.readOutbound();
+        ByteBuf a = first.content();
+        ByteBuf b = second.content();
+        assertEquals(a, b);
+        first.release();
+        second.release();
+
+        assertNull(WebSocketCompression.newHandshaker(6, 0, false, true)
+                .handshakeExtension(new WebSocketExtensionData("x-webkit-deflate-frame", Collections.emptyMap())));
+    }
+}
@@ -0,0 +1,159 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 广播延迟随观看人数变化的压测：一次广播从调用到所有客户端收到完整帧的耗时。
+ * <p>
+ * 服务端和客户端都是本机真实 TCP 连接，对比旧实现（每个接收方 new 帧 + writeAndFlush）
+ * 与 {@link SessionManager#broadcastToAll(String, MessageResponse)}（序列化一次 + 按 event loop 批量 write / flush）。
+ * 手动运行 main。
+ */
+public class BroadcastLoadBenchmark {
+
+    private static final int ROUNDS = 300;
+
+    public static void main(String[] args) throws Exception {
+        EventLoopGroup boss = new NioEventLoopGroup(1);
+        EventLoopGroup serverWorkers = new NioEventLoopGroup(4);
+        EventLoopGroup clientWorkers = new NioEventLoopGroup(4);
+        BlockingQueue<Channel> accepted = new LinkedBlockingQueue<>();
+        AtomicReference<CountDownLatch> received = new AtomicReference<>(new CountDownLatch(0));
+        try {
+            Channel server = new ServerBootstrap()
+                    .group(boss, serverWorkers)
+                    .channel(NioServerSocketChannel.class)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new WebSocket13FrameEncoder(false));
+                            ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void channelActive(ChannelHandlerContext ctx) {
+                                    accepted.add(ctx.channel());
+                                }
+                            });
+                        }
+                    })
+                    .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+            Bootstrap client = new Bootstrap()
+                    .group(clientWorkers)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new WebSocket13FrameDecoder(false, true, 65536));
+                            ch.pipeline().addLast(new SimpleChannelInboundHandler<WebSocketFrame>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) {
+                                    received.get().countDown();
+                                }
+                            });
+                        }
+                    });
+
+            MessageResponse response = new MessageResponse.Builder()
+                    .docId("1843212871236741122")
+                    .userId("1843212871236741999")
+                    .type(MessageType.CONTENT_INSERT)
+                    .payload(new HashMap<>(Map.of("content", "a", "pos", 18234, "length", 0, "revision", 81234L)))
+                    .build();
+
+            SessionManager sessionManager = new SessionManager();
+            List<Channel> clients = new ArrayList<>();
+            List<Channel> serverSide = new ArrayList<>();
+            for (int viewers : new int[]{1, 10, 100, 500}) {
+                String docId = "doc-" + viewers;
+                while (clients.size() < viewers) {
+                    clients.add(client.connect(server.localAddress()).sync().channel());
+                    serverSide.add(accepted.take());
+                }
+                for (int i = 0; i < viewers; i++) {
+                    sessionManager.addSessions(docId, "u" + i, serverSide.get(i));
+                }
+                List<Channel> targets = serverSide.subList(0, viewers);
+
+                for (int warm = 0; warm < 2; warm++) {
+                    measure(received, viewers, () -> legacyBroadcast(targets, response));
+                    measure(received, viewers, () -> sessionManager.broadcastToAll(docId, response));
+                }
+                long[] legacy = measure(received, viewers, () -> legacyBroadcast(targets, response));
+                long[] fanOut = measure(received, viewers, () -> sessionManager.broadcastToAll(docId, response));
+                System.out.printf("viewers=%-4d legacy p50=%7.1fus p99=%7.1fus | fan-out p50=%7.1fus p99=%7.1fus%n",
+                        viewers, legacy[0] / 1e3, legacy[1] / 1e3, fanOut[0] / 1e3, fanOut[1] / 1e3);
+            }
+            for (Channel ch : clients) {
+                ch.close();
+            }
+            server.close().sync();
+        } finally {
+            boss.shutdownGracefully();
+            serverWorkers.shutdownGracefully();
+            clientWorkers.shutdownGracefully();
+        }
+    }
+
+    /**
+     * 旧实现：每个接收方序列化后的字符串 new 一个帧，逐个 writeAndFlush
+     */
+    private static void legacyBroadcast(List<Channel> targets, MessageResponse response) {
+        String json = response.toJson();
+        for (Channel channel : targets) {
+            if (channel.isActive()) {
+                channel.writeAndFlush(new TextWebSocketFrame(json));
+            }
+        }
+    }
+
+    /**
+     * @return {p50, p99} 纳秒
+     */
+    private static long[] measure(AtomicReference<CountDownLatch> received, int viewers, Runnable broadcast) throws Exception {
+        long[] samples = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            CountDownLatch latch = new CountDownLatch(viewers);
+            received.set(latch);
+            long start = System.nanoTime();
+            broadcast.run();
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("broadcast not delivered");
+            }
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return new long[]{samples[ROUNDS / 2], samples[ROUNDS * 99 / 100]};
+    }
+}
@@ -0,0 +1,50 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.service.PermissionEvaluatorService;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import com.cowrite.project.service.event.DocumentPermissionChangedEvent;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PermissionChangeListenerTest {
+
+    @Test
+    public void testOnlyAffectedUserIsUpdatedAndNotified() {
+        SessionManager sessionManager = new SessionManager();
+        PermissionEvaluatorService evaluator = mock(PermissionEvaluatorService.class);
+        when(evaluator.permissionOf("alice", "doc")).thenReturn(PermissionLevel.VIEW);
+        EmbeddedChannel alice = bind(sessionManager, "alice", PermissionLevel.EDIT);
+        EmbeddedChannel bob = bind(sessionManager, "bob", PermissionLevel.EDIT);
+        PermissionChangeListener listener = new PermissionChangeListener(sessionManager, evaluator);
+
+        listener.onPermissionChanged(new DocumentPermissionChangedEvent("doc", "alice"));
+
+        assertFalse(DocumentAccess.of(alice).canEdit());
+        TextWebSocketFrame frame = alice.readOutbound();
+        MessageResponse push = MessageResponse.fromJson(frame.text());
+        frame.release();
+        assertEquals(MessageType.PERMISSION_CHANGE, push.getType());
+        assertEquals("VIEW", push.getPayload().get("permission"));
+
+        assertTrue(DocumentAccess.of(bob).canEdit());
+        assertNull(bob.readOutbound());
+        verify(evaluator, never()).permissionOf("bob", "doc");
+
+        // 权限没有变化时不推送
+        listener.onPermissionChanged(new DocumentPermissionChangedEvent("doc", "alice"));
+        assertNull(alice.readOutbound());
+    }
+
+    private static EmbeddedChannel bind(SessionManager sessionManager, String userId, PermissionLevel level) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.attr(DocumentAccess.KEY).set(new DocumentAccess(userId, "doc", level));
+        sessionManager.addSessions("doc", userId, channel);
+        return channel;
+    }
+}
@@ -0,0 +1,100 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.config.PresenceProperties;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceTrackerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SessionManager sessionManager = new SessionManager();
+    private final EmbeddedChannel alice = new EmbeddedChannel();
+    private final EmbeddedChannel bob = new EmbeddedChannel();
+    private PresenceTracker tracker;
+
+    @BeforeEach
+    public void setUp() {
+        sessionManager.addSessions("doc", "alice", alice);
+        sessionManager.addSessions("doc", "bob", bob);
+        PresenceProperties props = new PresenceProperties();
+        ReflectionTestUtils.setField(props, "typingTimeoutMillis", 50L);
+        tracker = new PresenceTracker(sessionManager, props, registry);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnlyLatestCursorIsSentOncePerTick() {
+        tracker.updateCursor("doc", "alice", 1, 1);
+        tracker.updateCursor("doc", "alice", 2, 2);
+        tracker.updateCursor("doc", "alice", 3, 4);
+        tracker.tick();
+
+        MessageResponse frame = read(bob);
+        assertEquals(MessageType.PRESENCE, frame.getType());
+        List<Map<String, Object>> cursors = (List<Map<String, Object>>) frame.getPayload().get("cursors");
+        assertEquals(1, cursors.size());
+        assertEquals("alice", cursors.get(0).get("userId"));
+        assertEquals(3, cursors.get(0).get("x"));
+        assertEquals(4, cursors.get(0).get("y"));
+        assertNull(bob.readOutbound());
+        assertNotNull(read(alice));
+
+        // 没有变化（包括移动到同一位置）时不发送
+        tracker.tick();
+        tracker.updateCursor("doc", "alice", 3, 4);
+        tracker.tick();
+        assertNull(bob.readOutbound());
+        assertEquals(4.0, registry.get("cowrite.presence.updates").counter().count());
+        assertEquals(1.0, registry.get("cowrite.presence.cursors.sent").counter().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTypingStartAndStopRideTheTick() throws Exception {
+        tracker.markTyping("doc", "bob");
+        tracker.tick();
+        Map<String, Object> typing = (Map<String, Object>) read(alice).getPayload().get("typing");
+        assertEquals(Boolean.TRUE, typing.get("bob"));
+
+        tracker.markTyping("doc", "bob");
+        tracker.tick();
+        assertNull(alice.readOutbound());
+
+        Thread.sleep(80);
+        tracker.tick();
+        typing = (Map<String, Object>) read(alice).getPayload().get("typing");
+        assertEquals(Boolean.FALSE, typing.get("bob"));
+    }
+
+    @Test
+    public void testOfflineUsersAreDropped() {
+        tracker.updateCursor("doc", "carol", 5, 5);
+        tracker.tick();
+        // carol 不在线：不下发，且从状态中移除
+        assertNull(alice.readOutbound());
+        sessionManager.addSessions("doc", "carol", new EmbeddedChannel());
+        tracker.tick();
+        assertNull(alice.readOutbound());
+    }
+
+    private static MessageResponse read(EmbeddedChannel channel) {
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertNotNull(frame);
+        try {
+            return MessageResponse.fromJson(frame.text());
+        } finally {
+            frame.release();
+        }
+    }
+}
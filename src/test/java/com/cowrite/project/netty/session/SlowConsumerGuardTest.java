@@ -0,0 +1,118 @@
+package com.cowrite.project.netty.session;
+
+import com.cowrite.project.config.SlowConsumerProperties;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.ot.RopeDocumentBuffer;
+import com.cowrite.project.netty.protocol.MessageResponse;
+import com.cowrite.project.netty.protocol.MessageType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlowConsumerGuardTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SessionManager sessionManager = new SessionManager();
+    private EmbeddedChannel slow;
+    private EmbeddedChannel fast;
+
+    @BeforeEach
+    public void setUp() {
+        SlowConsumerProperties props = new SlowConsumerProperties();
+        ReflectionTestUtils.setField(props, "enabled", true);
+        ReflectionTestUtils.setField(props, "deadlineMillis", 1000L);
+        OTEngineRegistry engines = new OTEngineRegistry();
+        engines.setLoader(id -> new OTEngine(new RopeDocumentBuffer("hello")));
+        engines.engineFor("doc");
+        ReflectionTestUtils.setField(sessionManager, "slowConsumerGuard",
+                new SlowConsumerGuard(engines, props, registry));
+
+        ChannelInboundHandlerAdapter writability = new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                sessionManager.channelWritabilityChanged(ctx.channel());
+            }
+        };
+        slow = new EmbeddedChannel(writability);
+        slow.config().setWriteBufferWaterMark(new WriteBufferWaterMark(16, 32));
+        slow.freezeTime();
+        fast = new EmbeddedChannel();
+        sessionManager.addSessions("doc", "slow", slow);
+        sessionManager.addSessions("doc", "fast", fast);
+    }
+
+    @Test
+    public void testDegradedChannelGetsOneSnapshotAfterDraining() {
+        // 未 flush 的数据越过高水位
+        slow.write(Unpooled.wrappedBuffer(new byte[64]));
+        assertFalse(slow.isWritable());
+
+        for (int i = 0; i < 10; i++) {
+            sessionManager.broadcastToAll("doc", "op-" + i);
+        }
+        slow.runPendingTasks();
+        assertEquals(10, drain(fast));
+        assertEquals(1.0, registry.get("cowrite.netty.channels.degraded").gauge().value());
+
+        // 排空：只收到积压的数据和一帧快照，中间的广播没有排队
+        slow.flush();
+        slow.runPendingTasks();
+        ByteBuf backlog = slow.readOutbound();
+        assertEquals(64, backlog.readableBytes());
+        backlog.release();
+        TextWebSocketFrame frame = slow.readOutbound();
+        MessageResponse snapshot = MessageResponse.fromJson(frame.text());
+        frame.release();
+        assertEquals(MessageType.DOCUMENT_UPDATE, snapshot.getType());
+        assertEquals(Boolean.TRUE, snapshot.getPayload().get("resync"));
+        assertEquals("hello", snapshot.getPayload().get("content"));
+        assertNull(slow.readOutbound());
+        assertEquals(0.0, registry.get("cowrite.netty.channels.degraded").gauge().value());
+        assertEquals(1.0, registry.get("cowrite.netty.channels.resynced").counter().count());
+
+        // 恢复后正常接收广播
+        sessionManager.broadcastToAll("doc", "op-10");
+        slow.runPendingTasks();
+        assertEquals(1, drain(slow));
+    }
+
+    @Test
+    public void testChannelStuckPastDeadlineIsClosed() {
+        slow.write(Unpooled.wrappedBuffer(new byte[64]));
+        sessionManager.broadcastToAll("doc", "op");
+        slow.runPendingTasks();
+
+        slow.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+        slow.runScheduledPendingTasks();
+        assertTrue(slow.isActive());
+
+        slow.advanceTimeBy(2, TimeUnit.MILLISECONDS);
+        slow.runScheduledPendingTasks();
+        assertFalse(slow.isActive());
+        assertEquals(1.0, registry.get("cowrite.netty.channels.evicted").counter().count());
+        assertEquals(0.0, registry.get("cowrite.netty.channels.degraded").gauge().value());
+    }
+
+    private static int drain(EmbeddedChannel channel) {
+        int frames = 0;
+        for (Object msg = channel.readOutbound(); msg != null; msg = channel.readOutbound()) {
+            ReferenceCountUtil.release(msg);
+            frames++;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,96 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.config.DocumentSchedulerProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentExecutorManagerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private DocumentExecutorManager manager;
+
+    @AfterEach
+    public void tearDown() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testTasksRunInOrderPerDocument() throws Exception {
+        manager = newManager(4, 100_000, 0);
+        int docs = 8;
+        int perDoc = 2000;
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(docs * perDoc);
+        for (int i = 0; i < perDoc; i++) {
+            for (int d = 0; d < docs; d++) {
+                String docId = "doc-" + d;
+                int seq = i;
+                assertTrue(manager.execute(docId, () -> {
+                    seen.computeIfAbsent(docId, k -> Collections.synchronizedList(new ArrayList<>())).add(seq);
+                    done.countDown();
+                }));
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> order : seen.values()) {
+            for (int i = 0; i < perDoc; i++) {
+                assertEquals(i, order.get(i));
+            }
+        }
+        assertEquals(docs * perDoc, registry.get("cowrite.doc.mailbox.wait").timer().count());
+    }
+
+    @Test
+    public void testRejectsWhenMailboxIsFull() throws Exception {
+        manager = newManager(1, 3, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(manager.execute("hot", () -> await(release)));
+        assertTrue(manager.execute("hot", () -> { }));
+        assertTrue(manager.execute("hot", () -> { }));
+        assertFalse(manager.execute("hot", () -> { }));
+        assertEquals(1.0, registry.get("cowrite.doc.mailbox.rejected").counter().count());
+        release.countDown();
+    }
+
+    @Test
+    public void testIdleMailboxesAreEvicted() throws Exception {
+        manager = newManager(2, 10, 0);
+        CountDownLatch done = new CountDownLatch(1);
+        manager.execute("cold", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        manager.evictIdle();
+        assertEquals(0.0, registry.get("cowrite.doc.mailbox.count").gauge().value());
+    }
+
+    private DocumentExecutorManager newManager(int threads, int maxDepth, long idleMillis) {
+        DocumentSchedulerProperties props = new DocumentSchedulerProperties();
+        ReflectionTestUtils.setField(props, "workerThreads", threads);
+        ReflectionTestUtils.setField(props, "maxMailboxDepth", maxDepth);
+        ReflectionTestUtils.setField(props, "drainBatch", 16);
+        ReflectionTestUtils.setField(props, "idleEvictMillis", idleMillis);
+        return new DocumentExecutorManager(props, registry);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.cowrite.project.netty.stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentWriteBehindTest {
+
+    private static final long DEBOUNCE = 2000;
+
+    private static final long MAX_DELAY = 10000;
+
+    @Test
+    public void testWritesAfterQuietPeriod() {
+        DocumentWriteBehind.DirtyState state = new DocumentWriteBehind.DirtyState();
+        state.observe(1, null, 0);
+        assertTrue(state.isDirty());
+        assertFalse(state.isDue(1000, DEBOUNCE, MAX_DELAY));
+        assertTrue(state.isDue(2000, DEBOUNCE, MAX_DELAY));
+
+        state.persisted(1, null, 2000);
+        state.observe(1, null, 3000);
+        assertFalse(state.isDirty());
+    }
+
+    @Test
+    public void testContinuousEditsBoundedByMaxDelay() {
+        DocumentWriteBehind.DirtyState state = new DocumentWriteBehind.DirtyState();
+        long now = 0;
+        for (int revision = 1; now < MAX_DELAY; revision++, now += 500) {
+            state.observe(revision, null, now);
+            assertFalse(state.isDue(now, DEBOUNCE, MAX_DELAY), "at " + now);
+        }
+        state.observe(100, null, now);
+        assertTrue(state.isDue(now, DEBOUNCE, MAX_DELAY));
+    }
+
+    @Test
+    public void testChangesAfterCaptureStayDirty() {
+        DocumentWriteBehind.DirtyState state = new DocumentWriteBehind.DirtyState();
+        state.observe(5, null, 0);
+        // 截取时版本为 5，写入期间又到了版本 6
+        state.observe(6, null, 3000);
+        state.persisted(5, null, 2500);
+        assertTrue(state.isDirty());
+        assertEquals(2500, state.firstDirtyAt);
+        assertTrue(state.isDue(12500, DEBOUNCE, MAX_DELAY));
+    }
+
+    @Test
+    public void testAppliedStreamEntryMarksDirty() {
+        DocumentWriteBehind.DirtyState state = new DocumentWriteBehind.DirtyState();
+        state.observe(5, RecordId.of("1-0"), 0);
+        state.persisted(5, RecordId.of("1-0"), 0);
+        assertFalse(state.isDirty());
+
+        // 条目被处理但没有改变内容（例如基线过期被拒绝），快照覆盖点仍需前移
+        state.observe(5, RecordId.of("2-0"), 1000);
+        assertTrue(state.isDirty());
+    }
+}
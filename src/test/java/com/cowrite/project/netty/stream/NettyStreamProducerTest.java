@@ -0,0 +1,88 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.config.RedisCombinerProperties;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class NettyStreamProducerTest {
+
+    private RedisTemplate<String, Object> redisTemplate;
+    private NettyStreamProducer producer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        redisTemplate = mock(RedisTemplate.class);
+        StringRedisSerializer serializer = new StringRedisSerializer();
+        doReturn(serializer).when(redisTemplate).getKeySerializer();
+        doReturn(serializer).when(redisTemplate).getHashKeySerializer();
+        doReturn(mock(RedisSerializer.class)).when(redisTemplate).getHashValueSerializer();
+        doReturn(serializer).when(redisTemplate).getValueSerializer();
+        RedisCombinerProperties props = new RedisCombinerProperties();
+        ReflectionTestUtils.setField(props, "maxBatch", 50);
+        ReflectionTestUtils.setField(props, "maxFlushMillis", 10000L);
+        ReflectionTestUtils.setField(props, "ringCapacity", 1024);
+        producer = new NettyStreamProducer(redisTemplate, props, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        producer.shutdown();
+    }
+
+    @Test
+    public void testFlushedRingIsRemoved() {
+        producer.publishToStream(op("doc-1"));
+        producer.publishToStream(op("doc-2"));
+        assertEquals(2, rings().size());
+
+        producer.flushAll();
+
+        assertTrue(rings().isEmpty());
+        // 回收后再次编辑的文档使用新的缓冲区
+        assertTrue(producer.offerToStream(op("doc-1")));
+        assertEquals(1, rings().size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRingKeptWhenWriteFails() {
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenThrow(new IllegalStateException("down"));
+        producer.publishToStream(op("doc-1"));
+
+        producer.flushAll();
+
+        // 退回的操作仍在缓冲区中等待重试
+        assertEquals(1, rings().get("doc-1").size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, OpRing> rings() {
+        return (Map<String, OpRing>) ReflectionTestUtils.getField(producer, "rings");
+    }
+
+    private static NettyMessage op(String docId) {
+        return NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT)
+                .docId(docId)
+                .userId("u1")
+                .content("x")
+                .pos(0)
+                .build();
+    }
+}
@@ -0,0 +1,100 @@
+package com.cowrite.project.netty.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpRingTest {
+
+    @Test
+    public void testDrainKeepsOrderAcrossWrapAround() {
+        OpRing ring = new OpRing("doc", 4);
+        assertEquals(1, ring.offer("a"));
+        assertEquals(2, ring.offer("b"));
+        assertEquals(3, ring.offer("c"));
+        assertEquals(Arrays.asList("a", "b"), ring.drain(2));
+
+        assertEquals(2, ring.offer("d"));
+        assertEquals(3, ring.offer("e"));
+        assertEquals(4, ring.offer("f"));
+        assertEquals(Arrays.asList("c", "d", "e", "f"), ring.drain(10));
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void testOfferRejectedWhenFull() {
+        OpRing ring = new OpRing("doc", 2);
+        ring.offer("a");
+        ring.offer("b");
+        assertEquals(-1, ring.offer("c"));
+        assertEquals(Collections.singletonList("a"), ring.drain(1));
+        assertEquals(2, ring.offer("c"));
+    }
+
+    @Test
+    public void testRequeuedBatchesComeFirstInOriginalOrder() {
+        OpRing ring = new OpRing("doc", 6);
+        for (String op : new String[]{"a", "b", "c", "d", "e"}) {
+            ring.offer(op);
+        }
+        List<String> first = ring.drain(2);
+        List<String> second = ring.drain(2);
+        assertEquals(2, ring.offer("f"));
+        // 写入失败：按取出的相反顺序退回
+        ring.requeue(second);
+        ring.requeue(first);
+        assertEquals(6, ring.size());
+        // 退回的元素计入容量
+        assertEquals(-1, ring.offer("g"));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), ring.drain(10));
+    }
+
+    @Test
+    public void testQueuedFlagIsExclusive() {
+        OpRing ring = new OpRing("doc", 2);
+        assertTrue(ring.markQueued());
+        assertFalse(ring.markQueued());
+        ring.clearQueued();
+        assertTrue(ring.markQueued());
+    }
+
+    @Test
+    public void testSlotsGrowUpToCapacityInOrder() {
+        OpRing ring = new OpRing("doc", 40);
+        assertEquals(1, ring.offer("0"));
+        ring.drain(1);
+        // 环头不在 0 时扩容，元素仍按提交顺序取出
+        for (int i = 1; i <= 40; i++) {
+            assertEquals(i, ring.offer(String.valueOf(i)));
+        }
+        assertEquals(OpRing.FULL, ring.offer("41"));
+        List<String> drained = ring.drain(100);
+        assertEquals(40, drained.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(String.valueOf(i + 1), drained.get(i));
+        }
+    }
+
+    @Test
+    public void testOnlyEmptyUnqueuedRingIsRetired() {
+        OpRing ring = new OpRing("doc", 4);
+        ring.offer("a");
+        assertFalse(ring.retire());
+        List<String> batch = ring.drain(4);
+        assertTrue(ring.markQueued());
+        assertFalse(ring.retire());
+        ring.clearQueued();
+        // 写入失败退回的元素同样阻止回收
+        ring.requeue(batch);
+        assertFalse(ring.retire());
+        ring.drain(4);
+
+        assertTrue(ring.retire());
+        assertFalse(ring.retire());
+        assertEquals(OpRing.RETIRED, ring.offer("b"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedisStreamConsumerManagerTest {
+
+    @Test
+    public void testOwnershipMovesOnlyFromDepartedNode() {
+        List<String> nodes = Arrays.asList("node-a", "node-b", "node-c", "node-d");
+        List<String> remaining = Arrays.asList("node-a", "node-b", "node-d");
+        Map<String, Integer> load = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            String docId = String.valueOf(1843212871236741122L + i);
+            String before = RedisStreamConsumerManager.ownerOf(docId, nodes);
+            String after = RedisStreamConsumerManager.ownerOf(docId, remaining);
+            load.merge(before, 1, Integer::sum);
+            if (!"node-c".equals(before)) {
+                assertEquals(before, after, docId);
+            } else {
+                assertNotEquals("node-c", after);
+            }
+        }
+        // 分布大致均匀
+        for (String node : nodes) {
+            assertTrue(load.get(node) > 2000, node + " owns " + load.get(node));
+        }
+    }
+
+    @Test
+    public void testOwnerIndependentOfNodeOrder() {
+        List<String> nodes = Arrays.asList("node-a", "node-b", "node-c");
+        List<String> reversed = Arrays.asList("node-c", "node-b", "node-a");
+        for (int i = 0; i < 1000; i++) {
+            String docId = "doc-" + i;
+            assertEquals(RedisStreamConsumerManager.ownerOf(docId, nodes),
+                    RedisStreamConsumerManager.ownerOf(docId, reversed));
+        }
+        assertNull(RedisStreamConsumerManager.ownerOf("doc", Collections.emptyList()));
+    }
+
+    @Test
+    public void testShardAndStreamKey() {
+        for (int i = 0; i < 1000; i++) {
+            int shard = RedisStreamConsumerManager.shardOf("doc-" + i, 4);
+            assertTrue(shard >= 0 && shard < 4);
+        }
+        assertEquals("42", RedisStreamConsumerManager.docIdOf(NettyStreamProducer.streamKey("42")));
+    }
+
+    @Test
+    public void testDecodeBatchEntry() {
+        NettyMessage first = NettyMessage.builder()
+                .operationType(MessageType.CONTENT_INSERT).docId("42").userId("u-1").content("a").pos(0).revision(3L).build();
+        NettyMessage second = NettyMessage.builder()
+                .operationType(MessageType.CONTENT_DELETE).docId("42").userId("u-1").length(1).pos(0).revision(4L).build();
+        Map<Object, Object> body = Collections.singletonMap(NettyStreamProducer.OPS_FIELD,
+                Arrays.asList(first.toJson(), second.toJson()));
+        MapRecord<String, Object, Object> record = StreamRecords.newRecord().in("doc:42:stream").ofMap(body);
+
+        List<NettyMessage> messages = RedisStreamConsumerManager.decode(record);
+
+        assertEquals(2, messages.size());
+        assertEquals(MessageType.CONTENT_INSERT, messages.get(0).getOperationType());
+        assertEquals("a", messages.get(0).getContent());
+        assertEquals(MessageType.CONTENT_DELETE, messages.get(1).getOperationType());
+        assertEquals(Long.valueOf(4L), messages.get(1).getRevision());
+    }
+
+    @Test
+    public void testBusyGroupIsDetectedThroughCauses() {
+        RuntimeException busy = new RuntimeException("Error in execution",
+                new IllegalStateException("BUSYGROUP Consumer Group name already exists"));
+
+        assertTrue(RedisStreamConsumerManager.isBusyGroup(busy));
+        assertFalse(RedisStreamConsumerManager.isBusyGroup(new RuntimeException("WRONGTYPE Operation against a key")));
+    }
+
+    @Test
+    public void testUndeliveredAge() {
+        long now = 100_000;
+        // 已全部投递
+        assertEquals(0, StreamLagMonitor.undeliveredAge("90000-0", "90000-0", "10000-0", now));
+        // 从最后投递的条目开始计算
+        assertEquals(40_000, StreamLagMonitor.undeliveredAge("90000-0", "60000-3", "10000-0", now));
+        // 最后投递的条目已被裁剪，从首条目开始计算
+        assertEquals(30_000, StreamLagMonitor.undeliveredAge("90000-0", "20000-0", "70000-0", now));
+        // 新建的消费组尚未投递
+        assertEquals(50_000, StreamLagMonitor.undeliveredAge("90000-0", "0-0", "50000-0", now));
+    }
+}
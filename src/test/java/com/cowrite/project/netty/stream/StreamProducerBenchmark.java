@@ -0,0 +1,101 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.config.RedisCombinerProperties;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对本地 Redis 测量 {@link NettyStreamProducer} 的 JVM 侧合并 + pipeline XADD。
+ * <p>
+ * 运行：main [host] [port] [docs] [opsPerDoc]，默认 localhost 6379 100 200。会写入 doc:bench-*:stream，结束后删除。
+ * 输出吞吐、单次提交的 p99，以及每个操作对应的 XADD 数。
+ */
+public class StreamProducerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int docs = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int opsPerDoc = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        factory.afterPropertiesSet();
+        RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(factory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new GenericJackson2JsonRedisSerializer(new ObjectMapper()));
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer(new ObjectMapper()));
+        template.afterPropertiesSet();
+
+        RedisCombinerProperties props = new RedisCombinerProperties();
+        ReflectionTestUtils.setField(props, "maxBatch", 50);
+        ReflectionTestUtils.setField(props, "maxFlushMillis", 50L);
+        ReflectionTestUtils.setField(props, "ringCapacity", 1024);
+
+        NettyMessage[] messages = new NettyMessage[docs * opsPerDoc];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = NettyMessage.builder()
+                    .operationType(MessageType.CONTENT_INSERT)
+                    .docId("bench-" + (i % docs))
+                    .userId("u-" + (i % 7))
+                    .content("x")
+                    .pos(i / docs)
+                    .timestamp(System.currentTimeMillis())
+                    .revision((long) (i / docs))
+                    .build();
+        }
+
+        try {
+            cleanup(template, docs);
+            long[] latencies = new long[messages.length];
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            NettyStreamProducer producer = new NettyStreamProducer(template, props, registry);
+            long start = System.nanoTime();
+            for (int i = 0; i < messages.length; i++) {
+                long t = System.nanoTime();
+                producer.publishToStream(messages[i]);
+                latencies[i] = System.nanoTime() - t;
+            }
+            producer.flushAll();
+            long elapsed = System.nanoTime() - start;
+            double xadds = registry.get("cowrite.stream.xadd").counter().count();
+            report("jvm ring", messages.length, elapsed, latencies, xadds / messages.length);
+            Timer flush = registry.get("cowrite.stream.flush").timer();
+            for (ValueAtPercentile p : flush.takeSnapshot().percentileValues()) {
+                System.out.printf("  pipeline flush p%.0f = %.0f us%n", p.percentile() * 100, p.value(TimeUnit.MICROSECONDS));
+            }
+            producer.shutdown();
+        } finally {
+            cleanup(template, docs);
+            factory.destroy();
+        }
+    }
+
+    private static void report(String name, int ops, long elapsedNanos, long[] latencies, double commandsPerOp) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-10s ops=%d throughput=%.0f ops/s submit p50=%.1f us p99=%.1f us redis commands/op=%.3f%n",
+                name, ops, ops / (elapsedNanos / 1e9),
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3, commandsPerOp);
+    }
+
+    private static void cleanup(RedisTemplate<String, Object> template, int docs) {
+        for (int d = 0; d < docs; d++) {
+            template.delete("doc:bench-" + d + ":stream");
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.config.DocumentSchedulerProperties;
+import com.cowrite.project.netty.cluster.ClusterRelay;
+import com.cowrite.project.netty.handler.ContentInsertHandler;
+import com.cowrite.project.netty.handler.MessageHandler;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.ot.Operation;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.netty.session.PresenceTracker;
+import com.cowrite.project.netty.session.SessionManager;
+import com.cowrite.project.service.DocumentAuditLogService;
+import com.cowrite.project.service.PermissionEvaluatorService;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.ChannelHandlerContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class StreamRecordProcessorTest {
+
+    private static final String STREAM = NettyStreamProducer.streamKey("42");
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FakeStreamStore store = new FakeStreamStore();
+    private final List<DocumentExecutorManager> executors = new ArrayList<>();
+    private ClusterRelay.Route route = ClusterRelay.Route.LOCAL;
+
+    @AfterEach
+    public void tearDown() {
+        executors.forEach(DocumentExecutorManager::shutdown);
+    }
+
+    @Test
+    public void testAckedOnlyAfterApply() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger applied = new AtomicInteger();
+        StreamRecordProcessor processor = processor(executor(100), message -> {
+            await(release);
+            applied.incrementAndGet();
+        }, 5);
+
+        MapRecord<String, Object, Object> record = store.append(insert("a", "b"));
+        store.deliver(record.getId(), "c-1");
+        processor.process(Collections.singletonList(record));
+
+        // 处理器还没执行完，不能确认
+        assertEquals(0, processor.flushAcks());
+        assertTrue(store.acked.isEmpty());
+        assertNull(processor.lastApplied("42"));
+
+        release.countDown();
+        eventually(() -> processor.flushAcks() > 0 || !store.acked.isEmpty());
+        assertEquals(Collections.singletonList(record.getId()), store.acked);
+        assertEquals(2, applied.get());
+        assertEquals(record.getId(), processor.lastApplied("42"));
+        assertTrue(store.pel.isEmpty());
+    }
+
+    @Test
+    public void testFailedEntryReclaimedAndRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        StreamRecordProcessor processor = processor(executor(100), message -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("mongo down");
+            }
+        }, 5);
+
+        MapRecord<String, Object, Object> record = store.append(insert("a"));
+        store.deliver(record.getId(), "dead-consumer");
+        processor.process(Collections.singletonList(record));
+        eventually(() -> calls.get() == 1);
+        assertEquals(0, processor.flushAcks());
+        assertTrue(store.pel.containsKey(record.getId()));
+
+        // 回收：原消费者的条目被转给新的消费者并重新处理
+        assertEquals(1, processor.recover("42", "c-2"));
+        assertEquals("c-2", store.owners.get(record.getId()));
+        eventually(() -> calls.get() == 2);
+        eventually(() -> processor.flushAcks() > 0 || !store.acked.isEmpty());
+        assertEquals(Collections.singletonList(record.getId()), store.acked);
+        assertTrue(store.deadLetters.isEmpty());
+    }
+
+    @Test
+    public void testFailedEntryBlocksLaterEntriesOfDocument() {
+        List<String> applied = new CopyOnWriteArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        DocumentExecutorManager executor = executor(100);
+        StreamRecordProcessor processor = processor(executor, message -> {
+            if ("n".equals(message.getContent()) && failures.getAndIncrement() == 0) {
+                throw new IllegalStateException("mongo down");
+            }
+            applied.add(message.getContent());
+        }, 5);
+
+        MapRecord<String, Object, Object> failing = store.append(insert("n"));
+        MapRecord<String, Object, Object> next = store.append(insert("n+1"));
+        store.deliver(failing.getId(), "c-1");
+        store.deliver(next.getId(), "c-1");
+        processor.process(Arrays.asList(failing, next));
+        eventually(() -> failures.get() == 1);
+
+        // 第 N 条失败：第 N+1 条不应用也不确认
+        assertEquals(0, processor.flushAcks());
+        assertTrue(applied.isEmpty());
+        assertTrue(store.pel.containsKey(next.getId()));
+
+        // 阻塞期间新投递的条目同样等待
+        MapRecord<String, Object, Object> later = store.append(insert("n+2"));
+        store.deliver(later.getId(), "c-1");
+        processor.process(Collections.singletonList(later));
+        drain(executor);
+
+        // 回收时第 N 条先重试，之后的条目按顺序跟上
+        processor.recover("42", "c-2");
+        eventually(() -> applied.size() == 3);
+        assertEquals(Arrays.asList("n", "n+1", "n+2"), applied);
+        eventually(() -> processor.flushAcks() > 0 || store.acked.size() == 3);
+        assertEquals(Arrays.asList(failing.getId(), next.getId(), later.getId()), store.acked);
+        assertEquals(later.getId(), processor.lastApplied("42"));
+    }
+
+    @Test
+    public void testDeadLetteredEntryUnblocksLaterEntries() {
+        List<String> applied = new CopyOnWriteArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        DocumentExecutorManager executor = executor(100);
+        StreamRecordProcessor processor = processor(executor, message -> {
+            if ("poison".equals(message.getContent())) {
+                failures.incrementAndGet();
+                throw new IllegalArgumentException("bad op");
+            }
+            applied.add(message.getContent());
+        }, 1);
+
+        MapRecord<String, Object, Object> poison = store.append(insert("poison"));
+        MapRecord<String, Object, Object> next = store.append(insert("next"));
+        store.deliver(poison.getId(), "c-1");
+        store.deliver(next.getId(), "c-1");
+        processor.process(Arrays.asList(poison, next));
+        drain(executor);
+        assertEquals(1, failures.get());
+        assertEquals(0, processor.flushAcks());
+
+        // 阻塞点达到投递上限转入死信，之后的条目不受它的投递次数影响
+        processor.recover("42", "c-1");
+        eventually(() -> applied.size() == 1);
+        assertEquals(Collections.singletonList("next"), applied);
+        assertEquals(1, store.deadLetters.size());
+        assertEquals(poison.getId().getValue(), store.deadLetters.get(0).get("sourceId"));
+        eventually(() -> processor.flushAcks() > 0 || store.acked.size() == 2);
+        assertEquals(Arrays.asList(poison.getId(), next.getId()), store.acked);
+    }
+
+    @Test
+    public void testPoisonEntryDeadLetteredAfterMaxDeliveries() {
+        AtomicInteger calls = new AtomicInteger();
+        StreamRecordProcessor processor = processor(executor(100), message -> {
+            calls.incrementAndGet();
+            throw new IllegalArgumentException("bad op");
+        }, 3);
+
+        MapRecord<String, Object, Object> record = store.append(insert("a"));
+        store.deliver(record.getId(), "c-1");
+        processor.process(Collections.singletonList(record));
+        for (int attempt = 2; attempt <= 3; attempt++) {
+            int expected = attempt - 1;
+            eventually(() -> calls.get() == expected);
+            processor.recover("42", "c-1");
+        }
+        eventually(() -> calls.get() == 3);
+        assertTrue(store.acked.isEmpty());
+
+        // 第三次投递也失败：转入死信并确认，不再重试
+        assertEquals(1, processor.recover("42", "c-1"));
+        assertEquals(1, store.deadLetters.size());
+        Map<String, Object> dead = store.deadLetters.get(0);
+        assertEquals(StreamRecordProcessor.deadLetterKey("42"), dead.get("stream"));
+        assertEquals(record.getId().getValue(), dead.get("sourceId"));
+        assertEquals(3L, dead.get("deliveries"));
+        assertNotNull(dead.get(NettyStreamProducer.OPS_FIELD));
+        assertEquals(Collections.singletonList(record.getId()), store.acked);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testUnparseableEntryDeadLetteredImmediately() {
+        StreamRecordProcessor processor = processor(executor(100), message -> fail("should not run"), 5);
+        MapRecord<String, Object, Object> record = store.append(Collections.singletonMap("payload", "not json"));
+        store.deliver(record.getId(), "c-1");
+
+        processor.process(Collections.singletonList(record));
+
+        assertEquals(1, store.deadLetters.size());
+        assertTrue(String.valueOf(store.deadLetters.get(0).get("reason")).startsWith("unparseable"));
+        assertEquals(1, processor.flushAcks());
+        assertEquals(Collections.singletonList(record.getId()), store.acked);
+    }
+
+    @Test
+    public void testRejectedByMailboxStaysPending() {
+        AtomicInteger calls = new AtomicInteger();
+        StreamRecordProcessor processor = processor(executor(0), message -> calls.incrementAndGet(), 5);
+        MapRecord<String, Object, Object> record = store.append(insert("a"));
+        store.deliver(record.getId(), "c-1");
+
+        processor.process(Collections.singletonList(record));
+
+        assertEquals(0, processor.flushAcks());
+        assertTrue(store.pel.containsKey(record.getId()));
+        assertEquals(0, calls.get());
+        assertNull(processor.lastApplied("42"));
+    }
+
+    @Test
+    public void testRedeliveredEntryDoesNotReapplyOps() {
+        OTEngine engine = new OTEngine();
+        AtomicInteger calls = new AtomicInteger();
+        StreamRecordProcessor processor = processor(executor(100), message -> {
+            // 与内容处理器一致：先按操作编号去重再应用
+            if (engine.isApplied(message.getClientId(), message.getSeq())) {
+                return;
+            }
+            if (calls.incrementAndGet() == 2) {
+                throw new IllegalStateException("audit log down");
+            }
+            Operation op = new Operation("42", message.getUserId(), MessageType.CONTENT_INSERT, message.getContent(),
+                    0, engine.getDocument().length(), 0L, null, engine.getRevision());
+            op.clientId = message.getClientId();
+            op.seq = message.getSeq();
+            engine.receive(op);
+        }, 5);
+
+        MapRecord<String, Object, Object> record = store.append(insert("a", "b"));
+        store.deliver(record.getId(), "c-1");
+        processor.process(Collections.singletonList(record));
+        eventually(() -> calls.get() == 2);
+        assertEquals(0, processor.flushAcks());
+
+        processor.recover("42", "c-2");
+        eventually(() -> processor.flushAcks() > 0 || !store.acked.isEmpty());
+        assertEquals("ab", engine.getDocument());
+    }
+
+    @Test
+    public void testOpsRoutedByDocumentOwner() {
+        AtomicInteger calls = new AtomicInteger();
+        StreamRecordProcessor processor = processor(executor(100), message -> calls.incrementAndGet(), 5);
+
+        // 已转发给 owner：确认，本节点不应用
+        route = ClusterRelay.Route.FORWARDED;
+        MapRecord<String, Object, Object> forwarded = store.append(insert("a"));
+        store.deliver(forwarded.getId(), "c-1");
+        processor.process(Collections.singletonList(forwarded));
+        assertEquals(1, processor.flushAcks());
+        assertEquals(Collections.singletonList(forwarded.getId()), store.acked);
+        assertEquals(0, calls.get());
+
+        // owner 暂时未知：不确认，之后的条目也不能越过它被转发
+        route = ClusterRelay.Route.UNKNOWN;
+        MapRecord<String, Object, Object> unknown = store.append(insert("b"));
+        store.deliver(unknown.getId(), "c-1");
+        processor.process(Collections.singletonList(unknown));
+        assertEquals(0, processor.flushAcks());
+        assertTrue(store.pel.containsKey(unknown.getId()));
+
+        route = ClusterRelay.Route.FORWARDED;
+        MapRecord<String, Object, Object> next = store.append(insert("c"));
+        store.deliver(next.getId(), "c-1");
+        processor.process(Collections.singletonList(next));
+        assertEquals(0, processor.flushAcks());
+        assertTrue(store.pel.containsKey(next.getId()));
+    }
+
+    @Test
+    public void testContentHandlerUsesPermissionCarriedFromIngress() {
+        PermissionEvaluatorService evaluator = mock(PermissionEvaluatorService.class);
+        OTEngineRegistry engines = new OTEngineRegistry();
+        ContentInsertHandler handler = new ContentInsertHandler(new SessionManager(), null, evaluator,
+                mock(DocumentAuditLogService.class), mock(PresenceTracker.class), engines);
+        DocumentExecutorManager executor = executor(100);
+        StreamRecordProcessor processor = processor(executor, handler, 5);
+
+        MapRecord<String, Object, Object> viewer = store.append(insert(PermissionLevel.VIEW, "x"));
+        MapRecord<String, Object, Object> editor = store.append(insert(PermissionLevel.EDIT, "a"));
+        store.deliver(viewer.getId(), "c-1");
+        store.deliver(editor.getId(), "c-1");
+        processor.process(Arrays.asList(viewer, editor));
+        drain(executor);
+
+        // 入口处绑定的权限随条目到达，不回退到查库
+        assertEquals("a", engines.get("42").getDocument());
+        verify(evaluator, never()).canEdit(anyString(), anyString());
+    }
+
+    private StreamRecordProcessor processor(DocumentExecutorManager executor,
+                                            java.util.function.Consumer<NettyMessage> body, int maxDeliveries) {
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public MessageType getType() {
+                return MessageType.CONTENT_INSERT;
+            }
+
+            @Override
+            public void handle(ChannelHandlerContext ctx, NettyMessage message) {
+                body.accept(message);
+            }
+        };
+        return processor(executor, handler, maxDeliveries);
+    }
+
+    private StreamRecordProcessor processor(DocumentExecutorManager executor, MessageHandler handler,
+                                            int maxDeliveries) {
+        return new StreamRecordProcessor(store, executor, type -> handler, message -> route,
+                maxDeliveries, Duration.ZERO, registry);
+    }
+
+    private DocumentExecutorManager executor(int maxMailboxDepth) {
+        DocumentSchedulerProperties props = new DocumentSchedulerProperties();
+        ReflectionTestUtils.setField(props, "workerThreads", 1);
+        ReflectionTestUtils.setField(props, "maxMailboxDepth", maxMailboxDepth);
+        ReflectionTestUtils.setField(props, "drainBatch", 64);
+        ReflectionTestUtils.setField(props, "idleEvictMillis", 60000L);
+        DocumentExecutorManager executor = new DocumentExecutorManager(props, new SimpleMeterRegistry());
+        executors.add(executor);
+        return executor;
+    }
+
+    private static Map<Object, Object> insert(String... contents) {
+        return insert((PermissionLevel) null, contents);
+    }
+
+    private static Map<Object, Object> insert(PermissionLevel permission, String... contents) {
+        List<String> ops = new ArrayList<>();
+        long seq = 0;
+        for (String content : contents) {
+            NettyMessage message = NettyMessage.builder()
+                    .operationType(MessageType.CONTENT_INSERT)
+                    .docId("42")
+                    .userId("u-1")
+                    .content(content)
+                    .pos(0)
+                    .revision(0L)
+                    .build();
+            message.setClientId("conn-1");
+            message.setSeq(++seq);
+            message.setPermission(permission);
+            ops.add(message.toJson());
+        }
+        return Collections.singletonMap(NettyStreamProducer.OPS_FIELD, ops);
+    }
+
+    /**
+     * 等待文档邮箱中已提交的任务执行完
+     */
+    private static void drain(DocumentExecutorManager executor) {
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(executor.execute("42", done::countDown));
+        await(done);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void eventually(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met within 5s");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 内存中的单个 Stream + 消费组 PEL
+     */
+    private static final class FakeStreamStore implements StreamStore {
+        final Map<RecordId, MapRecord<String, Object, Object>> entries = new LinkedHashMap<>();
+        final Map<RecordId, Long> pel = Collections.synchronizedMap(new LinkedHashMap<>());
+        final Map<RecordId, String> owners = Collections.synchronizedMap(new HashMap<>());
+        final List<RecordId> acked = new CopyOnWriteArrayList<>();
+        final List<Map<String, Object>> deadLetters = new CopyOnWriteArrayList<>();
+        private long sequence;
+
+        MapRecord<String, Object, Object> append(Map<Object, Object> body) {
+            MapRecord<String, Object, Object> record = StreamRecords.newRecord()
+                    .in(STREAM)
+                    .withId(RecordId.of(1000 + sequence, sequence++))
+                    .ofMap(body);
+            entries.put(record.getId(), record);
+            return record;
+        }
+
+        void deliver(RecordId id, String consumer) {
+            pel.merge(id, 1L, Long::sum);
+            owners.put(id, consumer);
+        }
+
+        @Override
+        public void acknowledge(Map<String, List<RecordId>> acks) {
+            for (List<RecordId> ids : acks.values()) {
+                for (RecordId id : ids) {
+                    if (pel.remove(id) != null) {
+                        acked.add(id);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public List<PendingMessage> pending(String streamKey, long count) {
+            List<PendingMessage> pending = new ArrayList<>();
+            synchronized (pel) {
+                for (Map.Entry<RecordId, Long> entry : pel.entrySet()) {
+                    pending.add(new PendingMessage(entry.getKey(), Consumer.from("doc-group", owners.get(entry.getKey())),
+                            Duration.ofMinutes(5), entry.getValue()));
+                }
+            }
+            return pending;
+        }
+
+        @Override
+        public List<MapRecord<String, Object, Object>> claim(String streamKey, String consumer, Duration minIdle, List<RecordId> ids) {
+            List<MapRecord<String, Object, Object>> claimed = new ArrayList<>();
+            for (RecordId id : ids) {
+                if (pel.containsKey(id)) {
+                    deliver(id, consumer);
+                    claimed.add(entries.get(id));
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public MapRecord<String, Object, Object> get(String streamKey, RecordId id) {
+            return entries.get(id);
+        }
+
+        @Override
+        public void deadLetter(String streamKey, Map<String, Object> fields) {
+            Map<String, Object> copy = new HashMap<>(fields);
+            copy.put("stream", streamKey);
+            deadLetters.add(copy);
+        }
+    }
+}
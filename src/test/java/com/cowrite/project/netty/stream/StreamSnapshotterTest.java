@@ -0,0 +1,164 @@
+package com.cowrite.project.netty.stream;
+
+import com.cowrite.project.mapper.DocumentSnapshotRepository;
+import com.cowrite.project.model.entity.DocumentVersion;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.protocol.NettyMessage;
+import com.cowrite.project.service.DocumentService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class StreamSnapshotterTest {
+
+    private static final String DOC_ID = "42";
+
+    private static final String STREAM_KEY = NettyStreamProducer.streamKey(DOC_ID);
+
+    private final List<MapRecord<String, Object, Object>> entries = new ArrayList<>();
+
+    private DocumentService documentService;
+
+    private RedisStreamConsumerManager consumerManager;
+
+    private StreamSnapshotter snapshotter;
+
+    @BeforeEach
+    public void setUp() {
+        RedisTemplate<String, Object> redisTemplate = redisTemplate();
+        StreamOperations<String, Object, Object> streamOps = streamOperations();
+        doReturn(streamOps).when(redisTemplate).opsForStream();
+        when(redisTemplate.hasKey(STREAM_KEY)).thenReturn(true);
+        when(streamOps.pending(eq(STREAM_KEY), eq(RedisStreamConsumerManager.GROUP_NAME), any(), anyLong()))
+                .thenReturn(new PendingMessages(RedisStreamConsumerManager.GROUP_NAME, Collections.emptyList()));
+        when(streamOps.range(eq(STREAM_KEY), any(), any(Limit.class)))
+                .thenAnswer(invocation -> range(invocation.getArgument(1)));
+
+        StreamInfo.XInfoGroup group = mock(StreamInfo.XInfoGroup.class);
+        when(group.groupName()).thenReturn(RedisStreamConsumerManager.GROUP_NAME);
+        when(group.lastDeliveredId()).thenReturn("110-0");
+        StreamInfo.XInfoGroups groups = mock(StreamInfo.XInfoGroups.class);
+        when(groups.stream()).thenAnswer(invocation -> Stream.of(group));
+        when(streamOps.groups(STREAM_KEY)).thenReturn(groups);
+
+        DocumentSnapshotRepository snapshotRepository = mock(DocumentSnapshotRepository.class);
+        when(snapshotRepository.findById(DOC_ID)).thenReturn(Optional.empty());
+        documentService = mock(DocumentService.class);
+        consumerManager = mock(RedisStreamConsumerManager.class);
+        snapshotter = new StreamSnapshotter(redisTemplate, new OTEngineRegistry(), snapshotRepository,
+                documentService, consumerManager, new SimpleMeterRegistry());
+
+        // "hello" 由 90-0、100-0 两条条目编辑而来，110-0 在保存之后
+        entries.add(entry("90-0", "c-1", 1L, "hell", 0, 0L));
+        entries.add(entry("100-0", "c-1", 2L, "o", 4, 1L));
+        entries.add(entry("110-0", "c-1", 3L, "!", 5, 2L));
+    }
+
+    @Test
+    public void testReplaysAfterSavedStreamId() {
+        // 保存时间晚于 110-0 的写入时间，按时间比较会漏掉它
+        when(documentService.loadPersistedContent(42L)).thenReturn(saved("hello", 2L, "100-0", 200));
+
+        OTEngine engine = snapshotter.load(DOC_ID);
+
+        assertEquals("hello!", engine.getDocument());
+        assertEquals(3L, engine.getRevision());
+        verify(consumerManager).markApplied(DOC_ID, RecordId.of("110-0"));
+    }
+
+    @Test
+    public void testSavedStreamIdCoveringEverythingReplaysNothing() {
+        // 保存时间早于已覆盖的条目，按时间比较会重复应用 110-0
+        when(documentService.loadPersistedContent(42L)).thenReturn(saved("hello!", 3L, "110-0", 50));
+
+        OTEngine engine = snapshotter.load(DOC_ID);
+
+        assertEquals("hello!", engine.getDocument());
+        assertEquals(3L, engine.getRevision());
+        verify(consumerManager).markApplied(DOC_ID, RecordId.of("110-0"));
+    }
+
+    @Test
+    public void testLegacySaveWithoutStreamIdIsNotReplayed() {
+        when(documentService.loadPersistedContent(42L)).thenReturn(saved("hello", 2L, null, 50));
+
+        OTEngine engine = snapshotter.load(DOC_ID);
+
+        assertEquals("hello", engine.getDocument());
+        // 视为已包含当时已投递的全部条目
+        verify(consumerManager).markApplied(DOC_ID, RecordId.of("110-0"));
+    }
+
+    @Test
+    public void testNeverSavedReplaysWholeStream() {
+        when(documentService.loadPersistedContent(42L)).thenReturn(saved("", null, "0-0", 50));
+
+        OTEngine engine = snapshotter.load(DOC_ID);
+
+        assertEquals("hello!", engine.getDocument());
+        assertEquals(3L, engine.getRevision());
+    }
+
+    private List<MapRecord<String, Object, Object>> range(Range<String> range) {
+        RecordId from = RecordId.of(range.getLowerBound().getValue().orElse("0-0"));
+        RecordId to = RecordId.of(range.getUpperBound().getValue().orElse("0-0"));
+        return entries.stream()
+                .filter(e -> StreamRecordProcessor.compare(e.getId(), from) >= 0
+                        && StreamRecordProcessor.compare(e.getId(), to) <= 0)
+                .collect(Collectors.toList());
+    }
+
+    private static DocumentVersion saved(String content, Long revision, String streamId, long savedAt) {
+        DocumentVersion version = new DocumentVersion();
+        version.setContent(content);
+        version.setRevision(revision);
+        version.setStreamId(streamId);
+        version.setCreatedAt(Instant.ofEpochMilli(savedAt));
+        return version;
+    }
+
+    private static MapRecord<String, Object, Object> entry(String id, String clientId, long seq, String content,
+                                                            int pos, long revision) {
+        NettyMessage message = NettyMessage.builder().operationType(MessageType.CONTENT_INSERT)
+                .docId(DOC_ID).userId("u-1").content(content).pos(pos).revision(revision).build();
+        message.setClientId(clientId);
+        message.setSeq(seq);
+        Map<Object, Object> body = Collections.singletonMap(NettyStreamProducer.OPS_FIELD,
+                Collections.singletonList(message.toJson()));
+        return StreamRecords.newRecord().in(STREAM_KEY).withId(RecordId.of(id)).ofMap(body);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisTemplate<String, Object> redisTemplate() {
+        return mock(RedisTemplate.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamOperations<String, Object, Object> streamOperations() {
+        return mock(StreamOperations.class);
+    }
+}
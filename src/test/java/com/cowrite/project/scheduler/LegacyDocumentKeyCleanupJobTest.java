@@ -0,0 +1,22 @@
+package com.cowrite.project.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LegacyDocumentKeyCleanupJobTest {
+
+    @Test
+    public void testOnlyOldLayoutKeysAreLegacy() {
+        assertTrue(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:content"));
+        assertTrue(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:title"));
+        assertTrue(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:editor"));
+        assertTrue(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:savedAt"));
+        assertTrue(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:version"));
+
+        assertFalse(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:state"));
+        assertFalse(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:stream"));
+        assertFalse(LegacyDocumentKeyCleanupJob.isLegacy("doc:42:stream:content"));
+        assertFalse(LegacyDocumentKeyCleanupJob.isLegacy("queue:doc:42"));
+    }
+}
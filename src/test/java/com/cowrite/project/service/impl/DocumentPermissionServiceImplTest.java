@@ -0,0 +1,83 @@
+package com.cowrite.project.service.impl;
+
+import com.cowrite.project.mapper.DocumentPermissionMapper;
+import com.cowrite.project.model.entity.DocumentPermission;
+import com.cowrite.project.service.event.DocumentPermissionChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class DocumentPermissionServiceImplTest {
+
+    private final DocumentPermissionMapper mapper = mock(DocumentPermissionMapper.class);
+    private final ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+
+    private DocumentPermissionServiceImpl service;
+
+    @BeforeEach
+    public void setUp() {
+        service = new DocumentPermissionServiceImpl(publisher);
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        when(mapper.selectById(1L)).thenReturn(row(7L, 42L));
+        when(mapper.updateById(any(DocumentPermission.class))).thenReturn(1);
+    }
+
+    @Test
+    public void testPermissionOnlyUpdateInvalidatesItsPair() {
+        service.updateById(update(null, null));
+        assertEquals(Arrays.asList("7/42"), published());
+    }
+
+    @Test
+    public void testMovedDocumentInvalidatesOldAndNewPair() {
+        service.updateById(update(8L, null));
+        assertEquals(Arrays.asList("7/42", "8/42"), published());
+    }
+
+    @Test
+    public void testMovedUserInvalidatesOldAndNewPair() {
+        service.updateById(update(null, 43L));
+        assertEquals(Arrays.asList("7/42", "7/43"), published());
+    }
+
+    @Test
+    public void testUnchangedIdsPublishOnce() {
+        service.updateById(update(7L, 42L));
+        assertEquals(Arrays.asList("7/42"), published());
+    }
+
+    private List<String> published() {
+        ArgumentCaptor<DocumentPermissionChangedEvent> events = ArgumentCaptor.forClass(DocumentPermissionChangedEvent.class);
+        verify(publisher, atLeast(0)).publishEvent(events.capture());
+        List<String> pairs = new ArrayList<>();
+        for (DocumentPermissionChangedEvent event : events.getAllValues()) {
+            pairs.add(event.getDocId() + "/" + event.getUserId());
+        }
+        return pairs;
+    }
+
+    private static DocumentPermission update(Long documentId, Long userId) {
+        DocumentPermission entity = new DocumentPermission();
+        entity.setId(1L);
+        entity.setDocumentId(documentId);
+        entity.setUserId(userId);
+        entity.setPermission("EDIT");
+        return entity;
+    }
+
+    private static DocumentPermission row(Long documentId, Long userId) {
+        DocumentPermission entity = update(documentId, userId);
+        entity.setPermission("VIEW");
+        return entity;
+    }
+}
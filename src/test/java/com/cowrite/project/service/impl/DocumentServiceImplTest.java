@@ -0,0 +1,175 @@
+package com.cowrite.project.service.impl;
+
+import com.cowrite.project.mapper.DocumentSnapshotRepository;
+import com.cowrite.project.mapper.DocumentVersionRepository;
+import com.cowrite.project.model.entity.Document;
+import com.cowrite.project.model.entity.DocumentSnapshot;
+import com.cowrite.project.model.entity.DocumentVersion;
+import com.cowrite.project.netty.cluster.ClusterRelay;
+import com.cowrite.project.netty.ot.OTEngine;
+import com.cowrite.project.netty.ot.OTEngineRegistry;
+import com.cowrite.project.netty.ot.Operation;
+import com.cowrite.project.netty.protocol.MessageType;
+import com.cowrite.project.netty.stream.DocumentExecutorManager;
+import com.cowrite.project.netty.stream.RedisStreamConsumerManager;
+import com.cowrite.project.netty.stream.StreamSnapshotter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DocumentServiceImplTest {
+
+    private DocumentStateCache stateCache;
+    private DocumentSnapshotRepository snapshotRepository;
+    private OTEngineRegistry engines;
+    private DocumentVersionStore versionStore;
+    private ClusterRelay clusterRelay;
+    private RedisStreamConsumerManager consumerManager;
+    private DocumentServiceImpl service;
+
+    @BeforeEach
+    public void setUp() {
+        stateCache = mock(DocumentStateCache.class);
+        snapshotRepository = mock(DocumentSnapshotRepository.class);
+        engines = new OTEngineRegistry();
+        versionStore = mock(DocumentVersionStore.class);
+        clusterRelay = mock(ClusterRelay.class);
+        consumerManager = mock(RedisStreamConsumerManager.class);
+        DocumentExecutorManager executorManager = mock(DocumentExecutorManager.class);
+        // 邮箱任务在调用线程上同步执行
+        when(executorManager.execute(anyString(), any(Runnable.class))).thenAnswer(invocation -> {
+            invocation.getArgument(1, Runnable.class).run();
+            return true;
+        });
+        service = new DocumentServiceImpl(null, mock(DocumentVersionRepository.class), versionStore,
+                engines, stateCache, snapshotRepository, clusterRelay, executorManager, consumerManager);
+        when(stateCache.get(7L)).thenReturn(Arrays.asList("saved", "标题", "3",
+                String.valueOf(Instant.now().toEpochMilli()), "5", "1700000000000-0"));
+    }
+
+    @Test
+    public void testNewerSnapshotWins() {
+        when(snapshotRepository.findById("7")).thenReturn(Optional.of(snapshot("from snapshot", 9)));
+
+        DocumentVersion latest = service.getLatestContent(7L);
+        assertEquals("from snapshot", latest.getContent());
+        assertEquals(9L, latest.getRevision());
+        assertEquals("标题", latest.getTitle());
+        // 快照没有应用过任何条目
+        assertEquals("0-0", latest.getStreamId());
+    }
+
+    @Test
+    public void testNewerSaveWins() {
+        when(snapshotRepository.findById("7")).thenReturn(Optional.of(snapshot("from snapshot", 4)));
+
+        DocumentVersion latest = service.getLatestContent(7L);
+        assertEquals("saved", latest.getContent());
+        assertEquals(5L, latest.getRevision());
+        assertEquals("1700000000000-0", latest.getStreamId());
+    }
+
+    @Test
+    public void testOpenAfterFirstEditKeepsExistingContent() {
+        when(stateCache.get(8L)).thenReturn(Arrays.asList("hello", "标题", "3", null, null, null));
+        when(snapshotRepository.findById("8")).thenReturn(Optional.empty());
+        when(stateCache.getTitle(8L)).thenReturn("标题");
+        new StreamSnapshotter(redisTemplate(), engines, snapshotRepository, service,
+                consumerManager, new SimpleMeterRegistry()).init();
+
+        // 第一次 WebSocket 编辑创建引擎
+        OTEngine engine = engines.engineFor("8");
+        assertTrue(engine.receive(new Operation("8", "u-1", MessageType.CONTENT_INSERT, "!", 0, 5,
+                System.currentTimeMillis(), null, 0L)));
+
+        DocumentVersion latest = service.getLatestContent(8L);
+        assertEquals("hello!", latest.getContent());
+        assertEquals(1L, latest.getRevision());
+    }
+
+    @Test
+    public void testUnseededEngineIsNotServed() {
+        when(stateCache.get(8L)).thenReturn(Arrays.asList("hello", "标题", "3", null, null, null));
+        when(snapshotRepository.findById("8")).thenReturn(Optional.empty());
+        // 未设置加载器时引擎从空文档开始
+        engines.engineFor("8").receive(new Operation("8", "u-1", MessageType.CONTENT_INSERT, "!", 0, 0,
+                System.currentTimeMillis(), null, 0L));
+
+        assertEquals("hello", service.getLatestContent(8L).getContent());
+    }
+
+    @Test
+    public void testSaveDuringCollaborationKeepsEngineState() {
+        when(stateCache.get(8L)).thenReturn(Arrays.asList("hello", "标题", "3", null, null, null));
+        when(snapshotRepository.findById("8")).thenReturn(Optional.empty());
+        new StreamSnapshotter(redisTemplate(), engines, snapshotRepository, service,
+                consumerManager, new SimpleMeterRegistry()).init();
+        OTEngine engine = engines.engineFor("8");
+        assertTrue(engine.receive(new Operation("8", "u-1", MessageType.CONTENT_INSERT, "!", 0, 5,
+                System.currentTimeMillis(), null, 0L)));
+        when(consumerManager.lastApplied("8")).thenReturn(RecordId.of("1700000000000-3"));
+        DocumentServiceImpl spy = savable(8L);
+
+        // 客户端提交的内容落后于引擎
+        spy.saveNewVersion(8L, "hello", "标题", 3L, "[]");
+
+        verify(stateCache).save(8L, "hello!", "标题", 3L, "[]", 1L, "1700000000000-3");
+        verify(versionStore).append(8L, "标题", "hello!", 3L, 1L, "1700000000000-3");
+    }
+
+    @Test
+    public void testSaveWhileEngineOwnedElsewhereDoesNotOutrankSnapshot() {
+        when(clusterRelay.isOwnedElsewhere("7")).thenReturn(true);
+        DocumentServiceImpl spy = savable(7L);
+
+        spy.saveNewVersion(7L, "stale", "标题", 3L, "[]");
+
+        verify(stateCache).save(7L, "stale", "标题", 3L, "[]", 0L, "0-0");
+    }
+
+    @Test
+    public void testSaveOutsideCollaborationOutranksSnapshot() {
+        when(snapshotRepository.findById("7")).thenReturn(Optional.of(snapshot("from snapshot", 9)));
+        when(consumerManager.lastEntry("7")).thenReturn(RecordId.of("1700000000000-8"));
+        DocumentServiceImpl spy = savable(7L);
+
+        spy.saveNewVersion(7L, "edited", "标题", 3L, "[]");
+
+        // 提交的内容视为包含 Stream 中已有的条目
+        verify(stateCache).save(7L, "edited", "标题", 3L, "[]", 10L, "1700000000000-8");
+    }
+
+    private DocumentServiceImpl savable(Long docId) {
+        DocumentServiceImpl spy = spy(service);
+        Document document = new Document();
+        document.setId(docId);
+        doReturn(document).when(spy).getById(docId);
+        doReturn(true).when(spy).updateById(any(Document.class));
+        when(versionStore.append(anyLong(), anyString(), anyString(), anyLong(), anyLong(), anyString()))
+                .thenReturn(new DocumentVersion());
+        return spy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisTemplate<String, Object> redisTemplate() {
+        return mock(RedisTemplate.class);
+    }
+
+    private static DocumentSnapshot snapshot(String content, long revision) {
+        DocumentSnapshot snapshot = new DocumentSnapshot();
+        snapshot.setId("7");
+        snapshot.setContent(content);
+        snapshot.setRevision(revision);
+        snapshot.setCreatedAt(Instant.now());
+        return snapshot;
+    }
+}
@@ -0,0 +1,103 @@
+package com.cowrite.project.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 对本地 Redis 对比文档保存的两种写法：旧的每字段一个 JSON 键（6 次往返），与 {@link DocumentStateCache} 的 hash + Lua（1 次往返）。
+ * <p>
+ * 运行：main [host] [port] [docs] [contentChars]，默认 localhost 6379 1000 2000。会写入 doc:*:state、queue:doc:* 等键，结束后删除。
+ * 输出每次保存的耗时，以及每个文档的 MEMORY USAGE 合计。
+ */
+public class DocumentStateBenchmark {
+
+    private static final long BASE_ID = 9_000_000_000L;
+
+    public static void main(String[] args) {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int docs = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int chars = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        factory.afterPropertiesSet();
+        RedisTemplate<String, Object> json = new RedisTemplate<>();
+        json.setConnectionFactory(factory);
+        json.setKeySerializer(new StringRedisSerializer());
+        json.setValueSerializer(new GenericJackson2JsonRedisSerializer(new ObjectMapper()));
+        json.afterPropertiesSet();
+        StringRedisTemplate raw = new StringRedisTemplate(factory);
+        DocumentStateCache cache = new DocumentStateCache(raw);
+
+        String content = text(new Random(1), chars);
+        String op = "{\"type\":\"CONTENT_INSERT\",\"pos\":10,\"content\":\"x\"}";
+
+        long start = System.nanoTime();
+        for (int i = 0; i < docs; i++) {
+            String prefix = "doc:" + (BASE_ID + i);
+            json.opsForValue().set(prefix + ":content", content);
+            json.opsForValue().set(prefix + ":title", "标题 " + i);
+            json.opsForValue().set(prefix + ":editor", "42");
+            json.opsForValue().setIfAbsent(prefix + ":version", 1);
+            json.opsForValue().increment(prefix + ":version", 1);
+            json.opsForList().rightPush("queue:" + prefix + ":legacy", op);
+            json.expire("queue:" + prefix + ":legacy", Duration.ofHours(2));
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < docs; i++) {
+            cache.save(BASE_ID + i, content, "标题 " + i, 42L, op, 1L, null);
+        }
+        long hashNanos = System.nanoTime() - start;
+
+        long legacyBytes = 0;
+        long hashBytes = 0;
+        for (int i = 0; i < docs; i++) {
+            String prefix = "doc:" + (BASE_ID + i);
+            legacyBytes += memory(raw, prefix + ":content") + memory(raw, prefix + ":title")
+                    + memory(raw, prefix + ":editor") + memory(raw, prefix + ":version");
+            hashBytes += memory(raw, DocumentStateCache.stateKey(BASE_ID + i));
+        }
+
+        System.out.printf("legacy keys    %8.1f us/save  %,12d bytes (7 commands, 7 round trips)%n",
+                legacyNanos / 1000.0 / docs, legacyBytes);
+        System.out.printf("hash + lua     %8.1f us/save  %,12d bytes (1 round trip)%n",
+                hashNanos / 1000.0 / docs, hashBytes);
+
+        for (int i = 0; i < docs; i++) {
+            String prefix = "doc:" + (BASE_ID + i);
+            raw.delete(Arrays.asList(prefix + ":content", prefix + ":title", prefix + ":editor",
+                    prefix + ":version", "queue:" + prefix + ":legacy",
+                    DocumentStateCache.stateKey(BASE_ID + i), DocumentStateCache.opsKey(BASE_ID + i)));
+        }
+        factory.destroy();
+    }
+
+    private static long memory(StringRedisTemplate template, String key) {
+        Object usage = template.execute((RedisCallback<Object>) connection -> connection.execute("MEMORY",
+                "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)));
+        return usage instanceof Long ? (Long) usage : 0;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // 混合中文、换行与引号，体现 JSON 转义的开销
+            int r = random.nextInt(20);
+            sb.append(r == 0 ? '\n' : r == 1 ? '"' : r < 8 ? (char) ('一' + random.nextInt(500)) : (char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
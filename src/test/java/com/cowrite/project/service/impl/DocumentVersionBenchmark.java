@@ -0,0 +1,100 @@
+package com.cowrite.project.service.impl;
+
+import com.cowrite.project.config.VersionStorageProperties;
+import com.cowrite.project.model.entity.DocumentVersion;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 版本存储基准：N 个版本、每版本几处随机修改的文档，对比全量存储与关键帧 + 增量的存储量、写入耗时与重建耗时。
+ * <p>
+ * 非单元测试（不会被 surefire 执行），手动运行：
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.cowrite.project.service.impl.DocumentVersionBenchmark \
+ *     -Dexec.args="1000 500 20"
+ * </pre>
+ * 参数：版本数、文档大小（K 字符）、关键帧间隔 K。
+ */
+public class DocumentVersionBenchmark {
+
+    public static void main(String[] args) {
+        int versions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int size = (args.length > 1 ? Integer.parseInt(args[1]) : 500) * 1024;
+        int interval = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        VersionStorageProperties props = new VersionStorageProperties();
+        ReflectionTestUtils.setField(props, "keyframeInterval", interval);
+        ReflectionTestUtils.setField(props, "maxDeltaRatio", 0.5);
+        DocumentVersionStore store = new DocumentVersionStore(null, props, null);
+
+        Random random = new Random(7);
+        String content = randomText(random, size);
+        List<DocumentVersion> stored = new ArrayList<>(versions);
+        DocumentVersion previous = null;
+        long fullChars = 0;
+        long storedChars = 0;
+        long encodeNanos = 0;
+        for (int v = 1; v <= versions; v++) {
+            String next = v == 1 ? content : edit(random, content);
+            DocumentVersion version = new DocumentVersion();
+            version.setDocumentId(1L);
+            version.setVersion(v);
+            long start = System.nanoTime();
+            store.encode(version, previous, previous == null ? null : content, next);
+            encodeNanos += System.nanoTime() - start;
+            fullChars += next.length();
+            storedChars += version.getDelta() != null ? version.getDelta().length() : next.length();
+            stored.add(version);
+            previous = version;
+            content = next;
+        }
+
+        // 重建：增量链最长的版本最慢
+        long worst = 0;
+        long total = 0;
+        int samples = Math.min(versions, 200);
+        for (int i = 0; i < samples; i++) {
+            DocumentVersion target = stored.get(random.nextInt(versions));
+            List<DocumentVersion> chain = stored.subList(target.getKeyframeVersion() - 1, target.getVersion());
+            long start = System.nanoTime();
+            DocumentVersionStore.replay(chain, target.getVersion());
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            worst = Math.max(worst, elapsed);
+        }
+
+        System.out.printf("versions=%d size=%dK K=%d%n", versions, size / 1024, interval);
+        System.out.printf("full storage   %,15d chars%n", fullChars);
+        System.out.printf("delta storage  %,15d chars (%.2f%%)%n", storedChars, storedChars * 100.0 / fullChars);
+        System.out.printf("encode         %,15.1f us/version%n", encodeNanos / 1000.0 / versions);
+        System.out.printf("reconstruct    %,15.1f us avg, %,.1f us worst%n", total / 1000.0 / samples, worst / 1000.0);
+    }
+
+    /**
+     * 一个版本内的几处局部修改
+     */
+    private static String edit(Random random, String content) {
+        StringBuilder sb = new StringBuilder(content);
+        for (int edits = 1 + random.nextInt(5); edits > 0; edits--) {
+            int pos = random.nextInt(sb.length());
+            if (random.nextBoolean()) {
+                sb.delete(pos, Math.min(sb.length(), pos + random.nextInt(80)));
+            } else {
+                sb.insert(pos, randomText(random, random.nextInt(80)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
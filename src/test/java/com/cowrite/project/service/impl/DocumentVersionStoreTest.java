@@ -0,0 +1,118 @@
+package com.cowrite.project.service.impl;
+
+import com.cowrite.project.config.VersionStorageProperties;
+import com.cowrite.project.mapper.DocumentVersionRepository;
+import com.cowrite.project.model.entity.DocumentVersion;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class DocumentVersionStoreTest {
+
+    private static final int K = 5;
+
+    @Test
+    public void testKeyframeEveryKDeltas() {
+        List<DocumentVersion> versions = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        build(store(), 23, versions, contents);
+
+        for (DocumentVersion version : versions) {
+            int v = version.getVersion();
+            boolean keyframe = (v - 1) % (K + 1) == 0;
+            assertEquals(keyframe, version.getDelta() == null, "version " + v);
+            assertEquals(keyframe ? v : v - (v - 1) % (K + 1), (int) version.getKeyframeVersion());
+            assertEquals(contents.get(v - 1).length(), (int) version.getSize());
+        }
+    }
+
+    @Test
+    public void testReplayReconstructsEveryVersion() {
+        List<DocumentVersion> versions = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        build(store(), 23, versions, contents);
+
+        for (DocumentVersion version : versions) {
+            List<DocumentVersion> chain = new ArrayList<>(versions.subList(version.getKeyframeVersion() - 1, version.getVersion()));
+            assertTrue(chain.size() <= K + 1);
+            assertEquals(contents.get(version.getVersion() - 1), DocumentVersionStore.replay(chain, version.getVersion()));
+        }
+    }
+
+    @Test
+    public void testLargeRewriteStoredAsKeyframe() {
+        DocumentVersionStore store = store();
+        DocumentVersion first = version(1);
+        store.encode(first, null, null, "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        DocumentVersion second = version(2);
+        store.encode(second, first, "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", "completely different text of similar size");
+        assertNull(second.getDelta());
+        assertEquals(2, (int) second.getKeyframeVersion());
+    }
+
+    @Test
+    public void testBrokenChainDetected() {
+        List<DocumentVersion> versions = new ArrayList<>();
+        build(store(), 4, versions, new ArrayList<>());
+        versions.remove(1);
+        assertThrows(IllegalStateException.class, () -> DocumentVersionStore.replay(versions, 4));
+    }
+
+    @Test
+    public void testConcurrentAppendRetriesWithNextVersion() {
+        DocumentVersionRepository repository = mock(DocumentVersionRepository.class);
+        DocumentVersion first = version(1);
+        first.setContent("a");
+        DocumentVersion second = version(2);
+        second.setContent("ab");
+        // 读到 v1 后另一次保存写入了 v2
+        when(repository.findTopByDocumentIdOrderByVersionDesc(1L)).thenReturn(first, second);
+        when(repository.insert(any(DocumentVersion.class)))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        VersionStorageProperties props = new VersionStorageProperties();
+        ReflectionTestUtils.setField(props, "keyframeInterval", K);
+        ReflectionTestUtils.setField(props, "maxDeltaRatio", 0.5);
+
+        DocumentVersion saved = new DocumentVersionStore(repository, props, null).append(1L, "t", "abc", 3L, 7L, "5-0");
+        assertEquals(3, (int) saved.getVersion());
+        assertEquals(7L, saved.getRevision());
+        assertEquals("5-0", saved.getStreamId());
+        verify(repository, times(2)).insert(any(DocumentVersion.class));
+    }
+
+    private static void build(DocumentVersionStore store, int count, List<DocumentVersion> versions, List<String> contents) {
+        String content = "";
+        DocumentVersion previous = null;
+        for (int v = 1; v <= count; v++) {
+            String next = content + "第 " + v + " 段落：" + "内容 ".repeat(20) + "\n";
+            DocumentVersion version = version(v);
+            store.encode(version, previous, previous == null ? null : content, next);
+            versions.add(version);
+            contents.add(next);
+            previous = version;
+            content = next;
+        }
+    }
+
+    private static DocumentVersion version(int v) {
+        DocumentVersion version = new DocumentVersion();
+        version.setDocumentId(1L);
+        version.setVersion(v);
+        return version;
+    }
+
+    private static DocumentVersionStore store() {
+        VersionStorageProperties props = new VersionStorageProperties();
+        ReflectionTestUtils.setField(props, "keyframeInterval", K);
+        ReflectionTestUtils.setField(props, "maxDeltaRatio", 0.5);
+        return new DocumentVersionStore(null, props, null);
+    }
+}
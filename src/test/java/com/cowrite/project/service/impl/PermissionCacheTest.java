@@ -0,0 +1,138 @@
+package com.cowrite.project.service.impl;
+
+import com.cowrite.project.config.ClusterProperties;
+import com.cowrite.project.config.PermissionCacheProperties;
+import com.cowrite.project.model.entity.DocumentPermission;
+import com.cowrite.project.service.DocumentPermissionService;
+import com.cowrite.project.service.PermissionEvaluatorService.PermissionLevel;
+import com.cowrite.project.service.event.DocumentPermissionChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PermissionCacheTest {
+
+    private final DocumentPermissionService docPermService = mock(DocumentPermissionService.class);
+    private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hash = mock(HashOperations.class);
+    private final ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+
+    private PermissionCache cache;
+    private PermissionEvaluatorServiceImpl evaluator;
+
+    @BeforeEach
+    public void setUp() {
+        PermissionCacheProperties props = new PermissionCacheProperties();
+        ReflectionTestUtils.setField(props, "enabled", true);
+        ReflectionTestUtils.setField(props, "l1MaxSize", 1000L);
+        ReflectionTestUtils.setField(props, "l1TtlSeconds", 60L);
+        ReflectionTestUtils.setField(props, "l2TtlSeconds", 600L);
+        ReflectionTestUtils.setField(props, "redeleteDelayMillis", 0L);
+        ClusterProperties cluster = new ClusterProperties();
+        ReflectionTestUtils.setField(cluster, "nodeId", "node-a");
+        when(redis.<Object, Object>opsForHash()).thenReturn(hash);
+        cache = new PermissionCache(props, cluster, docPermService, redis, publisher, new SimpleMeterRegistry());
+        evaluator = new PermissionEvaluatorServiceImpl(cache);
+    }
+
+    @Test
+    public void testEditAndExportShareOneLookupUntilInvalidated() {
+        when(docPermService.getOne(any())).thenReturn(row(7L, "EDIT", false), row(7L, "VIEW", true));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(evaluator.canEdit("7", "42"));
+        }
+        assertFalse(evaluator.isExportDisabled("7", "42"));
+        verify(docPermService, times(1)).getOne(any());
+        verify(redis).execute(any(), eq(Collections.singletonList("cowrite:perm:42")), eq("600"), eq("7"), eq("0EDIT"));
+
+        cache.onPermissionChanged(new DocumentPermissionChangedEvent("42", "7"));
+        verify(hash).delete("cowrite:perm:42", "7");
+        verify(redis).convertAndSend(PermissionCache.INVALIDATE_CHANNEL, "node-a\n42\n7");
+        assertFalse(evaluator.canEdit("7", "42"));
+        assertTrue(evaluator.isExportDisabled("7", "42"));
+        verify(docPermService, times(2)).getOne(any());
+    }
+
+    @Test
+    public void testSharedTierIsReadBeforeDatabase() {
+        when(hash.get("cowrite:perm:42", "7")).thenReturn("1ADMIN");
+        when(hash.get("cowrite:perm:42", "8")).thenReturn("-");
+
+        assertTrue(evaluator.canAdmin("7", "42"));
+        assertTrue(evaluator.isExportDisabled("7", "42"));
+        assertEquals(PermissionLevel.VIEW, evaluator.permissionOf("8", "42"));
+        assertTrue(evaluator.isExportDisabled("8", "42"));
+        verifyNoInteractions(docPermService);
+    }
+
+    @Test
+    public void testBulkLookupLoadsOnlyMissingUsersOnce() {
+        when(docPermService.getOne(any())).thenReturn(row(1L, "ADMIN", false));
+        evaluator.canView("1", "42");
+        when(hash.multiGet(eq("cowrite:perm:42"), anyCollection())).thenReturn(Arrays.asList("0COMMENT", null, null));
+        when(docPermService.list(any())).thenReturn(Collections.singletonList(row(3L, "EDIT", false)));
+
+        Map<String, PermissionLevel> levels = evaluator.permissionsFor("42", Arrays.asList("1", "2", "3", "4", "3"));
+
+        assertEquals(4, levels.size());
+        assertEquals(PermissionLevel.ADMIN, levels.get("1"));
+        assertEquals(PermissionLevel.COMMENT, levels.get("2"));
+        assertEquals(PermissionLevel.EDIT, levels.get("3"));
+        assertEquals(PermissionLevel.VIEW, levels.get("4"));
+        verify(docPermService, times(1)).list(any());
+
+        evaluator.permissionsFor("42", Arrays.asList("2", "3", "4"));
+        verify(docPermService, times(1)).list(any());
+        verify(hash, times(1)).multiGet(any(), anyCollection());
+    }
+
+    @Test
+    public void testRemoteInvalidationEvictsLocalCopyAndNotifiesSessions() {
+        when(docPermService.getOne(any())).thenReturn(row(7L, "EDIT", false), row(7L, "COMMENT", false));
+        assertTrue(evaluator.canEdit("7", "42"));
+
+        // 自己发出的广播忽略
+        cache.onMessage(new DefaultMessage(PermissionCache.INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "node-a\n42\n".getBytes(StandardCharsets.UTF_8)), null);
+        assertTrue(evaluator.canEdit("7", "42"));
+        verifyNoInteractions(publisher);
+
+        cache.onMessage(new DefaultMessage(PermissionCache.INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "node-b\n42\n".getBytes(StandardCharsets.UTF_8)), null);
+        assertFalse(evaluator.canEdit("7", "42"));
+        assertTrue(evaluator.canComment("7", "42"));
+        ArgumentCaptor<DocumentPermissionChangedEvent> event = ArgumentCaptor.forClass(DocumentPermissionChangedEvent.class);
+        verify(publisher).publishEvent(event.capture());
+        assertEquals("42", event.getValue().getDocId());
+        assertNull(event.getValue().getUserId());
+        assertTrue(event.getValue().isPropagated());
+        // 其他节点的失效不再删除 Redis 或重复广播
+        verify(redis, never()).convertAndSend(any(), any());
+    }
+
+    private static DocumentPermission row(Long userId, String permission, boolean disableExport) {
+        DocumentPermission p = new DocumentPermission();
+        p.setDocumentId(42L);
+        p.setUserId(userId);
+        p.setPermission(permission);
+        p.setDisableExport(disableExport);
+        return p;
+    }
+}
@@ -0,0 +1,83 @@
+package com.cowrite.project.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TextDeltaTest {
+
+    @Test
+    public void testLocalEditIsSmall() {
+        String base = repeat("段落内容 paragraph ", 2000);
+        String target = base.substring(0, 10000) + "新增的一句话" + base.substring(10000);
+        String delta = TextDelta.encode(base, target);
+        assertEquals(target, TextDelta.apply(base, delta));
+        assertTrue(delta.length() < 40, delta);
+    }
+
+    @Test
+    public void testMovedBlockIsCopied() {
+        String a = randomText(new Random(1), 3000);
+        String b = randomText(new Random(2), 3000);
+        String c = randomText(new Random(3), 3000);
+        String base = a + b + c;
+        String target = c + "x" + a + b;
+        String delta = TextDelta.encode(base, target);
+        assertEquals(target, TextDelta.apply(base, delta));
+        assertTrue(delta.length() < 100, delta);
+    }
+
+    @Test
+    public void testRandomEditsRoundTrip() {
+        Random random = new Random(42);
+        String base = randomText(random, 5000);
+        for (int round = 0; round < 200; round++) {
+            StringBuilder target = new StringBuilder(base);
+            for (int edits = random.nextInt(5); edits >= 0; edits--) {
+                int pos = random.nextInt(target.length() + 1);
+                if (random.nextBoolean() && pos < target.length()) {
+                    target.delete(pos, Math.min(target.length(), pos + random.nextInt(50)));
+                } else {
+                    target.insert(pos, randomText(random, random.nextInt(40)));
+                }
+            }
+            String next = target.toString();
+            assertEquals(next, TextDelta.apply(base, TextDelta.encode(base, next)));
+            base = next;
+        }
+    }
+
+    @Test
+    public void testEdgeCases() {
+        assertEquals("", TextDelta.apply("", TextDelta.encode("", "")));
+        assertEquals("abc", TextDelta.apply("", TextDelta.encode("", "abc")));
+        assertEquals("", TextDelta.apply("abc", TextDelta.encode("abc", "")));
+        // 插入内容中出现指令字符
+        assertEquals("c1,2;i3:xyz", TextDelta.apply("q", TextDelta.encode("q", "c1,2;i3:xyz")));
+    }
+
+    @Test
+    public void testMalformedDeltaRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TextDelta.apply("abc", "c0,10;"));
+        assertThrows(IllegalArgumentException.class, () -> TextDelta.apply("abc", "i5:ab"));
+        assertThrows(IllegalArgumentException.class, () -> TextDelta.apply("abc", "z"));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s).append(i);
+        }
+        return sb.toString();
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
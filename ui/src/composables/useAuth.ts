@@ -1,6 +1,18 @@
 // src/composables/useAuth.ts
 import { reactive, computed } from 'vue'
 
+// 读取 JWT 载荷中的声明（不校验签名，校验由服务端完成）
+function tokenClaim(token: string | null, name: string): any {
+    const payload = token?.split('.')[1]
+    if (!payload) return null
+    try {
+        const json = atob(payload.replace(/-/g, '+').replace(/_/g, '/'))
+        return JSON.parse(json)[name] ?? null
+    } catch (e) {
+        return null
+    }
+}
+
 const state = reactive({
     token: localStorage.getItem('token'),
     userInfo: localStorage.getItem('userInfo') ? JSON.parse(localStorage.getItem('userInfo') as string) : null,
@@ -13,6 +25,12 @@ export const useAuth = () => {
     // 获取 userInfo
     const getUserInfo = computed(() => state.userInfo)
 
+    // 获取 token 中的用户 ID，协同编辑服务端握手时绑定的就是它
+    const getUserId = computed(() => {
+        const id = tokenClaim(state.token, 'id')
+        return id === null ? null : String(id)
+    })
+
     // 设置 token
     const setToken = (token: string) => {
         state.token = token
@@ -36,6 +54,7 @@ export const useAuth = () => {
     return {
         getToken,
         getUserInfo,
+        getUserId,
         setToken,
         setUserInfo,
         clearAuth,
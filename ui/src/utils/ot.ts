@@ -0,0 +1,239 @@
+// src/utils/ot.ts
+// 协同编辑的客户端 OT，与服务端 Transformer 的规则一致；协议与 OTConvergenceHarness 中的 Client 一一对应：
+// - 同一时刻最多一个已发送未确认的操作（outstanding），其余本地操作进入缓冲区（buffer）
+// - 收到服务端广播时，广播与 outstanding / buffer 双向变换，变换后的广播应用到编辑器
+// - 收到确认后以确认的版本号为基线发送下一个缓冲操作
+// - 缓冲区中的操作还没有发送、基线相同，连续输入 / 退格 / 向前删除在这里合并，确认后作为一个操作发送
+
+export type OpType = 'CONTENT_INSERT' | 'CONTENT_DELETE'
+
+export interface TextOp {
+  type: OpType
+  pos: number
+  content?: string
+  length?: number
+  userId: string
+}
+
+// 依次应用的多段操作；只有删除会被并发插入拆成多段，后一段的坐标基于前一段应用之后
+export type Parts = TextOp[]
+
+function isNoop(op: TextOp): boolean {
+  return op.type === 'CONTENT_INSERT' ? !op.content : (op.length ?? 0) <= 0
+}
+
+// 同位置插入的先后：userId 小者在前，userId 相同时服务端先应用者在前
+function insertsFirst(a: TextOp, b: TextOp): boolean {
+  return a.userId <= b.userId
+}
+
+// prevAppliedLater：prev 在服务端排在 op 之后（把远端操作变换到本地未确认操作之后）
+function transformPart(op: TextOp, prev: TextOp, prevAppliedLater: boolean): Parts {
+  if (isNoop(op) || isNoop(prev)) {
+    return [op]
+  }
+  const insLen = prev.content?.length ?? 0
+  const prevLen = prev.length ?? 0
+  if (op.type === 'CONTENT_INSERT') {
+    if (prev.type === 'CONTENT_INSERT') {
+      const prevFirst = prevAppliedLater ? !insertsFirst(op, prev) : insertsFirst(prev, op)
+      if (prev.pos < op.pos || (prev.pos === op.pos && prevFirst)) {
+        return [{ ...op, pos: op.pos + insLen }]
+      }
+      return [op]
+    }
+    if (op.pos <= prev.pos) {
+      return [op]
+    }
+    if (op.pos >= prev.pos + prevLen) {
+      return [{ ...op, pos: op.pos - prevLen }]
+    }
+    // 插入点落在被删除区间内部：保留插入，落在区间起点
+    return [{ ...op, pos: prev.pos }]
+  }
+  const start = op.pos
+  const end = op.pos + (op.length ?? 0)
+  if (prev.type === 'CONTENT_INSERT') {
+    if (prev.pos <= start) {
+      return [{ ...op, pos: op.pos + insLen }]
+    }
+    if (prev.pos < end) {
+      // 并发插入落在删除区间内部：删除拆成插入点前后两段，插入的内容保留
+      return [
+        { ...op, length: prev.pos - start },
+        { ...op, pos: start + insLen, length: end - prev.pos },
+      ]
+    }
+    return [op]
+  }
+  const from = mapThroughDelete(start, prev)
+  const to = mapThroughDelete(end, prev)
+  return [{ ...op, pos: from, length: to - from }]
+}
+
+function mapThroughDelete(x: number, prev: TextOp): number {
+  const start = prev.pos
+  const end = prev.pos + (prev.length ?? 0)
+  if (x <= start) return x
+  if (x >= end) return x - (prev.length ?? 0)
+  return start
+}
+
+function transformAgainst(op: Parts, prev: TextOp, prevAppliedLater: boolean): Parts {
+  if (op.length === 0) {
+    return op
+  }
+  if (op.length === 1) {
+    return transformPart(op[0], prev, prevAppliedLater).filter(p => !isNoop(p))
+  }
+  // 首段直接对 prev 变换，其余各段对“越过首段之后的 prev”变换
+  const [head, ...rest] = op
+  const prevAfterHead = transformPart(prev, head, false)
+  const headAfter = transformPart(head, prev, prevAppliedLater)
+  const restAfter = transform(rest, prevAfterHead, prevAppliedLater)
+  return [...headAfter, ...restAfter].filter(p => !isNoop(p))
+}
+
+// 将 op 变换为在 prev（可能多段）之后应用的形式
+export function transform(op: Parts, prev: Parts, prevAppliedLater = false): Parts {
+  let result = op
+  for (const part of prev) {
+    result = transformAgainst(result, part, prevAppliedLater)
+  }
+  return result
+}
+
+export function applyOps(text: string, ops: Parts): string {
+  let next = text
+  for (const op of ops) {
+    if (isNoop(op)) continue
+    const p = Math.max(0, Math.min(op.pos, next.length))
+    if (op.type === 'CONTENT_INSERT') {
+      next = next.slice(0, p) + (op.content ?? '') + next.slice(p)
+    } else {
+      next = next.slice(0, p) + next.slice(p + (op.length ?? 0))
+    }
+  }
+  return next
+}
+
+// 合并后插入内容 / 删除长度的上限，与服务端 cowrite.netty.coalesce.max-length 的默认值一致
+const MAX_MERGE_LENGTH = 512
+
+// 把紧接在 last 之后的本地操作 next 合并成一个操作，规则与服务端 OperationCoalescer.merge 一致：
+// 插入接在已合并内容之后、退格（删除区间紧贴在前）、向前删除（起点相同）；不可合并时返回 null
+export function mergeOps(last: TextOp, next: TextOp, maxLength = MAX_MERGE_LENGTH): TextOp | null {
+  if (last.type !== next.type || last.userId !== next.userId) {
+    return null
+  }
+  if (last.type === 'CONTENT_INSERT') {
+    const content = last.content ?? ''
+    const nextContent = next.content ?? ''
+    if (next.pos !== last.pos + content.length || content.length + nextContent.length > maxLength) {
+      return null
+    }
+    return { ...last, content: content + nextContent }
+  }
+  const length = last.length ?? 0
+  const nextLength = next.length ?? 0
+  if (length <= 0 || nextLength <= 0 || length + nextLength > maxLength) {
+    return null
+  }
+  if (next.pos + nextLength === last.pos) {
+    // 退格：删除区间向前延伸
+    return { ...last, pos: next.pos, length: length + nextLength }
+  }
+  if (next.pos === last.pos) {
+    // 向前删除：后面的字符依次移到同一位置
+    return { ...last, length: length + nextLength }
+  }
+  return null
+}
+
+export class OtClient {
+  // 已看到的服务端版本号，作为下一个发送操作的 baseRevision
+  revision: number
+  private outstanding: Parts | null = null
+  private buffer: TextOp[] = []
+
+  constructor(revision: number, private readonly send: (op: TextOp, baseRevision: number) => void) {
+    this.revision = revision
+  }
+
+  // 本地编辑（已应用到编辑器）；在途期间的连续编辑合并进缓冲区的最后一个操作
+  applyLocal(op: TextOp) {
+    if (isNoop(op)) return
+    if (this.outstanding === null) {
+      this.sendOp(op)
+      return
+    }
+    const last = this.buffer.length > 0 ? this.buffer[this.buffer.length - 1] : null
+    const merged = last === null ? null : mergeOps(last, op)
+    if (merged !== null) {
+      this.buffer[this.buffer.length - 1] = merged
+    } else {
+      this.buffer.push(op)
+    }
+  }
+
+  // 服务端广播的其他连接的操作，返回需要应用到编辑器的变换结果；已包含在当前内容中的旧广播返回空
+  applyRemote(remote: TextOp, revision: number): Parts {
+    if (revision <= this.revision) {
+      return []
+    }
+    let s: Parts = [remote]
+    if (this.outstanding !== null) {
+      const local = this.outstanding
+      this.outstanding = transform(local, s)
+      s = transform(s, local, true)
+    }
+    const buffered = this.buffer
+    this.buffer = []
+    for (const local of buffered) {
+      // 被拆开的删除按段逐个发送，后一段基于前一段
+      this.buffer.push(...transform([local], s))
+      s = transform(s, [local], true)
+    }
+    this.revision = revision
+    return s
+  }
+
+  // 自己的操作已被应用
+  ack(revision: number) {
+    this.outstanding = null
+    this.revision = Math.max(this.revision, revision)
+    const next = this.buffer.shift()
+    if (next) {
+      this.sendOp(next)
+    }
+  }
+
+  // 操作被拒绝（文档繁忙等），服务端没有应用：以最新的基线重新发送
+  retry() {
+    const parts = this.outstanding
+    this.outstanding = null
+    if (parts === null || parts.length === 0) {
+      const next = this.buffer.shift()
+      if (next) this.sendOp(next)
+      return
+    }
+    this.buffer.unshift(...parts.slice(1))
+    this.sendOp(parts[0])
+  }
+
+  // 按服务端快照整体替换后，丢弃未确认和缓冲的本地操作
+  reset(revision: number) {
+    this.revision = revision
+    this.outstanding = null
+    this.buffer = []
+  }
+
+  hasPending(): boolean {
+    return this.outstanding !== null
+  }
+
+  private sendOp(op: TextOp) {
+    this.outstanding = [op]
+    this.send(op, this.revision)
+  }
+}